@@ -0,0 +1,48 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.codeheadsystems.keystore.api;
+package com.codeheadsystems.keystore.api;
+
+import com.codahale.metrics.annotation.Timed;
+import java.util.List;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+
+/**
+ * Admin view of the capacity the datastore is consuming, so cost and hot partitions can be pinned on owners.
+ */
+@Path("/v1/admin/capacity")
+@Produces(MediaType.APPLICATION_JSON)
+@Consumes(MediaType.APPLICATION_JSON)
+public interface CapacityAdminService {
+
+  /**
+   * The owners that consumed the most capacity recently, heaviest first.
+   *
+   * @param limit the most owners to return.
+   * @return the owners.
+   */
+  @GET
+  @Timed
+  @Path("/owners")
+  List<OwnerCapacity> topOwners(@QueryParam("limit") @DefaultValue("10") int limit);
+
+}
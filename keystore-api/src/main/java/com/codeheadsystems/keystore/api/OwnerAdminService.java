@@ -0,0 +1,59 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.codeheadsystems.keystore.api;
+
+import com.codahale.metrics.annotation.Timed;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+/**
+ * Admin routines for owners. Owner deletion runs in the background, so the request only queues the work.
+ */
+@Path("/v1/admin/owner")
+@Produces(MediaType.APPLICATION_JSON)
+@Consumes(MediaType.APPLICATION_JSON)
+public interface OwnerAdminService {
+
+  /**
+   * Queues the deletion of the owner and all of their keys. If a deletion is already in progress for the owner,
+   * its status is returned instead.
+   *
+   * @param owner to delete.
+   * @return the response, accepted with the owner deletion status.
+   */
+  @POST
+  @Timed
+  @Path("/{owner}/deletion")
+  Response delete(@PathParam("owner") String owner);
+
+  /**
+   * The status of the owner deletion.
+   *
+   * @param owner being deleted.
+   * @return the status.
+   */
+  @GET
+  @Timed
+  @Path("/{owner}/deletion")
+  OwnerDeletionStatus deletionStatus(@PathParam("owner") String owner);
+
+}
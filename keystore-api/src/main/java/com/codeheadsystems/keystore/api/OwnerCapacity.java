@@ -0,0 +1,58 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.codeheadsystems.keystore.api;
+package com.codeheadsystems.keystore.api;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import org.immutables.value.Value;
+
+/**
+ * Capacity the datastore consumed on behalf of an owner, over the recent window.
+ */
+@Value.Immutable
+@JsonSerialize(as = ImmutableOwnerCapacity.class)
+@JsonDeserialize(builder = ImmutableOwnerCapacity.Builder.class)
+@JsonIgnoreProperties(ignoreUnknown = true)
+public interface OwnerCapacity {
+
+  /**
+   * Owner string.
+   *
+   * @return the string
+   */
+  @JsonProperty("owner")
+  String owner();
+
+  /**
+   * Read capacity units consumed.
+   *
+   * @return the double
+   */
+  @JsonProperty("readCapacityUnits")
+  double readCapacityUnits();
+
+  /**
+   * Write capacity units consumed.
+   *
+   * @return the double
+   */
+  @JsonProperty("writeCapacityUnits")
+  double writeCapacityUnits();
+
+}
@@ -0,0 +1,90 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.codeheadsystems.keystore.api;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import java.util.Optional;
+import org.immutables.value.Value;
+
+/**
+ * Progress of a background owner deletion, as seen by the client.
+ */
+@Value.Immutable
+@JsonSerialize(as = ImmutableOwnerDeletionStatus.class)
+@JsonDeserialize(builder = ImmutableOwnerDeletionStatus.Builder.class)
+@JsonIgnoreProperties(ignoreUnknown = true)
+public interface OwnerDeletionStatus {
+
+  /**
+   * Owner string.
+   *
+   * @return the string
+   */
+  @JsonProperty("owner")
+  String owner();
+
+  /**
+   * State of the job: queued, running, complete or failed.
+   *
+   * @return the string
+   */
+  @JsonProperty("state")
+  String state();
+
+  /**
+   * Number of keys deleted so far.
+   *
+   * @return the long
+   */
+  @JsonProperty("keysDeleted")
+  long keysDeleted();
+
+  /**
+   * Number of key versions deleted so far.
+   *
+   * @return the long
+   */
+  @JsonProperty("versionsDeleted")
+  long versionsDeleted();
+
+  /**
+   * When the job was queued, epoch millis.
+   *
+   * @return the long
+   */
+  @JsonProperty("created")
+  long created();
+
+  /**
+   * When the job last checkpointed, epoch millis.
+   *
+   * @return the long
+   */
+  @JsonProperty("updated")
+  long updated();
+
+  /**
+   * The error message if the job failed.
+   *
+   * @return the optional
+   */
+  @JsonProperty("error")
+  Optional<String> error();
+
+}
@@ -17,26 +17,36 @@
 package com.codeheadsystems.keystore.server.dao;
 
 import com.codeheadsystems.keystore.server.dao.casssandra.accessor.CassandraAccessor;
+import com.codeheadsystems.keystore.server.dao.casssandra.configuration.TableConfiguration;
 import com.codeheadsystems.keystore.server.dao.casssandra.converter.KeyConverter;
 import com.codeheadsystems.keystore.server.dao.casssandra.converter.OwnerConverter;
 import com.codeheadsystems.keystore.server.dao.casssandra.dagger.StatementModule;
 import com.codeheadsystems.keystore.server.dao.casssandra.manager.BoundStatementManager;
 import com.codeheadsystems.keystore.server.dao.model.Batch;
 import com.codeheadsystems.keystore.server.dao.model.ImmutableBatch;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableKeyVersionIdentifier;
 import com.codeheadsystems.keystore.server.dao.model.ImmutableOwnerIdentifier;
 import com.codeheadsystems.keystore.server.dao.model.Key;
 import com.codeheadsystems.keystore.server.dao.model.KeyIdentifier;
 import com.codeheadsystems.keystore.server.dao.model.KeyVersionIdentifier;
 import com.codeheadsystems.keystore.server.dao.model.OwnerIdentifier;
 import com.codeheadsystems.keystore.server.dao.model.Token;
+import com.codeheadsystems.keystore.server.exception.RetryableException;
 import com.codeheadsystems.metrics.Metrics;
 import com.datastax.oss.driver.api.core.cql.ResultSet;
 import com.datastax.oss.driver.api.core.cql.Row;
 import com.datastax.oss.driver.api.core.cql.Statement;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Timer;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import org.slf4j.Logger;
@@ -60,34 +70,49 @@ public class CassandraKeyDao implements KeyDao {
    * The constant MAX_TIMES_KEY_STORE.
    */
   public static final int MAX_TIMES_KEY_STORE = 5;
+  /**
+   * The constant MAX_TIMES_NEXT_VERSION, the lightweight transactions one next version may lose before failing.
+   */
+  public static final int MAX_TIMES_NEXT_VERSION = 25;
   private static final Logger LOGGER = LoggerFactory.getLogger(CassandraKeyDao.class);
   private final CassandraAccessor cassandraAccessor;
   private final Metrics metrics;
   private final BoundStatementManager binder;
   private final OwnerConverter ownerConverter;
   private final KeyConverter keyConverter;
+  private final TableConfiguration tableConfiguration;
+  private final Counter counterDeletedVersions;
+  private final Counter counterDeletedPartitions;
+  private final Counter counterNextVersionContention;
 
   /**
    * Default constructor.
    *
-   * @param cassandraAccessor to wrap downstream calls with retries.
-   * @param metrics           metrics for reporting.
-   * @param binder            binder for the prepared statements.
-   * @param ownerConverter    Owner converter.
-   * @param keyConverter      key convertor.
+   * @param cassandraAccessor  to wrap downstream calls with retries.
+   * @param metrics            metrics for reporting.
+   * @param binder             binder for the prepared statements.
+   * @param ownerConverter     Owner converter.
+   * @param keyConverter       key convertor.
+   * @param tableConfiguration for bulk settings.
    */
   @Inject
   public CassandraKeyDao(final CassandraAccessor cassandraAccessor,
                          final Metrics metrics,
                          final BoundStatementManager binder,
                          final OwnerConverter ownerConverter,
-                         final KeyConverter keyConverter) {
+                         final KeyConverter keyConverter,
+                         final TableConfiguration tableConfiguration) {
     LOGGER.info("CassandraKeyDAO({},{})", cassandraAccessor, metrics);
     this.binder = binder;
     this.cassandraAccessor = cassandraAccessor;
     this.metrics = metrics;
     this.ownerConverter = ownerConverter;
     this.keyConverter = keyConverter;
+    this.tableConfiguration = tableConfiguration;
+    final MeterRegistry registry = metrics.registry();
+    counterDeletedVersions = registry.counter(PREFIX + "deleted.versions");
+    counterDeletedPartitions = registry.counter(PREFIX + "deleted.partitions");
+    counterNextVersionContention = registry.counter(PREFIX + "nextVersion.contention");
   }
 
   private <T> T time(final String methodName,
@@ -114,6 +139,57 @@ public class CassandraKeyDao implements KeyDao {
     });
   }
 
+  /**
+   * Moves the counter row of the key with a lightweight transaction, then inserts the version if it does not
+   * exist, also a lightweight transaction. Versions stored explicitly do not move the counter, so the first swap
+   * already goes past the greatest stored version. A failed swap returns the current counter, and a version
+   * stored since then moves the counter past the greatest stored version again. Either counts as contention.
+   */
+  @Override
+  public Key storeNextVersion(final KeyIdentifier identifier,
+                              final Function<KeyVersionIdentifier, Key> factory) {
+    LOGGER.debug("storeNextVersion({})", identifier);
+    return time("storeNextVersion", identifier.owner(), () -> {
+      final ResultSet seed = cassandraAccessor.execute(binder.bind(StatementModule.VERSION_SEED_STMT, identifier));
+      long current = seed.wasApplied() ? 0L : seed.one().getLong(StatementModule.NEXT_VERSION);
+      long floor = greatestVersion(identifier);
+      for (int times = 1; ; times++) {
+        final long next = Math.max(current, floor) + 1;
+        final ResultSet swap = cassandraAccessor.execute(binder.bind(StatementModule.VERSION_SWAP_STMT,
+            new StatementModule.VersionSwap(identifier, current, next)));
+        if (swap.wasApplied()) {
+          current = next;
+          final Key key = factory.apply(ImmutableKeyVersionIdentifier.builder()
+              .owner(identifier.owner())
+              .key(identifier.key())
+              .version(next)
+              .build());
+          if (cassandraAccessor.execute(binder.bind(StatementModule.KEY_STORE_IF_ABSENT_STMT, key)).wasApplied()) {
+            if (key.active()) {
+              cassandraAccessor.execute(binder.bind(StatementModule.KEY_STORE_ACTIVE_STMT, key));
+            }
+            cassandraAccessor.execute(binder.bind(StatementModule.OWNER_STORE_KEY_STMT, key));
+            return key;
+          }
+          floor = greatestVersion(identifier);
+        } else {
+          current = swap.one().getLong(StatementModule.NEXT_VERSION);
+        }
+        counterNextVersionContention.increment();
+        if (times >= MAX_TIMES_NEXT_VERSION) {
+          throw new RetryableException("Unable to store the next version of " + identifier + " after " + times
+              + " attempts");
+        }
+      }
+    });
+  }
+
+  private long greatestVersion(final KeyIdentifier identifier) {
+    final Row greatest = cassandraAccessor
+        .execute(binder.bind(StatementModule.KEY_GREATEST_VERSION_STMT, identifier)).one();
+    return greatest == null ? 0L : greatest.getLong("version");
+  }
+
   @Override
   public OwnerIdentifier storeOwner(final String owner) {
     LOGGER.debug("storeOwner({})", owner);
@@ -227,19 +303,54 @@ public class CassandraKeyDao implements KeyDao {
     });
   }
 
+  /**
+   * Deletes the key partition in the keys, active keys and versions tables, and removes the key from the owner.
+   * The versions are counted first (identifiers only) so we can report what was removed. Each delete is a
+   * single partition tombstone, regardless of how many versions exist.
+   */
   @Override
   public boolean delete(final KeyIdentifier identifier) {
     LOGGER.debug("delete({})", identifier);
     return time("deleteKey", identifier.owner(), () -> {
-      return false;
+      long versions = 0;
+      for (Row ignored : cassandraAccessor.execute(binder.bind(StatementModule.KEY_LIST_VERSION_STMT, identifier))) {
+        versions++;
+      }
+      cassandraAccessor.execute(binder.bind(StatementModule.KEY_DELETE_STMT, identifier));
+      cassandraAccessor.execute(binder.bind(StatementModule.KEY_DELETE_ALL_ACTIVE_STMT, identifier));
+      cassandraAccessor.execute(binder.bind(StatementModule.VERSION_DELETE_STMT, identifier));
+      cassandraAccessor.execute(binder.bind(StatementModule.OWNER_DELETE_KEY_STMT, identifier));
+      counterDeletedVersions.increment(versions);
+      counterDeletedPartitions.increment(3);
+      LOGGER.debug("delete({}): versions:{}", identifier, versions);
+      return versions > 0;
     });
   }
 
+  /**
+   * Pages through the keys of the owner, issuing partition deletes for each key with bounded concurrency,
+   * then deletes the owner partition itself.
+   */
   @Override
   public boolean delete(final OwnerIdentifier identifier) {
     LOGGER.debug("delete({})", identifier);
     return time("deleteOwner", identifier.owner(), () -> {
-      return false;
+      final ResultSet resultSet = cassandraAccessor.execute(binder.bind(StatementModule.KEY_LIST_STMT, identifier));
+      final AtomicLong rows = new AtomicLong();
+      final Iterator<Statement<?>> statements = StreamSupport.stream(resultSet.spliterator(), false)
+          .peek(row -> rows.incrementAndGet())
+          .map(ownerConverter::toKeyIdentifier)
+          .filter(ki -> !ki.key().equals(StatementModule.DETAILS))
+          .flatMap(ki -> Stream.<Statement<?>>of(
+              binder.bind(StatementModule.KEY_DELETE_STMT, ki),
+              binder.bind(StatementModule.KEY_DELETE_ALL_ACTIVE_STMT, ki),
+              binder.bind(StatementModule.VERSION_DELETE_STMT, ki)))
+          .iterator();
+      final long partitions = cassandraAccessor.executeConcurrently(statements, tableConfiguration.bulkConcurrency());
+      cassandraAccessor.execute(binder.bind(StatementModule.OWNER_DELETE_STMT, identifier));
+      counterDeletedPartitions.increment(partitions + 1);
+      LOGGER.debug("delete({}): rows:{} partitions:{}", identifier, rows.get(), partitions + 1);
+      return rows.get() > 0;
     });
   }
 }
@@ -17,12 +17,28 @@
 package com.codeheadsystems.keystore.server.dao.casssandra.accessor;
 
 import com.codeheadsystems.keystore.server.dao.casssandra.dagger.CassandraModule;
+import com.codeheadsystems.keystore.server.exception.DependencyException;
+import com.codeheadsystems.keystore.server.exception.RetryableException;
 import com.codeheadsystems.metrics.Metrics;
 import com.datastax.oss.driver.api.core.CqlSession;
+import com.datastax.oss.driver.api.core.DriverTimeoutException;
+import com.datastax.oss.driver.api.core.cql.AsyncResultSet;
 import com.datastax.oss.driver.api.core.cql.ResultSet;
 import com.datastax.oss.driver.api.core.cql.Statement;
+import com.datastax.oss.driver.api.core.servererrors.OverloadedException;
+import com.datastax.oss.driver.api.core.servererrors.ReadTimeoutException;
+import com.datastax.oss.driver.api.core.servererrors.UnavailableException;
+import com.datastax.oss.driver.api.core.servererrors.WriteTimeoutException;
 import io.github.resilience4j.retry.Retry;
 import io.micrometer.core.instrument.Timer;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Function;
 import java.util.function.Supplier;
 import javax.inject.Inject;
@@ -39,9 +55,12 @@ public class CassandraAccessor {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(CassandraAccessor.class);
   private static final String EXECUTE_STATEMENT = "executeStatement";
+  private static final String EXECUTE_CONCURRENTLY = "executeConcurrently";
 
   private final CqlSession session;
   private final Metrics metrics;
+  private final Retry retry;
+  private final ScheduledExecutorService scheduler;
 
   private final Function<Statement<?>, ResultSet> executeStatement;
 
@@ -50,15 +69,19 @@ public class CassandraAccessor {
    *
    * @param session the base CQL Session.
    * @param metrics for reporting.
-   * @param retry   retry policy.
+   * @param retry     retry policy.
+   * @param scheduler to wait between retries of concurrent statements on.
    */
   @Inject
   public CassandraAccessor(final CqlSession session,
                            final Metrics metrics,
-                           @Named(CassandraModule.CASSANDRA_RETRY) final Retry retry) {
+                           @Named(CassandraModule.CASSANDRA_RETRY) final Retry retry,
+                           @Named(CassandraModule.CASSANDRA_RETRY_SCHEDULER) final ScheduledExecutorService scheduler) {
     LOGGER.info("CassandraAccessor({},{},{})", session, metrics, retry);
     this.session = session;
     this.metrics = metrics;
+    this.retry = retry;
+    this.scheduler = scheduler;
     this.executeStatement = Retry.decorateFunction(retry,                  // retries
         (request) -> call(EXECUTE_STATEMENT,     // exception check and metrics
             () -> session.execute(request))); // the actual function
@@ -74,6 +97,72 @@ public class CassandraAccessor {
     return executeStatement.apply(statement);
   }
 
+  /**
+   * Executes the statements asynchronously, with no more than maxInFlight outstanding at any time. The iterator
+   * is consumed lazily so callers can page through large result sets without holding them in memory.
+   * Each statement is retried on its own with the retry policy, when it fails with a timeout or an unavailable or
+   * overloaded coordinator, so the statements must be idempotent. Stops issuing new statements after the first
+   * failure that is not retried (or runs out of retries), waits for the in-flight ones, and then throws.
+   *
+   * @param statements  to execute.
+   * @param maxInFlight how many can be outstanding at once.
+   * @return the number of statements executed.
+   */
+  public long executeConcurrently(final Iterator<? extends Statement<?>> statements,
+                                  final int maxInFlight) {
+    final Timer timer = metrics.registry().timer(EXECUTE_CONCURRENTLY);
+    final Semaphore semaphore = new Semaphore(maxInFlight);
+    final AtomicReference<Throwable> failure = new AtomicReference<>();
+    long count = 0;
+    while (failure.get() == null && statements.hasNext()) {
+      final Statement<?> statement = statements.next();
+      semaphore.acquireUninterruptibly();
+      final long start = System.nanoTime();
+      Retry.decorateCompletionStage(retry, scheduler, () -> executeAsync(statement)).get().whenComplete(
+          (resultSet, throwable) -> {
+            timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            if (throwable != null) {
+              failure.compareAndSet(null, throwable);
+            }
+            semaphore.release();
+          });
+      count++;
+    }
+    semaphore.acquireUninterruptibly(maxInFlight); // wait for everything in flight to finish.
+    semaphore.release(maxInFlight);
+    if (failure.get() != null) {
+      throw new DependencyException("Failed executing statements after " + count, failure.get());
+    }
+    return count;
+  }
+
+  /**
+   * Executes the statement, failing with a retryable exception when the failure is transient.
+   *
+   * @param statement to execute.
+   * @return the result.
+   */
+  private CompletionStage<AsyncResultSet> executeAsync(final Statement<?> statement) {
+    final CompletableFuture<AsyncResultSet> result = new CompletableFuture<>();
+    session.executeAsync(statement).whenComplete((resultSet, throwable) -> {
+      if (throwable == null) {
+        result.complete(resultSet);
+        return;
+      }
+      final Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null
+          ? throwable.getCause() : throwable;
+      result.completeExceptionally(isTransient(cause) ? new RetryableException(cause) : cause);
+    });
+    return result;
+  }
+
+  private boolean isTransient(final Throwable throwable) {
+    return throwable instanceof DriverTimeoutException
+        || throwable instanceof ReadTimeoutException
+        || throwable instanceof WriteTimeoutException
+        || throwable instanceof UnavailableException
+        || throwable instanceof OverloadedException;
+  }
 
   private <T> T call(final String metricName,
                      final Supplier<T> supplier) {
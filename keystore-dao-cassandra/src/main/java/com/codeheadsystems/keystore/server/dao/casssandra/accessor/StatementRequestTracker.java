@@ -0,0 +1,182 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.server.dao.casssandra.accessor;
+
+import com.codeheadsystems.keystore.server.dao.casssandra.configuration.TableConfiguration;
+import com.codeheadsystems.keystore.server.dao.casssandra.manager.StatementBinder;
+import com.codeheadsystems.metrics.Metrics;
+import com.datastax.oss.driver.api.core.config.DriverExecutionProfile;
+import com.datastax.oss.driver.api.core.cql.BoundStatement;
+import com.datastax.oss.driver.api.core.cql.SimpleStatement;
+import com.datastax.oss.driver.api.core.metadata.Node;
+import com.datastax.oss.driver.api.core.session.Request;
+import com.datastax.oss.driver.api.core.tracker.RequestTracker;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tracks every request the driver makes, tagged by the statement module key that created it. The end-to-end
+ * latency (which includes client side queueing and retries) and the per-node latency (the coordinator) are
+ * recorded separately, and anything slower than the configured threshold is logged. Bound values are never
+ * logged since they contain key material.
+ */
+@Singleton
+public class StatementRequestTracker implements RequestTracker {
+
+  /**
+   * The constant REQUEST_METRIC, end-to-end latency as seen by the client.
+   */
+  public static final String REQUEST_METRIC = "cassandra.request";
+  /**
+   * The constant NODE_REQUEST_METRIC, latency of a single attempt against a coordinator.
+   */
+  public static final String NODE_REQUEST_METRIC = "cassandra.node.request";
+  /**
+   * The constant STATEMENT tag.
+   */
+  public static final String STATEMENT = "statement";
+  /**
+   * The constant OUTCOME tag.
+   */
+  public static final String OUTCOME = "outcome";
+  /**
+   * The constant UNKNOWN, used when the statement did not come from the statement module.
+   */
+  public static final String UNKNOWN = "unknown";
+  private static final Logger LOGGER = LoggerFactory.getLogger(StatementRequestTracker.class);
+
+  private final Map<String, String> statementKeys;
+  private final Metrics metrics;
+  private final long thresholdNanos;
+
+  /**
+   * Default constructor.
+   *
+   * @param statements         the statements from the statement module, so we can map cql back to the key.
+   * @param tableConfiguration for the slow query threshold.
+   * @param metrics            for reporting.
+   */
+  @Inject
+  public StatementRequestTracker(final Map<String, StatementBinder.Builder<?>> statements,
+                                 final TableConfiguration tableConfiguration,
+                                 final Metrics metrics) {
+    LOGGER.info("StatementRequestTracker({})", tableConfiguration.slowQueryThresholdMillis());
+    this.statementKeys = statementKeys(statements);
+    this.metrics = metrics;
+    this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(tableConfiguration.slowQueryThresholdMillis());
+  }
+
+  /**
+   * Maps the cql of each statement back to its key. Requests only carry the cql, so two statements with the same
+   * text cannot be told apart, and the timers and slow query logs would blame one for the other.
+   *
+   * @param statements from the statement module.
+   * @return the keys by cql.
+   * @throws IllegalStateException if two statements share their cql.
+   */
+  private static Map<String, String> statementKeys(final Map<String, StatementBinder.Builder<?>> statements) {
+    final Map<String, String> keys = new HashMap<>();
+    statements.forEach((key, builder) -> {
+      final String existing = keys.putIfAbsent(builder.cqlStatement(), key);
+      if (existing != null) {
+        throw new IllegalStateException("Statements " + existing + " and " + key + " have the same cql: "
+            + builder.cqlStatement());
+      }
+    });
+    return Map.copyOf(keys);
+  }
+
+  /**
+   * Finds the statement module key for the request.
+   *
+   * @param request from the driver.
+   * @return the key, or unknown.
+   */
+  public String statementKey(final Request request) {
+    final String query;
+    if (request instanceof BoundStatement boundStatement) {
+      query = boundStatement.getPreparedStatement().getQuery();
+    } else if (request instanceof SimpleStatement simpleStatement) {
+      query = simpleStatement.getQuery();
+    } else {
+      return UNKNOWN;
+    }
+    return statementKeys.getOrDefault(query, UNKNOWN);
+  }
+
+  @Override
+  public void onSuccess(final Request request,
+                        final long latencyNanos,
+                        final DriverExecutionProfile executionProfile,
+                        final Node node,
+                        final String requestLogPrefix) {
+    record(REQUEST_METRIC, request, latencyNanos, node, "success");
+  }
+
+  @Override
+  public void onError(final Request request,
+                      final Throwable error,
+                      final long latencyNanos,
+                      final DriverExecutionProfile executionProfile,
+                      final Node node,
+                      final String requestLogPrefix) {
+    record(REQUEST_METRIC, request, latencyNanos, node, error.getClass().getSimpleName());
+  }
+
+  @Override
+  public void onNodeSuccess(final Request request,
+                            final long latencyNanos,
+                            final DriverExecutionProfile executionProfile,
+                            final Node node,
+                            final String requestLogPrefix) {
+    record(NODE_REQUEST_METRIC, request, latencyNanos, node, "success");
+  }
+
+  @Override
+  public void onNodeError(final Request request,
+                          final Throwable error,
+                          final long latencyNanos,
+                          final DriverExecutionProfile executionProfile,
+                          final Node node,
+                          final String requestLogPrefix) {
+    record(NODE_REQUEST_METRIC, request, latencyNanos, node, error.getClass().getSimpleName());
+  }
+
+  @Override
+  public void close() {
+    LOGGER.info("close()");
+  }
+
+  private void record(final String metricName,
+                      final Request request,
+                      final long latencyNanos,
+                      final Node node,
+                      final String outcome) {
+    final String statement = statementKey(request);
+    metrics.registry().timer(metricName, STATEMENT, statement, OUTCOME, outcome)
+        .record(latencyNanos, TimeUnit.NANOSECONDS);
+    if (latencyNanos >= thresholdNanos) {
+      LOGGER.warn("Slow {} [{}] {}ms node:{} outcome:{}", metricName, statement,
+          TimeUnit.NANOSECONDS.toMillis(latencyNanos), (node == null ? null : node.getEndPoint()), outcome);
+    }
+  }
+}
@@ -16,6 +16,8 @@
 
 package com.codeheadsystems.keystore.server.dao.casssandra.configuration;
 
+import com.codeheadsystems.keystore.server.dao.model.ImmutableRetentionPolicies;
+import com.codeheadsystems.keystore.server.dao.model.RetentionPolicies;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
@@ -75,4 +77,49 @@ public interface TableConfiguration {
     return "active_keys";
   }
 
+  /**
+   * The table of the next version counter of each key, only changed with lightweight transactions.
+   *
+   * @return the string
+   */
+  @Value.Default
+  @JsonProperty("versionsTable")
+  default String versionsTable() {
+    return "key_versions";
+  }
+
+  /**
+   * The retention of key versions. Inactive versions that expire under it are written with a ttl, so cassandra
+   * drops them on its own.
+   *
+   * @return the policies.
+   */
+  @Value.Default
+  @JsonProperty("retention")
+  default RetentionPolicies retention() {
+    return ImmutableRetentionPolicies.builder().build();
+  }
+
+  /**
+   * Statements that take longer than this are logged by the request tracker.
+   *
+   * @return the threshold in milliseconds.
+   */
+  @Value.Default
+  @JsonProperty("slowQueryThresholdMillis")
+  default long slowQueryThresholdMillis() {
+    return 500L;
+  }
+
+  /**
+   * How many statements may be in flight at once for bulk operations, like deleting an owner.
+   *
+   * @return the max in flight.
+   */
+  @Value.Default
+  @JsonProperty("bulkConcurrency")
+  default int bulkConcurrency() {
+    return 32;
+  }
+
 }
@@ -32,6 +32,8 @@ import io.github.resilience4j.retry.Retry;
 import io.github.resilience4j.retry.RetryConfig;
 import io.github.resilience4j.retry.RetryRegistry;
 import java.time.Clock;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import javax.inject.Named;
 import javax.inject.Singleton;
 
@@ -50,6 +52,10 @@ public class CassandraModule {
    * The constant CASSANDRA_RETRY.
    */
   public static final String CASSANDRA_RETRY = "CASSANDRA_RETRY";
+  /**
+   * The constant CASSANDRA_RETRY_SCHEDULER.
+   */
+  public static final String CASSANDRA_RETRY_SCHEDULER = "CASSANDRA_RETRY_SCHEDULER";
 
   private final TableConfiguration tableConfiguration;
 
@@ -102,6 +108,22 @@ public class CassandraModule {
     return registry.retry(CASSANDRA_RETRY);
   }
 
+  /**
+   * Provides the scheduler concurrent statements wait between retries on, so no thread blocks while waiting.
+   *
+   * @return the scheduler.
+   */
+  @Named(CASSANDRA_RETRY_SCHEDULER)
+  @Provides
+  @Singleton
+  public ScheduledExecutorService retryScheduler() {
+    return Executors.newSingleThreadScheduledExecutor(runnable -> {
+      final Thread thread = new Thread(runnable, "cassandra-retry");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
   /**
    * Clock clock.
    *
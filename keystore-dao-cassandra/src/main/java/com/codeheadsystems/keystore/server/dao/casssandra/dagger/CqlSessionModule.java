@@ -16,9 +16,17 @@
 
 package com.codeheadsystems.keystore.server.dao.casssandra.dagger;
 
+import com.codeheadsystems.keystore.server.dao.casssandra.accessor.StatementRequestTracker;
 import com.codeheadsystems.keystore.server.dao.casssandra.configuration.TableConfiguration;
+import com.codeheadsystems.metrics.Metrics;
 import com.datastax.oss.driver.api.core.CqlSession;
 import com.datastax.oss.driver.api.core.CqlSessionBuilder;
+import com.datastax.oss.driver.api.core.config.DefaultDriverOption;
+import com.datastax.oss.driver.api.core.config.DriverConfigLoader;
+import com.datastax.oss.driver.api.core.metrics.DefaultNodeMetric;
+import com.datastax.oss.driver.api.core.metrics.DefaultSessionMetric;
+import com.datastax.oss.driver.api.core.metrics.NodeMetric;
+import com.datastax.oss.driver.api.core.metrics.SessionMetric;
 import com.datastax.oss.driver.api.core.type.codec.ExtraTypeCodecs;
 import com.datastax.oss.driver.api.core.type.codec.TypeCodec;
 import com.datastax.oss.driver.api.core.type.codec.TypeCodecs;
@@ -26,6 +34,7 @@ import dagger.Module;
 import dagger.Provides;
 import dagger.multibindings.IntoSet;
 import java.net.InetSocketAddress;
+import java.util.List;
 import java.util.Set;
 import javax.inject.Singleton;
 
@@ -39,6 +48,45 @@ public class CqlSessionModule {
    * The constant DATACENTER.
    */
   public static final String DATACENTER = "datacenter1";
+  /**
+   * The constant METRICS_PREFIX, prefix for all driver metrics in the registry.
+   */
+  public static final String METRICS_PREFIX = "cassandra.driver";
+
+  /**
+   * Session level driver metrics we bridge into micrometer.
+   */
+  public static final List<SessionMetric> SESSION_METRICS = List.of(
+      DefaultSessionMetric.CONNECTED_NODES,
+      DefaultSessionMetric.CQL_REQUESTS,
+      DefaultSessionMetric.CQL_CLIENT_TIMEOUTS,
+      DefaultSessionMetric.BYTES_SENT,
+      DefaultSessionMetric.BYTES_RECEIVED,
+      DefaultSessionMetric.THROTTLING_DELAY,
+      DefaultSessionMetric.THROTTLING_QUEUE_SIZE);
+
+  /**
+   * Node level driver metrics we bridge into micrometer. Pool usage, in-flight, retries, speculative
+   * executions and the per-node cql latency.
+   */
+  public static final List<NodeMetric> NODE_METRICS = List.of(
+      DefaultNodeMetric.OPEN_CONNECTIONS,
+      DefaultNodeMetric.AVAILABLE_STREAMS,
+      DefaultNodeMetric.IN_FLIGHT,
+      DefaultNodeMetric.ORPHANED_STREAMS,
+      DefaultNodeMetric.CQL_MESSAGES,
+      DefaultNodeMetric.RETRIES,
+      DefaultNodeMetric.RETRIES_ON_READ_TIMEOUT,
+      DefaultNodeMetric.RETRIES_ON_WRITE_TIMEOUT,
+      DefaultNodeMetric.RETRIES_ON_UNAVAILABLE,
+      DefaultNodeMetric.RETRIES_ON_OTHER_ERROR,
+      DefaultNodeMetric.SPECULATIVE_EXECUTIONS,
+      DefaultNodeMetric.UNSENT_REQUESTS,
+      DefaultNodeMetric.ABORTED_REQUESTS,
+      DefaultNodeMetric.READ_TIMEOUTS,
+      DefaultNodeMetric.WRITE_TIMEOUTS,
+      DefaultNodeMetric.UNAVAILABLES,
+      DefaultNodeMetric.OTHER_ERRORS);
 
   private final String localDataCenter;
   private final InetSocketAddress[] addresses;
@@ -88,20 +136,49 @@ public class CqlSessionModule {
     return ExtraTypeCodecs.BLOB_TO_ARRAY;
   }
 
+  /**
+   * The driver configuration. Enables the driver metrics and has them reported through micrometer,
+   * tagged by node rather than having the node embedded in the metric name.
+   *
+   * @return the config loader.
+   */
+  @Provides
+  @Singleton
+  public DriverConfigLoader driverConfigLoader() {
+    return DriverConfigLoader.programmaticBuilder()
+        .withString(DefaultDriverOption.METRICS_FACTORY_CLASS, "MicrometerMetricsFactory")
+        .withString(DefaultDriverOption.METRICS_ID_GENERATOR_CLASS, "TaggingMetricIdGenerator")
+        .withString(DefaultDriverOption.METRICS_ID_GENERATOR_PREFIX, METRICS_PREFIX)
+        .withStringList(DefaultDriverOption.METRICS_SESSION_ENABLED,
+            SESSION_METRICS.stream().map(SessionMetric::getPath).toList())
+        .withStringList(DefaultDriverOption.METRICS_NODE_ENABLED,
+            NODE_METRICS.stream().map(NodeMetric::getPath).toList())
+        .build();
+  }
+
   /**
    * The CQL session builder.
    *
    * @param codecs             codecs for conversion.
    * @param tableConfiguration cassandra configuration.
+   * @param configLoader       driver configuration.
+   * @param metrics            the registry the driver metrics are bridged into.
+   * @param requestTracker     tracks slow statements.
    * @return an instance.
    */
   @Provides
   @Singleton
   public CqlSession cqlSession(final Set<TypeCodec<?>> codecs,
-                               final TableConfiguration tableConfiguration) {
+                               final TableConfiguration tableConfiguration,
+                               final DriverConfigLoader configLoader,
+                               final Metrics metrics,
+                               final StatementRequestTracker requestTracker) {
     TypeCodec<?>[] codecsArray = new TypeCodec[codecs.size()];
     codecsArray = codecs.toArray(codecsArray);
     final CqlSessionBuilder builder = CqlSession.builder()
+        .withConfigLoader(configLoader)
+        .withMetricRegistry(metrics.registry())
+        .withRequestTracker(requestTracker)
         .addTypeCodecs(codecsArray)
         .withKeyspace(tableConfiguration.keyspace())
         .withLocalDatacenter(localDataCenter);
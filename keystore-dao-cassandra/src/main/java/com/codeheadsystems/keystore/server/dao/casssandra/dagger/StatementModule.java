@@ -19,6 +19,7 @@ package com.codeheadsystems.keystore.server.dao.casssandra.dagger;
 import com.codeheadsystems.keystore.server.dao.casssandra.configuration.TableConfiguration;
 import com.codeheadsystems.keystore.server.dao.casssandra.manager.StatementBinder;
 import com.codeheadsystems.keystore.server.dao.casssandra.manager.TimestampManager;
+import com.codeheadsystems.keystore.server.dao.casssandra.manager.TtlManager;
 import com.codeheadsystems.keystore.server.dao.model.Key;
 import com.codeheadsystems.keystore.server.dao.model.KeyIdentifier;
 import com.codeheadsystems.keystore.server.dao.model.KeyVersionIdentifier;
@@ -71,6 +72,22 @@ public class StatementModule {
    * The constant KEY_DELETE_VERSION_STMT.
    */
   public static final String KEY_DELETE_VERSION_STMT = "key.delete.version";
+  /**
+   * The constant KEY_DELETE_STMT. Deletes the whole key partition.
+   */
+  public static final String KEY_DELETE_STMT = "key.delete";
+  /**
+   * The constant KEY_DELETE_ALL_ACTIVE_STMT. Deletes the whole active key partition.
+   */
+  public static final String KEY_DELETE_ALL_ACTIVE_STMT = "key.delete.all.active";
+  /**
+   * The constant OWNER_DELETE_KEY_STMT.
+   */
+  public static final String OWNER_DELETE_KEY_STMT = "owner.delete.key";
+  /**
+   * The constant OWNER_DELETE_STMT. Deletes the whole owner partition.
+   */
+  public static final String OWNER_DELETE_STMT = "owner.delete";
   /**
    * The constant KEY_LOAD_VERSION_STMT.
    */
@@ -83,6 +100,10 @@ public class StatementModule {
    * The constant KEY_LIST_VERSION_STMT.
    */
   public static final String KEY_LIST_VERSION_STMT = "key.list.version";
+  /**
+   * The constant KEY_GREATEST_VERSION_STMT.
+   */
+  public static final String KEY_GREATEST_VERSION_STMT = "key.greatest.version";
   /**
    * The constant KEY_LIST_STMT.
    */
@@ -91,6 +112,26 @@ public class StatementModule {
    * The constant OWNER_LIST_STMT.
    */
   public static final String OWNER_LIST_STMT = "owner.list";
+  /**
+   * The constant KEY_STORE_IF_ABSENT_STMT. A lightweight transaction.
+   */
+  public static final String KEY_STORE_IF_ABSENT_STMT = "key.store.if.absent";
+  /**
+   * The constant VERSION_SEED_STMT. A lightweight transaction.
+   */
+  public static final String VERSION_SEED_STMT = "version.seed";
+  /**
+   * The constant VERSION_SWAP_STMT. A lightweight transaction.
+   */
+  public static final String VERSION_SWAP_STMT = "version.swap";
+  /**
+   * The constant VERSION_DELETE_STMT.
+   */
+  public static final String VERSION_DELETE_STMT = "version.delete";
+  /**
+   * The constant NEXT_VERSION, the column of the version counter.
+   */
+  public static final String NEXT_VERSION = "next_version";
 
   /**
    * Prepared statement: store owners.
@@ -163,9 +204,9 @@ public class StatementModule {
   @Singleton
   @StringKey(OWNER_LOAD_KEY_STMT)
   public StatementBinder.Builder<?> ownerLoadKey(final TableConfiguration tableConfiguration) {
-    final String baseSelect = "select * from %s.%s where owner = ? and lookup = '%s'";
+    final String baseSelect = "select * from %s.%s where owner = ? and lookup = ?";
     final String select = String.format(baseSelect,
-        tableConfiguration.keyspace(), tableConfiguration.ownersTable(), DETAILS);
+        tableConfiguration.keyspace(), tableConfiguration.ownersTable());
     return StatementBinder.<KeyIdentifier>builder()
         .with(select).with((identifier) -> new Object[]{identifier.owner(), identifier.key()});
   }
@@ -219,7 +260,27 @@ public class StatementModule {
   @Singleton
   @StringKey(KEY_LIST_VERSION_STMT)
   public StatementBinder.Builder<?> keyListVersions(final TableConfiguration tableConfiguration) {
-    final String baseSelect = "select * from %s.%s where owner = ? and key_name = ? order by version desc";
+    final String baseSelect = "select owner, key_name, version from %s.%s where owner = ? and key_name = ? "
+        + "order by version desc";
+    final String select = String.format(baseSelect,
+        tableConfiguration.keyspace(), tableConfiguration.keysTable());
+    return StatementBinder.<KeyIdentifier>builder()
+        .with(select).with((identifier) -> new Object[]{identifier.owner(), identifier.key()});
+  }
+
+  /**
+   * Prepared Statement: the greatest stored version of the key, one row off the clustering order.
+   *
+   * @param tableConfiguration table configuration.
+   * @return statement binder.
+   */
+  @IntoMap
+  @Provides
+  @Singleton
+  @StringKey(KEY_GREATEST_VERSION_STMT)
+  public StatementBinder.Builder<?> keyGreatestVersion(final TableConfiguration tableConfiguration) {
+    final String baseSelect = "select version from %s.%s where owner = ? and key_name = ? "
+        + "order by version desc limit 1";
     final String select = String.format(baseSelect,
         tableConfiguration.keyspace(), tableConfiguration.keysTable());
     return StatementBinder.<KeyIdentifier>builder()
@@ -263,9 +324,10 @@ public class StatementModule {
 
 
   /**
-   * Prepared statement: store the keys.
+   * Prepared statement: store the keys. Versions that expire under the retention policy get a ttl.
    *
    * @param timestampManager   for managing times.
+   * @param ttlManager         for the ttl of the version.
    * @param tableConfiguration table configuration.
    * @return statement binder.
    */
@@ -274,18 +336,20 @@ public class StatementModule {
   @Singleton
   @StringKey(KEY_STORE_STMT)
   public StatementBinder.Builder<?> storeKey(final TimestampManager timestampManager,
+                                             final TtlManager ttlManager,
                                              final TableConfiguration tableConfiguration) {
     final String baseInsert = """
         insert into %s.%s 
           (owner, key_name, version, value, aux, active, type, create_date, update_date)
-          values (?,?,?,?,?,?,?,?,?)""";
+          values (?,?,?,?,?,?,?,?,?) using ttl ?""";
     final String insert = String.format(baseInsert,
         tableConfiguration.keyspace(), tableConfiguration.keysTable());
     return StatementBinder.<Key>builder().with(insert).with((key) -> new Object[]{
         key.keyVersionIdentifier().owner(), key.keyVersionIdentifier().key(), key.keyVersionIdentifier().version(),
         key.value(), key.aux(), key.active(), key.type(),
         timestampManager.fromDate(key.createDate()),
-        key.updateDate().map(timestampManager::fromDate).orElse(null)
+        key.updateDate().map(timestampManager::fromDate).orElse(null),
+        ttlManager.ttlSeconds(key)
     });
   }
 
@@ -359,4 +423,180 @@ public class StatementModule {
         identifier.owner(), identifier.key(), identifier.version()
     });
   }
+
+  /**
+   * Prepared Statement: delete every version of the key. This is a single partition tombstone.
+   *
+   * @param tableConfiguration table configuration.
+   * @return statement binder.
+   */
+  @IntoMap
+  @Provides
+  @Singleton
+  @StringKey(KEY_DELETE_STMT)
+  public StatementBinder.Builder<?> deleteKey(final TableConfiguration tableConfiguration) {
+    final String baseDelete = "delete from %s.%s where owner = ? and key_name = ?";
+    final String delete = String.format(baseDelete,
+        tableConfiguration.keyspace(), tableConfiguration.keysTable());
+    return StatementBinder.<KeyIdentifier>builder().with(delete).with((identifier) -> new Object[]{
+        identifier.owner(), identifier.key()
+    });
+  }
+
+  /**
+   * Prepared Statement: delete every active version of the key. This is a single partition tombstone.
+   *
+   * @param tableConfiguration table configuration.
+   * @return statement binder.
+   */
+  @IntoMap
+  @Provides
+  @Singleton
+  @StringKey(KEY_DELETE_ALL_ACTIVE_STMT)
+  public StatementBinder.Builder<?> deleteAllActiveKey(final TableConfiguration tableConfiguration) {
+    final String baseDelete = "delete from %s.%s where owner = ? and key_name = ?";
+    final String delete = String.format(baseDelete,
+        tableConfiguration.keyspace(), tableConfiguration.activeKeysTable());
+    return StatementBinder.<KeyIdentifier>builder().with(delete).with((identifier) -> new Object[]{
+        identifier.owner(), identifier.key()
+    });
+  }
+
+  /**
+   * Prepared Statement: delete the key from the owner.
+   *
+   * @param tableConfiguration table configuration.
+   * @return statement binder.
+   */
+  @IntoMap
+  @Provides
+  @Singleton
+  @StringKey(OWNER_DELETE_KEY_STMT)
+  public StatementBinder.Builder<?> ownerDeleteKey(final TableConfiguration tableConfiguration) {
+    final String baseDelete = "delete from %s.%s where owner = ? and lookup = ?";
+    final String delete = String.format(baseDelete,
+        tableConfiguration.keyspace(), tableConfiguration.ownersTable());
+    return StatementBinder.<KeyIdentifier>builder().with(delete).with((identifier) -> new Object[]{
+        identifier.owner(), identifier.key()
+    });
+  }
+
+  /**
+   * Prepared Statement: delete the owner and all its key lookups. This is a single partition tombstone.
+   *
+   * @param tableConfiguration table configuration.
+   * @return statement binder.
+   */
+  @IntoMap
+  @Provides
+  @Singleton
+  @StringKey(OWNER_DELETE_STMT)
+  public StatementBinder.Builder<?> ownerDelete(final TableConfiguration tableConfiguration) {
+    final String baseDelete = "delete from %s.%s where owner = ?";
+    final String delete = String.format(baseDelete,
+        tableConfiguration.keyspace(), tableConfiguration.ownersTable());
+    return StatementBinder.<OwnerIdentifier>builder().with(delete).with((identifier) -> new Object[]{
+        identifier.owner()
+    });
+  }
+
+  /**
+   * Prepared statement: store the key version only if it does not exist, with a ttl like the plain store.
+   *
+   * @param timestampManager   for managing times.
+   * @param ttlManager         for the ttl of the version.
+   * @param tableConfiguration table configuration.
+   * @return statement binder.
+   */
+  @IntoMap
+  @Provides
+  @Singleton
+  @StringKey(KEY_STORE_IF_ABSENT_STMT)
+  public StatementBinder.Builder<?> storeKeyIfAbsent(final TimestampManager timestampManager,
+                                                     final TtlManager ttlManager,
+                                                     final TableConfiguration tableConfiguration) {
+    final String baseInsert = """
+        insert into %s.%s
+          (owner, key_name, version, value, aux, active, type, create_date, update_date)
+          values (?,?,?,?,?,?,?,?,?) if not exists using ttl ?""";
+    final String insert = String.format(baseInsert,
+        tableConfiguration.keyspace(), tableConfiguration.keysTable());
+    return StatementBinder.<Key>builder().with(insert).with((key) -> new Object[]{
+        key.keyVersionIdentifier().owner(), key.keyVersionIdentifier().key(), key.keyVersionIdentifier().version(),
+        key.value(), key.aux(), key.active(), key.type(),
+        timestampManager.fromDate(key.createDate()),
+        key.updateDate().map(timestampManager::fromDate).orElse(null),
+        ttlManager.ttlSeconds(key)
+    });
+  }
+
+  /**
+   * Prepared statement: add the version counter of the key at zero, if it does not exist. When it exists the
+   * result holds its value.
+   *
+   * @param tableConfiguration table configuration.
+   * @return statement binder.
+   */
+  @IntoMap
+  @Provides
+  @Singleton
+  @StringKey(VERSION_SEED_STMT)
+  public StatementBinder.Builder<?> versionSeed(final TableConfiguration tableConfiguration) {
+    final String baseInsert = "insert into %s.%s (owner, key_name, next_version) values (?,?,0) if not exists";
+    final String insert = String.format(baseInsert,
+        tableConfiguration.keyspace(), tableConfiguration.versionsTable());
+    return StatementBinder.<KeyIdentifier>builder().with(insert).with((identifier) -> new Object[]{
+        identifier.owner(), identifier.key()
+    });
+  }
+
+  /**
+   * Prepared statement: move the version counter of the key, only if nobody else moved it first. When it fails
+   * the result holds the current value.
+   *
+   * @param tableConfiguration table configuration.
+   * @return statement binder.
+   */
+  @IntoMap
+  @Provides
+  @Singleton
+  @StringKey(VERSION_SWAP_STMT)
+  public StatementBinder.Builder<?> versionSwap(final TableConfiguration tableConfiguration) {
+    final String baseUpdate = "update %s.%s set next_version = ? where owner = ? and key_name = ? "
+        + "if next_version = ?";
+    final String update = String.format(baseUpdate,
+        tableConfiguration.keyspace(), tableConfiguration.versionsTable());
+    return StatementBinder.<VersionSwap>builder().with(update).with((swap) -> new Object[]{
+        swap.next(), swap.identifier().owner(), swap.identifier().key(), swap.expected()
+    });
+  }
+
+  /**
+   * Prepared Statement: delete the version counter of the key.
+   *
+   * @param tableConfiguration table configuration.
+   * @return statement binder.
+   */
+  @IntoMap
+  @Provides
+  @Singleton
+  @StringKey(VERSION_DELETE_STMT)
+  public StatementBinder.Builder<?> versionDelete(final TableConfiguration tableConfiguration) {
+    final String baseDelete = "delete from %s.%s where owner = ? and key_name = ?";
+    final String delete = String.format(baseDelete,
+        tableConfiguration.keyspace(), tableConfiguration.versionsTable());
+    return StatementBinder.<KeyIdentifier>builder().with(delete).with((identifier) -> new Object[]{
+        identifier.owner(), identifier.key()
+    });
+  }
+
+  /**
+   * A compare and set of the version counter of a key.
+   *
+   * @param identifier of the key.
+   * @param expected   the value the counter must have.
+   * @param next       the value to set.
+   */
+  public record VersionSwap(KeyIdentifier identifier, long expected, long next) {
+  }
 }
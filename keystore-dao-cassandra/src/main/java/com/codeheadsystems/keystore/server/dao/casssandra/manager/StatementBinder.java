@@ -117,5 +117,14 @@ public class StatementBinder<T> {
       return this;
     }
 
+    /**
+     * The cql statement this builder will prepare.
+     *
+     * @return the cql statement.
+     */
+    public String cqlStatement() {
+      return cqlStatement;
+    }
+
   }
 }
@@ -0,0 +1,86 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.server.dao.casssandra.manager;
+
+import com.codeheadsystems.keystore.server.dao.casssandra.configuration.TableConfiguration;
+import com.codeheadsystems.keystore.server.dao.model.Key;
+import com.codeheadsystems.keystore.server.dao.model.RetentionPolicies;
+import com.codeheadsystems.metrics.Metrics;
+import io.micrometer.core.instrument.Counter;
+import java.time.Clock;
+import java.time.Duration;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Provides the ttl a key version is written with, from the retention policy of its key.
+ */
+@Singleton
+public class TtlManager {
+
+  /**
+   * The constant TTL_METRIC, counts the versions written with a ttl.
+   */
+  public static final String TTL_METRIC = "cassandra.ttl";
+  /**
+   * The constant MAX_TTL_SECONDS, the longest ttl cassandra takes (20 years).
+   */
+  public static final int MAX_TTL_SECONDS = 630_720_000;
+  private static final Logger LOGGER = LoggerFactory.getLogger(TtlManager.class);
+
+  private final RetentionPolicies retention;
+  private final Clock clock;
+  private final Counter counterTtl;
+
+  /**
+   * Default constructor.
+   *
+   * @param tableConfiguration for the retention policies.
+   * @param clock              to get the time remaining.
+   * @param metrics            for reporting.
+   */
+  @Inject
+  public TtlManager(final TableConfiguration tableConfiguration,
+                    final Clock clock,
+                    final Metrics metrics) {
+    LOGGER.info("TtlManager({})", tableConfiguration.retention());
+    this.retention = tableConfiguration.retention();
+    this.clock = clock;
+    this.counterTtl = metrics.registry().counter(TTL_METRIC);
+  }
+
+  /**
+   * The ttl to write the version with. Zero, which cassandra takes as no ttl, unless the version expires. A
+   * version that has already expired gets the shortest ttl, so it is dropped right away.
+   * Expiries past the longest ttl cassandra takes are cut to it.
+   *
+   * @param key the version.
+   * @return the ttl in seconds.
+   */
+  public int ttlSeconds(final Key key) {
+    return retention.policy(key.keyVersionIdentifier()).expiry(key)
+        .map(expiry -> {
+          counterTtl.increment();
+          final long seconds = Duration.between(clock.instant(), expiry).toSeconds();
+          return (int) Math.max(1L, Math.min(seconds, MAX_TTL_SECONDS));
+        })
+        .orElse(0);
+  }
+
+}
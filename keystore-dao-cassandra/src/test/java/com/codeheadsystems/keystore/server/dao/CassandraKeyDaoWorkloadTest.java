@@ -0,0 +1,59 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.server.dao;
+
+import com.codeheadsystems.keystore.server.dao.casssandra.dagger.CqlSessionModule;
+import java.net.InetSocketAddress;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.testcontainers.containers.CassandraContainer;
+import org.testcontainers.utility.DockerImageName;
+
+/**
+ * Runs the workloads against the cassandra test container.
+ */
+class CassandraKeyDaoWorkloadTest extends KeyDaoWorkloadTest {
+
+  private static CassandraContainer<?> container;
+  private static KeyDao keyDao;
+
+  @BeforeAll
+  public static void setupContainer() {
+    container = new CassandraContainer<>(DockerImageName.parse("cassandra")
+        .withTag(CassandraKeyDaoTest.CASSANDRA_VERSION))
+        .withInitScript(CassandraKeyDaoTest.KEYSTORE_CQL);
+    container.start();
+    final InetSocketAddress address =
+        new InetSocketAddress(container.getHost(), container.getMappedPort(CassandraContainer.CQL_PORT));
+    keyDao = DaggerDaoComponent.builder()
+        .cqlSessionModule(new CqlSessionModule(address))
+        .ourMeterModule(new DaoComponent.OurMeterModule(meterRegistry))
+        .build()
+        .keyDao();
+  }
+
+  @AfterAll
+  public static void removeContainer() {
+    container.stop();
+    container = null;
+  }
+
+  @Override
+  protected KeyDao keyDAO() {
+    return keyDao;
+  }
+}
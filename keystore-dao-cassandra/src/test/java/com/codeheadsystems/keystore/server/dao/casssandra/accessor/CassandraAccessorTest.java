@@ -0,0 +1,101 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.server.dao.casssandra.accessor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.codeheadsystems.keystore.server.exception.DependencyException;
+import com.codeheadsystems.keystore.server.exception.RetryableException;
+import com.codeheadsystems.metrics.Metrics;
+import com.datastax.oss.driver.api.core.CqlSession;
+import com.datastax.oss.driver.api.core.DriverTimeoutException;
+import com.datastax.oss.driver.api.core.cql.AsyncResultSet;
+import com.datastax.oss.driver.api.core.cql.SimpleStatement;
+import com.datastax.oss.driver.api.core.cql.Statement;
+import io.github.resilience4j.retry.Retry;
+import io.github.resilience4j.retry.RetryConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class CassandraAccessorTest {
+
+  private static final Statement<?> FIRST = SimpleStatement.newInstance("delete from keystore.keys where owner = 'a'");
+  private static final Statement<?> SECOND = SimpleStatement.newInstance("delete from keystore.keys where owner = 'b'");
+
+  @Mock private CqlSession session;
+  @Mock private Metrics metrics;
+  @Mock private AsyncResultSet resultSet;
+
+  private final Retry retry = Retry.of("test", RetryConfig.custom()
+      .maxAttempts(3)
+      .retryExceptions(RetryableException.class)
+      .waitDuration(Duration.ofMillis(1))
+      .build());
+  private ScheduledExecutorService scheduler;
+  private CassandraAccessor accessor;
+
+  @BeforeEach
+  void setup() {
+    when(metrics.registry()).thenReturn(new SimpleMeterRegistry());
+    scheduler = Executors.newSingleThreadScheduledExecutor();
+    accessor = new CassandraAccessor(session, metrics, retry, scheduler);
+  }
+
+  @AfterEach
+  void shutdown() {
+    scheduler.shutdownNow();
+  }
+
+  @Test
+  void executeConcurrently_retriesTransientFailures() {
+    when(session.executeAsync(FIRST))
+        .thenReturn(CompletableFuture.failedFuture(new DriverTimeoutException("timeout")))
+        .thenReturn(CompletableFuture.completedFuture(resultSet));
+    when(session.executeAsync(SECOND)).thenReturn(CompletableFuture.completedFuture(resultSet));
+
+    assertThat(accessor.executeConcurrently(List.of(FIRST, SECOND).iterator(), 2)).isEqualTo(2);
+
+    verify(session, times(2)).executeAsync(FIRST);
+  }
+
+  @Test
+  void executeConcurrently_failsOtherFailures() {
+    when(session.executeAsync(FIRST)).thenReturn(CompletableFuture.failedFuture(new IllegalStateException("bad")));
+
+    assertThatExceptionOfType(DependencyException.class)
+        .isThrownBy(() -> accessor.executeConcurrently(List.of(FIRST).iterator(), 1))
+        .withCauseInstanceOf(IllegalStateException.class);
+
+    verify(session, times(1)).executeAsync(FIRST);
+  }
+
+}
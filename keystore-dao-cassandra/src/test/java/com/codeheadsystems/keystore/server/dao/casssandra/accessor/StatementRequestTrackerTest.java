@@ -0,0 +1,137 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.server.dao.casssandra.accessor;
+
+import static com.codeheadsystems.keystore.server.dao.casssandra.accessor.StatementRequestTracker.NODE_REQUEST_METRIC;
+import static com.codeheadsystems.keystore.server.dao.casssandra.accessor.StatementRequestTracker.REQUEST_METRIC;
+import static com.codeheadsystems.keystore.server.dao.casssandra.accessor.StatementRequestTracker.STATEMENT;
+import static com.codeheadsystems.keystore.server.dao.casssandra.accessor.StatementRequestTracker.UNKNOWN;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatCode;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.codeheadsystems.keystore.server.dao.casssandra.configuration.ImmutableTableConfiguration;
+import com.codeheadsystems.keystore.server.dao.casssandra.configuration.TableConfiguration;
+import com.codeheadsystems.keystore.server.dao.casssandra.dagger.StatementModule;
+import com.codeheadsystems.keystore.server.dao.casssandra.manager.StatementBinder;
+import com.codeheadsystems.metrics.Metrics;
+import com.datastax.oss.driver.api.core.config.DriverExecutionProfile;
+import com.datastax.oss.driver.api.core.cql.BoundStatement;
+import com.datastax.oss.driver.api.core.cql.PreparedStatement;
+import com.datastax.oss.driver.api.core.cql.SimpleStatement;
+import com.datastax.oss.driver.api.core.metadata.Node;
+import dagger.Provides;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class StatementRequestTrackerTest {
+
+  private static final String KEY = "key.load.version";
+  private static final String CQL = "select * from keystore.keys where owner = ? and key_name = ? and version = ?";
+
+  @Mock private Metrics metrics;
+  @Mock private BoundStatement boundStatement;
+  @Mock private PreparedStatement preparedStatement;
+  @Mock private DriverExecutionProfile profile;
+  @Mock private Node node;
+
+  private MeterRegistry registry;
+  private StatementRequestTracker tracker;
+
+  @BeforeEach
+  public void setup() {
+    registry = new SimpleMeterRegistry();
+    final Map<String, StatementBinder.Builder<?>> statements = Map.of(KEY, StatementBinder.builder().with(CQL));
+    tracker = new StatementRequestTracker(statements,
+        ImmutableTableConfiguration.builder().slowQueryThresholdMillis(10).build(), metrics);
+  }
+
+  @Test
+  public void onSuccess_boundStatement() {
+    when(metrics.registry()).thenReturn(registry);
+    when(boundStatement.getPreparedStatement()).thenReturn(preparedStatement);
+    when(preparedStatement.getQuery()).thenReturn(CQL);
+
+    tracker.onSuccess(boundStatement, TimeUnit.MILLISECONDS.toNanos(20), profile, node, "prefix");
+
+    assertThat(registry.find(REQUEST_METRIC).tag(STATEMENT, KEY).timer())
+        .isNotNull()
+        .extracting(t -> t.count())
+        .isEqualTo(1L);
+  }
+
+  @Test
+  public void onNodeError_simpleStatement() {
+    when(metrics.registry()).thenReturn(registry);
+    tracker.onNodeError(SimpleStatement.newInstance("select now() from system.local"), new RuntimeException(),
+        TimeUnit.MILLISECONDS.toNanos(1), profile, node, "prefix");
+
+    assertThat(registry.find(NODE_REQUEST_METRIC).tag(STATEMENT, UNKNOWN).timer())
+        .isNotNull()
+        .extracting(t -> t.count())
+        .isEqualTo(1L);
+  }
+
+  @Test
+  public void duplicateCql_failsAtStartup() {
+    final Map<String, StatementBinder.Builder<?>> statements = Map.of(
+        KEY, StatementBinder.builder().with(CQL),
+        "key.load.version.copy", StatementBinder.builder().with(CQL));
+
+    assertThatExceptionOfType(IllegalStateException.class)
+        .isThrownBy(() -> new StatementRequestTracker(statements,
+            ImmutableTableConfiguration.builder().build(), metrics))
+        .withMessageContaining(CQL);
+  }
+
+  /**
+   * Every statement of the real module, so a new statement repeating the cql of another fails here rather than
+   * when the session is built.
+   */
+  @Test
+  public void statementModule_hasNoSharedCql() throws ReflectiveOperationException {
+    final StatementModule module = new StatementModule();
+    final TableConfiguration configuration = ImmutableTableConfiguration.builder().build();
+    final Map<String, StatementBinder.Builder<?>> statements = new HashMap<>();
+    for (Method method : StatementModule.class.getDeclaredMethods()) {
+      if (method.isAnnotationPresent(Provides.class)) {
+        final Object[] args = Arrays.stream(method.getParameterTypes())
+            .map(type -> type == TableConfiguration.class ? configuration : mock(type))
+            .toArray();
+        statements.put(method.getName(), (StatementBinder.Builder<?>) method.invoke(module, args));
+      }
+    }
+
+    assertThatCode(() -> new StatementRequestTracker(statements, configuration, metrics))
+        .doesNotThrowAnyException();
+    assertThat(statements).isNotEmpty();
+  }
+
+}
@@ -0,0 +1,80 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.server.dao.casssandra.manager;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+import com.codeheadsystems.keystore.server.dao.casssandra.configuration.ImmutableTableConfiguration;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableKey;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableKeyVersionIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableRetentionPolicies;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableRetentionPolicy;
+import com.codeheadsystems.metrics.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Date;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class TtlManagerTest {
+
+  private static final Instant NOW = Instant.parse("2022-07-01T00:00:00Z");
+
+  @Mock private Metrics metrics;
+
+  private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+  private TtlManager manager;
+
+  @BeforeEach
+  public void setup() {
+    when(metrics.registry()).thenReturn(registry);
+    manager = new TtlManager(ImmutableTableConfiguration.builder()
+        .retention(ImmutableRetentionPolicies.builder()
+            .putOwners("owner", ImmutableRetentionPolicy.builder().expireInactiveSeconds(3600).build())
+            .build())
+        .build(), Clock.fixed(NOW, ZoneOffset.UTC), metrics);
+  }
+
+  @Test
+  public void ttlSeconds() {
+    assertThat(manager.ttlSeconds(key("owner", true, NOW))).isZero();
+    assertThat(manager.ttlSeconds(key("other", false, NOW))).isZero();
+    assertThat(manager.ttlSeconds(key("owner", false, NOW.minusSeconds(600)))).isEqualTo(3000);
+    assertThat(manager.ttlSeconds(key("owner", false, NOW.minusSeconds(7200)))).isEqualTo(1);
+    assertThat(registry.counter(TtlManager.TTL_METRIC).count()).isEqualTo(2.0);
+  }
+
+  private ImmutableKey key(final String owner, final boolean active, final Instant updated) {
+    return ImmutableKey.builder()
+        .keyVersionIdentifier(ImmutableKeyVersionIdentifier.builder().owner(owner).key("key").version(1L).build())
+        .value(new byte[]{1})
+        .aux(new byte[]{2})
+        .active(active)
+        .type("type")
+        .createDate(Date.from(updated.minusSeconds(60)))
+        .updateDate(Date.from(updated))
+        .build();
+  }
+
+}
@@ -17,27 +17,57 @@
 package com.codeheadsystems.keystore.server.dao;
 
 import com.codeheadsystems.keystore.server.dao.ddb.accessor.DynamoDbClientAccessor;
+import com.codeheadsystems.keystore.server.dao.ddb.configuration.TableConfiguration;
 import com.codeheadsystems.keystore.server.dao.ddb.converter.BatchWriteConverter;
 import com.codeheadsystems.keystore.server.dao.ddb.converter.KeyConverter;
 import com.codeheadsystems.keystore.server.dao.ddb.converter.OwnerConverter;
+import com.codeheadsystems.keystore.server.dao.ddb.dagger.DdbModule;
+import com.codeheadsystems.keystore.server.dao.ddb.manager.BatchGetManager;
+import com.codeheadsystems.keystore.server.dao.ddb.manager.BatchWriteManager;
+import com.codeheadsystems.keystore.server.dao.ddb.manager.CapacityManager;
+import com.codeheadsystems.keystore.server.dao.ddb.manager.GroupCommitWriter;
+import com.codeheadsystems.keystore.server.dao.ddb.manager.ScanExport;
+import com.codeheadsystems.keystore.server.dao.ddb.manager.ScanExportManager;
 import com.codeheadsystems.keystore.server.dao.model.Batch;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableKeyIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableKeyVersionIdentifier;
 import com.codeheadsystems.keystore.server.dao.model.ImmutableOwnerIdentifier;
 import com.codeheadsystems.keystore.server.dao.model.Key;
 import com.codeheadsystems.keystore.server.dao.model.KeyIdentifier;
 import com.codeheadsystems.keystore.server.dao.model.KeyVersionIdentifier;
 import com.codeheadsystems.keystore.server.dao.model.OwnerIdentifier;
 import com.codeheadsystems.keystore.server.dao.model.Token;
+import com.codeheadsystems.keystore.server.exception.DependencyException;
+import com.codeheadsystems.keystore.server.exception.RetryableException;
 import com.codeheadsystems.metrics.Metrics;
 import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Timer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.function.Supplier;
+import java.util.stream.Collectors;
 import javax.inject.Inject;
+import javax.inject.Named;
 import javax.inject.Singleton;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
 import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.CancellationReason;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
 import software.amazon.awssdk.services.dynamodb.model.ConsumedCapacity;
 import software.amazon.awssdk.services.dynamodb.model.DeleteItemRequest;
 import software.amazon.awssdk.services.dynamodb.model.DeleteItemResponse;
@@ -47,6 +77,9 @@ import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
 import software.amazon.awssdk.services.dynamodb.model.PutItemResponse;
 import software.amazon.awssdk.services.dynamodb.model.QueryRequest;
 import software.amazon.awssdk.services.dynamodb.model.QueryResponse;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItem;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItemsRequest;
+import software.amazon.awssdk.services.dynamodb.model.TransactionCanceledException;
 
 /**
  * Dynamodb version of the DAO.
@@ -65,6 +98,10 @@ public class KeyDaoDynamoDb implements KeyDao {
    * The constant MAX_TIMES_KEY_STORE.
    */
   public static final int MAX_TIMES_KEY_STORE = 5;
+  /**
+   * The constant CONDITIONAL_CHECK_FAILED, the cancellation reason when a transaction condition fails.
+   */
+  public static final String CONDITIONAL_CHECK_FAILED = "ConditionalCheckFailed";
   private static final Logger LOGGER = LoggerFactory.getLogger(KeyDaoDynamoDb.class);
   private final DynamoDbClientAccessor dynamoDbClientAccessor;
   private final KeyConverter keyConverter;
@@ -74,7 +111,19 @@ public class KeyDaoDynamoDb implements KeyDao {
   private final Counter counterKeyVersion;
   private final Counter counterKey;
   private final Counter counterOwner;
-  private final Counter counterBatchWriteRanOut;
+  private final Counter counterActiveFetch;
+  private final Counter counterPointerHit;
+  private final Counter counterPointerWrite;
+  private final Counter counterDeletedVersions;
+  private final Counter counterDeletedKeys;
+  private final Counter counterNextVersionContention;
+  private final DistributionSummary deleteConsumedCapacity;
+  private final BatchWriteManager batchWriteManager;
+  private final BatchGetManager batchGetManager;
+  private final GroupCommitWriter groupCommitWriter;
+  private final ScanExportManager scanExportManager;
+  private final TableConfiguration tableConfiguration;
+  private final ExecutorService executorService;
 
   /**
    * Default constructor.
@@ -83,6 +132,12 @@ public class KeyDaoDynamoDb implements KeyDao {
    * @param keyConverter           for key converter.
    * @param ownerConverter         for owner converter.
    * @param batchWriteConverter    for batch converter.
+   * @param batchWriteManager      for batch writes.
+   * @param batchGetManager        for batch loads.
+   * @param groupCommitWriter      for coalescing concurrent non-transactional stores.
+   * @param scanExportManager      for exports.
+   * @param tableConfiguration     for the table name.
+   * @param executorService        for parallel queries during bulk deletes.
    * @param metrics                for reporting.
    */
   @Inject
@@ -90,18 +145,36 @@ public class KeyDaoDynamoDb implements KeyDao {
                         final KeyConverter keyConverter,
                         final OwnerConverter ownerConverter,
                         final BatchWriteConverter batchWriteConverter,
+                        final BatchWriteManager batchWriteManager,
+                        final BatchGetManager batchGetManager,
+                        final GroupCommitWriter groupCommitWriter,
+                        final ScanExportManager scanExportManager,
+                        final TableConfiguration tableConfiguration,
+                        @Named(DdbModule.DDB_BATCH_EXECUTOR) final ExecutorService executorService,
                         final Metrics metrics) {
     LOGGER.info("KeyDAODynamoDB({},{},{})", dynamoDbClientAccessor, keyConverter, ownerConverter);
     this.batchWriteConverter = batchWriteConverter;
     this.dynamoDbClientAccessor = dynamoDbClientAccessor;
     this.keyConverter = keyConverter;
     this.ownerConverter = ownerConverter;
+    this.batchWriteManager = batchWriteManager;
+    this.batchGetManager = batchGetManager;
+    this.groupCommitWriter = groupCommitWriter;
+    this.scanExportManager = scanExportManager;
+    this.tableConfiguration = tableConfiguration;
+    this.executorService = executorService;
     this.metrics = metrics;
     final MeterRegistry registry = metrics.registry();
     counterKeyVersion = registry.counter(PREFIX + "found.key.version");
     counterKey = registry.counter(PREFIX + "found.key");
     counterOwner = registry.counter(PREFIX + "found.owner");
-    counterBatchWriteRanOut = registry.counter(PREFIX + "batchWrite.ran.out");
+    counterActiveFetch = registry.counter(PREFIX + "active.fetch");
+    counterPointerHit = registry.counter(PREFIX + "active.pointer.hit");
+    counterPointerWrite = registry.counter(PREFIX + "active.pointer.write");
+    counterDeletedVersions = registry.counter(PREFIX + "deleted.versions");
+    counterDeletedKeys = registry.counter(PREFIX + "deleted.keys");
+    counterNextVersionContention = registry.counter(PREFIX + "nextVersion.contention");
+    deleteConsumedCapacity = registry.summary(PREFIX + "delete.consumed.capacity");
   }
 
   private <T> T time(final String methodName,
@@ -110,46 +183,198 @@ public class KeyDaoDynamoDb implements KeyDao {
     final String name = PREFIX + methodName;
     final Timer timer = metrics.registry().timer(name, OWNER, (owner == null ? "null" : owner));
     // TODO: Vet cardinality. Set by configuration?
-    return metrics.time(name, timer, supplier);
+    return metrics.time(name, timer, () -> CapacityManager.withScope(methodName, owner, supplier));
   }
 
+  /**
+   * Stores the key version as given. The version counter is raised to it first, so storeNextVersion never
+   * allocates a version stored here.
+   */
   @Override
   public void store(final Key key) {
     LOGGER.debug("store({})", key.keyVersionIdentifier());
     time("storeKey", key.keyVersionIdentifier().owner(), () -> {
+      raiseVersionCounter(key.keyVersionIdentifier());
       final PutItemRequest keyPutItemRequest = keyConverter.toPutItemRequest(key);
       final PutItemRequest ownerPutItemRequest = ownerConverter.toPutItemRequest(key.keyVersionIdentifier());
+      if (tableConfiguration.activePointer() && storeWithPointer(key, keyPutItemRequest, ownerPutItemRequest)) {
+        return null;
+      }
+      if (tableConfiguration.transactionalWrites()) {
+        dynamoDbClientAccessor.transactWriteItems(batchWriteConverter.toTransactWriteItemsRequest(
+            List.of(keyPutItemRequest, ownerPutItemRequest)));
+        return null;
+      }
+      if (groupCommitWriter.enabled()) {
+        join(groupCommitWriter.write(keyPutItemRequest, ownerPutItemRequest));
+        return null;
+      }
       final BatchWriteItemRequest request = batchWriteConverter
           .fromPutItemRequests(keyPutItemRequest, ownerPutItemRequest);
-      reProcessor(request, MAX_TIMES_KEY_STORE); // should not take this long for sure.
+      batchWriteManager.write(request, MAX_TIMES_KEY_STORE); // should not take this long for sure.
       return null;
     });
   }
 
   /**
-   * This method will reprocess a batch write up to X times, as long as there are items that need processing.
+   * Stores the keys with parallel batch writes. This is meant for bulk imports, so it is not atomic per key
+   * and does not write active pointers. Loads fall back to the active index for keys without one. The version
+   * counter of each key is raised to its greatest version first.
    *
-   * @param request  the request
-   * @param maxTimes max times to process.
+   * @param keys to store.
    */
-  private void reProcessor(final BatchWriteItemRequest request,
-                           final int maxTimes) {
-    LOGGER.debug("reProcessor({}", maxTimes);
-    time("reProcessor", null, () -> {
-      Optional<BatchWriteItemRequest> nextRequest = Optional.of(request);
-      int times = 0;
-      do {
-        times++;
-        nextRequest = dynamoDbClientAccessor.batchWriteItemProcessor(nextRequest.get());
-      } while (times < maxTimes && nextRequest.isPresent());
-      counterBatchWriteRanOut.increment(nextRequest.isPresent() ? 1 : 0);
-      nextRequest.ifPresent((n) -> {
-        throw new IllegalStateException("Unable to fully process request:" + request.requestItems());
-      });
-      return null;
+  @Override
+  public void storeAll(final Collection<Key> keys) {
+    LOGGER.debug("storeAll({})", keys.size());
+    time("storeAll", null, () -> {
+      final Collection<KeyVersionIdentifier> greatest = keys.stream()
+          .map(Key::keyVersionIdentifier)
+          .collect(Collectors.toMap(ImmutableKeyIdentifier::copyOf, Function.identity(),
+              BinaryOperator.maxBy(Comparator.comparing(KeyVersionIdentifier::version))))
+          .values();
+      greatest.stream()
+          .map(v -> CompletableFuture.supplyAsync(CapacityManager.propagate(() -> {
+            raiseVersionCounter(v);
+            return null;
+          }), executorService))
+          .toList()
+          .forEach(this::join);
+      final List<PutItemRequest> requests = new ArrayList<>();
+      keys.stream().map(keyConverter::toPutItemRequest).forEach(requests::add);
+      keys.stream()
+          .map(key -> ownerConverter.toPutItemRequest(key.keyVersionIdentifier()))
+          .distinct() // the same key may be given for several versions, and a batch may not repeat an item.
+          .forEach(requests::add);
+      return batchWriteManager.put(requests);
     });
   }
 
+  /**
+   * Writes the version, the owner row and the active pointer change as one transaction.
+   *
+   * @return false if the pointer condition failed, meaning the pointer is already right and nothing was written.
+   */
+  private boolean storeWithPointer(final Key key,
+                                   final PutItemRequest keyPutItemRequest,
+                                   final PutItemRequest ownerPutItemRequest) {
+    final TransactWriteItemsRequest request = batchWriteConverter.toTransactWriteItemsRequest(
+        List.of(keyPutItemRequest, ownerPutItemRequest), keyConverter.toActivePointerWrite(key));
+    try {
+      dynamoDbClientAccessor.transactWriteItems(request);
+      counterPointerWrite.increment(1);
+      return true;
+    } catch (DependencyException e) {
+      if (e.getCause() instanceof TransactionCanceledException canceled && canceled.hasCancellationReasons()
+          && canceled.cancellationReasons().stream().anyMatch(r -> CONDITIONAL_CHECK_FAILED.equals(r.code()))) {
+        LOGGER.debug("store: active pointer unchanged for {}", key.keyVersionIdentifier());
+        counterPointerWrite.increment(0);
+        return false;
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Allocates the version with an atomic ADD on the counter item of the key, then writes it in a transaction
+   * with the owner row and the active pointer, only if the version does not exist yet. Versions stored
+   * explicitly raise the counter, so the allocated version is normally free. If the write finds it stored, as
+   * with versions stored before the counter was raised on store, the counter jumps past the greatest stored
+   * version and the write is tried again, which counts as contention. A retried ADD may skip a version, but
+   * never hands one out twice.
+   */
+  @Override
+  public Key storeNextVersion(final KeyIdentifier identifier,
+                              final Function<KeyVersionIdentifier, Key> factory) {
+    LOGGER.debug("storeNextVersion({})", identifier);
+    return time("storeNextVersion", identifier.owner(), () -> {
+      long version = allocateVersion(identifier, 1);
+      for (int times = 1; ; times++) {
+        final Key key = factory.apply(ImmutableKeyVersionIdentifier.builder()
+            .owner(identifier.owner())
+            .key(identifier.key())
+            .version(version)
+            .build());
+        if (storeIfAbsent(key)) {
+          return key;
+        }
+        counterNextVersionContention.increment();
+        if (times >= MAX_TIMES_KEY_STORE) {
+          throw new RetryableException("Unable to store the next version of " + identifier + " after " + times
+              + " attempts");
+        }
+        version = allocateVersion(identifier, Math.max(1L, greatestVersion(identifier) - version + 1));
+      }
+    });
+  }
+
+  private long greatestVersion(final KeyIdentifier identifier) {
+    return versionKeys(identifier).keys().stream()
+        .mapToLong(keyConverter::toVersion)
+        .max()
+        .orElse(0L);
+  }
+
+  /**
+   * Raises the version counter to the version. A failed condition means it is already there or past it.
+   */
+  private void raiseVersionCounter(final KeyVersionIdentifier identifier) {
+    try {
+      dynamoDbClientAccessor.updateItem(keyConverter.toVersionCounterRaiseItemRequest(identifier));
+    } catch (DependencyException e) {
+      if (!(e.getCause() instanceof ConditionalCheckFailedException)) {
+        throw e;
+      }
+    }
+  }
+
+  private long allocateVersion(final KeyIdentifier identifier,
+                               final long increment) {
+    return keyConverter.toVersion(dynamoDbClientAccessor.updateItem(
+        keyConverter.toVersionCounterUpdateItemRequest(identifier, increment)));
+  }
+
+  /**
+   * Writes the version, the owner row and the active pointer change as one transaction, if the version does not
+   * exist. If only the pointer condition failed the pointer is already right, so it is written again without it.
+   *
+   * @return false if the version exists, and nothing was written.
+   */
+  private boolean storeIfAbsent(final Key key) {
+    final List<PutItemRequest> owner = List.of(ownerConverter.toPutItemRequest(key.keyVersionIdentifier()));
+    final TransactWriteItem version = keyConverter.toPutIfAbsentWrite(key);
+    if (tableConfiguration.activePointer()) {
+      final List<String> failed = conditionsFailed(batchWriteConverter.toTransactWriteItemsRequest(
+          owner, version, keyConverter.toActivePointerWrite(key)));
+      if (failed.isEmpty()) {
+        counterPointerWrite.increment(1);
+        return true;
+      }
+      if (CONDITIONAL_CHECK_FAILED.equals(failed.get(1))) {
+        return false;
+      }
+      counterPointerWrite.increment(0);
+    }
+    return conditionsFailed(batchWriteConverter.toTransactWriteItemsRequest(owner, version)).isEmpty();
+  }
+
+  /**
+   * Writes the transaction.
+   *
+   * @return the cancellation reason of each item if a condition failed, empty if it was written.
+   */
+  private List<String> conditionsFailed(final TransactWriteItemsRequest request) {
+    try {
+      dynamoDbClientAccessor.transactWriteItems(request);
+      return List.of();
+    } catch (DependencyException e) {
+      if (e.getCause() instanceof TransactionCanceledException canceled && canceled.hasCancellationReasons()
+          && canceled.cancellationReasons().stream().anyMatch(r -> CONDITIONAL_CHECK_FAILED.equals(r.code()))) {
+        return canceled.cancellationReasons().stream().map(CancellationReason::code).toList();
+      }
+      throw e;
+    }
+  }
+
   @Override
   public OwnerIdentifier storeOwner(final String owner) {
     LOGGER.debug("storeOwner({})", owner);
@@ -181,6 +406,62 @@ public class KeyDaoDynamoDb implements KeyDao {
     });
   }
 
+  /**
+   * Uses BatchGetItem in parallel chunks of 100 instead of one GetItem per key.
+   */
+  @Override
+  public List<Key> loadAll(final Collection<KeyVersionIdentifier> identifiers) {
+    LOGGER.debug("loadAll({})", identifiers.size());
+    return time("loadAll", null, () -> {
+      final List<Key> keys = batchGetManager.load(identifiers.stream().distinct().toList());
+      counterKeyVersion.increment(keys.size());
+      return keys;
+    });
+  }
+
+  /**
+   * Loads the key versions with TransactGetItems, so all keys returned are from the same point in time. This
+   * costs twice the read capacity of loadAll, so only use it when a consistent snapshot is needed.
+   *
+   * @param identifiers to load, at most 100.
+   * @return the keys found.
+   */
+  public List<Key> loadSnapshot(final Collection<KeyVersionIdentifier> identifiers) {
+    LOGGER.debug("loadSnapshot({})", identifiers.size());
+    return time("loadSnapshot", null, () -> {
+      final List<Key> keys = batchGetManager.loadSnapshot(identifiers.stream().distinct().toList());
+      counterKeyVersion.increment(keys.size());
+      return keys;
+    });
+  }
+
+  /**
+   * Exports every key version with a parallel scan, paced by the read capacity consumed. Returns right away;
+   * the keys are given to the consumer from the segment threads.
+   *
+   * @param totalSegments the segments to scan in parallel.
+   * @param consumer      of the keys, must be thread safe.
+   * @return the running export, with its checkpoint.
+   */
+  public ScanExport export(final int totalSegments,
+                           final Consumer<Key> consumer) {
+    LOGGER.debug("export({})", totalSegments);
+    return scanExportManager.export(totalSegments, consumer);
+  }
+
+  /**
+   * Resumes an export from its checkpoint.
+   *
+   * @param checkpoint from the export.
+   * @param consumer   of the keys, must be thread safe.
+   * @return the running export, with its checkpoint.
+   */
+  public ScanExport export(final Token checkpoint,
+                           final Consumer<Key> consumer) {
+    LOGGER.debug("export(checkpoint)");
+    return scanExportManager.resume(checkpoint, consumer);
+  }
+
   /**
    * Query against the active hash, returning the key with the greatest number.
    * Empty optional if there is no active key or if there is no keys in general.
@@ -189,12 +470,29 @@ public class KeyDaoDynamoDb implements KeyDao {
   public Optional<Key> load(final KeyIdentifier identifier) {
     LOGGER.debug("load({})", identifier);
     return time("loadKey", identifier.owner(), () -> {
+      if (tableConfiguration.activePointer()) {
+        final Optional<Key> pointed = loadActivePointer(identifier);
+        if (pointed.isPresent()) {
+          counterKey.increment(1);
+          return pointed;
+        }
+      }
       final QueryRequest request = keyConverter.toActiveQueryRequest(identifier);
       final QueryResponse response = dynamoDbClientAccessor.query(request);
       LOGGER.debug("load:{}", response.consumedCapacity());
       if (response.hasItems() && response.items().size() > 0) {
-        counterKey.increment(1);
-        return Optional.of(keyConverter.from(response.items().get(0))); // first on the list is newest.
+        final Map<String, AttributeValue> item = response.items().get(0); // first on the list is newest.
+        if (keyConverter.isComplete(item)) {
+          counterKey.increment(1);
+          counterActiveFetch.increment(0);
+          return Optional.of(keyConverter.from(item));
+        }
+        // The index does not project the key material, so get it from the table.
+        counterActiveFetch.increment(1);
+        final GetItemResponse getItemResponse = dynamoDbClientAccessor.getItem(
+            keyConverter.toGetItemRequest(keyConverter.toKeyVersionIdentifier(item)));
+        counterKey.increment(getItemResponse.hasItem() ? 1 : 0);
+        return getItemResponse.hasItem() ? Optional.of(keyConverter.from(getItemResponse)) : Optional.empty();
       } else {
         counterKey.increment(0);
         return Optional.empty();
@@ -202,6 +500,26 @@ public class KeyDaoDynamoDb implements KeyDao {
     });
   }
 
+  /**
+   * Reads the active pointer and then the version it names, both strongly consistent. Empty if there is no
+   * pointer or it is stale, in which case the caller falls back to the active index.
+   */
+  private Optional<Key> loadActivePointer(final KeyIdentifier identifier) {
+    final GetItemResponse pointer = dynamoDbClientAccessor.getItem(
+        keyConverter.toActivePointerGetItemRequest(identifier));
+    final Optional<KeyVersionIdentifier> version = keyConverter.toActivePointerVersion(identifier, pointer);
+    if (version.isEmpty()) {
+      counterPointerHit.increment(0);
+      return Optional.empty();
+    }
+    final GetItemResponse response = dynamoDbClientAccessor.getItem(keyConverter.toGetItemRequest(version.get(), true));
+    final Optional<Key> key = response.hasItem()
+        ? Optional.of(keyConverter.from(response)).filter(Key::active)
+        : Optional.empty();
+    counterPointerHit.increment(key.isPresent() ? 1 : 0);
+    return key;
+  }
+
   @Override
   public Optional<OwnerIdentifier> loadOwner(final String ownerName) {
     LOGGER.debug("loadOwner({})", ownerName);
@@ -224,11 +542,29 @@ public class KeyDaoDynamoDb implements KeyDao {
   public Batch<OwnerIdentifier> listOwners(final Token nextToken) {
     LOGGER.debug("listOwners()");
     return time("listOwners", null, () -> {
-      final QueryRequest request = ownerConverter.toOwnerSearchQueryRequest(nextToken);
-      final QueryResponse response = dynamoDbClientAccessor.query(request);
-      LOGGER.debug("listOwners:{}", response.consumedCapacity());
-      return ownerConverter.toBatchOwnerIdentifier(response);
+      if (tableConfiguration.ownerSearchShards() <= 1) {
+        final QueryRequest request = ownerConverter.toOwnerSearchQueryRequest(nextToken);
+        final QueryResponse response = dynamoDbClientAccessor.query(request);
+        LOGGER.debug("listOwners:{}", response.consumedCapacity());
+        return ownerConverter.toBatchOwnerIdentifier(response);
+      }
+      return listOwnerShards(nextToken);
+    });
+  }
+
+  /**
+   * Queries each owner search shard that still has results in parallel, and merges the pages.
+   */
+  private Batch<OwnerIdentifier> listOwnerShards(final Token nextToken) {
+    final Map<String, CompletableFuture<QueryResponse>> futures = new HashMap<>();
+    ownerConverter.toOwnerSearchCursors(nextToken).forEach((shard, startKey) -> {
+      final QueryRequest request = ownerConverter.toOwnerSearchQueryRequest(shard, startKey);
+      futures.put(shard, CompletableFuture.supplyAsync(
+          CapacityManager.propagate(() -> dynamoDbClientAccessor.query(request)), executorService));
     });
+    final Map<String, QueryResponse> responses = new HashMap<>();
+    futures.forEach((shard, future) -> responses.put(shard, join(future)));
+    return ownerConverter.toBatchOwnerIdentifier(responses);
   }
 
 
@@ -267,19 +603,122 @@ public class KeyDaoDynamoDb implements KeyDao {
     });
   }
 
+  /**
+   * Deletes every version of the key along with the owner row and the version counter, as parallel batch deletes.
+   */
   @Override
   public boolean delete(final KeyIdentifier identifier) {
     LOGGER.debug("delete({})", identifier);
     return time("deleteKey", identifier.owner(), () -> {
-      return false;
+      final VersionKeys versionKeys = versionKeys(identifier);
+      final List<Map<String, AttributeValue>> keys = new ArrayList<>(versionKeys.keys());
+      keys.add(ownerConverter.toPrimaryKey(identifier));
+      keys.add(keyConverter.toVersionCounterPrimaryKey(identifier));
+      if (tableConfiguration.activePointer()) {
+        keys.add(keyConverter.toActivePointerPrimaryKey(identifier));
+      }
+      final double capacity = versionKeys.capacity() + batchWriteManager.delete(tableConfiguration.tableName(), keys);
+      counterDeletedVersions.increment(versionKeys.keys().size());
+      counterDeletedKeys.increment(versionKeys.keys().isEmpty() ? 0 : 1);
+      deleteConsumedCapacity.record(capacity);
+      LOGGER.debug("deleteKey: versions:{} capacity:{}", versionKeys.keys().size(), capacity);
+      return !versionKeys.keys().isEmpty();
     });
   }
 
+  /**
+   * Pages through the owner partition. For each page the versions of every key are queried in parallel, and
+   * then the versions and the owner rows themselves are removed as parallel batch deletes. Memory use is
+   * bounded by a page, so owners with many keys are fine.
+   */
   @Override
   public boolean delete(final OwnerIdentifier identifier) {
     LOGGER.debug("delete({})", identifier);
     return time("deleteOwner", identifier.owner(), () -> {
-      return false;
+      QueryRequest request = ownerConverter.toOwnerQueryKeysRequest(identifier, null);
+      long rows = 0;
+      long versions = 0;
+      double capacity = 0;
+      do {
+        final QueryResponse response = dynamoDbClientAccessor.query(request);
+        capacity += capacityOf(response);
+        final List<Map<String, AttributeValue>> items = response.hasItems() ? response.items() : List.of();
+        final List<KeyIdentifier> keyIdentifiers = items.stream()
+            .filter(ownerConverter::isKey)
+            .map(ownerConverter::toKeyIdentifier)
+            .toList();
+        final List<CompletableFuture<VersionKeys>> futures = keyIdentifiers.stream()
+            .map(ki -> CompletableFuture.supplyAsync(CapacityManager.propagate(() -> versionKeys(ki)), executorService))
+            .toList();
+        final List<Map<String, AttributeValue>> keys = new ArrayList<>();
+        for (CompletableFuture<VersionKeys> future : futures) {
+          final VersionKeys versionKeys = join(future);
+          keys.addAll(versionKeys.keys());
+          capacity += versionKeys.capacity();
+        }
+        versions += keys.size();
+        if (tableConfiguration.activePointer()) {
+          keyIdentifiers.stream().map(keyConverter::toActivePointerPrimaryKey).forEach(keys::add);
+        }
+        keyIdentifiers.stream().map(keyConverter::toVersionCounterPrimaryKey).forEach(keys::add);
+        items.stream().map(ownerConverter::primaryKeyOf).forEach(keys::add);
+        capacity += batchWriteManager.delete(tableConfiguration.tableName(), keys);
+        counterDeletedKeys.increment(futures.size());
+        rows += items.size();
+        request = nextRequest(request, response).orElse(null);
+      } while (request != null);
+      counterDeletedVersions.increment(versions);
+      deleteConsumedCapacity.record(capacity);
+      LOGGER.debug("deleteOwner: rows:{} versions:{} capacity:{}", rows, versions, capacity);
+      return rows > 0;
     });
   }
+
+  /**
+   * Pages through all the versions of the key, returning their primary keys. The query only projects the
+   * hash and range key, so the items are the primary keys.
+   */
+  private VersionKeys versionKeys(final KeyIdentifier identifier) {
+    final List<Map<String, AttributeValue>> keys = new ArrayList<>();
+    double capacity = 0;
+    QueryRequest request = keyConverter.toKeyVersionsQueryRequest(identifier, null);
+    do {
+      final QueryResponse response = dynamoDbClientAccessor.query(request);
+      capacity += capacityOf(response);
+      if (response.hasItems()) {
+        keys.addAll(response.items());
+      }
+      request = nextRequest(request, response).orElse(null);
+    } while (request != null);
+    return new VersionKeys(keys, capacity);
+  }
+
+  private Optional<QueryRequest> nextRequest(final QueryRequest request,
+                                             final QueryResponse response) {
+    if (response.hasLastEvaluatedKey() && !response.lastEvaluatedKey().isEmpty()) {
+      return Optional.of(request.toBuilder().exclusiveStartKey(response.lastEvaluatedKey()).build());
+    } else {
+      return Optional.empty();
+    }
+  }
+
+  private double capacityOf(final QueryResponse response) {
+    final ConsumedCapacity consumedCapacity = response.consumedCapacity();
+    return (consumedCapacity == null || consumedCapacity.capacityUnits() == null)
+        ? 0 : consumedCapacity.capacityUnits();
+  }
+
+  private <T> T join(final CompletableFuture<T> future) {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException runtimeException) {
+        throw runtimeException;
+      }
+      throw e;
+    }
+  }
+
+  private record VersionKeys(List<Map<String, AttributeValue>> keys, double capacity) {
+  }
 }
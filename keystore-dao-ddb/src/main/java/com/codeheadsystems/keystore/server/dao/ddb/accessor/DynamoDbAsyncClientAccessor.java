@@ -0,0 +1,278 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.server.dao.ddb.accessor;
+
+import com.codeheadsystems.keystore.server.dao.ddb.dagger.DdbModule;
+import com.codeheadsystems.keystore.server.dao.ddb.manager.CapacityManager;
+import com.codeheadsystems.metrics.Metrics;
+import io.github.resilience4j.retry.Retry;
+import io.micrometer.core.instrument.Timer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.DeleteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.DeleteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.GetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.PutItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.QueryRequest;
+import software.amazon.awssdk.services.dynamodb.model.QueryResponse;
+import software.amazon.awssdk.services.dynamodb.model.TransactGetItemsRequest;
+import software.amazon.awssdk.services.dynamodb.model.TransactGetItemsResponse;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItemsRequest;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItemsResponse;
+
+/**
+ * The async version of the accessor, over the DynamoDbAsyncClient. Retries, timing, exception conversion and
+ * consumed capacity work like the sync accessor, but nothing blocks: retries wait on a scheduler. Failed futures
+ * hold our own RetryableException or DependencyException (wrapped in a CompletionException when joined).
+ * Writes are not client side rate limited since the limiter blocks.
+ */
+@Singleton
+public class DynamoDbAsyncClientAccessor {
+
+  /**
+   * The constant DDB_ASYNC_ACCESSOR.
+   */
+  public static final String DDB_ASYNC_ACCESSOR = "ddbAsyncAccessor.";
+  /**
+   * The constant PUT_ITEM_METRIC.
+   */
+  public static final String PUT_ITEM_METRIC = DDB_ASYNC_ACCESSOR + "putItem";
+  /**
+   * The constant GET_ITEM_METRIC.
+   */
+  public static final String GET_ITEM_METRIC = DDB_ASYNC_ACCESSOR + "getItem";
+  /**
+   * The constant DELETE_ITEM_METRIC.
+   */
+  public static final String DELETE_ITEM_METRIC = DDB_ASYNC_ACCESSOR + "deleteItem";
+  /**
+   * The constant QUERY_METRIC.
+   */
+  public static final String QUERY_METRIC = DDB_ASYNC_ACCESSOR + "query";
+  /**
+   * The constant BATCH_WRITE_ITEM_METRIC.
+   */
+  public static final String BATCH_WRITE_ITEM_METRIC = DDB_ASYNC_ACCESSOR + "batchWriteItem";
+  /**
+   * The constant BATCH_GET_ITEM_METRIC.
+   */
+  public static final String BATCH_GET_ITEM_METRIC = DDB_ASYNC_ACCESSOR + "batchGetItem";
+  /**
+   * The constant TRANSACT_GET_ITEMS_METRIC.
+   */
+  public static final String TRANSACT_GET_ITEMS_METRIC = DDB_ASYNC_ACCESSOR + "transactGetItems";
+  /**
+   * The constant TRANSACT_WRITE_ITEMS_METRIC.
+   */
+  public static final String TRANSACT_WRITE_ITEMS_METRIC = DDB_ASYNC_ACCESSOR + "transactWriteItems";
+  private static final Logger LOGGER = LoggerFactory.getLogger(DynamoDbAsyncClientAccessor.class);
+
+  private final DynamoDbAsyncClient dynamoDbAsyncClient;
+  private final Metrics metrics;
+  private final CapacityManager capacityManager;
+  private final DynamoDbExceptionMapper exceptionMapper;
+  private final Retry retry;
+  private final Retry transactRetry;
+  private final ScheduledExecutorService scheduler;
+
+  /**
+   * Default constructor.
+   *
+   * @param dynamoDbAsyncClient for aws access.
+   * @param metrics             for reporting.
+   * @param capacityManager     records the consumed capacity of every response.
+   * @param exceptionMapper     converts the client exceptions.
+   * @param retry               retry policy.
+   * @param transactRetry       retry policy for transactions, which may be cancelled by conflicts.
+   * @param scheduler           to wait between retries on.
+   */
+  @Inject
+  public DynamoDbAsyncClientAccessor(final DynamoDbAsyncClient dynamoDbAsyncClient,
+                                     final Metrics metrics,
+                                     final CapacityManager capacityManager,
+                                     final DynamoDbExceptionMapper exceptionMapper,
+                                     @Named(DdbModule.DDB_DAO_RETRY) final Retry retry,
+                                     @Named(DdbModule.DDB_TRANSACT_RETRY) final Retry transactRetry,
+                                     @Named(DdbModule.DDB_RETRY_SCHEDULER) final ScheduledExecutorService scheduler) {
+    LOGGER.info("DynamoDbAsyncClientAccessor({},{},{},{})", dynamoDbAsyncClient, metrics, retry.getName(),
+        transactRetry.getName());
+    this.dynamoDbAsyncClient = dynamoDbAsyncClient;
+    this.metrics = metrics;
+    this.capacityManager = capacityManager;
+    this.exceptionMapper = exceptionMapper;
+    this.retry = retry;
+    this.transactRetry = transactRetry;
+    this.scheduler = scheduler;
+  }
+
+  /**
+   * Applies the put item.
+   *
+   * @param request to apply.
+   * @return the response.
+   */
+  public CompletableFuture<PutItemResponse> putItem(final PutItemRequest request) {
+    return call(retry, PUT_ITEM_METRIC, () -> dynamoDbAsyncClient.putItem(request),
+        r -> capacityManager.write("putItem", r.consumedCapacity()));
+  }
+
+  /**
+   * Applies the get item.
+   *
+   * @param request to apply.
+   * @return the response.
+   */
+  public CompletableFuture<GetItemResponse> getItem(final GetItemRequest request) {
+    return call(retry, GET_ITEM_METRIC, () -> dynamoDbAsyncClient.getItem(request),
+        r -> capacityManager.read("getItem", r.consumedCapacity()));
+  }
+
+  /**
+   * Applies the delete item.
+   *
+   * @param request to apply.
+   * @return the response.
+   */
+  public CompletableFuture<DeleteItemResponse> deleteItem(final DeleteItemRequest request) {
+    return call(retry, DELETE_ITEM_METRIC, () -> dynamoDbAsyncClient.deleteItem(request),
+        r -> capacityManager.write("deleteItem", r.consumedCapacity()));
+  }
+
+  /**
+   * Applies the query.
+   *
+   * @param request to apply.
+   * @return the response.
+   */
+  public CompletableFuture<QueryResponse> query(final QueryRequest request) {
+    return call(retry, QUERY_METRIC, () -> dynamoDbAsyncClient.query(request),
+        r -> capacityManager.read("query", r.consumedCapacity()));
+  }
+
+  /**
+   * Applies the batch write item. Unprocessed items are left to the caller, like the sync accessor.
+   *
+   * @param request to apply.
+   * @return the response.
+   */
+  public CompletableFuture<BatchWriteItemResponse> batchWriteItem(final BatchWriteItemRequest request) {
+    return call(retry, BATCH_WRITE_ITEM_METRIC, () -> dynamoDbAsyncClient.batchWriteItem(request),
+        r -> capacityManager.write("batchWriteItem", r.consumedCapacity()));
+  }
+
+  /**
+   * Applies the batch get item.
+   *
+   * @param request to apply.
+   * @return the response.
+   */
+  public CompletableFuture<BatchGetItemResponse> batchGetItem(final BatchGetItemRequest request) {
+    return call(retry, BATCH_GET_ITEM_METRIC, () -> dynamoDbAsyncClient.batchGetItem(request),
+        r -> capacityManager.read("batchGetItem", r.consumedCapacity()));
+  }
+
+  /**
+   * Applies the transact get items.
+   *
+   * @param request to apply.
+   * @return the response.
+   */
+  public CompletableFuture<TransactGetItemsResponse> transactGetItems(final TransactGetItemsRequest request) {
+    return call(transactRetry, TRANSACT_GET_ITEMS_METRIC, () -> dynamoDbAsyncClient.transactGetItems(request),
+        r -> capacityManager.read("transactGetItems", r.consumedCapacity()));
+  }
+
+  /**
+   * Applies the transact write items.
+   *
+   * @param request to apply.
+   * @return the response.
+   */
+  public CompletableFuture<TransactWriteItemsResponse> transactWriteItems(final TransactWriteItemsRequest request) {
+    return call(transactRetry, TRANSACT_WRITE_ITEMS_METRIC, () -> dynamoDbAsyncClient.transactWriteItems(request),
+        r -> capacityManager.write("transactWriteItems", r.consumedCapacity()));
+  }
+
+  /**
+   * Retries the exception checked call, then records the capacity of the response in the scope of the caller.
+   *
+   * @param policy     retry policy to use.
+   * @param metricName for reporting.
+   * @param supplier   to call.
+   * @param capacity   records the capacity of the response.
+   * @param <T>        type.
+   * @return the response.
+   */
+  private <T> CompletableFuture<T> call(final Retry policy,
+                                        final String metricName,
+                                        final Supplier<CompletableFuture<T>> supplier,
+                                        final Consumer<T> capacity) {
+    final Consumer<T> scopedCapacity = CapacityManager.propagate(capacity);
+    return Retry.decorateCompletionStage(policy, scheduler, () -> exceptionCheck(metricName, supplier))
+        .get()
+        .toCompletableFuture()
+        .thenApply(response -> {
+          scopedCapacity.accept(response);
+          return response;
+        });
+  }
+
+  /**
+   * Exception check. Times the request as well. The returned future fails with the converted exception itself,
+   * not wrapped, so the retry can match it.
+   *
+   * @param metricName for reporting.
+   * @param supplier   to call.
+   * @param <T>        type.
+   * @return the response.
+   */
+  private <T> CompletableFuture<T> exceptionCheck(final String metricName,
+                                                  final Supplier<CompletableFuture<T>> supplier) {
+    final Timer timer = metrics.registry().timer(metricName);
+    final long start = System.nanoTime();
+    final CompletableFuture<T> result = new CompletableFuture<>();
+    try {
+      supplier.get().whenComplete((response, throwable) -> {
+        timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        if (throwable != null) {
+          result.completeExceptionally(exceptionMapper.map(throwable));
+        } else {
+          result.complete(response);
+        }
+      });
+    } catch (RuntimeException e) {
+      result.completeExceptionally(exceptionMapper.map(e));
+    }
+    return result;
+  }
+
+}
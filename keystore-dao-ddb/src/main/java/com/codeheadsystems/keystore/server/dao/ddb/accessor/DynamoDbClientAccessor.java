@@ -18,20 +18,26 @@ package com.codeheadsystems.keystore.server.dao.ddb.accessor;
 
 import com.codeheadsystems.keystore.server.dao.ddb.converter.BatchWriteConverter;
 import com.codeheadsystems.keystore.server.dao.ddb.dagger.DdbModule;
-import com.codeheadsystems.keystore.server.exception.DependencyException;
+import com.codeheadsystems.keystore.server.dao.ddb.manager.AdaptiveRateLimiter;
+import com.codeheadsystems.keystore.server.dao.ddb.manager.CapacityManager;
 import com.codeheadsystems.keystore.server.exception.RetryableException;
 import com.codeheadsystems.metrics.Metrics;
 import io.github.resilience4j.retry.Retry;
 import io.micrometer.core.instrument.Timer;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.function.Function;
 import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemResponse;
 import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest;
 import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemResponse;
 import software.amazon.awssdk.services.dynamodb.model.DeleteItemRequest;
@@ -39,14 +45,19 @@ import software.amazon.awssdk.services.dynamodb.model.DeleteItemResponse;
 import software.amazon.awssdk.services.dynamodb.model.DynamoDbResponse;
 import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
 import software.amazon.awssdk.services.dynamodb.model.GetItemResponse;
-import software.amazon.awssdk.services.dynamodb.model.InternalServerErrorException;
 import software.amazon.awssdk.services.dynamodb.model.ProvisionedThroughputExceededException;
 import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
 import software.amazon.awssdk.services.dynamodb.model.PutItemResponse;
 import software.amazon.awssdk.services.dynamodb.model.QueryRequest;
 import software.amazon.awssdk.services.dynamodb.model.QueryResponse;
-import software.amazon.awssdk.services.dynamodb.model.RequestLimitExceededException;
-import software.amazon.awssdk.services.dynamodb.model.TransactionConflictException;
+import software.amazon.awssdk.services.dynamodb.model.ScanRequest;
+import software.amazon.awssdk.services.dynamodb.model.ScanResponse;
+import software.amazon.awssdk.services.dynamodb.model.TransactGetItemsRequest;
+import software.amazon.awssdk.services.dynamodb.model.TransactGetItemsResponse;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItemsRequest;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItemsResponse;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemResponse;
 
 /**
  * A wrapper around the DDBClient so that we can do retries, metrics, convert exceptions, etc.
@@ -70,21 +81,46 @@ public class DynamoDbClientAccessor {
    * The constant DELETE_ITEM_METRIC.
    */
   public static final String DELETE_ITEM_METRIC = DDB_ACCESSOR + "deleteItem";
+  /**
+   * The constant UPDATE_ITEM_METRIC.
+   */
+  public static final String UPDATE_ITEM_METRIC = DDB_ACCESSOR + "updateItem";
   /**
    * The constant BATCH_WRITE_ITEM_METRIC.
    */
   public static final String BATCH_WRITE_ITEM_METRIC = DDB_ACCESSOR + "batchWriteItem";
+  /**
+   * The constant BATCH_GET_ITEM_METRIC.
+   */
+  public static final String BATCH_GET_ITEM_METRIC = DDB_ACCESSOR + "batchGetItem";
+  /**
+   * The constant TRANSACT_GET_ITEMS_METRIC.
+   */
+  public static final String TRANSACT_GET_ITEMS_METRIC = DDB_ACCESSOR + "transactGetItems";
+  /**
+   * The constant TRANSACT_WRITE_ITEMS_METRIC.
+   */
+  public static final String TRANSACT_WRITE_ITEMS_METRIC = DDB_ACCESSOR + "transactWriteItems";
   private static final Logger LOGGER = LoggerFactory.getLogger(DynamoDbClientAccessor.class);
   private static final String QUERY_METRIC = DDB_ACCESSOR + "query";
+  private static final String SCAN_METRIC = DDB_ACCESSOR + "scan";
   private final Metrics metrics;
   private final BatchWriteConverter batchWriteConverter;
+  private final AdaptiveRateLimiter writeRateLimiter;
+  private final CapacityManager capacityManager;
+  private final DynamoDbExceptionMapper exceptionMapper;
 
   // --- function list ---
   private final Function<PutItemRequest, PutItemResponse> putItem;
   private final Function<GetItemRequest, GetItemResponse> getItem;
   private final Function<BatchWriteItemRequest, BatchWriteItemResponse> batchWriteItem;
   private final Function<QueryRequest, QueryResponse> query;
+  private final Function<ScanRequest, ScanResponse> scan;
   private final Function<DeleteItemRequest, DeleteItemResponse> deleteItem;
+  private final Function<UpdateItemRequest, UpdateItemResponse> updateItem;
+  private final Function<BatchGetItemRequest, BatchGetItemResponse> batchGetItem;
+  private final Function<TransactGetItemsRequest, TransactGetItemsResponse> transactGetItems;
+  private final Function<TransactWriteItemsRequest, TransactWriteItemsResponse> transactWriteItems;
 
   /**
    * Default constructor.
@@ -92,31 +128,99 @@ public class DynamoDbClientAccessor {
    * @param dynamoDbClient      for aws access.
    * @param metrics             for reporting.
    * @param batchWriteConverter converter for the batch.
+   * @param writeRateLimiter    client side write limiter, shared by all writes.
+   * @param capacityManager     records the consumed capacity of every response.
+   * @param exceptionMapper     converts the client exceptions.
    * @param retry               retry policy.
+   * @param transactRetry       retry policy for transactions, which may be cancelled by conflicts.
    */
   @Inject
   public DynamoDbClientAccessor(final DynamoDbClient dynamoDbClient,
                                 final Metrics metrics,
                                 final BatchWriteConverter batchWriteConverter,
-                                @Named(DdbModule.DDB_DAO_RETRY) final Retry retry) {
-    LOGGER.info("DynamoDbClientAccessor({},{},{})", dynamoDbClient, metrics, retry.getName());
+                                final AdaptiveRateLimiter writeRateLimiter,
+                                final CapacityManager capacityManager,
+                                final DynamoDbExceptionMapper exceptionMapper,
+                                @Named(DdbModule.DDB_DAO_RETRY) final Retry retry,
+                                @Named(DdbModule.DDB_TRANSACT_RETRY) final Retry transactRetry) {
+    LOGGER.info("DynamoDbClientAccessor({},{},{},{})", dynamoDbClient, metrics, retry.getName(),
+        transactRetry.getName());
     this.metrics = metrics;
     this.batchWriteConverter = batchWriteConverter;
+    this.writeRateLimiter = writeRateLimiter;
+    this.capacityManager = capacityManager;
+    this.exceptionMapper = exceptionMapper;
     putItem = Retry.decorateFunction(retry,                  // retries
-        (request) -> exceptionCheck(PUT_ITEM_METRIC,     // exception check and metrics
-            () -> dynamoDbClient.putItem(request))); // the actual function
+        (request) -> throttled(1, r -> 0,                  // client side write limit
+            () -> exceptionCheck(PUT_ITEM_METRIC,         // exception check and metrics
+                () -> dynamoDbClient.putItem(request)))); // the actual function
     getItem = Retry.decorateFunction(retry,
         (request) -> exceptionCheck(GET_ITEM_METRIC,
             () -> dynamoDbClient.getItem(request)));
     batchWriteItem = Retry.decorateFunction(retry,
-        (request) -> exceptionCheck(BATCH_WRITE_ITEM_METRIC,
-            () -> dynamoDbClient.batchWriteItem(request)));
+        (request) -> throttled(count(request.requestItems()), r -> count(r.unprocessedItems()),
+            () -> exceptionCheck(BATCH_WRITE_ITEM_METRIC,
+                () -> dynamoDbClient.batchWriteItem(request))));
     query = Retry.decorateFunction(retry,
         (request) -> exceptionCheck(QUERY_METRIC,
             () -> dynamoDbClient.query(request)));
+    scan = Retry.decorateFunction(retry,
+        (request) -> exceptionCheck(SCAN_METRIC,
+            () -> dynamoDbClient.scan(request)));
     deleteItem = Retry.decorateFunction(retry,
-        (request) -> exceptionCheck(DELETE_ITEM_METRIC,
-            () -> dynamoDbClient.deleteItem(request)));
+        (request) -> throttled(1, r -> 0,
+            () -> exceptionCheck(DELETE_ITEM_METRIC,
+                () -> dynamoDbClient.deleteItem(request))));
+    updateItem = Retry.decorateFunction(retry,
+        (request) -> throttled(1, r -> 0,
+            () -> exceptionCheck(UPDATE_ITEM_METRIC,
+                () -> dynamoDbClient.updateItem(request))));
+    batchGetItem = Retry.decorateFunction(retry,
+        (request) -> exceptionCheck(BATCH_GET_ITEM_METRIC,
+            () -> dynamoDbClient.batchGetItem(request)));
+    transactGetItems = Retry.decorateFunction(transactRetry,
+        (request) -> exceptionCheck(TRANSACT_GET_ITEMS_METRIC,
+            () -> dynamoDbClient.transactGetItems(request)));
+    transactWriteItems = Retry.decorateFunction(transactRetry,
+        (request) -> throttled(request.transactItems().size(), r -> 0,
+            () -> exceptionCheck(TRANSACT_WRITE_ITEMS_METRIC,
+                () -> dynamoDbClient.transactWriteItems(request))));
+  }
+
+  /**
+   * Applies the batch get item.
+   *
+   * @param request to apply.
+   * @return the response.
+   */
+  public BatchGetItemResponse batchGetItem(final BatchGetItemRequest request) {
+    final BatchGetItemResponse response = batchGetItem.apply(request);
+    capacityManager.read("batchGetItem", response.consumedCapacity());
+    return response;
+  }
+
+  /**
+   * Applies the transact get items.
+   *
+   * @param request to apply.
+   * @return the response.
+   */
+  public TransactGetItemsResponse transactGetItems(final TransactGetItemsRequest request) {
+    final TransactGetItemsResponse response = transactGetItems.apply(request);
+    capacityManager.read("transactGetItems", response.consumedCapacity());
+    return response;
+  }
+
+  /**
+   * Applies the transact write items.
+   *
+   * @param request to apply.
+   * @return the response.
+   */
+  public TransactWriteItemsResponse transactWriteItems(final TransactWriteItemsRequest request) {
+    final TransactWriteItemsResponse response = transactWriteItems.apply(request);
+    capacityManager.write("transactWriteItems", response.consumedCapacity());
+    return response;
   }
 
   /**
@@ -126,7 +230,9 @@ public class DynamoDbClientAccessor {
    * @return the response.
    */
   public BatchWriteItemResponse batchWriteItem(final BatchWriteItemRequest request) {
-    return batchWriteItem.apply(request);
+    final BatchWriteItemResponse response = batchWriteItem.apply(request);
+    capacityManager.write("batchWriteItem", response.consumedCapacity());
+    return response;
   }
 
   /**
@@ -149,7 +255,22 @@ public class DynamoDbClientAccessor {
    * @return the response.
    */
   public DeleteItemResponse deleteItem(final DeleteItemRequest request) {
-    return deleteItem.apply(request);
+    final DeleteItemResponse response = deleteItem.apply(request);
+    capacityManager.write("deleteItem", response.consumedCapacity());
+    return response;
+  }
+
+
+  /**
+   * Processes a request. Updates like ADD are not idempotent, so a retried update may be applied twice.
+   *
+   * @param request to apply.
+   * @return the response.
+   */
+  public UpdateItemResponse updateItem(final UpdateItemRequest request) {
+    final UpdateItemResponse response = updateItem.apply(request);
+    capacityManager.write("updateItem", response.consumedCapacity());
+    return response;
   }
 
 
@@ -160,7 +281,9 @@ public class DynamoDbClientAccessor {
    * @return the response.
    */
   public PutItemResponse putItem(final PutItemRequest request) {
-    return putItem.apply(request);
+    final PutItemResponse response = putItem.apply(request);
+    capacityManager.write("putItem", response.consumedCapacity());
+    return response;
   }
 
 
@@ -171,7 +294,9 @@ public class DynamoDbClientAccessor {
    * @return the response.
    */
   public GetItemResponse getItem(final GetItemRequest request) {
-    return getItem.apply(request);
+    final GetItemResponse response = getItem.apply(request);
+    capacityManager.read("getItem", response.consumedCapacity());
+    return response;
   }
 
 
@@ -182,7 +307,51 @@ public class DynamoDbClientAccessor {
    * @return the response.
    */
   public QueryResponse query(final QueryRequest request) {
-    return query.apply(request);
+    final QueryResponse response = query.apply(request);
+    capacityManager.read("query", response.consumedCapacity());
+    return response;
+  }
+
+  /**
+   * Processes a scan, usually one segment page of an export.
+   *
+   * @param request to apply.
+   * @return the response.
+   */
+  public ScanResponse scan(final ScanRequest request) {
+    final ScanResponse response = scan.apply(request);
+    capacityManager.read("scan", response.consumedCapacity());
+    return response;
+  }
+
+  /**
+   * Waits for write capacity from the limiter, then tells the limiter how much of the write was throttled.
+   * Retries come back through here, so they are paced as well.
+   *
+   * @param permits     items being written.
+   * @param unprocessed how many items in the response were not processed.
+   * @param supplier    to call.
+   * @param <T>         type.
+   * @return type.
+   */
+  private <T> T throttled(final int permits,
+                          final ToIntFunction<T> unprocessed,
+                          final Supplier<T> supplier) {
+    writeRateLimiter.acquire(permits);
+    try {
+      final T response = supplier.get();
+      writeRateLimiter.record(permits == 0 ? 0 : (double) unprocessed.applyAsInt(response) / permits);
+      return response;
+    } catch (RetryableException e) {
+      if (e.getCause() instanceof ProvisionedThroughputExceededException) {
+        writeRateLimiter.record(1.0);
+      }
+      throw e;
+    }
+  }
+
+  private int count(final Map<String, ? extends List<?>> items) {
+    return items == null ? 0 : items.values().stream().mapToInt(List::size).sum();
   }
 
   /**
@@ -197,11 +366,8 @@ public class DynamoDbClientAccessor {
     try {
       final Timer timer = metrics.registry().timer(metricName);
       return metrics.time(metricName, timer, supplier);
-    } catch (ProvisionedThroughputExceededException | TransactionConflictException | RequestLimitExceededException
-             | InternalServerErrorException e) {
-      throw new RetryableException(e);
     } catch (RuntimeException e) {
-      throw new DependencyException(e);
+      throw exceptionMapper.map(e);
     }
   }
 }
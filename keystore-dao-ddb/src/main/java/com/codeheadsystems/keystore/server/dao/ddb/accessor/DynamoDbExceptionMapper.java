@@ -0,0 +1,112 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.server.dao.ddb.accessor;
+
+import com.codeheadsystems.keystore.server.exception.DependencyException;
+import com.codeheadsystems.keystore.server.exception.RetryableException;
+import com.codeheadsystems.metrics.Metrics;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.services.dynamodb.model.CancellationReason;
+import software.amazon.awssdk.services.dynamodb.model.InternalServerErrorException;
+import software.amazon.awssdk.services.dynamodb.model.ProvisionedThroughputExceededException;
+import software.amazon.awssdk.services.dynamodb.model.RequestLimitExceededException;
+import software.amazon.awssdk.services.dynamodb.model.TransactionCanceledException;
+import software.amazon.awssdk.services.dynamodb.model.TransactionConflictException;
+
+/**
+ * Converts dynamodb client exceptions into ours, so the sync and async accessors retry the same failures.
+ */
+@Singleton
+public class DynamoDbExceptionMapper {
+
+  /**
+   * The constant TRANSACTION_CANCELED_METRIC, tagged by the cancellation reason.
+   */
+  public static final String TRANSACTION_CANCELED_METRIC = DynamoDbClientAccessor.DDB_ACCESSOR + "transactionCanceled";
+  /**
+   * The constant RETRYABLE_CANCELLATION_REASONS. A transaction cancelled only for these reasons can be retried.
+   */
+  public static final Set<String> RETRYABLE_CANCELLATION_REASONS =
+      Set.of("None", "TransactionConflict", "ThrottlingError", "ProvisionedThroughputExceeded");
+  private static final Logger LOGGER = LoggerFactory.getLogger(DynamoDbExceptionMapper.class);
+
+  private final Metrics metrics;
+
+  /**
+   * Default constructor.
+   *
+   * @param metrics for reporting cancellations.
+   */
+  @Inject
+  public DynamoDbExceptionMapper(final Metrics metrics) {
+    LOGGER.info("DynamoDbExceptionMapper({})", metrics);
+    this.metrics = metrics;
+  }
+
+  /**
+   * Maps the failure to a retryable exception if trying again can succeed, else a dependency exception. Our own
+   * exceptions pass through, and completion exceptions from async calls are unwrapped.
+   *
+   * @param throwable the failure.
+   * @return the exception to throw.
+   */
+  public RuntimeException map(final Throwable throwable) {
+    final Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null
+        ? throwable.getCause()
+        : throwable;
+    if (cause instanceof RetryableException || cause instanceof DependencyException) {
+      return (RuntimeException) cause;
+    }
+    if (cause instanceof ProvisionedThroughputExceededException
+        || cause instanceof TransactionConflictException
+        || cause instanceof RequestLimitExceededException
+        || cause instanceof InternalServerErrorException) {
+      return new RetryableException(cause);
+    }
+    if (cause instanceof TransactionCanceledException canceled) {
+      return canceled(canceled);
+    }
+    return new DependencyException(cause);
+  }
+
+  /**
+   * A cancelled transaction is retryable if every item was cancelled because of a conflict or throttling. Any
+   * other reason, like a failed condition, will fail again so is returned as a dependency exception.
+   *
+   * @param e the cancellation.
+   * @return the exception to throw.
+   */
+  private RuntimeException canceled(final TransactionCanceledException e) {
+    final List<String> reasons = e.hasCancellationReasons()
+        ? e.cancellationReasons().stream().map(CancellationReason::code).filter(Objects::nonNull).toList()
+        : List.of();
+    reasons.stream().filter(r -> !"None".equals(r)).distinct()
+        .forEach(r -> metrics.registry().counter(TRANSACTION_CANCELED_METRIC, "reason", r).increment());
+    if (!reasons.isEmpty() && RETRYABLE_CANCELLATION_REASONS.containsAll(reasons)) {
+      return new RetryableException(e);
+    }
+    return new DependencyException(e);
+  }
+
+}
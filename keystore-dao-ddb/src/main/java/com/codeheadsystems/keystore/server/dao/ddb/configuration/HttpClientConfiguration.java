@@ -0,0 +1,116 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.server.dao.ddb.configuration;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import org.immutables.value.Value;
+
+/**
+ * The http client behind the async dynamodb client. Each connection carries one request at a time, so the max
+ * concurrency is also the size of the connection pool.
+ */
+@Value.Immutable
+@JsonSerialize(as = ImmutableHttpClientConfiguration.class)
+@JsonDeserialize(builder = ImmutableHttpClientConfiguration.Builder.class)
+@JsonIgnoreProperties(ignoreUnknown = true)
+public interface HttpClientConfiguration {
+
+  /**
+   * Which http client implementation to use.
+   *
+   * @return the type.
+   */
+  @Value.Default
+  @JsonProperty("type")
+  default Type type() {
+    return Type.NETTY;
+  }
+
+  /**
+   * The max requests in flight, and so the max connections in the pool.
+   *
+   * @return the max concurrency.
+   */
+  @Value.Default
+  @JsonProperty("maxConcurrency")
+  default int maxConcurrency() {
+    return 50;
+  }
+
+  /**
+   * How many requests may wait for a connection before new ones fail. Only used by netty.
+   *
+   * @return the max pending acquires.
+   */
+  @Value.Default
+  @JsonProperty("maxPendingConnectionAcquires")
+  default int maxPendingConnectionAcquires() {
+    return 10000;
+  }
+
+  /**
+   * How long a request may wait for a connection from the pool. Only used by netty.
+   *
+   * @return the timeout in milliseconds.
+   */
+  @Value.Default
+  @JsonProperty("connectionAcquisitionTimeoutMillis")
+  default long connectionAcquisitionTimeoutMillis() {
+    return 10000L;
+  }
+
+  /**
+   * How long opening a connection may take.
+   *
+   * @return the timeout in milliseconds.
+   */
+  @Value.Default
+  @JsonProperty("connectionTimeoutMillis")
+  default long connectionTimeoutMillis() {
+    return 2000L;
+  }
+
+  /**
+   * How long a connection lives before it is closed, so the pool follows dynamodb endpoint changes. Netty honors
+   * this exactly, while crt has no time to live so it is used as the max idle time instead. Zero means forever.
+   *
+   * @return the time to live in milliseconds.
+   */
+  @Value.Default
+  @JsonProperty("connectionTtlMillis")
+  default long connectionTtlMillis() {
+    return 60000L;
+  }
+
+  /**
+   * The http client implementations.
+   */
+  enum Type {
+    /**
+     * The netty nio client.
+     */
+    NETTY,
+    /**
+     * The aws common runtime client.
+     */
+    CRT
+  }
+
+}
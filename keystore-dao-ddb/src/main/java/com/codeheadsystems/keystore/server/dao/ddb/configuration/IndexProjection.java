@@ -0,0 +1,63 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.server.dao.ddb.configuration;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import java.util.List;
+import org.immutables.value.Value;
+import software.amazon.awssdk.services.dynamodb.model.ProjectionType;
+
+/**
+ * What a global secondary index copies from the table. Anything projected is stored (and paid for) again in
+ * the index, so key material should never be projected unless the index really needs it.
+ */
+@Value.Immutable
+@JsonSerialize(as = ImmutableIndexProjection.class)
+@JsonDeserialize(builder = ImmutableIndexProjection.Builder.class)
+@JsonIgnoreProperties(ignoreUnknown = true)
+public interface IndexProjection {
+
+  /**
+   * The constant KEYS_ONLY, only the table and index keys.
+   */
+  IndexProjection KEYS_ONLY = ImmutableIndexProjection.builder().projectionType(ProjectionType.KEYS_ONLY).build();
+
+  /**
+   * The constant ALL, the whole item.
+   */
+  IndexProjection ALL = ImmutableIndexProjection.builder().projectionType(ProjectionType.ALL).build();
+
+  /**
+   * The projection type.
+   *
+   * @return the type.
+   */
+  @JsonProperty("projectionType")
+  ProjectionType projectionType();
+
+  /**
+   * The attributes projected beyond the keys, only used with INCLUDE.
+   *
+   * @return the attribute names.
+   */
+  @JsonProperty("nonKeyAttributes")
+  List<String> nonKeyAttributes();
+
+}
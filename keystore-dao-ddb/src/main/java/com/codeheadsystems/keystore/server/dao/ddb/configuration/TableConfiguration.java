@@ -16,6 +16,8 @@
 
 package com.codeheadsystems.keystore.server.dao.ddb.configuration;
 
+import com.codeheadsystems.keystore.server.dao.model.ImmutableRetentionPolicies;
+import com.codeheadsystems.keystore.server.dao.model.RetentionPolicies;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
@@ -75,6 +77,18 @@ public interface TableConfiguration {
     return "ttl";
   }
 
+  /**
+   * The retention of key versions. Inactive versions that expire under it get the ttl attribute, so dynamodb
+   * deletes them on its own, usually within a few days of expiring.
+   *
+   * @return the policies.
+   */
+  @Value.Default
+  @JsonProperty("retention")
+  default RetentionPolicies retention() {
+    return ImmutableRetentionPolicies.builder().build();
+  }
+
   /**
    * The index for all active key versions.
    *
@@ -108,4 +122,244 @@ public interface TableConfiguration {
     return "ownerSearchIndex";
   }
 
+  /**
+   * The projection of the active index. If the key value is not projected, loading the active key fetches the
+   * item from the table after finding it in the index. KEYS_ONLY saves storage and write capacity at the cost
+   * of that extra read. Existing tables keep their projection until AwsManager.migrateIndexes is run.
+   *
+   * @return the projection.
+   */
+  @Value.Default
+  @JsonProperty("activeIndexProjection")
+  default IndexProjection activeIndexProjection() {
+    return IndexProjection.ALL;
+  }
+
+  /**
+   * The projection of the owner index. Listing keys only needs the keys, so KEYS_ONLY is safe here.
+   *
+   * @return the projection.
+   */
+  @Value.Default
+  @JsonProperty("ownerIndexProjection")
+  default IndexProjection ownerIndexProjection() {
+    return IndexProjection.ALL;
+  }
+
+  /**
+   * The projection of the owner search index. Listing owners only needs the keys, so KEYS_ONLY is safe here.
+   *
+   * @return the projection.
+   */
+  @Value.Default
+  @JsonProperty("ownerSearchIndexProjection")
+  default IndexProjection ownerSearchIndexProjection() {
+    return IndexProjection.ALL;
+  }
+
+  /**
+   * How many partitions the owner search index is spread over. With one, every owner is in a single index
+   * partition. Owners stored with one shard are still found after raising this, but lowering it hides the
+   * owners in the dropped shards until they are stored again.
+   *
+   * @return the shard count.
+   */
+  @Value.Default
+  @JsonProperty("ownerSearchShards")
+  default int ownerSearchShards() {
+    return 1;
+  }
+
+  /**
+   * If storing a key writes the key and its owner row in one transaction, so a partial failure cannot leave
+   * orphaned rows. Costs twice the write capacity of a batch write. Bulk stores always use batch writes.
+   *
+   * @return true if enabled.
+   */
+  @Value.Default
+  @JsonProperty("transactionalWrites")
+  default boolean transactionalWrites() {
+    return true;
+  }
+
+  /**
+   * How long a non-transactional store may wait for other stores to share its batch write. Concurrent stores
+   * are grouped into one batch of up to 25 items. Zero disables group commit.
+   *
+   * @return the linger in milliseconds.
+   */
+  @Value.Default
+  @JsonProperty("groupCommitMillis")
+  default long groupCommitMillis() {
+    return 0L;
+  }
+
+  /**
+   * If each key keeps an active pointer item naming its newest active version. The pointer is written in the
+   * same transaction as the version, and loading the active key reads it with consistent reads instead of
+   * querying the (eventually consistent) active index.
+   *
+   * @return true if enabled.
+   */
+  @Value.Default
+  @JsonProperty("activePointer")
+  default boolean activePointer() {
+    return false;
+  }
+
+  /**
+   * How many batch write requests (of up to 25 items each) may be in flight at once for bulk operations.
+   *
+   * @return the concurrency.
+   */
+  @Value.Default
+  @JsonProperty("batchWriteConcurrency")
+  default int batchWriteConcurrency() {
+    return 8;
+  }
+
+  /**
+   * The base delay for retrying unprocessed items. Delays grow exponentially from here, with full jitter.
+   *
+   * @return the base delay in milliseconds.
+   */
+  @Value.Default
+  @JsonProperty("backoffBaseMillis")
+  default long backoffBaseMillis() {
+    return 25L;
+  }
+
+  /**
+   * The maximum delay for retrying unprocessed items.
+   *
+   * @return the max delay in milliseconds.
+   */
+  @Value.Default
+  @JsonProperty("backoffMaxMillis")
+  default long backoffMaxMillis() {
+    return 1000L;
+  }
+
+  /**
+   * The starting write rate, in items per second, of the adaptive client side write limiter.
+   *
+   * @return the rate.
+   */
+  @Value.Default
+  @JsonProperty("writeRateInitial")
+  default double writeRateInitial() {
+    return 1000.0;
+  }
+
+  /**
+   * The lowest the adaptive write limiter will go, in items per second.
+   *
+   * @return the rate.
+   */
+  @Value.Default
+  @JsonProperty("writeRateMin")
+  default double writeRateMin() {
+    return 10.0;
+  }
+
+  /**
+   * The highest the adaptive write limiter will go, in items per second.
+   *
+   * @return the rate.
+   */
+  @Value.Default
+  @JsonProperty("writeRateMax")
+  default double writeRateMax() {
+    return 40000.0;
+  }
+
+  /**
+   * The additive increase of the write rate after each unthrottled write.
+   *
+   * @return the increase in items per second.
+   */
+  @Value.Default
+  @JsonProperty("writeRateIncrease")
+  default double writeRateIncrease() {
+    return 5.0;
+  }
+
+  /**
+   * The multiplicative decrease of the write rate when fully throttled. Partial throttling (some unprocessed
+   * items) decreases the rate proportionally.
+   *
+   * @return the factor, between 0 and 1.
+   */
+  @Value.Default
+  @JsonProperty("writeRateDecrease")
+  default double writeRateDecrease() {
+    return 0.5;
+  }
+
+  /**
+   * If consumed capacity should also be reported per owner. Owners past the cardinality cap are reported as other.
+   *
+   * @return true if enabled.
+   */
+  @Value.Default
+  @JsonProperty("capacityByOwner")
+  default boolean capacityByOwner() {
+    return false;
+  }
+
+  /**
+   * The most owners that get their own tag on the per owner capacity metrics.
+   *
+   * @return the cap.
+   */
+  @Value.Default
+  @JsonProperty("capacityOwnerCardinality")
+  default int capacityOwnerCardinality() {
+    return 100;
+  }
+
+  /**
+   * The length of the rolling window used for the top owners by capacity.
+   *
+   * @return the window in seconds.
+   */
+  @Value.Default
+  @JsonProperty("capacityWindowSeconds")
+  default long capacityWindowSeconds() {
+    return 300L;
+  }
+
+  /**
+   * The most owners tracked in a window for the top owners by capacity. Bounds the memory used.
+   *
+   * @return the max owners.
+   */
+  @Value.Default
+  @JsonProperty("capacityOwnersTracked")
+  default int capacityOwnersTracked() {
+    return 10000;
+  }
+
+  /**
+   * The items read per page of an export scan. Smaller pages checkpoint more often and pace more smoothly.
+   *
+   * @return the page size.
+   */
+  @Value.Default
+  @JsonProperty("exportPageSize")
+  default int exportPageSize() {
+    return 100;
+  }
+
+  /**
+   * The read capacity an export may consume per second, across all of its segments. Zero for no limit.
+   *
+   * @return the read units per second.
+   */
+  @Value.Default
+  @JsonProperty("exportReadUnitsPerSecond")
+  default double exportReadUnitsPerSecond() {
+    return 100.0;
+  }
+
 }
@@ -19,6 +19,7 @@ package com.codeheadsystems.keystore.server.dao.ddb.converter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Collectors;
@@ -27,10 +28,15 @@ import javax.inject.Singleton;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
 import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.DeleteRequest;
+import software.amazon.awssdk.services.dynamodb.model.Put;
 import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
 import software.amazon.awssdk.services.dynamodb.model.PutRequest;
 import software.amazon.awssdk.services.dynamodb.model.ReturnConsumedCapacity;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItem;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItemsRequest;
 import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
 
 /**
@@ -63,11 +69,64 @@ public class BatchWriteConverter {
       items.get(request.tableName()).add(toWriteRequest(request));
     }
     return BatchWriteItemRequest.builder()
-        .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)
+        .returnConsumedCapacity(ReturnConsumedCapacity.INDEXES)
         .requestItems(items)
         .build();
   }
 
+  /**
+   * Converts write requests, by table name, into a batch.
+   *
+   * @param items the write requests by table name.
+   * @return a batch write request.
+   */
+  public BatchWriteItemRequest fromWriteRequests(final Map<String, List<WriteRequest>> items) {
+    return BatchWriteItemRequest.builder()
+        .returnConsumedCapacity(ReturnConsumedCapacity.INDEXES)
+        .requestItems(items)
+        .build();
+  }
+
+  /**
+   * Converts the put item requests, along with any other items, into one transaction. Everything succeeds or
+   * nothing does. DynamoDB limits a transaction to 100 items.
+   *
+   * @param puts   the put requests.
+   * @param others other items in the transaction.
+   * @return a transact write request.
+   */
+  public TransactWriteItemsRequest toTransactWriteItemsRequest(final List<PutItemRequest> puts,
+                                                               final TransactWriteItem... others) {
+    final List<TransactWriteItem> items = new ArrayList<>();
+    puts.forEach(put -> items.add(TransactWriteItem.builder()
+        .put(Put.builder().tableName(put.tableName()).item(put.item()).build())
+        .build()));
+    items.addAll(Arrays.asList(others));
+    return TransactWriteItemsRequest.builder()
+        .returnConsumedCapacity(ReturnConsumedCapacity.INDEXES)
+        .transactItems(items)
+        .build();
+  }
+
+  /**
+   * Converts the primary keys into a batch of deletes against the table. DynamoDB limits a batch to 25 items,
+   * so the caller is expected to chunk.
+   *
+   * @param tableName the table.
+   * @param keys      the primary keys to delete.
+   * @return a batch write request.
+   */
+  public BatchWriteItemRequest fromDeleteKeys(final String tableName,
+                                              final Collection<Map<String, AttributeValue>> keys) {
+    final List<WriteRequest> writeRequests = keys.stream()
+        .map(key -> WriteRequest.builder().deleteRequest(DeleteRequest.builder().key(key).build()).build())
+        .toList();
+    return BatchWriteItemRequest.builder()
+        .returnConsumedCapacity(ReturnConsumedCapacity.INDEXES)
+        .requestItems(Map.of(tableName, writeRequests))
+        .build();
+  }
+
   /**
    * Gets any unprocessed requests and returns them as a new batch write request.
    *
@@ -78,14 +137,20 @@ public class BatchWriteConverter {
     if (response.hasUnprocessedItems() && response.unprocessedItems().size() > 0) {
       return Optional.of(BatchWriteItemRequest.builder()
           .requestItems(response.unprocessedItems())
-          .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)
+          .returnConsumedCapacity(ReturnConsumedCapacity.INDEXES)
           .build());
     } else {
       return Optional.empty();
     }
   }
 
-  private WriteRequest toWriteRequest(final PutItemRequest putItemRequest) {
+  /**
+   * Converts the put item request into a write request for a batch.
+   *
+   * @param putItemRequest the request.
+   * @return the write request.
+   */
+  public WriteRequest toWriteRequest(final PutItemRequest putItemRequest) {
     return WriteRequest.builder()
         .putRequest(PutRequest.builder()
             .item(putItemRequest.item())
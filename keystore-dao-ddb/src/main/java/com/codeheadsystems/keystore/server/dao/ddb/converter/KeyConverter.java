@@ -35,23 +35,45 @@ import com.codeheadsystems.keystore.server.exception.DatalayerException;
 import com.codeheadsystems.metrics.Metrics;
 import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.MeterRegistry;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import software.amazon.awssdk.core.SdkBytes;
 import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemResponse;
 import software.amazon.awssdk.services.dynamodb.model.ComparisonOperator;
 import software.amazon.awssdk.services.dynamodb.model.Condition;
+import software.amazon.awssdk.services.dynamodb.model.Delete;
 import software.amazon.awssdk.services.dynamodb.model.DeleteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.Get;
 import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
 import software.amazon.awssdk.services.dynamodb.model.GetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.ItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.KeysAndAttributes;
+import software.amazon.awssdk.services.dynamodb.model.ProjectionType;
+import software.amazon.awssdk.services.dynamodb.model.Put;
 import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
 import software.amazon.awssdk.services.dynamodb.model.QueryRequest;
 import software.amazon.awssdk.services.dynamodb.model.QueryResponse;
 import software.amazon.awssdk.services.dynamodb.model.ReturnConsumedCapacity;
+import software.amazon.awssdk.services.dynamodb.model.ReturnValue;
+import software.amazon.awssdk.services.dynamodb.model.ScanRequest;
+import software.amazon.awssdk.services.dynamodb.model.ScanResponse;
+import software.amazon.awssdk.services.dynamodb.model.TransactGetItem;
+import software.amazon.awssdk.services.dynamodb.model.TransactGetItemsRequest;
+import software.amazon.awssdk.services.dynamodb.model.TransactGetItemsResponse;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItem;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemResponse;
 import software.amazon.awssdk.utils.ImmutableMap;
 
 /**
@@ -101,6 +123,34 @@ public class KeyConverter {
    * The format for the hashkey for a key.
    */
   public static final String KEY_VERSION_HASH = "keyVersion:%s:%s";
+  /**
+   * The constant KEY_VERSION_PREFIX, what every key version hash starts with.
+   */
+  public static final String KEY_VERSION_PREFIX = "keyVersion:";
+  /**
+   * The format for the hashkey of the active pointer of a key.
+   */
+  public static final String ACTIVE_POINTER_HASH = "keyActive:%s:%s";
+  /**
+   * The range key of the active pointer.
+   */
+  public static final String ACTIVE_POINTER_RANGE = "pointer";
+  /**
+   * The version the active pointer points to.
+   */
+  public static final String ACTIVE_POINTER_VERSION = "version";
+  /**
+   * The format for the hashkey of the version counter of a key.
+   */
+  public static final String VERSION_COUNTER_HASH = "keyCounter:%s:%s";
+  /**
+   * The range key of the version counter.
+   */
+  public static final String VERSION_COUNTER_RANGE = "counter";
+  /**
+   * The last version the counter handed out.
+   */
+  public static final String VERSION_COUNTER_NEXT = "next";
   /**
    * The constant INVALID_INDEX.
    */
@@ -117,11 +167,16 @@ public class KeyConverter {
    * The constant FOUND_UNEXPECTEDLY.
    */
   public static final String FOUND_UNEXPECTEDLY = "found.unexpectedly";
+  /**
+   * The constant KEYCONVERTER_TTL, counts the versions written with an expiry.
+   */
+  public static final String KEYCONVERTER_TTL = "keyconverter.ttl";
   private static final Logger LOGGER = LoggerFactory.getLogger(KeyConverter.class);
   private final TableConfiguration configuration;
   private final TokenManager tokenManager;
   private final Counter activeWithoutIndexCounter;
   private final Counter inactiveWithIndexCounter;
+  private final Counter ttlCounter;
 
   /**
    * Default constructor.
@@ -140,10 +195,12 @@ public class KeyConverter {
     final MeterRegistry registry = metrics.registry();
     activeWithoutIndexCounter = registry.counter(KEYCONVERTER_ACTIVEINDEX, INVALID_INDEX, MISSING_BUT_EXPECTED);
     inactiveWithIndexCounter = registry.counter(KEYCONVERTER_ACTIVEINDEX, INVALID_INDEX, FOUND_UNEXPECTEDLY);
+    ttlCounter = registry.counter(KEYCONVERTER_TTL);
   }
 
   /**
-   * Creates a put item request.
+   * Creates a put item request. Inactive versions that expire under the retention policy of the key get the ttl
+   * attribute, in epoch seconds.
    *
    * @param key for the request
    * @return a put item request.
@@ -163,9 +220,13 @@ public class KeyConverter {
     builder.put(OWNER_HASH_KEY_VERSION_IDX, fromS(key.keyVersionIdentifier().owner()));
     builder.put(ACTIVE_HASH, key.active() ? fromS(hashKey) : null); // index
     key.updateDate().ifPresent(date -> builder.put(UPDATE, fromN(Long.toString(date.getTime()))));
+    configuration.retention().policy(identifier).expiry(key).ifPresent(expiry -> {
+      builder.put(configuration.ttlKey(), fromN(Long.toString(expiry.getEpochSecond())));
+      ttlCounter.increment();
+    });
     return PutItemRequest.builder()
         .tableName(configuration.tableName())
-        .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)
+        .returnConsumedCapacity(ReturnConsumedCapacity.INDEXES)
         .item(builder.build())
         .build();
   }
@@ -191,13 +252,287 @@ public class KeyConverter {
     builder.put(configuration.rangeKey(), fromS(rangeKey(identifier)));
     final GetItemRequest request = GetItemRequest.builder()
         .tableName(configuration.tableName())
-        .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)
+        .returnConsumedCapacity(ReturnConsumedCapacity.INDEXES)
         .key(builder.build())
         .build();
     return request;
 
   }
 
+  /**
+   * Creates a get item request, optionally with a strongly consistent read.
+   *
+   * @param identifier to convert.
+   * @param consistent if the read should be strongly consistent.
+   * @return the request.
+   */
+  public GetItemRequest toGetItemRequest(final KeyVersionIdentifier identifier,
+                                         final boolean consistent) {
+    return toGetItemRequest(identifier).toBuilder().consistentRead(consistent).build();
+  }
+
+  /**
+   * The primary key of the active pointer of the key.
+   *
+   * @param identifier of the key.
+   * @return the primary key.
+   */
+  public Map<String, AttributeValue> toActivePointerPrimaryKey(final KeyIdentifier identifier) {
+    return Map.of(
+        configuration.hashKey(), fromS(String.format(ACTIVE_POINTER_HASH, identifier.owner(), identifier.key())),
+        configuration.rangeKey(), fromS(ACTIVE_POINTER_RANGE));
+  }
+
+  /**
+   * Strongly consistent read of the active pointer.
+   *
+   * @param identifier of the key.
+   * @return the request.
+   */
+  public GetItemRequest toActivePointerGetItemRequest(final KeyIdentifier identifier) {
+    LOGGER.debug("toActivePointerGetItemRequest({})", identifier);
+    return GetItemRequest.builder()
+        .tableName(configuration.tableName())
+        .returnConsumedCapacity(ReturnConsumedCapacity.INDEXES)
+        .consistentRead(true)
+        .key(toActivePointerPrimaryKey(identifier))
+        .build();
+  }
+
+  /**
+   * The version the pointer names, if there is one.
+   *
+   * @param identifier of the key.
+   * @param response   of the pointer read.
+   * @return the key version identifier.
+   */
+  public Optional<KeyVersionIdentifier> toActivePointerVersion(final KeyIdentifier identifier,
+                                                               final GetItemResponse response) {
+    if (!response.hasItem() || !response.item().containsKey(ACTIVE_POINTER_VERSION)) {
+      return Optional.empty();
+    }
+    return Optional.of(ImmutableKeyVersionIdentifier.builder()
+        .owner(identifier.owner())
+        .key(identifier.key())
+        .version(Long.parseLong(response.item().get(ACTIVE_POINTER_VERSION).n()))
+        .build());
+  }
+
+  /**
+   * The change to the active pointer that goes in the same transaction as the key version. An active version
+   * takes the pointer unless a newer version already has it. An inactive version removes the pointer only if
+   * the pointer names it. Either condition failing cancels the transaction, which means the pointer is already
+   * right and only the version needs to be written.
+   *
+   * @param key being stored.
+   * @return the transaction item.
+   */
+  public TransactWriteItem toActivePointerWrite(final Key key) {
+    final KeyVersionIdentifier identifier = key.keyVersionIdentifier();
+    final Map<String, String> names = Map.of("#v", ACTIVE_POINTER_VERSION);
+    final Map<String, AttributeValue> values = Map.of(":v", fromN(identifier.version().toString()));
+    if (key.active()) {
+      final Map<String, AttributeValue> item = new HashMap<>(toActivePointerPrimaryKey(identifier));
+      item.put(ACTIVE_POINTER_VERSION, fromN(identifier.version().toString()));
+      return TransactWriteItem.builder()
+          .put(Put.builder()
+              .tableName(configuration.tableName())
+              .item(item)
+              .conditionExpression("attribute_not_exists(#v) OR #v <= :v")
+              .expressionAttributeNames(names)
+              .expressionAttributeValues(values)
+              .build())
+          .build();
+    } else {
+      return TransactWriteItem.builder()
+          .delete(Delete.builder()
+              .tableName(configuration.tableName())
+              .key(toActivePointerPrimaryKey(identifier))
+              .conditionExpression("#v = :v")
+              .expressionAttributeNames(names)
+              .expressionAttributeValues(values)
+              .build())
+          .build();
+    }
+  }
+
+  /**
+   * The put of the key version that goes in a transaction, only if the version does not exist yet.
+   *
+   * @param key being stored.
+   * @return the transaction item.
+   */
+  public TransactWriteItem toPutIfAbsentWrite(final Key key) {
+    return TransactWriteItem.builder()
+        .put(Put.builder()
+            .tableName(configuration.tableName())
+            .item(toPutItemRequest(key).item())
+            .conditionExpression("attribute_not_exists(#h)")
+            .expressionAttributeNames(Map.of("#h", configuration.hashKey()))
+            .build())
+        .build();
+  }
+
+  /**
+   * The primary key of the version counter of the key.
+   *
+   * @param identifier of the key.
+   * @return the primary key.
+   */
+  public Map<String, AttributeValue> toVersionCounterPrimaryKey(final KeyIdentifier identifier) {
+    return Map.of(
+        configuration.hashKey(), fromS(String.format(VERSION_COUNTER_HASH, identifier.owner(), identifier.key())),
+        configuration.rangeKey(), fromS(VERSION_COUNTER_RANGE));
+  }
+
+  /**
+   * Atomically adds to the version counter of the key, creating it at zero if needed, and returns the new value.
+   *
+   * @param identifier of the key.
+   * @param increment  to add, at least one.
+   * @return the request.
+   */
+  public UpdateItemRequest toVersionCounterUpdateItemRequest(final KeyIdentifier identifier,
+                                                             final long increment) {
+    LOGGER.debug("toVersionCounterUpdateItemRequest({},{})", identifier, increment);
+    return UpdateItemRequest.builder()
+        .tableName(configuration.tableName())
+        .returnConsumedCapacity(ReturnConsumedCapacity.INDEXES)
+        .key(toVersionCounterPrimaryKey(identifier))
+        .updateExpression("ADD #n :i")
+        .expressionAttributeNames(Map.of("#n", VERSION_COUNTER_NEXT))
+        .expressionAttributeValues(Map.of(":i", fromN(Long.toString(increment))))
+        .returnValues(ReturnValue.UPDATED_NEW)
+        .build();
+  }
+
+  /**
+   * Raises the version counter of the key to the version, only if the counter is behind it. Versions stored
+   * explicitly use this so the counter never hands them out again.
+   *
+   * @param identifier of the key version.
+   * @return the request, whose condition fails if the counter is already at or past the version.
+   */
+  public UpdateItemRequest toVersionCounterRaiseItemRequest(final KeyVersionIdentifier identifier) {
+    LOGGER.debug("toVersionCounterRaiseItemRequest({})", identifier);
+    return UpdateItemRequest.builder()
+        .tableName(configuration.tableName())
+        .returnConsumedCapacity(ReturnConsumedCapacity.INDEXES)
+        .key(toVersionCounterPrimaryKey(identifier))
+        .updateExpression("SET #n = :v")
+        .conditionExpression("attribute_not_exists(#n) OR #n < :v")
+        .expressionAttributeNames(Map.of("#n", VERSION_COUNTER_NEXT))
+        .expressionAttributeValues(Map.of(":v", fromN(identifier.version().toString())))
+        .build();
+  }
+
+  /**
+   * The version the counter handed out.
+   *
+   * @param response of the counter update.
+   * @return the version.
+   */
+  public long toVersion(final UpdateItemResponse response) {
+    return Long.parseLong(response.attributes().get(VERSION_COUNTER_NEXT).n());
+  }
+
+  /**
+   * The version of a key version primary key.
+   *
+   * @param primaryKey of the key version.
+   * @return the version.
+   */
+  public long toVersion(final Map<String, AttributeValue> primaryKey) {
+    return Long.parseLong(primaryKey.get(configuration.rangeKey()).s());
+  }
+
+  /**
+   * The primary key of the key version.
+   *
+   * @param identifier to convert.
+   * @return the primary key.
+   */
+  public Map<String, AttributeValue> toPrimaryKey(final KeyVersionIdentifier identifier) {
+    final ImmutableMap.Builder<String, AttributeValue> builder = ImmutableMap.builder();
+    builder.put(configuration.hashKey(), fromS(hashKey(identifier)));
+    builder.put(configuration.rangeKey(), fromS(rangeKey(identifier)));
+    return builder.build();
+  }
+
+  /**
+   * Creates a batch get request for the key versions. DynamoDB limits this to 100 keys, so the caller is
+   * expected to chunk.
+   *
+   * @param identifiers to get.
+   * @return the request.
+   */
+  public BatchGetItemRequest toBatchGetItemRequest(final Collection<KeyVersionIdentifier> identifiers) {
+    LOGGER.debug("toBatchGetItemRequest({})", identifiers.size());
+    final List<Map<String, AttributeValue>> keys = identifiers.stream()
+        .map(this::toPrimaryKey)
+        .distinct() // duplicates are rejected by ddb.
+        .toList();
+    return BatchGetItemRequest.builder()
+        .returnConsumedCapacity(ReturnConsumedCapacity.INDEXES)
+        .requestItems(Map.of(configuration.tableName(), KeysAndAttributes.builder().keys(keys).build()))
+        .build();
+  }
+
+  /**
+   * Converts the items in the batch response to keys. Unprocessed keys are not part of this.
+   *
+   * @param response from ddb.
+   * @return the keys found.
+   */
+  public List<Key> from(final BatchGetItemResponse response) {
+    LOGGER.debug("BatchGetItemResponse()");
+    if (!response.hasResponses()) {
+      return List.of();
+    }
+    return response.responses().getOrDefault(configuration.tableName(), List.of()).stream()
+        .map(this::from)
+        .toList();
+  }
+
+  /**
+   * Creates a transactional get for the key versions, giving a consistent snapshot. DynamoDB limits this to
+   * 100 items.
+   *
+   * @param identifiers to get.
+   * @return the request.
+   */
+  public TransactGetItemsRequest toTransactGetItemsRequest(final Collection<KeyVersionIdentifier> identifiers) {
+    LOGGER.debug("toTransactGetItemsRequest({})", identifiers.size());
+    final List<TransactGetItem> items = identifiers.stream()
+        .map(identifier -> TransactGetItem.builder()
+            .get(Get.builder().tableName(configuration.tableName()).key(toPrimaryKey(identifier)).build())
+            .build())
+        .toList();
+    return TransactGetItemsRequest.builder()
+        .returnConsumedCapacity(ReturnConsumedCapacity.INDEXES)
+        .transactItems(items)
+        .build();
+  }
+
+  /**
+   * Converts the items in the transactional response to keys. Missing items are skipped.
+   *
+   * @param response from ddb.
+   * @return the keys found.
+   */
+  public List<Key> from(final TransactGetItemsResponse response) {
+    LOGGER.debug("TransactGetItemsResponse()");
+    if (!response.hasResponses()) {
+      return List.of();
+    }
+    return response.responses().stream()
+        .map(ItemResponse::item)
+        .filter(Objects::nonNull)
+        .filter(item -> !item.isEmpty())
+        .map(this::from)
+        .toList();
+  }
+
   /**
    * Converts a response to a key.
    *
@@ -218,7 +553,7 @@ public class KeyConverter {
    */
   public Key from(final Map<String, AttributeValue> item) {
     final ImmutableKey.Builder builder = ImmutableKey.builder()
-        .keyVersionIdentifier(versionIdentifierFrom(item))
+        .keyVersionIdentifier(toKeyVersionIdentifier(item))
         .value(item.get(KEY_VALUE).b().asByteArray())
         .aux(item.get(KEY_AUX).b().asByteArray())
         .active(item.get(ACTIVE).bool())
@@ -250,7 +585,13 @@ public class KeyConverter {
     }
   }
 
-  private KeyVersionIdentifier versionIdentifierFrom(final Map<String, AttributeValue> item) {
+  /**
+   * The key version identifier from the primary key of the item. Works on index items without the key value.
+   *
+   * @param item from ddb.
+   * @return the identifier.
+   */
+  public KeyVersionIdentifier toKeyVersionIdentifier(final Map<String, AttributeValue> item) {
     final String hash = item.get(configuration.hashKey()).s();
     final String[] tokens = hash.split(":");
     if (tokens.length != 3) {
@@ -267,24 +608,77 @@ public class KeyConverter {
   }
 
   /**
-   * Gets a query request for active keys.
+   * Gets a query request for active keys. Unless the index projects everything, only the primary key is
+   * read from the index and the caller fetches the item itself.
    *
    * @param identifier for the request.
    * @return the request.
    */
   public QueryRequest toActiveQueryRequest(final KeyIdentifier identifier) {
     LOGGER.debug("toActiveQueryRequest({})", identifier);
-    return QueryRequest.builder()
+    final QueryRequest.Builder builder = QueryRequest.builder()
         .tableName(configuration.tableName())
         .indexName(configuration.activeIndex())
-        .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)
+        .returnConsumedCapacity(ReturnConsumedCapacity.INDEXES)
         .scanIndexForward(false) // reverse the result set
         .limit(1) // this actually works because we are using the index, and will only get the first result.
         .keyConditions(Map.of(ACTIVE_HASH, Condition.builder()
             .comparisonOperator(ComparisonOperator.EQ)
             .attributeValueList(fromS(hashKey(identifier)))
-            .build()))
-        .build();
+            .build()));
+    if (!ProjectionType.ALL.equals(configuration.activeIndexProjection().projectionType())) {
+      builder.attributesToGet(configuration.hashKey(), configuration.rangeKey());
+    }
+    return builder.build();
+  }
+
+  /**
+   * Gets a scan request for one segment of an export. Only key versions pass the filter, but the owner rows and
+   * active pointers in the segment still consume read capacity.
+   *
+   * @param segment       this segment.
+   * @param totalSegments the segments the table is split into.
+   * @param startKey      where the segment left off, empty to start it.
+   * @return the request.
+   */
+  public ScanRequest toScanRequest(final int segment,
+                                   final int totalSegments,
+                                   final Map<String, AttributeValue> startKey) {
+    LOGGER.debug("toScanRequest({},{})", segment, totalSegments);
+    final ScanRequest.Builder builder = ScanRequest.builder()
+        .tableName(configuration.tableName())
+        .segment(segment)
+        .totalSegments(totalSegments)
+        .limit(configuration.exportPageSize())
+        .returnConsumedCapacity(ReturnConsumedCapacity.INDEXES)
+        .scanFilter(Map.of(configuration.hashKey(), Condition.builder()
+            .comparisonOperator(ComparisonOperator.BEGINS_WITH)
+            .attributeValueList(fromS(KEY_VERSION_PREFIX))
+            .build()));
+    if (startKey != null && !startKey.isEmpty()) {
+      builder.exclusiveStartKey(startKey);
+    }
+    return builder.build();
+  }
+
+  /**
+   * Converts a scan page to keys.
+   *
+   * @param response from ddb.
+   * @return the keys.
+   */
+  public List<Key> from(final ScanResponse response) {
+    return response.hasItems() ? response.items().stream().map(this::from).toList() : List.of();
+  }
+
+  /**
+   * If the item has the key material, or is just the keys from an index.
+   *
+   * @param item from ddb.
+   * @return true if the item can be converted to a key.
+   */
+  public boolean isComplete(final Map<String, AttributeValue> item) {
+    return item.containsKey(KEY_VALUE);
   }
 
 
@@ -300,7 +694,7 @@ public class KeyConverter {
     LOGGER.debug("toKeyVersionsQueryRequest({})", identifier);
     final QueryRequest.Builder builder = QueryRequest.builder()
         .tableName(configuration.tableName())
-        .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)
+        .returnConsumedCapacity(ReturnConsumedCapacity.INDEXES)
         .keyConditions(Map.of(configuration.hashKey(), Condition.builder()
             .comparisonOperator(ComparisonOperator.EQ)
             .attributeValueList(fromS(hashKey(identifier)))
@@ -322,7 +716,7 @@ public class KeyConverter {
     LOGGER.debug("toBatchKeyVersionIdentifier()");
     final ImmutableBatch.Builder<KeyVersionIdentifier> builder = ImmutableBatch.builder();
     if (response.hasItems()) { // get the key identifiers
-      response.items().forEach(item -> builder.addList(versionIdentifierFrom(item)));
+      response.items().forEach(item -> builder.addList(toKeyVersionIdentifier(item)));
     }
     if (response.hasLastEvaluatedKey()) { // get the token.
       builder.nextToken(tokenManager.serialize(response.lastEvaluatedKey()));
@@ -343,7 +737,7 @@ public class KeyConverter {
     builder.put(configuration.rangeKey(), fromS(rangeKey(identifier)));
     return DeleteItemRequest.builder()
         .tableName(configuration.tableName())
-        .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)
+        .returnConsumedCapacity(ReturnConsumedCapacity.INDEXES)
         .key(builder.build())
         .build();
   }
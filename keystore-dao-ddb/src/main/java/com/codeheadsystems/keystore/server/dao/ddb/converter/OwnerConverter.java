@@ -27,7 +27,14 @@ import com.codeheadsystems.keystore.server.dao.model.ImmutableOwnerIdentifier;
 import com.codeheadsystems.keystore.server.dao.model.KeyIdentifier;
 import com.codeheadsystems.keystore.server.dao.model.OwnerIdentifier;
 import com.codeheadsystems.keystore.server.dao.model.Token;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import org.slf4j.Logger;
@@ -64,6 +71,11 @@ public class OwnerConverter {
    * The constant KEY_RANGE_FORMAT.
    */
   public static final String KEY_RANGE_FORMAT = "key:%s";
+  /**
+   * The constant SHARD_FORMAT, for the owner search shards.
+   */
+  public static final String SHARD_FORMAT = "%s#%d";
+  private static final String KEY_RANGE_PREFIX = "key:";
   private static final Logger LOGGER = LoggerFactory.getLogger(OwnerConverter.class);
   private final TableConfiguration configuration;
   private final TokenManager tokenManager;
@@ -97,11 +109,45 @@ public class OwnerConverter {
     builder.put(configuration.rangeKey(), fromS(rangeKey));
     return PutItemRequest.builder()
         .tableName(configuration.tableName())
-        .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)
+        .returnConsumedCapacity(ReturnConsumedCapacity.INDEXES)
         .item(builder.build())
         .build();
   }
 
+  /**
+   * The primary key of the owner row for the key.
+   *
+   * @param identifier of the key.
+   * @return the primary key.
+   */
+  public Map<String, AttributeValue> toPrimaryKey(final KeyIdentifier identifier) {
+    return Map.of(
+        configuration.hashKey(), fromS(getOwnerHashKey(identifier)),
+        configuration.rangeKey(), fromS(getRangeKey(identifier)));
+  }
+
+  /**
+   * Extracts the primary key from an item in the owner partition.
+   *
+   * @param item from a query.
+   * @return the primary key.
+   */
+  public Map<String, AttributeValue> primaryKeyOf(final Map<String, AttributeValue> item) {
+    return Map.of(
+        configuration.hashKey(), item.get(configuration.hashKey()),
+        configuration.rangeKey(), item.get(configuration.rangeKey()));
+  }
+
+  /**
+   * Is this item in the owner partition a key row, as opposed to the owner info row.
+   *
+   * @param item from a query.
+   * @return true if it is a key.
+   */
+  public boolean isKey(final Map<String, AttributeValue> item) {
+    return item.get(configuration.rangeKey()).s().startsWith(KEY_RANGE_PREFIX);
+  }
+
   /**
    * Creates a put item request.
    *
@@ -114,10 +160,10 @@ public class OwnerConverter {
     final String hashKey = getOwnerHashKey(identifier);
     builder.put(configuration.hashKey(), fromS(hashKey));
     builder.put(configuration.rangeKey(), fromS(INFO_RANGE));
-    builder.put(OWNER_SEARCH_IDX, fromS(INFO_RANGE)); // used to search for all owners.
+    builder.put(OWNER_SEARCH_IDX, fromS(ownerSearchShard(identifier.owner()))); // used to search for all owners.
     return PutItemRequest.builder()
         .tableName(configuration.tableName())
-        .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)
+        .returnConsumedCapacity(ReturnConsumedCapacity.INDEXES)
         .item(builder.build())
         .build();
   }
@@ -135,7 +181,7 @@ public class OwnerConverter {
     builder.put(configuration.rangeKey(), fromS(INFO_RANGE));
     return GetItemRequest.builder()
         .tableName(configuration.tableName())
-        .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)
+        .returnConsumedCapacity(ReturnConsumedCapacity.INDEXES)
         .key(builder.build())
         .build();
   }
@@ -164,17 +210,49 @@ public class OwnerConverter {
     LOGGER.debug("toOwnerQueryKeysRequest({})", identifier);
     final QueryRequest.Builder builder = QueryRequest.builder()
         .tableName(configuration.tableName())
-        .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)
+        .returnConsumedCapacity(ReturnConsumedCapacity.INDEXES)
         .keyConditions(Map.of(configuration.hashKey(), Condition.builder()
             .comparisonOperator(ComparisonOperator.EQ)
             .attributeValueList(fromS(String.format(HASH, identifier.owner())))
-            .build()));
+            .build()))
+        .attributesToGet(configuration.hashKey(), configuration.rangeKey()); // identifiers only
     if (nextToken != null) {
       builder.exclusiveStartKey(tokenManager.deserialize(nextToken));
     }
     return builder.build();
   }
 
+  /**
+   * The owner search shard the owner is written to. With a single shard this is the plain info value, so
+   * tables written before sharding keep working.
+   *
+   * @param owner the owner.
+   * @return the value of the owner search index.
+   */
+  public String ownerSearchShard(final String owner) {
+    final int shards = configuration.ownerSearchShards();
+    if (shards <= 1) {
+      return INFO_RANGE;
+    }
+    return String.format(SHARD_FORMAT, INFO_RANGE, Math.floorMod(owner.hashCode(), shards));
+  }
+
+  /**
+   * Every owner search shard that needs to be queried to list all owners. When sharded, the plain info value
+   * is included for owners written before sharding was turned on.
+   *
+   * @return the shard values.
+   */
+  public List<String> ownerSearchShards() {
+    final int shards = configuration.ownerSearchShards();
+    if (shards <= 1) {
+      return List.of(INFO_RANGE);
+    }
+    return Stream.concat(Stream.of(INFO_RANGE),
+            IntStream.range(0, shards).mapToObj(i -> String.format(SHARD_FORMAT, INFO_RANGE, i)))
+        .toList();
+  }
+
   /**
    * returns a request to get the owners in the system.
    *
@@ -182,21 +260,47 @@ public class OwnerConverter {
    * @return query request
    */
   public QueryRequest toOwnerSearchQueryRequest(final Token nextToken) {
-    LOGGER.debug("toOwnerSearchQueryRequest()");
+    return toOwnerSearchQueryRequest(INFO_RANGE, nextToken == null ? Map.of() : tokenManager.deserialize(nextToken));
+  }
+
+  /**
+   * returns a request to get the owners in one shard of the owner search index.
+   *
+   * @param shard    the shard value.
+   * @param startKey where to start, empty for the beginning.
+   * @return query request
+   */
+  public QueryRequest toOwnerSearchQueryRequest(final String shard,
+                                                final Map<String, AttributeValue> startKey) {
+    LOGGER.debug("toOwnerSearchQueryRequest({})", shard);
     final QueryRequest.Builder builder = QueryRequest.builder()
         .tableName(configuration.tableName())
         .indexName(configuration.ownerSearchIndex())
-        .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)
+        .returnConsumedCapacity(ReturnConsumedCapacity.INDEXES)
         .keyConditions(Map.of(OWNER_SEARCH_IDX, Condition.builder()
             .comparisonOperator(ComparisonOperator.EQ)
-            .attributeValueList(fromS(INFO_RANGE))
-            .build()));
-    if (nextToken != null) {
-      builder.exclusiveStartKey(tokenManager.deserialize(nextToken));
+            .attributeValueList(fromS(shard))
+            .build()))
+        .attributesToGet(configuration.hashKey()); // the owner is in the hash key
+    if (!startKey.isEmpty()) {
+      builder.exclusiveStartKey(startKey);
     }
     return builder.build();
   }
 
+  /**
+   * The cursors for a sharded owner search, from the token.
+   *
+   * @param nextToken can be null, which starts every shard from the beginning.
+   * @return the start key by shard, empty for shards starting from the beginning.
+   */
+  public Map<String, Map<String, AttributeValue>> toOwnerSearchCursors(final Token nextToken) {
+    if (nextToken == null) {
+      return ownerSearchShards().stream().collect(Collectors.toMap(Function.identity(), s -> Map.of()));
+    }
+    return tokenManager.deserializeShards(nextToken);
+  }
+
   /**
    * Creates a batch object.
    *
@@ -207,8 +311,9 @@ public class OwnerConverter {
     LOGGER.debug("toBatchKeyIdentifier()");
     final ImmutableBatch.Builder<KeyIdentifier> builder = ImmutableBatch.builder();
     if (response.hasItems()) { // get the key identifiers
-      // TODO: ERROR, this needs to ignore Owner INFO rows now.
-      response.items().forEach(item -> builder.addList(toKeyIdentifier(item)));
+      response.items().stream()
+          .filter(this::isKey)
+          .forEach(item -> builder.addList(toKeyIdentifier(item)));
     }
     if (response.hasLastEvaluatedKey()) { // get the token.
       builder.nextToken(tokenManager.serialize(response.lastEvaluatedKey()));
@@ -234,7 +339,41 @@ public class OwnerConverter {
     return builder.build();
   }
 
-  private KeyIdentifier toKeyIdentifier(final Map<String, AttributeValue> item) {
+  /**
+   * Merges the pages from each shard of the owner search. The token carries the cursor of every shard that
+   * has more; shards that are done are dropped from it.
+   *
+   * @param responses by shard.
+   * @return the batch.
+   */
+  public Batch<OwnerIdentifier> toBatchOwnerIdentifier(final Map<String, QueryResponse> responses) {
+    LOGGER.debug("toBatchOwnerIdentifier({})", responses.size());
+    final ImmutableBatch.Builder<OwnerIdentifier> builder = ImmutableBatch.builder();
+    final Map<String, Map<String, AttributeValue>> cursors = new HashMap<>();
+    responses.forEach((shard, response) -> {
+      if (response.hasLastEvaluatedKey() && !response.lastEvaluatedKey().isEmpty()) {
+        cursors.put(shard, response.lastEvaluatedKey());
+      }
+    });
+    responses.values().stream()
+        .filter(QueryResponse::hasItems)
+        .flatMap(response -> response.items().stream())
+        .map(this::toOwnerIdentifier)
+        .sorted(Comparator.comparing(OwnerIdentifier::owner))
+        .forEach(builder::addList);
+    if (!cursors.isEmpty()) {
+      builder.nextToken(tokenManager.serializeShards(cursors));
+    }
+    return builder.build();
+  }
+
+  /**
+   * Creates the key identifier from a key row in the owner partition.
+   *
+   * @param item from a query.
+   * @return the key identifier.
+   */
+  public KeyIdentifier toKeyIdentifier(final Map<String, AttributeValue> item) {
     return ImmutableKeyIdentifier.builder()
         .owner(getOwnerFrom(item.get(configuration.hashKey())))
         .key(getKeyFrom(item.get(configuration.rangeKey())))
@@ -249,7 +388,7 @@ public class OwnerConverter {
 
   private String getKeyFrom(final AttributeValue attributeValue) {
     final String value = attributeValue.s();
-    return value.substring(4); // length of 'key:'
+    return value.substring(KEY_RANGE_PREFIX.length());
   }
 
   private String getRangeKey(final KeyIdentifier identifier) {
@@ -35,6 +35,10 @@ import io.github.resilience4j.retry.Retry;
 import io.github.resilience4j.retry.RetryConfig;
 import io.github.resilience4j.retry.RetryRegistry;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.inject.Named;
 import javax.inject.Singleton;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
@@ -51,6 +55,36 @@ public class DdbModule {
    * The constant DDB_DAO_RETRY.
    */
   public static final String DDB_DAO_RETRY = "DDB_DAO_RETRY";
+  /**
+   * The constant DDB_TRANSACT_RETRY.
+   */
+  public static final String DDB_TRANSACT_RETRY = "DDB_TRANSACT_RETRY";
+  /**
+   * The constant DDB_BATCH_EXECUTOR.
+   */
+  public static final String DDB_BATCH_EXECUTOR = "DDB_BATCH_EXECUTOR";
+  /**
+   * The constant DDB_RETRY_SCHEDULER.
+   */
+  public static final String DDB_RETRY_SCHEDULER = "DDB_RETRY_SCHEDULER";
+
+  private final TableConfiguration tableConfiguration;
+
+  /**
+   * Uses the default table configuration.
+   */
+  public DdbModule() {
+    this(ImmutableTableConfiguration.builder().build());
+  }
+
+  /**
+   * Uses the given table configuration.
+   *
+   * @param tableConfiguration for the table.
+   */
+  public DdbModule(final TableConfiguration tableConfiguration) {
+    this.tableConfiguration = tableConfiguration;
+  }
 
   /**
    * Object mapper object mapper.
@@ -72,7 +106,7 @@ public class DdbModule {
   @Provides
   @Singleton
   public TableConfiguration tableConfiguration() {
-    return ImmutableTableConfiguration.builder().build();
+    return tableConfiguration;
   }
 
   /**
@@ -97,6 +131,63 @@ public class DdbModule {
     return registry.retry(DDB_DAO_RETRY);
   }
 
+  /**
+   * Provides the retry for transactions. Conflicting transactions are cancelled by dynamodb and succeed when
+   * tried again, so this retries more often than the default with jitter so the writers do not collide again.
+   *
+   * @param metrics system we are using.
+   * @return retry.
+   */
+  @Named(DDB_TRANSACT_RETRY)
+  @Provides
+  @Singleton
+  public Retry transactRetry(final Metrics metrics) {
+    final RetryConfig config = RetryConfig.custom()
+        .maxAttempts(5)
+        .retryExceptions(RetryableException.class)
+        .intervalFunction(IntervalFunction.ofExponentialRandomBackoff(50, 2, 0.5))
+        .failAfterMaxAttempts(true)
+        .build();
+    final RetryRegistry registry = RetryRegistry.of(config);
+    TaggedRetryMetrics.ofRetryRegistry(registry)
+        .bindTo(metrics.registry());
+    return registry.retry(DDB_TRANSACT_RETRY);
+  }
+
+  /**
+   * Provides the executor used for parallel batch writes. Its size bounds the number of batch requests in flight.
+   *
+   * @param tableConfiguration for the concurrency.
+   * @return the executor service.
+   */
+  @Named(DDB_BATCH_EXECUTOR)
+  @Provides
+  @Singleton
+  public ExecutorService batchExecutorService(final TableConfiguration tableConfiguration) {
+    final AtomicInteger count = new AtomicInteger();
+    return Executors.newFixedThreadPool(tableConfiguration.batchWriteConcurrency(), runnable -> {
+      final Thread thread = new Thread(runnable, "ddb-batch-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Provides the scheduler the async accessor waits between retries on, so no thread blocks while waiting.
+   *
+   * @return the scheduler.
+   */
+  @Named(DDB_RETRY_SCHEDULER)
+  @Provides
+  @Singleton
+  public ScheduledExecutorService retryScheduler() {
+    return Executors.newSingleThreadScheduledExecutor(runnable -> {
+      final Thread thread = new Thread(runnable, "ddb-retry");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
   /**
    * Binder to create the dao.
    */
@@ -0,0 +1,107 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.server.dao.ddb.factory;
+
+import com.codeheadsystems.keystore.server.dao.ddb.configuration.HttpClientConfiguration;
+import java.net.URI;
+import java.time.Duration;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.http.async.SdkAsyncHttpClient;
+import software.amazon.awssdk.http.crt.AwsCrtAsyncHttpClient;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClientBuilder;
+
+/**
+ * Builds async dynamodb clients on the configured http client.
+ */
+@Singleton
+public class DynamoDbAsyncClientFactory {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(DynamoDbAsyncClientFactory.class);
+
+  /**
+   * Default constructor.
+   */
+  @Inject
+  public DynamoDbAsyncClientFactory() {
+    LOGGER.info("DynamoDbAsyncClientFactory()");
+  }
+
+  /**
+   * The builder for the http client. Handing the builder rather than the client to dynamodb lets the dynamodb
+   * client own the http client, so closing one closes the other.
+   *
+   * @param configuration for the http client.
+   * @return the http client builder.
+   */
+  public SdkAsyncHttpClient.Builder<?> httpClientBuilder(final HttpClientConfiguration configuration) {
+    LOGGER.info("httpClientBuilder({})", configuration);
+    final Duration ttl = Duration.ofMillis(configuration.connectionTtlMillis());
+    return switch (configuration.type()) {
+      case NETTY -> {
+        final NettyNioAsyncHttpClient.Builder builder = NettyNioAsyncHttpClient.builder()
+            .maxConcurrency(configuration.maxConcurrency())
+            .maxPendingConnectionAcquires(configuration.maxPendingConnectionAcquires())
+            .connectionAcquisitionTimeout(Duration.ofMillis(configuration.connectionAcquisitionTimeoutMillis()))
+            .connectionTimeout(Duration.ofMillis(configuration.connectionTimeoutMillis()));
+        if (!ttl.isZero()) {
+          builder.connectionTimeToLive(ttl);
+        }
+        yield builder;
+      }
+      case CRT -> {
+        final AwsCrtAsyncHttpClient.Builder builder = AwsCrtAsyncHttpClient.builder()
+            .maxConcurrency(configuration.maxConcurrency())
+            .connectionTimeout(Duration.ofMillis(configuration.connectionTimeoutMillis()));
+        if (!ttl.isZero()) {
+          builder.connectionMaxIdleTime(ttl);
+        }
+        yield builder;
+      }
+    };
+  }
+
+  /**
+   * Builds the async dynamodb client. Closing the client closes its http client.
+   *
+   * @param configuration       for the http client.
+   * @param credentialsProvider for aws.
+   * @param region              the region.
+   * @param endpoint            overrides the regional endpoint if not null, like for dynamodb local.
+   * @return the client.
+   */
+  public DynamoDbAsyncClient client(final HttpClientConfiguration configuration,
+                                    final AwsCredentialsProvider credentialsProvider,
+                                    final Region region,
+                                    final URI endpoint) {
+    final DynamoDbAsyncClientBuilder builder = DynamoDbAsyncClient.builder()
+        .httpClientBuilder(httpClientBuilder(configuration))
+        .credentialsProvider(credentialsProvider)
+        .region(region);
+    if (endpoint != null) {
+      builder.endpointOverride(endpoint);
+    }
+    return builder.build();
+  }
+
+}
@@ -0,0 +1,120 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.server.dao.ddb.manager;
+
+import com.codeheadsystems.keystore.server.dao.ddb.configuration.TableConfiguration;
+import com.codeheadsystems.keystore.server.exception.DependencyException;
+import com.codeheadsystems.metrics.Metrics;
+import java.util.concurrent.TimeUnit;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Client side write limiter, shared by everything writing through the accessor. The rate adapts with AIMD:
+ * every unthrottled write adds a little to the rate, and throttling (unprocessed items or a provisioned
+ * throughput exception) cuts it multiplicatively, in proportion to how much of the write was throttled.
+ * That way we slow down before dynamodb has to tell us twice.
+ */
+@Singleton
+public class AdaptiveRateLimiter {
+
+  /**
+   * The constant WRITE_RATE_METRIC.
+   */
+  public static final String WRITE_RATE_METRIC = "ddbdao.writeRate";
+  private static final Logger LOGGER = LoggerFactory.getLogger(AdaptiveRateLimiter.class);
+  private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  private final double minRate;
+  private final double maxRate;
+  private final double increase;
+  private final double decrease;
+  private double rate;
+  private long nextFreeNanos;
+
+  /**
+   * Default constructor.
+   *
+   * @param configuration for the limits.
+   * @param metrics       for the rate gauge.
+   */
+  @Inject
+  public AdaptiveRateLimiter(final TableConfiguration configuration,
+                             final Metrics metrics) {
+    LOGGER.info("AdaptiveRateLimiter({},{},{})", configuration.writeRateInitial(), configuration.writeRateMin(),
+        configuration.writeRateMax());
+    this.minRate = configuration.writeRateMin();
+    this.maxRate = configuration.writeRateMax();
+    this.increase = configuration.writeRateIncrease();
+    this.decrease = configuration.writeRateDecrease();
+    this.rate = Math.max(minRate, Math.min(maxRate, configuration.writeRateInitial()));
+    this.nextFreeNanos = System.nanoTime();
+    metrics.registry().gauge(WRITE_RATE_METRIC, this, AdaptiveRateLimiter::rate);
+  }
+
+  /**
+   * The current rate.
+   *
+   * @return items per second.
+   */
+  public synchronized double rate() {
+    return rate;
+  }
+
+  /**
+   * Waits until the permits are available at the current rate. Permits are reserved in order, so a large
+   * batch delays the callers after it rather than itself.
+   *
+   * @param permits the number of items about to be written.
+   */
+  public void acquire(final int permits) {
+    final long waitNanos;
+    synchronized (this) {
+      final long now = System.nanoTime();
+      final long start = Math.max(now, nextFreeNanos);
+      nextFreeNanos = start + (long) (permits * NANOS_PER_SECOND / rate);
+      waitNanos = start - now;
+    }
+    if (waitNanos > 0) {
+      try {
+        TimeUnit.NANOSECONDS.sleep(waitNanos);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new DependencyException("Interrupted waiting for write capacity", e);
+      }
+    }
+  }
+
+  /**
+   * Feedback from a write.
+   *
+   * @param throttledRatio the fraction of the write that was throttled, 0 for none and 1 for all of it.
+   */
+  public synchronized void record(final double throttledRatio) {
+    final double previous = rate;
+    if (throttledRatio <= 0) {
+      rate = Math.min(maxRate, rate + increase);
+    } else {
+      final double ratio = Math.min(1.0, throttledRatio);
+      rate = Math.max(minRate, rate * (1.0 - (1.0 - decrease) * ratio));
+      LOGGER.debug("Write rate decreased {} -> {} (throttled {})", previous, rate, ratio);
+    }
+  }
+
+}
@@ -16,23 +16,43 @@
 
 package com.codeheadsystems.keystore.server.dao.ddb.manager;
 
+import com.codeheadsystems.keystore.server.dao.ddb.configuration.IndexProjection;
 import com.codeheadsystems.keystore.server.dao.ddb.configuration.TableConfiguration;
 import com.codeheadsystems.keystore.server.dao.ddb.converter.KeyConverter;
 import com.codeheadsystems.keystore.server.dao.ddb.converter.OwnerConverter;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
 import software.amazon.awssdk.services.dynamodb.model.AttributeDefinition;
 import software.amazon.awssdk.services.dynamodb.model.BillingMode;
+import software.amazon.awssdk.services.dynamodb.model.CreateGlobalSecondaryIndexAction;
 import software.amazon.awssdk.services.dynamodb.model.CreateTableRequest;
+import software.amazon.awssdk.services.dynamodb.model.DeleteGlobalSecondaryIndexAction;
+import software.amazon.awssdk.services.dynamodb.model.DescribeTableRequest;
 import software.amazon.awssdk.services.dynamodb.model.GlobalSecondaryIndex;
+import software.amazon.awssdk.services.dynamodb.model.GlobalSecondaryIndexDescription;
+import software.amazon.awssdk.services.dynamodb.model.GlobalSecondaryIndexUpdate;
+import software.amazon.awssdk.services.dynamodb.model.IndexStatus;
 import software.amazon.awssdk.services.dynamodb.model.KeySchemaElement;
 import software.amazon.awssdk.services.dynamodb.model.KeyType;
 import software.amazon.awssdk.services.dynamodb.model.Projection;
 import software.amazon.awssdk.services.dynamodb.model.ProjectionType;
+import software.amazon.awssdk.services.dynamodb.model.ProvisionedThroughput;
+import software.amazon.awssdk.services.dynamodb.model.ProvisionedThroughputDescription;
 import software.amazon.awssdk.services.dynamodb.model.ScalarAttributeType;
+import software.amazon.awssdk.services.dynamodb.model.TableDescription;
+import software.amazon.awssdk.services.dynamodb.model.TableStatus;
 import software.amazon.awssdk.services.dynamodb.model.TimeToLiveSpecification;
+import software.amazon.awssdk.services.dynamodb.model.UpdateTableRequest;
 import software.amazon.awssdk.services.dynamodb.model.UpdateTimeToLiveRequest;
 
 /**
@@ -44,6 +64,7 @@ import software.amazon.awssdk.services.dynamodb.model.UpdateTimeToLiveRequest;
 @Singleton
 public class AwsManager {
 
+  private static final Logger LOGGER = LoggerFactory.getLogger(AwsManager.class);
   private final DynamoDbClient client;
   private final TableConfiguration tableConfiguration;
 
@@ -86,7 +107,7 @@ public class AwsManager {
     // Index for active keys for a version.
     final GlobalSecondaryIndex activeIndex = GlobalSecondaryIndex.builder()
         .indexName(tableConfiguration.activeIndex())
-        .projection(Projection.builder().projectionType(ProjectionType.ALL).build())
+        .projection(projection(tableConfiguration.activeIndexProjection()))
         .keySchema(
             KeySchemaElement.builder().keyType(KeyType.HASH).attributeName(KeyConverter.ACTIVE_HASH).build(),
             KeySchemaElement.builder().keyType(KeyType.RANGE).attributeName(tableConfiguration.rangeKey()).build()
@@ -95,7 +116,7 @@ public class AwsManager {
     // Index for all keys of an owner.
     final GlobalSecondaryIndex ownerIndex = GlobalSecondaryIndex.builder()
         .indexName(tableConfiguration.ownerIndex())
-        .projection(Projection.builder().projectionType(ProjectionType.ALL).build())
+        .projection(projection(tableConfiguration.ownerIndexProjection()))
         .keySchema(
             KeySchemaElement.builder().keyType(KeyType.HASH)
                 .attributeName(KeyConverter.OWNER_HASH_KEY_VERSION_IDX).build(),
@@ -106,7 +127,7 @@ public class AwsManager {
     // Index for all owners.
     final GlobalSecondaryIndex ownerSearchIndex = GlobalSecondaryIndex.builder()
         .indexName(tableConfiguration.ownerSearchIndex())
-        .projection(Projection.builder().projectionType(ProjectionType.ALL).build())
+        .projection(projection(tableConfiguration.ownerSearchIndexProjection()))
         .keySchema(
             KeySchemaElement.builder().keyType(KeyType.HASH).attributeName(OwnerConverter.OWNER_SEARCH_IDX).build(),
             KeySchemaElement.builder().keyType(KeyType.RANGE).attributeName(tableConfiguration.hashKey()).build()
@@ -122,6 +143,135 @@ public class AwsManager {
   }
 
 
+  private Projection projection(final IndexProjection indexProjection) {
+    final Projection.Builder builder = Projection.builder().projectionType(indexProjection.projectionType());
+    if (ProjectionType.INCLUDE.equals(indexProjection.projectionType())) {
+      builder.nonKeyAttributes(indexProjection.nonKeyAttributes());
+    }
+    return builder.build();
+  }
+
+  /**
+   * Brings the indexes of an existing table in line with the configuration. Missing indexes are created, one
+   * at a time since dynamodb only allows one index change per update. Indexes whose projection differs are only
+   * dropped and rebuilt when asked to, since queries against an index fail while it is rebuilt. For a rebuild
+   * without downtime configure a new index name, migrate, deploy, and then drop the old index with deleteIndex().
+   *
+   * @param rebuild    if indexes whose projection differs are dropped and rebuilt, otherwise they are left alone.
+   * @param pollMillis how long to wait between checks on the index status.
+   * @return the names of the indexes created or rebuilt.
+   */
+  public List<String> migrateIndexes(final boolean rebuild,
+                                     final long pollMillis) {
+    final CreateTableRequest desired = createTableRequest();
+    final TableDescription table = describe();
+    final Map<String, GlobalSecondaryIndexDescription> existing = table.hasGlobalSecondaryIndexes()
+        ? table.globalSecondaryIndexes().stream()
+        .collect(Collectors.toMap(GlobalSecondaryIndexDescription::indexName, Function.identity()))
+        : Map.of();
+    final List<String> migrated = new ArrayList<>();
+    for (GlobalSecondaryIndex index : desired.globalSecondaryIndexes()) {
+      final GlobalSecondaryIndexDescription current = existing.get(index.indexName());
+      if (current != null && sameProjection(current.projection(), index.projection())) {
+        continue;
+      }
+      if (current != null && !rebuild) {
+        LOGGER.warn("migrateIndexes: {} is {} but configured as {}, not rebuilding", index.indexName(),
+            current.projection().projectionType(), index.projection().projectionType());
+        continue;
+      }
+      if (current != null) {
+        LOGGER.warn("migrateIndexes: rebuilding {} from {} to {}", index.indexName(),
+            current.projection().projectionType(), index.projection().projectionType());
+        deleteIndex(index.indexName());
+        waitFor(pollMillis, t -> !hasIndex(t, index.indexName()));
+      } else {
+        LOGGER.warn("migrateIndexes: creating {}", index.indexName());
+      }
+      createIndex(desired, index, table, current);
+      waitFor(pollMillis, t -> isActive(t, index.indexName()));
+      migrated.add(index.indexName());
+    }
+    return migrated;
+  }
+
+  /**
+   * Drops an index from the table.
+   *
+   * @param indexName to drop.
+   */
+  public void deleteIndex(final String indexName) {
+    LOGGER.info("deleteIndex({})", indexName);
+    client.updateTable(UpdateTableRequest.builder()
+        .tableName(tableConfiguration.tableName())
+        .globalSecondaryIndexUpdates(GlobalSecondaryIndexUpdate.builder()
+            .delete(DeleteGlobalSecondaryIndexAction.builder().indexName(indexName).build())
+            .build())
+        .build());
+  }
+
+  private void createIndex(final CreateTableRequest desired,
+                           final GlobalSecondaryIndex index,
+                           final TableDescription table,
+                           final GlobalSecondaryIndexDescription previous) {
+    final CreateGlobalSecondaryIndexAction.Builder action = CreateGlobalSecondaryIndexAction.builder()
+        .indexName(index.indexName())
+        .keySchema(index.keySchema())
+        .projection(index.projection());
+    final boolean provisioned = table.billingModeSummary() == null
+        || BillingMode.PROVISIONED.equals(table.billingModeSummary().billingMode());
+    if (provisioned) {
+      final ProvisionedThroughputDescription throughput = previous != null
+          ? previous.provisionedThroughput() : table.provisionedThroughput();
+      action.provisionedThroughput(ProvisionedThroughput.builder()
+          .readCapacityUnits(throughput.readCapacityUnits())
+          .writeCapacityUnits(throughput.writeCapacityUnits())
+          .build());
+    }
+    client.updateTable(UpdateTableRequest.builder()
+        .tableName(tableConfiguration.tableName())
+        .attributeDefinitions(desired.attributeDefinitions())
+        .globalSecondaryIndexUpdates(GlobalSecondaryIndexUpdate.builder().create(action.build()).build())
+        .build());
+  }
+
+  private boolean sameProjection(final Projection current,
+                                 final Projection desired) {
+    return current.projectionType().equals(desired.projectionType())
+        && Set.copyOf(current.nonKeyAttributes()).equals(Set.copyOf(desired.nonKeyAttributes()));
+  }
+
+  private TableDescription describe() {
+    return client.describeTable(DescribeTableRequest.builder().tableName(tableConfiguration.tableName()).build())
+        .table();
+  }
+
+  private boolean hasIndex(final TableDescription table,
+                           final String indexName) {
+    return table.hasGlobalSecondaryIndexes()
+        && table.globalSecondaryIndexes().stream().anyMatch(i -> i.indexName().equals(indexName));
+  }
+
+  private boolean isActive(final TableDescription table,
+                           final String indexName) {
+    return TableStatus.ACTIVE.equals(table.tableStatus())
+        && table.hasGlobalSecondaryIndexes()
+        && table.globalSecondaryIndexes().stream()
+        .anyMatch(i -> i.indexName().equals(indexName) && IndexStatus.ACTIVE.equals(i.indexStatus()));
+  }
+
+  private void waitFor(final long pollMillis,
+                       final Predicate<TableDescription> condition) {
+    while (!condition.test(describe())) {
+      try {
+        Thread.sleep(pollMillis);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted waiting on the table", e);
+      }
+    }
+  }
+
   /**
    * Create table.
    */
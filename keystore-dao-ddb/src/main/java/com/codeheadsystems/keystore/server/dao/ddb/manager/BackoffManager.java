@@ -0,0 +1,90 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.codeheadsystems.keystore.server.dao.ddb.manager;
+
+import com.codeheadsystems.keystore.server.dao.ddb.configuration.TableConfiguration;
+import com.codeheadsystems.keystore.server.exception.DependencyException;
+import java.util.concurrent.ThreadLocalRandom;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Exponential backoff with full jitter: sleep a random time between zero and the capped exponential delay.
+ * Used between attempts at unprocessed items so many callers retrying at once spread out instead of
+ * hammering dynamodb together.
+ */
+@Singleton
+public class BackoffManager {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(BackoffManager.class);
+  private static final int MAX_SHIFT = 20;
+
+  private final long baseMillis;
+  private final long maxMillis;
+
+  /**
+   * Default constructor.
+   *
+   * @param configuration for the delays.
+   */
+  @Inject
+  public BackoffManager(final TableConfiguration configuration) {
+    LOGGER.info("BackoffManager({},{})", configuration.backoffBaseMillis(), configuration.backoffMaxMillis());
+    this.baseMillis = configuration.backoffBaseMillis();
+    this.maxMillis = configuration.backoffMaxMillis();
+  }
+
+  /**
+   * The delay for the attempt, before jitter.
+   *
+   * @param attempt starting at 1 for the first retry.
+   * @return the capped exponential delay in milliseconds.
+   */
+  public long ceiling(final int attempt) {
+    final int shift = Math.min(Math.max(attempt - 1, 0), MAX_SHIFT);
+    return Math.min(maxMillis, baseMillis << shift);
+  }
+
+  /**
+   * The jittered delay for the attempt.
+   *
+   * @param attempt starting at 1 for the first retry.
+   * @return the delay in milliseconds.
+   */
+  public long delay(final int attempt) {
+    final long ceiling = ceiling(attempt);
+    return ceiling <= 0 ? 0 : ThreadLocalRandom.current().nextLong(ceiling + 1);
+  }
+
+  /**
+   * Sleeps for the jittered delay of the attempt.
+   *
+   * @param attempt starting at 1 for the first retry.
+   */
+  public void backoff(final int attempt) {
+    final long delay = delay(attempt);
+    LOGGER.trace("backoff({}): {}ms", attempt, delay);
+    try {
+      Thread.sleep(delay);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new DependencyException("Interrupted during backoff", e);
+    }
+  }
+
+}
@@ -0,0 +1,195 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.codeheadsystems.keystore.server.dao.ddb.manager;
+
+import com.codeheadsystems.keystore.server.dao.ddb.accessor.DynamoDbClientAccessor;
+import com.codeheadsystems.keystore.server.dao.ddb.converter.KeyConverter;
+import com.codeheadsystems.keystore.server.dao.ddb.dagger.DdbModule;
+import com.codeheadsystems.keystore.server.dao.model.Key;
+import com.codeheadsystems.keystore.server.dao.model.KeyVersionIdentifier;
+import com.codeheadsystems.keystore.server.exception.DependencyException;
+import com.codeheadsystems.metrics.Metrics;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.ConsumedCapacity;
+import software.amazon.awssdk.services.dynamodb.model.TransactGetItemsResponse;
+
+/**
+ * Loads many key versions at once. Batch gets are split into chunks of 100 and sent in parallel on the batch
+ * executor; unprocessed keys are retried with jittered backoff. Transactional gets give a consistent snapshot
+ * but are limited to a single request of 100 items.
+ */
+@Singleton
+public class BatchGetManager {
+
+  /**
+   * The constant MAX_ITEMS_PER_BATCH, the dynamodb limit for both batch and transactional gets.
+   */
+  public static final int MAX_ITEMS_PER_BATCH = 100;
+  /**
+   * The constant MAX_TIMES, how many times we will request unprocessed keys.
+   */
+  public static final int MAX_TIMES = 8;
+  /**
+   * The constant PREFIX.
+   */
+  public static final String PREFIX = "ddbdao.batchGet.";
+  private static final Logger LOGGER = LoggerFactory.getLogger(BatchGetManager.class);
+
+  private final DynamoDbClientAccessor dynamoDbClientAccessor;
+  private final KeyConverter keyConverter;
+  private final BackoffManager backoffManager;
+  private final ExecutorService executorService;
+  private final Counter counterChunks;
+  private final Counter counterUnprocessed;
+  private final Counter counterRetries;
+  private final DistributionSummary consumedCapacity;
+  private final DistributionSummary transactConsumedCapacity;
+
+  /**
+   * Default constructor.
+   *
+   * @param dynamoDbClientAccessor to access dynamodb.
+   * @param keyConverter           for the requests and responses.
+   * @param backoffManager         for retrying unprocessed keys.
+   * @param executorService        for parallel chunks.
+   * @param metrics                for reporting.
+   */
+  @Inject
+  public BatchGetManager(final DynamoDbClientAccessor dynamoDbClientAccessor,
+                         final KeyConverter keyConverter,
+                         final BackoffManager backoffManager,
+                         @Named(DdbModule.DDB_BATCH_EXECUTOR) final ExecutorService executorService,
+                         final Metrics metrics) {
+    LOGGER.info("BatchGetManager({})", dynamoDbClientAccessor);
+    this.dynamoDbClientAccessor = dynamoDbClientAccessor;
+    this.keyConverter = keyConverter;
+    this.backoffManager = backoffManager;
+    this.executorService = executorService;
+    final MeterRegistry registry = metrics.registry();
+    counterChunks = registry.counter(PREFIX + "chunks");
+    counterUnprocessed = registry.counter(PREFIX + "unprocessed");
+    counterRetries = registry.counter(PREFIX + "retries");
+    consumedCapacity = registry.summary(PREFIX + "consumed.capacity");
+    transactConsumedCapacity = registry.summary("ddbdao.transactGet.consumed.capacity");
+  }
+
+  /**
+   * Loads the key versions, in parallel chunks. Keys not found are not in the result. Order is not preserved.
+   *
+   * @param identifiers to load.
+   * @return the keys found.
+   */
+  public List<Key> load(final List<KeyVersionIdentifier> identifiers) {
+    LOGGER.debug("load({})", identifiers.size());
+    if (identifiers.isEmpty()) {
+      return List.of();
+    } else if (identifiers.size() <= MAX_ITEMS_PER_BATCH) { // no need for another thread.
+      return loadChunk(identifiers);
+    }
+    final List<CompletableFuture<List<Key>>> futures = new ArrayList<>();
+    for (int i = 0; i < identifiers.size(); i += MAX_ITEMS_PER_BATCH) {
+      final List<KeyVersionIdentifier> chunk =
+          identifiers.subList(i, Math.min(identifiers.size(), i + MAX_ITEMS_PER_BATCH));
+      futures.add(CompletableFuture.supplyAsync(CapacityManager.propagate(() -> loadChunk(chunk)), executorService));
+    }
+    try {
+      final List<Key> result = new ArrayList<>();
+      futures.forEach(f -> result.addAll(f.join()));
+      return result;
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException runtimeException) {
+        throw runtimeException;
+      }
+      throw new DependencyException("Failed loading keys", e.getCause());
+    }
+  }
+
+  /**
+   * Loads the key versions in a single transaction, so the result is a consistent snapshot.
+   *
+   * @param identifiers to load, at most 100.
+   * @return the keys found, in request order.
+   */
+  public List<Key> loadSnapshot(final List<KeyVersionIdentifier> identifiers) {
+    LOGGER.debug("loadSnapshot({})", identifiers.size());
+    if (identifiers.size() > MAX_ITEMS_PER_BATCH) {
+      throw new IllegalArgumentException("Snapshot loads are limited to " + MAX_ITEMS_PER_BATCH + " keys");
+    }
+    if (identifiers.isEmpty()) {
+      return List.of();
+    }
+    final TransactGetItemsResponse response =
+        dynamoDbClientAccessor.transactGetItems(keyConverter.toTransactGetItemsRequest(identifiers));
+    if (response.hasConsumedCapacity()) {
+      transactConsumedCapacity.record(sum(response.consumedCapacity()));
+    }
+    return keyConverter.from(response);
+  }
+
+  private List<Key> loadChunk(final List<KeyVersionIdentifier> chunk) {
+    counterChunks.increment();
+    final List<Key> result = new ArrayList<>();
+    double capacity = 0;
+    BatchGetItemRequest request = keyConverter.toBatchGetItemRequest(chunk);
+    int times = 0;
+    while (true) {
+      times++;
+      final BatchGetItemResponse response = dynamoDbClientAccessor.batchGetItem(request);
+      if (response.hasConsumedCapacity()) {
+        capacity += sum(response.consumedCapacity());
+      }
+      result.addAll(keyConverter.from(response));
+      if (!response.hasUnprocessedKeys() || response.unprocessedKeys().isEmpty()) {
+        break;
+      }
+      final int unprocessed = response.unprocessedKeys().values().stream().mapToInt(k -> k.keys().size()).sum();
+      counterUnprocessed.increment(unprocessed);
+      if (times >= MAX_TIMES) {
+        consumedCapacity.record(capacity);
+        throw new DependencyException("Unable to load all keys, unprocessed: " + unprocessed);
+      }
+      counterRetries.increment();
+      backoffManager.backoff(times);
+      request = request.toBuilder().requestItems(response.unprocessedKeys()).build();
+    }
+    consumedCapacity.record(capacity);
+    return result;
+  }
+
+  private double sum(final List<ConsumedCapacity> capacities) {
+    return capacities.stream()
+        .map(ConsumedCapacity::capacityUnits)
+        .filter(Objects::nonNull)
+        .mapToDouble(Double::doubleValue)
+        .sum();
+  }
+
+}
@@ -0,0 +1,201 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.server.dao.ddb.manager;
+
+import com.codeheadsystems.keystore.server.dao.ddb.accessor.DynamoDbClientAccessor;
+import com.codeheadsystems.keystore.server.dao.ddb.converter.BatchWriteConverter;
+import com.codeheadsystems.keystore.server.dao.ddb.dagger.DdbModule;
+import com.codeheadsystems.keystore.server.exception.DependencyException;
+import com.codeheadsystems.keystore.server.exception.RetryableException;
+import com.codeheadsystems.metrics.Metrics;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.ConsumedCapacity;
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+
+/**
+ * Runs batch writes against dynamodb, re-submitting unprocessed items with backoff until they are done or we
+ * run out of attempts. Bulk deletes are split into 25 item chunks and sent in parallel on the batch executor, whose
+ * size bounds how many requests are in flight.
+ */
+@Singleton
+public class BatchWriteManager {
+
+  /**
+   * The constant MAX_ITEMS_PER_BATCH, the dynamodb limit.
+   */
+  public static final int MAX_ITEMS_PER_BATCH = 25;
+  /**
+   * The constant MAX_TIMES, how many times we will resubmit unprocessed items.
+   */
+  public static final int MAX_TIMES = 5;
+  /**
+   * The constant PREFIX.
+   */
+  public static final String PREFIX = "ddbdao.batchWrite.";
+  private static final Logger LOGGER = LoggerFactory.getLogger(BatchWriteManager.class);
+
+  private final DynamoDbClientAccessor dynamoDbClientAccessor;
+  private final BatchWriteConverter batchWriteConverter;
+  private final ExecutorService executorService;
+  private final BackoffManager backoffManager;
+  private final Counter counterBatchWriteRanOut;
+  private final Counter counterUnprocessed;
+  private final Counter counterDeletedItems;
+  private final Counter counterPutItems;
+  private final DistributionSummary consumedCapacity;
+
+  /**
+   * Default constructor.
+   *
+   * @param dynamoDbClientAccessor to access dynamodb.
+   * @param batchWriteConverter    for unprocessed items and delete requests.
+   * @param executorService        for parallel batches.
+   * @param backoffManager         for delays between attempts at unprocessed items.
+   * @param metrics                for reporting.
+   */
+  @Inject
+  public BatchWriteManager(final DynamoDbClientAccessor dynamoDbClientAccessor,
+                           final BatchWriteConverter batchWriteConverter,
+                           @Named(DdbModule.DDB_BATCH_EXECUTOR) final ExecutorService executorService,
+                           final BackoffManager backoffManager,
+                           final Metrics metrics) {
+    LOGGER.info("BatchWriteManager({})", dynamoDbClientAccessor);
+    this.dynamoDbClientAccessor = dynamoDbClientAccessor;
+    this.batchWriteConverter = batchWriteConverter;
+    this.executorService = executorService;
+    this.backoffManager = backoffManager;
+    final MeterRegistry registry = metrics.registry();
+    counterBatchWriteRanOut = registry.counter(PREFIX + "ran.out");
+    counterUnprocessed = registry.counter(PREFIX + "unprocessed");
+    counterDeletedItems = registry.counter(PREFIX + "deleted.items");
+    counterPutItems = registry.counter(PREFIX + "put.items");
+    consumedCapacity = registry.summary(PREFIX + "consumed.capacity");
+  }
+
+  /**
+   * Writes the batch, reprocessing unprocessed items up to the max times. Unprocessed items mean dynamodb is
+   * throttling us, so we back off with full jitter before each new attempt.
+   *
+   * @param request  the request.
+   * @param maxTimes max times to process.
+   * @return the consumed write capacity.
+   */
+  public double write(final BatchWriteItemRequest request,
+                      final int maxTimes) {
+    LOGGER.debug("write({})", maxTimes);
+    double capacity = 0;
+    Optional<BatchWriteItemRequest> nextRequest = Optional.of(request);
+    int times = 0;
+    while (true) {
+      times++;
+      final BatchWriteItemResponse response = dynamoDbClientAccessor.batchWriteItem(nextRequest.get());
+      if (response.hasConsumedCapacity()) {
+        capacity += response.consumedCapacity().stream()
+            .map(ConsumedCapacity::capacityUnits)
+            .filter(Objects::nonNull)
+            .mapToDouble(Double::doubleValue)
+            .sum();
+      }
+      nextRequest = batchWriteConverter.unprocessedRequest(response);
+      if (nextRequest.isEmpty() || times >= maxTimes) {
+        break;
+      }
+      counterUnprocessed.increment(nextRequest.get().requestItems().values().stream().mapToInt(List::size).sum());
+      backoffManager.backoff(times);
+    }
+    consumedCapacity.record(capacity);
+    counterBatchWriteRanOut.increment(nextRequest.isPresent() ? 1 : 0);
+    if (nextRequest.isPresent()) {
+      throw new RetryableException("Unable to fully process batch write after " + times + " attempts, unprocessed: "
+          + nextRequest.get().requestItems().values().stream().mapToInt(List::size).sum());
+    }
+    return capacity;
+  }
+
+  /**
+   * Puts the items in parallel chunks of 25. Waits for all chunks to finish. The requests must not contain the
+   * same primary key twice.
+   *
+   * @param requests the put requests.
+   * @return the consumed write capacity.
+   */
+  public double put(final List<PutItemRequest> requests) {
+    LOGGER.debug("put({})", requests.size());
+    final List<BatchWriteItemRequest> batches = new ArrayList<>();
+    for (int i = 0; i < requests.size(); i += MAX_ITEMS_PER_BATCH) {
+      final List<PutItemRequest> chunk = requests.subList(i, Math.min(requests.size(), i + MAX_ITEMS_PER_BATCH));
+      batches.add(batchWriteConverter.fromPutItemRequests(chunk.toArray(PutItemRequest[]::new)));
+    }
+    final double capacity = writeAll(batches);
+    counterPutItems.increment(requests.size());
+    return capacity;
+  }
+
+  /**
+   * Deletes the items with the given primary keys, in parallel chunks of 25. Waits for all chunks to finish.
+   *
+   * @param tableName the table.
+   * @param keys      the primary keys.
+   * @return the consumed write capacity.
+   */
+  public double delete(final String tableName,
+                       final List<Map<String, AttributeValue>> keys) {
+    LOGGER.debug("delete({},{})", tableName, keys.size());
+    final List<BatchWriteItemRequest> batches = new ArrayList<>();
+    for (int i = 0; i < keys.size(); i += MAX_ITEMS_PER_BATCH) {
+      final List<Map<String, AttributeValue>> chunk = keys.subList(i, Math.min(keys.size(), i + MAX_ITEMS_PER_BATCH));
+      batches.add(batchWriteConverter.fromDeleteKeys(tableName, chunk));
+    }
+    final double capacity = writeAll(batches);
+    counterDeletedItems.increment(keys.size());
+    return capacity;
+  }
+
+  private double writeAll(final List<BatchWriteItemRequest> batches) {
+    final List<CompletableFuture<Double>> futures = batches.stream()
+        .map(request -> CompletableFuture.supplyAsync(CapacityManager.propagate(() -> write(request, MAX_TIMES)),
+            executorService))
+        .toList();
+    try {
+      return futures.stream().mapToDouble(CompletableFuture::join).sum();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException runtimeException) {
+        throw runtimeException;
+      }
+      throw new DependencyException("Failed writing items", e.getCause());
+    }
+  }
+
+}
@@ -0,0 +1,393 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.codeheadsystems.keystore.server.dao.ddb.manager;
+package com.codeheadsystems.keystore.server.dao.ddb.manager;
+
+import com.codeheadsystems.keystore.server.dao.ddb.configuration.TableConfiguration;
+import com.codeheadsystems.keystore.server.dao.ddb.model.ImmutableOwnerCapacity;
+import com.codeheadsystems.keystore.server.dao.ddb.model.OwnerCapacity;
+import com.codeheadsystems.metrics.Metrics;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Clock;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.services.dynamodb.model.Capacity;
+import software.amazon.awssdk.services.dynamodb.model.ConsumedCapacity;
+
+/**
+ * Turns the consumed capacity dynamodb returns into metrics. Requests ask for INDEXES, so we get the capacity
+ * of the table and of each index separately. Summaries are tagged by the dao operation, the dynamodb request,
+ * the table and the index. When enabled, capacity is also summarized per owner, with the number of owner tags
+ * capped. Independently of the owner tags, a rolling window of capacity per owner is kept so we can ask who
+ * the heaviest owners are right now.
+ *
+ * <p>The dao operation and owner are not part of the dynamodb request, so the dao sets them for the current
+ * thread with withScope(), and work handed to other threads carries them along with propagate().
+ */
+@Singleton
+public class CapacityManager {
+
+  /**
+   * The constant CAPACITY_METRIC.
+   */
+  public static final String CAPACITY_METRIC = "ddbdao.capacity";
+  /**
+   * The constant OWNER_CAPACITY_METRIC.
+   */
+  public static final String OWNER_CAPACITY_METRIC = "ddbdao.capacity.owner";
+  /**
+   * The constant OPERATION tag.
+   */
+  public static final String OPERATION = "operation";
+  /**
+   * The constant REQUEST tag.
+   */
+  public static final String REQUEST = "request";
+  /**
+   * The constant TABLE tag.
+   */
+  public static final String TABLE = "table";
+  /**
+   * The constant INDEX tag.
+   */
+  public static final String INDEX = "index";
+  /**
+   * The constant TYPE tag.
+   */
+  public static final String TYPE = "type";
+  /**
+   * The constant OWNER tag.
+   */
+  public static final String OWNER = "owner";
+  /**
+   * The constant READ type.
+   */
+  public static final String READ = "read";
+  /**
+   * The constant WRITE type.
+   */
+  public static final String WRITE = "write";
+  /**
+   * The constant BASE_TABLE, the index tag used for the table itself.
+   */
+  public static final String BASE_TABLE = "table";
+  /**
+   * The constant UNKNOWN, for when no scope is set.
+   */
+  public static final String UNKNOWN = "unknown";
+  /**
+   * The constant OTHER, for owners past the cardinality cap.
+   */
+  public static final String OTHER = "other";
+  private static final Logger LOGGER = LoggerFactory.getLogger(CapacityManager.class);
+  private static final ThreadLocal<Scope> SCOPE = new ThreadLocal<>();
+
+  private final MeterRegistry registry;
+  private final Clock clock;
+  private final boolean byOwner;
+  private final int ownerCardinality;
+  private final int ownersTracked;
+  private final long windowMillis;
+  private final Set<String> taggedOwners = ConcurrentHashMap.newKeySet();
+  private volatile Window current;
+  private volatile Window previous;
+
+  /**
+   * Default constructor.
+   *
+   * @param configuration for the owner settings.
+   * @param metrics       for reporting.
+   */
+  @Inject
+  public CapacityManager(final TableConfiguration configuration,
+                         final Metrics metrics) {
+    this(configuration, metrics, Clock.systemUTC());
+  }
+
+  /**
+   * Constructor with a clock, for the rolling window.
+   *
+   * @param configuration for the owner settings.
+   * @param metrics       for reporting.
+   * @param clock         for the window.
+   */
+  public CapacityManager(final TableConfiguration configuration,
+                         final Metrics metrics,
+                         final Clock clock) {
+    LOGGER.info("CapacityManager({},{},{})", configuration.capacityByOwner(),
+        configuration.capacityOwnerCardinality(), configuration.capacityWindowSeconds());
+    this.registry = metrics.registry();
+    this.clock = clock;
+    this.byOwner = configuration.capacityByOwner();
+    this.ownerCardinality = configuration.capacityOwnerCardinality();
+    this.ownersTracked = configuration.capacityOwnersTracked();
+    this.windowMillis = TimeUnit.SECONDS.toMillis(configuration.capacityWindowSeconds());
+    this.current = new Window(clock.millis());
+    this.previous = new Window(clock.millis());
+  }
+
+  /**
+   * Runs the supplier with the dao operation and owner set for the current thread.
+   *
+   * @param operation the dao operation.
+   * @param owner     the owner, can be null.
+   * @param supplier  to run.
+   * @param <T>       type.
+   * @return the result of the supplier.
+   */
+  public static <T> T withScope(final String operation,
+                                final String owner,
+                                final Supplier<T> supplier) {
+    final Scope outer = SCOPE.get();
+    SCOPE.set(new Scope(operation, owner));
+    try {
+      return supplier.get();
+    } finally {
+      restore(outer);
+    }
+  }
+
+  /**
+   * Wraps the supplier so it runs with the scope of the calling thread, for work handed to an executor.
+   *
+   * @param supplier to wrap.
+   * @param <T>      type.
+   * @return the wrapped supplier.
+   */
+  public static <T> Supplier<T> propagate(final Supplier<T> supplier) {
+    final Scope scope = SCOPE.get();
+    if (scope == null) {
+      return supplier;
+    }
+    return () -> withScope(scope.operation(), scope.owner(), supplier);
+  }
+
+  /**
+   * Wraps the consumer so it runs with the scope of the calling thread, for callbacks of async requests that
+   * complete on another thread.
+   *
+   * @param consumer to wrap.
+   * @param <T>      type.
+   * @return the wrapped consumer.
+   */
+  public static <T> Consumer<T> propagate(final Consumer<T> consumer) {
+    final Scope scope = SCOPE.get();
+    if (scope == null) {
+      return consumer;
+    }
+    return value -> withScope(scope.operation(), scope.owner(), () -> {
+      consumer.accept(value);
+      return null;
+    });
+  }
+
+  private static void restore(final Scope outer) {
+    if (outer == null) {
+      SCOPE.remove();
+    } else {
+      SCOPE.set(outer);
+    }
+  }
+
+  /**
+   * Records the capacity of a read request.
+   *
+   * @param request          the dynamodb request name.
+   * @param consumedCapacity from the response, can be null.
+   */
+  public void read(final String request,
+                   final ConsumedCapacity consumedCapacity) {
+    record(request, READ, consumedCapacity);
+  }
+
+  /**
+   * Records the capacity of a read request that spans tables.
+   *
+   * @param request          the dynamodb request name.
+   * @param consumedCapacity from the response, can be null.
+   */
+  public void read(final String request,
+                   final List<ConsumedCapacity> consumedCapacity) {
+    if (consumedCapacity != null) {
+      consumedCapacity.forEach(cc -> record(request, READ, cc));
+    }
+  }
+
+  /**
+   * Records the capacity of a write request.
+   *
+   * @param request          the dynamodb request name.
+   * @param consumedCapacity from the response, can be null.
+   */
+  public void write(final String request,
+                    final ConsumedCapacity consumedCapacity) {
+    record(request, WRITE, consumedCapacity);
+  }
+
+  /**
+   * Records the capacity of a write request that spans tables.
+   *
+   * @param request          the dynamodb request name.
+   * @param consumedCapacity from the response, can be null.
+   */
+  public void write(final String request,
+                    final List<ConsumedCapacity> consumedCapacity) {
+    if (consumedCapacity != null) {
+      consumedCapacity.forEach(cc -> record(request, WRITE, cc));
+    }
+  }
+
+  /**
+   * The owners that consumed the most capacity over the last one to two windows.
+   *
+   * @param limit the most owners to return.
+   * @return the owners, heaviest first.
+   */
+  public List<OwnerCapacity> topOwners(final int limit) {
+    rotateIfNeeded();
+    final Map<String, double[]> totals = new HashMap<>();
+    for (Window window : List.of(previous, current)) {
+      window.usage.forEach((owner, usage) -> {
+        final double[] total = totals.computeIfAbsent(owner, o -> new double[2]);
+        total[0] += usage.read().sum();
+        total[1] += usage.write().sum();
+      });
+    }
+    return totals.entrySet().stream()
+        .map(e -> (OwnerCapacity) ImmutableOwnerCapacity.builder()
+            .owner(e.getKey())
+            .readCapacityUnits(e.getValue()[0])
+            .writeCapacityUnits(e.getValue()[1])
+            .build())
+        .sorted(Comparator.comparingDouble(OwnerCapacity::capacityUnits).reversed())
+        .limit(Math.max(0, limit))
+        .toList();
+  }
+
+  private void record(final String request,
+                      final String type,
+                      final ConsumedCapacity consumedCapacity) {
+    if (consumedCapacity == null) {
+      return;
+    }
+    final Scope scope = SCOPE.get();
+    final String operation = scope == null ? UNKNOWN : scope.operation();
+    final String table = consumedCapacity.tableName() == null ? UNKNOWN : consumedCapacity.tableName();
+    final double total = consumedCapacity.capacityUnits() == null ? 0 : consumedCapacity.capacityUnits();
+    if (consumedCapacity.table() != null) {
+      summary(operation, request, table, BASE_TABLE, type, consumedCapacity.table());
+      if (consumedCapacity.hasGlobalSecondaryIndexes()) {
+        consumedCapacity.globalSecondaryIndexes()
+            .forEach((index, capacity) -> summary(operation, request, table, index, type, capacity));
+      }
+      if (consumedCapacity.hasLocalSecondaryIndexes()) {
+        consumedCapacity.localSecondaryIndexes()
+            .forEach((index, capacity) -> summary(operation, request, table, index, type, capacity));
+      }
+    } else {
+      // TOTAL mode, or an older endpoint. All we know is the total.
+      registry.summary(CAPACITY_METRIC, OPERATION, operation, REQUEST, request, TABLE, table,
+          INDEX, BASE_TABLE, TYPE, type).record(total);
+    }
+    if (scope != null && scope.owner() != null && total > 0) {
+      recordOwner(scope.owner(), type, total);
+    }
+  }
+
+  private void summary(final String operation,
+                       final String request,
+                       final String table,
+                       final String index,
+                       final String type,
+                       final Capacity capacity) {
+    if (capacity.capacityUnits() != null) {
+      registry.summary(CAPACITY_METRIC, OPERATION, operation, REQUEST, request, TABLE, table,
+          INDEX, index, TYPE, type).record(capacity.capacityUnits());
+    }
+  }
+
+  private void recordOwner(final String owner,
+                           final String type,
+                           final double units) {
+    if (byOwner) {
+      final String tag = (taggedOwners.contains(owner) || admitTag(owner)) ? owner : OTHER;
+      registry.summary(OWNER_CAPACITY_METRIC, OWNER, tag, TYPE, type).record(units);
+    }
+    rotateIfNeeded();
+    final Window window = current;
+    Usage usage = window.usage.get(owner);
+    if (usage == null) {
+      if (window.usage.size() >= ownersTracked) {
+        usage = window.usage.computeIfAbsent(OTHER, o -> new Usage());
+      } else {
+        usage = window.usage.computeIfAbsent(owner, o -> new Usage());
+      }
+    }
+    (READ.equals(type) ? usage.read() : usage.write()).add(units);
+  }
+
+  private synchronized boolean admitTag(final String owner) {
+    if (taggedOwners.size() < ownerCardinality) {
+      taggedOwners.add(owner);
+      return true;
+    }
+    return false;
+  }
+
+  private void rotateIfNeeded() {
+    final long now = clock.millis();
+    if (now - current.start >= windowMillis) {
+      synchronized (this) {
+        if (now - current.start >= windowMillis) {
+          // If we skipped a whole window, the old usage is stale as well.
+          previous = (now - current.start >= 2 * windowMillis) ? new Window(now) : current;
+          current = new Window(now);
+        }
+      }
+    }
+  }
+
+  private record Scope(String operation, String owner) {
+  }
+
+  private record Usage(DoubleAdder read, DoubleAdder write) {
+    private Usage() {
+      this(new DoubleAdder(), new DoubleAdder());
+    }
+  }
+
+  private static class Window {
+    private final long start;
+    private final Map<String, Usage> usage = new ConcurrentHashMap<>();
+
+    private Window(final long start) {
+      this.start = start;
+    }
+  }
+
+}
@@ -0,0 +1,299 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.server.dao.ddb.manager;
+
+import com.codeheadsystems.keystore.server.dao.ddb.accessor.DynamoDbClientAccessor;
+import com.codeheadsystems.keystore.server.dao.ddb.configuration.TableConfiguration;
+import com.codeheadsystems.keystore.server.dao.ddb.converter.BatchWriteConverter;
+import com.codeheadsystems.keystore.server.dao.ddb.dagger.DdbModule;
+import com.codeheadsystems.keystore.server.exception.RetryableException;
+import com.codeheadsystems.metrics.Metrics;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
+
+/**
+ * Group commit for small writes. Callers submit the few items that make up one logical write, and a collector
+ * thread gathers concurrent submissions for up to the configured linger (or until 25 items) and sends them as
+ * a single batch write. Each caller's future completes as soon as all of its own items are processed, so
+ * unprocessed items are retried per caller and only the callers that still have items left fail when the
+ * attempts run out.
+ */
+@Singleton
+public class GroupCommitWriter {
+
+  /**
+   * The constant PREFIX.
+   */
+  public static final String PREFIX = "ddbdao.groupCommit.";
+  /**
+   * The constant CAPACITY_SCOPE, the operation the capacity of the batches is recorded under.
+   */
+  public static final String CAPACITY_SCOPE = "groupCommit";
+  private static final Logger LOGGER = LoggerFactory.getLogger(GroupCommitWriter.class);
+
+  private final DynamoDbClientAccessor dynamoDbClientAccessor;
+  private final BatchWriteConverter batchWriteConverter;
+  private final BackoffManager backoffManager;
+  private final ExecutorService executorService;
+  private final String hashKey;
+  private final String rangeKey;
+  private final long lingerNanos;
+  private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+  private final Thread collector;
+  private final DistributionSummary batchItems;
+  private final DistributionSummary batchWrites;
+  private final Counter counterUnprocessed;
+  private final Counter counterRanOut;
+
+  /**
+   * Default constructor. The collector thread only starts if group commit is enabled.
+   *
+   * @param dynamoDbClientAccessor to write with.
+   * @param batchWriteConverter    to build the batches.
+   * @param backoffManager         for delays between attempts at unprocessed items.
+   * @param executorService        the batches are written on.
+   * @param tableConfiguration     for the linger and the primary key.
+   * @param metrics                for reporting.
+   */
+  @Inject
+  public GroupCommitWriter(final DynamoDbClientAccessor dynamoDbClientAccessor,
+                           final BatchWriteConverter batchWriteConverter,
+                           final BackoffManager backoffManager,
+                           @Named(DdbModule.DDB_BATCH_EXECUTOR) final ExecutorService executorService,
+                           final TableConfiguration tableConfiguration,
+                           final Metrics metrics) {
+    LOGGER.info("GroupCommitWriter({})", tableConfiguration.groupCommitMillis());
+    this.dynamoDbClientAccessor = dynamoDbClientAccessor;
+    this.batchWriteConverter = batchWriteConverter;
+    this.backoffManager = backoffManager;
+    this.executorService = executorService;
+    this.hashKey = tableConfiguration.hashKey();
+    this.rangeKey = tableConfiguration.rangeKey();
+    this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(tableConfiguration.groupCommitMillis());
+    final MeterRegistry registry = metrics.registry();
+    batchItems = registry.summary(PREFIX + "batch.items");
+    batchWrites = registry.summary(PREFIX + "batch.writes");
+    counterUnprocessed = registry.counter(PREFIX + "unprocessed");
+    counterRanOut = registry.counter(PREFIX + "ran.out");
+    if (lingerNanos > 0) {
+      collector = new Thread(this::collect, "ddb-group-commit");
+      collector.setDaemon(true);
+      collector.start();
+    } else {
+      collector = null;
+    }
+  }
+
+  /**
+   * If group commit is enabled.
+   *
+   * @return true if enabled.
+   */
+  public boolean enabled() {
+    return collector != null;
+  }
+
+  /**
+   * Queues the puts to be written together in the next batch.
+   *
+   * @param requests the puts of one logical write, at most 25.
+   * @return a future that completes when every put was written.
+   */
+  public CompletableFuture<Void> write(final PutItemRequest... requests) {
+    if (!enabled()) {
+      throw new IllegalStateException("Group commit is not enabled");
+    }
+    if (requests.length == 0 || requests.length > BatchWriteManager.MAX_ITEMS_PER_BATCH) {
+      throw new IllegalArgumentException("Group commit writes must have 1 to "
+          + BatchWriteManager.MAX_ITEMS_PER_BATCH + " items: " + requests.length);
+    }
+    final Map<ItemKey, Item> items = new LinkedHashMap<>();
+    Arrays.stream(requests)
+        .map(r -> new Item(r.tableName(), batchWriteConverter.toWriteRequest(r)))
+        .forEach(item -> items.put(itemKey(item), item));
+    final Pending pending = new Pending(items, new CompletableFuture<>());
+    queue.add(pending);
+    return pending.future();
+  }
+
+  /**
+   * Stops the collector. Anything still queued fails.
+   */
+  public void stop() {
+    if (collector != null) {
+      collector.interrupt();
+    }
+  }
+
+  private void collect() {
+    Pending carry = null;
+    while (!Thread.currentThread().isInterrupted()) {
+      final Group group = new Group();
+      try {
+        group.add(carry != null ? carry : queue.take());
+        carry = null;
+        final long deadline = System.nanoTime() + lingerNanos;
+        while (group.size() < BatchWriteManager.MAX_ITEMS_PER_BATCH) {
+          final Pending next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+          if (next == null) {
+            break;
+          }
+          if (!group.add(next)) {
+            carry = next;
+            break;
+          }
+        }
+        executorService.execute(() -> flush(group));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        group.pendings.forEach(p -> p.future().completeExceptionally(new RetryableException("Group commit stopped")));
+      }
+    }
+    LOGGER.info("collect: stopped");
+    final List<Pending> remaining = new ArrayList<>();
+    queue.drainTo(remaining);
+    if (carry != null) {
+      remaining.add(carry);
+    }
+    remaining.forEach(p -> p.future().completeExceptionally(new RetryableException("Group commit stopped")));
+  }
+
+  private void flush(final Group group) {
+    batchItems.record(group.size());
+    batchWrites.record(group.pendings.size());
+    try {
+      CapacityManager.withScope(CAPACITY_SCOPE, null, () -> {
+        write(group);
+        return null;
+      });
+    } catch (RuntimeException e) {
+      LOGGER.warn("flush: batch of {} failed", group.size(), e);
+      group.pendings.forEach(p -> p.future().completeExceptionally(e));
+    }
+  }
+
+  private void write(final Group group) {
+    final Map<ItemKey, Item> remaining = new LinkedHashMap<>(group.items);
+    int times = 0;
+    while (true) {
+      times++;
+      final Map<String, List<WriteRequest>> requestItems = remaining.values().stream()
+          .collect(Collectors.groupingBy(Item::table, LinkedHashMap::new,
+              Collectors.mapping(Item::writeRequest, Collectors.toList())));
+      final BatchWriteItemResponse response = dynamoDbClientAccessor.batchWriteItem(
+          batchWriteConverter.fromWriteRequests(requestItems));
+      final Set<ItemKey> unprocessed = new HashSet<>();
+      if (response.hasUnprocessedItems()) {
+        response.unprocessedItems().forEach((table, writes) ->
+            writes.forEach(w -> unprocessed.add(itemKey(new Item(table, w)))));
+      }
+      remaining.keySet().retainAll(unprocessed);
+      group.complete(remaining.keySet());
+      if (remaining.isEmpty() || times >= BatchWriteManager.MAX_TIMES) {
+        break;
+      }
+      counterUnprocessed.increment(remaining.size());
+      backoffManager.backoff(times);
+    }
+    if (!remaining.isEmpty()) {
+      counterRanOut.increment();
+      final RetryableException exception = new RetryableException("Unable to fully process group commit after "
+          + times + " attempts, unprocessed: " + remaining.size());
+      group.pendings.forEach(p -> p.future().completeExceptionally(exception));
+    }
+  }
+
+  private ItemKey itemKey(final Item item) {
+    final WriteRequest writeRequest = item.writeRequest();
+    final Map<String, AttributeValue> attributes = writeRequest.putRequest() != null
+        ? writeRequest.putRequest().item()
+        : writeRequest.deleteRequest().key();
+    return new ItemKey(item.table(), attributes.get(hashKey), attributes.get(rangeKey));
+  }
+
+  private record Item(String table, WriteRequest writeRequest) {
+  }
+
+  private record ItemKey(String table, AttributeValue hash, AttributeValue range) {
+  }
+
+  private record Pending(Map<ItemKey, Item> items, CompletableFuture<Void> future) {
+  }
+
+  /**
+   * The writes going into one batch. A batch may not name the same item twice, so identical writes are shared
+   * and a write that changes an item already in the group waits for the next one.
+   */
+  private static class Group {
+
+    private final List<Pending> pendings = new ArrayList<>();
+    private final Map<ItemKey, Item> items = new LinkedHashMap<>();
+
+    private int size() {
+      return items.size();
+    }
+
+    private boolean add(final Pending pending) {
+      int added = 0;
+      for (Map.Entry<ItemKey, Item> entry : pending.items().entrySet()) {
+        final Item existing = items.get(entry.getKey());
+        if (existing == null) {
+          added++;
+        } else if (!existing.equals(entry.getValue())) {
+          return false;
+        }
+      }
+      if (!pendings.isEmpty() && items.size() + added > BatchWriteManager.MAX_ITEMS_PER_BATCH) {
+        return false;
+      }
+      pendings.add(pending);
+      items.putAll(pending.items());
+      return true;
+    }
+
+    private void complete(final Set<ItemKey> remaining) {
+      pendings.stream()
+          .filter(p -> !p.future().isDone())
+          .filter(p -> p.items().keySet().stream().noneMatch(remaining::contains))
+          .forEach(p -> p.future().complete(null));
+    }
+  }
+
+}
@@ -0,0 +1,136 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.server.dao.ddb.manager;
+
+import com.codeheadsystems.keystore.server.dao.model.Token;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+/**
+ * A running export. Each segment that is not finished has a cursor, updated after its page was given to the
+ * consumer, so resuming from a checkpoint may repeat the keys of the pages in flight but never skips any.
+ */
+public class ScanExport {
+
+  private final int totalSegments;
+  private final TokenManager tokenManager;
+  private final Map<Integer, Map<String, AttributeValue>> cursors;
+  private final CompletableFuture<Void> future = new CompletableFuture<>();
+  private volatile boolean cancelled;
+
+  /**
+   * Default constructor.
+   *
+   * @param totalSegments the segments the table is split into.
+   * @param cursors       where each unfinished segment starts, empty to start it from the beginning.
+   * @param tokenManager  for the checkpoint.
+   */
+  public ScanExport(final int totalSegments,
+                    final Map<Integer, Map<String, AttributeValue>> cursors,
+                    final TokenManager tokenManager) {
+    this.totalSegments = totalSegments;
+    this.tokenManager = tokenManager;
+    this.cursors = new ConcurrentHashMap<>(cursors);
+  }
+
+  /**
+   * The segments the table is split into.
+   *
+   * @return the total segments.
+   */
+  public int totalSegments() {
+    return totalSegments;
+  }
+
+  /**
+   * A checkpoint to resume the export from. Can be taken at any time, and after a failure or a cancel.
+   *
+   * @return the token, empty if every segment is finished.
+   */
+  public Optional<Token> checkpoint() {
+    final Map<String, Map<String, AttributeValue>> shards = cursors.entrySet().stream()
+        .collect(Collectors.toMap(e -> e.getKey() + ScanExportManager.SEGMENT_SEPARATOR + totalSegments,
+            Map.Entry::getValue));
+    return shards.isEmpty() ? Optional.empty() : Optional.of(tokenManager.serializeShards(shards));
+  }
+
+  /**
+   * Stops the segments after the pages they are on. The export then completes with a checkpoint left.
+   */
+  public void cancel() {
+    cancelled = true;
+  }
+
+  /**
+   * If the export was cancelled, or a segment failed.
+   *
+   * @return true if cancelled.
+   */
+  public boolean cancelled() {
+    return cancelled;
+  }
+
+  /**
+   * If every segment finished, was cancelled or failed.
+   *
+   * @return true if done.
+   */
+  public boolean isDone() {
+    return future.isDone();
+  }
+
+  /**
+   * Waits for the export.
+   */
+  public void join() {
+    try {
+      future.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException runtimeException) {
+        throw runtimeException;
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * The future that completes with the export.
+   *
+   * @return the future.
+   */
+  public CompletableFuture<Void> future() {
+    return future;
+  }
+
+  Map<Integer, Map<String, AttributeValue>> cursors() {
+    return Map.copyOf(cursors);
+  }
+
+  void advance(final int segment, final Map<String, AttributeValue> cursor) {
+    cursors.put(segment, cursor);
+  }
+
+  void finish(final int segment) {
+    cursors.remove(segment);
+  }
+
+}
@@ -0,0 +1,242 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.server.dao.ddb.manager;
+
+import com.codeheadsystems.keystore.server.dao.ddb.accessor.DynamoDbClientAccessor;
+import com.codeheadsystems.keystore.server.dao.ddb.configuration.TableConfiguration;
+import com.codeheadsystems.keystore.server.dao.ddb.converter.KeyConverter;
+import com.codeheadsystems.keystore.server.dao.model.Key;
+import com.codeheadsystems.keystore.server.dao.model.Token;
+import com.codeheadsystems.keystore.server.exception.DependencyException;
+import com.codeheadsystems.metrics.Metrics;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.ScanResponse;
+
+/**
+ * Exports every key version with a parallel scan. The table is split into segments, each scanned by its own
+ * thread, and the pages are paced by the read capacity they consumed so an export does not starve the
+ * service. Keys are handed to the consumer from the segment threads, so it has to be thread safe.
+ */
+@Singleton
+public class ScanExportManager {
+
+  /**
+   * The constant PREFIX.
+   */
+  public static final String PREFIX = "ddbdao.export.";
+  /**
+   * The constant CAPACITY_SCOPE, the operation the capacity of the scans is recorded under.
+   */
+  public static final String CAPACITY_SCOPE = "export";
+  /**
+   * The constant SEGMENT_SEPARATOR, between the segment and the total segments in the checkpoint.
+   */
+  public static final String SEGMENT_SEPARATOR = "/";
+  private static final Logger LOGGER = LoggerFactory.getLogger(ScanExportManager.class);
+  private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  private final DynamoDbClientAccessor dynamoDbClientAccessor;
+  private final KeyConverter keyConverter;
+  private final TokenManager tokenManager;
+  private final double readUnitsPerSecond;
+  private final Counter counterKeys;
+  private final Counter counterPages;
+  private final Counter counterReadUnits;
+
+  /**
+   * Default constructor.
+   *
+   * @param dynamoDbClientAccessor to scan with.
+   * @param keyConverter           for the scan requests and the keys.
+   * @param tokenManager           for the checkpoints.
+   * @param tableConfiguration     for the read rate.
+   * @param metrics                for reporting.
+   */
+  @Inject
+  public ScanExportManager(final DynamoDbClientAccessor dynamoDbClientAccessor,
+                           final KeyConverter keyConverter,
+                           final TokenManager tokenManager,
+                           final TableConfiguration tableConfiguration,
+                           final Metrics metrics) {
+    LOGGER.info("ScanExportManager({},{})", tableConfiguration.exportPageSize(),
+        tableConfiguration.exportReadUnitsPerSecond());
+    this.dynamoDbClientAccessor = dynamoDbClientAccessor;
+    this.keyConverter = keyConverter;
+    this.tokenManager = tokenManager;
+    this.readUnitsPerSecond = tableConfiguration.exportReadUnitsPerSecond();
+    final MeterRegistry registry = metrics.registry();
+    counterKeys = registry.counter(PREFIX + "keys");
+    counterPages = registry.counter(PREFIX + "pages");
+    counterReadUnits = registry.counter(PREFIX + "read.units");
+  }
+
+  /**
+   * Starts an export of the whole table.
+   *
+   * @param totalSegments the segments to split the table into, one thread each.
+   * @param consumer      of the keys, called from the segment threads.
+   * @return the running export.
+   */
+  public ScanExport export(final int totalSegments,
+                           final Consumer<Key> consumer) {
+    if (totalSegments < 1) {
+      throw new IllegalArgumentException("An export needs at least one segment: " + totalSegments);
+    }
+    final Map<Integer, Map<String, AttributeValue>> cursors = new HashMap<>();
+    IntStream.range(0, totalSegments).forEach(segment -> cursors.put(segment, Map.of()));
+    return start(new ScanExport(totalSegments, cursors, tokenManager), consumer);
+  }
+
+  /**
+   * Resumes an export from its checkpoint, with the segments it was started with.
+   *
+   * @param checkpoint from the export.
+   * @param consumer   of the keys, called from the segment threads.
+   * @return the running export.
+   */
+  public ScanExport resume(final Token checkpoint,
+                           final Consumer<Key> consumer) {
+    final Map<Integer, Map<String, AttributeValue>> cursors = new HashMap<>();
+    int totalSegments = 0;
+    for (Map.Entry<String, Map<String, AttributeValue>> entry : tokenManager.deserializeShards(checkpoint).entrySet()) {
+      final String[] tokens = entry.getKey().split(SEGMENT_SEPARATOR);
+      if (tokens.length != 2) {
+        throw new IllegalArgumentException("Not an export checkpoint: " + entry.getKey());
+      }
+      cursors.put(Integer.parseInt(tokens[0]), entry.getValue());
+      totalSegments = Integer.parseInt(tokens[1]);
+    }
+    if (cursors.isEmpty()) {
+      throw new IllegalArgumentException("The checkpoint has no segments left");
+    }
+    return start(new ScanExport(totalSegments, cursors, tokenManager), consumer);
+  }
+
+  private ScanExport start(final ScanExport export,
+                           final Consumer<Key> consumer) {
+    final Map<Integer, Map<String, AttributeValue>> cursors = export.cursors();
+    LOGGER.info("export: segments {} of {}", cursors.size(), export.totalSegments());
+    final AtomicInteger count = new AtomicInteger();
+    final ExecutorService executorService = Executors.newFixedThreadPool(cursors.size(), runnable -> {
+      final Thread thread = new Thread(runnable, "ddb-export-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    final Pacer pacer = new Pacer(readUnitsPerSecond);
+    final List<CompletableFuture<Void>> futures = cursors.entrySet().stream()
+        .map(entry -> CompletableFuture.runAsync(() -> CapacityManager.withScope(CAPACITY_SCOPE, null, () -> {
+          scanSegment(export, entry.getKey(), entry.getValue(), consumer, pacer);
+          return null;
+        }), executorService).whenComplete((v, throwable) -> {
+          if (throwable != null) {
+            LOGGER.warn("export: segment {} failed", entry.getKey(), throwable);
+            export.cancel(); // the other segments stop too, leaving a checkpoint to resume from.
+          }
+        }))
+        .toList();
+    CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).whenComplete((v, throwable) -> {
+      executorService.shutdown();
+      if (throwable != null) {
+        export.future().completeExceptionally(throwable);
+      } else {
+        export.future().complete(null);
+      }
+    });
+    return export;
+  }
+
+  private void scanSegment(final ScanExport export,
+                           final int segment,
+                           final Map<String, AttributeValue> startKey,
+                           final Consumer<Key> consumer,
+                           final Pacer pacer) {
+    Map<String, AttributeValue> cursor = startKey;
+    while (!export.cancelled()) {
+      final ScanResponse response = dynamoDbClientAccessor.scan(
+          keyConverter.toScanRequest(segment, export.totalSegments(), cursor));
+      final List<Key> keys = keyConverter.from(response);
+      keys.forEach(consumer);
+      counterKeys.increment(keys.size());
+      counterPages.increment();
+      if (!response.hasLastEvaluatedKey() || response.lastEvaluatedKey().isEmpty()) {
+        export.finish(segment);
+        LOGGER.debug("export: segment {} finished", segment);
+        return;
+      }
+      cursor = response.lastEvaluatedKey();
+      export.advance(segment, cursor);
+      final double readUnits = response.consumedCapacity() == null
+          || response.consumedCapacity().capacityUnits() == null
+          ? 0 : response.consumedCapacity().capacityUnits();
+      counterReadUnits.increment(readUnits);
+      pacer.pace(readUnits);
+    }
+  }
+
+  /**
+   * Shared by the segments of one export. Each page reserves the time its read units take at the rate, so the
+   * next page of any segment waits for it. Scans report capacity after the fact, so the pacing is too.
+   */
+  private static class Pacer {
+
+    private final double unitsPerSecond;
+    private long nextFreeNanos;
+
+    private Pacer(final double unitsPerSecond) {
+      this.unitsPerSecond = unitsPerSecond;
+      this.nextFreeNanos = System.nanoTime();
+    }
+
+    private void pace(final double units) {
+      if (unitsPerSecond <= 0) {
+        return;
+      }
+      final long waitNanos;
+      synchronized (this) {
+        final long now = System.nanoTime();
+        final long start = Math.max(now, nextFreeNanos);
+        nextFreeNanos = start + (long) (units * NANOS_PER_SECOND / unitsPerSecond);
+        waitNanos = start - now;
+      }
+      if (waitNanos > 0) {
+        try {
+          TimeUnit.NANOSECONDS.sleep(waitNanos);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new DependencyException("Interrupted waiting for export read capacity", e);
+        }
+      }
+    }
+  }
+
+}
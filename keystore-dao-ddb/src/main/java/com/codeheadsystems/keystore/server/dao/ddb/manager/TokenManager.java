@@ -39,6 +39,11 @@ public class TokenManager {
    */
   public static final TypeReference<HashMap<String, AttributeValue.Builder>> TYPE_REFERENCE = new TypeReference<>() {
   };
+  /**
+   * The constant SHARD_TYPE_REFERENCE, for composite tokens.
+   */
+  public static final TypeReference<HashMap<String, String>> SHARD_TYPE_REFERENCE = new TypeReference<>() {
+  };
   private final DataHelper dataHelper;
   private final JsonManager mapper;
 
@@ -84,4 +89,30 @@ public class TokenManager {
         .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
   }
 
+  /**
+   * Converts the cursors of several queries into one token. Each cursor is stored as its own token, so an empty
+   * cursor (the query has not started) survives the round trip. Queries that are done should be left out.
+   *
+   * @param cursors by shard.
+   * @return a token object.
+   */
+  public Token serializeShards(final Map<String, Map<String, AttributeValue>> cursors) {
+    final Map<String, String> tokens = cursors.entrySet().stream()
+        .collect(Collectors.toMap(Map.Entry::getKey, e -> serialize(e.getValue()).value()));
+    return ImmutableToken.builder().value(dataHelper.toBase64(mapper.writeValue(tokens))).build();
+  }
+
+  /**
+   * Converts a composite token back to the cursors by shard.
+   *
+   * @param token object.
+   * @return the cursors for aws, empty for a query that has not started.
+   */
+  public Map<String, Map<String, AttributeValue>> deserializeShards(final Token token) {
+    final String json = dataHelper.toStringFromBase64(token.value());
+    return mapper.readValue(json, SHARD_TYPE_REFERENCE).entrySet().stream()
+        .collect(Collectors.toMap(Map.Entry::getKey,
+            e -> deserialize(ImmutableToken.builder().value(e.getValue()).build())));
+  }
+
 }
@@ -0,0 +1,69 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.codeheadsystems.keystore.server.dao.ddb.manager;
+package com.codeheadsystems.keystore.server.dao.ddb.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import org.immutables.value.Value;
+
+/**
+ * Capacity consumed on behalf of an owner within the rolling window.
+ */
+@Value.Immutable
+@JsonSerialize(as = ImmutableOwnerCapacity.class)
+@JsonDeserialize(builder = ImmutableOwnerCapacity.Builder.class)
+@JsonIgnoreProperties(ignoreUnknown = true)
+public interface OwnerCapacity {
+
+  /**
+   * The owner.
+   *
+   * @return String string
+   */
+  @JsonProperty("owner")
+  String owner();
+
+  /**
+   * Read capacity units consumed.
+   *
+   * @return the double
+   */
+  @JsonProperty("readCapacityUnits")
+  double readCapacityUnits();
+
+  /**
+   * Write capacity units consumed.
+   *
+   * @return the double
+   */
+  @JsonProperty("writeCapacityUnits")
+  double writeCapacityUnits();
+
+  /**
+   * Total capacity units consumed.
+   *
+   * @return the double
+   */
+  @Value.Derived
+  @JsonProperty("capacityUnits")
+  default double capacityUnits() {
+    return readCapacityUnits() + writeCapacityUnits();
+  }
+
+}
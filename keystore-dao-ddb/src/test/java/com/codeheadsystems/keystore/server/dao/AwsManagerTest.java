@@ -17,22 +17,43 @@
 package com.codeheadsystems.keystore.server.dao;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static software.amazon.awssdk.services.dynamodb.model.AttributeValue.fromB;
+import static software.amazon.awssdk.services.dynamodb.model.AttributeValue.fromS;
 
 import com.codeheadsystems.keystore.server.dao.ddb.configuration.ImmutableTableConfiguration;
+import com.codeheadsystems.keystore.server.dao.ddb.configuration.IndexProjection;
 import com.codeheadsystems.keystore.server.dao.ddb.configuration.TableConfiguration;
+import com.codeheadsystems.keystore.server.dao.ddb.converter.KeyConverter;
 import com.codeheadsystems.keystore.server.dao.ddb.manager.AwsManager;
 import com.codeheadsystems.test.datastore.DataStore;
 import com.codeheadsystems.test.datastore.DynamoDbExtension;
+import java.util.Map;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.core.SdkBytes;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.ComparisonOperator;
+import software.amazon.awssdk.services.dynamodb.model.Condition;
 import software.amazon.awssdk.services.dynamodb.model.DeleteTableRequest;
+import software.amazon.awssdk.services.dynamodb.model.DescribeTableRequest;
+import software.amazon.awssdk.services.dynamodb.model.GlobalSecondaryIndexDescription;
+import software.amazon.awssdk.services.dynamodb.model.ProjectionType;
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.QueryRequest;
+import software.amazon.awssdk.services.dynamodb.model.QueryResponse;
+import software.amazon.awssdk.services.dynamodb.model.ReturnConsumedCapacity;
+import software.amazon.awssdk.services.dynamodb.model.TableDescription;
 
 @ExtendWith(DynamoDbExtension.class)
 class AwsManagerTest {
 
+  private static final Logger LOGGER = LoggerFactory.getLogger(AwsManagerTest.class);
+  private static final int ITEMS = 20;
+
   @DataStore private DynamoDbClient client;
   private TableConfiguration tableConfiguration = ImmutableTableConfiguration.builder().build();
   private AwsManager manager;
@@ -58,4 +79,99 @@ class AwsManagerTest {
         .containsExactly(tableConfiguration.tableName());
   }
 
-}
\ No newline at end of file
+  @Test
+  public void createTable_projections() {
+    manager.createTable();
+
+    assertThat(describe().globalSecondaryIndexes())
+        .extracting(i -> i.projection().projectionType())
+        .containsOnly(ProjectionType.ALL);
+  }
+
+  @Test
+  public void migrateIndexes_nothingToDo() {
+    manager.createTable();
+
+    assertThat(manager.migrateIndexes(true, 10)).isEmpty();
+  }
+
+  @Test
+  public void migrateIndexes_withoutRebuild() {
+    manager.createTable();
+
+    assertThat(new AwsManager(client, keysOnlyConfiguration()).migrateIndexes(false, 10)).isEmpty();
+    assertThat(describe().globalSecondaryIndexes())
+        .extracting(i -> i.projection().projectionType())
+        .containsOnly(ProjectionType.ALL);
+  }
+
+  /**
+   * Starts with the default layout, every index projecting everything, and migrates to keys only. The active
+   * lookup reads less from the index afterwards, since the key material is no longer copied there.
+   */
+  @Test
+  public void migrateIndexes_fromAll() {
+    manager.createTable();
+    final byte[] value = new byte[8 * 1024];
+    for (int i = 0; i < ITEMS; i++) {
+      client.putItem(PutItemRequest.builder()
+          .tableName(tableConfiguration.tableName())
+          .item(Map.of(
+              tableConfiguration.hashKey(), fromS("keyVersion:owner:key" + i),
+              tableConfiguration.rangeKey(), fromS("1"),
+              KeyConverter.ACTIVE_HASH, fromS("active"),
+              KeyConverter.KEY_VALUE, fromB(SdkBytes.fromByteArray(value))))
+          .build());
+    }
+    final double before = activeIndexCapacity();
+    final Long sizeBefore = activeIndexSize();
+
+    assertThat(new AwsManager(client, keysOnlyConfiguration()).migrateIndexes(true, 10))
+        .containsExactlyInAnyOrder(tableConfiguration.activeIndex(), tableConfiguration.ownerIndex(),
+            tableConfiguration.ownerSearchIndex());
+
+    final double after = activeIndexCapacity();
+    LOGGER.info("active index: read capacity {} -> {}, size {} -> {}", before, after, sizeBefore,
+        activeIndexSize());
+    assertThat(describe().globalSecondaryIndexes())
+        .extracting(i -> i.projection().projectionType())
+        .containsOnly(ProjectionType.KEYS_ONLY);
+    assertThat(after).isLessThan(before);
+  }
+
+  private TableConfiguration keysOnlyConfiguration() {
+    return ImmutableTableConfiguration.builder()
+        .activeIndexProjection(IndexProjection.KEYS_ONLY)
+        .ownerIndexProjection(IndexProjection.KEYS_ONLY)
+        .ownerSearchIndexProjection(IndexProjection.KEYS_ONLY)
+        .build();
+  }
+
+  private double activeIndexCapacity() {
+    final QueryResponse response = client.query(QueryRequest.builder()
+        .tableName(tableConfiguration.tableName())
+        .indexName(tableConfiguration.activeIndex())
+        .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)
+        .keyConditions(Map.of(KeyConverter.ACTIVE_HASH, Condition.builder()
+            .comparisonOperator(ComparisonOperator.EQ)
+            .attributeValueList(fromS("active"))
+            .build()))
+        .build());
+    assertThat(response.count()).isEqualTo(ITEMS);
+    return response.consumedCapacity().capacityUnits();
+  }
+
+  private Long activeIndexSize() {
+    return describe().globalSecondaryIndexes().stream()
+        .filter(i -> i.indexName().equals(tableConfiguration.activeIndex()))
+        .findFirst()
+        .map(GlobalSecondaryIndexDescription::indexSizeBytes)
+        .orElse(null);
+  }
+
+  private TableDescription describe() {
+    return client.describeTable(DescribeTableRequest.builder().tableName(tableConfiguration.tableName()).build())
+        .table();
+  }
+
+}
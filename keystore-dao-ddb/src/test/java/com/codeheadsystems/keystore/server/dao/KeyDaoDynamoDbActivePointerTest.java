@@ -0,0 +1,90 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.server.dao;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.codeheadsystems.keystore.server.dao.ddb.configuration.ImmutableTableConfiguration;
+import com.codeheadsystems.keystore.server.dao.ddb.configuration.TableConfiguration;
+import com.codeheadsystems.keystore.server.dao.ddb.manager.CapacityManager;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableKeyIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableOwnerIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.Key;
+import com.codeheadsystems.keystore.server.dao.model.KeyIdentifier;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the full dao suite with the active pointer enabled, and compares the cost of the pointer load to the
+ * index load.
+ */
+public class KeyDaoDynamoDbActivePointerTest extends KeyDaoDynamoDbTest {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(KeyDaoDynamoDbActivePointerTest.class);
+  private static final int LOADS = 20;
+
+  private final TableConfiguration pointerConfiguration = ImmutableTableConfiguration.builder()
+      .activePointer(true)
+      .build();
+
+  @Override
+  protected TableConfiguration daoConfiguration() {
+    return pointerConfiguration;
+  }
+
+  @Test
+  public void load_pointerVersusIndex() {
+    final Key key = getAndStoreKey(true, 1);
+    final KeyIdentifier identifier = ImmutableKeyIdentifier.builder()
+        .owner(key.keyVersionIdentifier().owner())
+        .key(key.keyVersionIdentifier().key())
+        .build();
+    final MeterRegistry pointerRegistry = new SimpleMeterRegistry();
+    final MeterRegistry indexRegistry = new SimpleMeterRegistry();
+    final KeyDao pointerDao = keyDao(pointerRegistry, pointerConfiguration);
+    final KeyDao indexDao = keyDao(indexRegistry, tableConfiguration);
+
+    for (int i = 0; i < LOADS; i++) {
+      assertThat(pointerDao.load(identifier)).contains(key);
+      assertThat(indexDao.load(identifier)).contains(key);
+    }
+
+    assertThat(pointerRegistry.counter("ddbdao.active.pointer.hit").count()).isEqualTo(LOADS);
+    LOGGER.info("pointer load: {} read units, {}ms mean",
+        capacityUnits(pointerRegistry, "loadKey", CapacityManager.READ), meanMillis(pointerRegistry, "loadKey"));
+    LOGGER.info("index load: {} read units, {}ms mean",
+        capacityUnits(indexRegistry, "loadKey", CapacityManager.READ), meanMillis(indexRegistry, "loadKey"));
+  }
+
+  @Test
+  public void deleteOwner_countsOnlyVersions() {
+    final Key key = getAndStoreKey(true, 1);
+    getAndStoreKey(true, 2);
+    final MeterRegistry registry = new SimpleMeterRegistry();
+
+    assertThat(keyDao(registry, pointerConfiguration).delete(ImmutableOwnerIdentifier.builder()
+        .owner(key.keyVersionIdentifier().owner())
+        .build())).isTrue();
+
+    assertThat(registry.counter("ddbdao.deleted.versions").count()).isEqualTo(2.0);
+    assertThat(registry.counter("ddbdao.deleted.keys").count()).isEqualTo(1.0);
+  }
+
+}
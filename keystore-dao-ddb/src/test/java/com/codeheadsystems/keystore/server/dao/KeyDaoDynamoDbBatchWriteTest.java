@@ -0,0 +1,76 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.server.dao;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.codeheadsystems.keystore.server.dao.ddb.configuration.ImmutableTableConfiguration;
+import com.codeheadsystems.keystore.server.dao.ddb.configuration.TableConfiguration;
+import com.codeheadsystems.keystore.server.dao.ddb.manager.CapacityManager;
+import com.codeheadsystems.keystore.server.dao.model.Key;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.List;
+import java.util.stream.LongStream;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the full dao suite with batch writes instead of transactions, and compares the cost of the two.
+ */
+public class KeyDaoDynamoDbBatchWriteTest extends KeyDaoDynamoDbTest {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(KeyDaoDynamoDbBatchWriteTest.class);
+  private static final int STORES = 20;
+
+  private final TableConfiguration batchConfiguration = ImmutableTableConfiguration.builder()
+      .transactionalWrites(false)
+      .build();
+
+  @Override
+  protected TableConfiguration daoConfiguration() {
+    return batchConfiguration;
+  }
+
+  @Test
+  public void store_transactionVersusBatch() {
+    final MeterRegistry transactRegistry = new SimpleMeterRegistry();
+    final MeterRegistry batchRegistry = new SimpleMeterRegistry();
+    final KeyDao transactDao = keyDao(transactRegistry, tableConfiguration);
+    final KeyDao batchDao = keyDao(batchRegistry, batchConfiguration);
+    final List<Key> transactKeys = LongStream.rangeClosed(1, STORES)
+        .mapToObj(version -> getKey(true, version, owner() + ".transact"))
+        .toList();
+    final List<Key> batchKeys = LongStream.rangeClosed(1, STORES)
+        .mapToObj(version -> getKey(true, version, owner() + ".batch"))
+        .toList();
+
+    transactKeys.forEach(transactDao::store);
+    batchKeys.forEach(batchDao::store);
+
+    assertThat(dao.loadAll(transactKeys.stream().map(Key::keyVersionIdentifier).toList()))
+        .containsExactlyInAnyOrderElementsOf(transactKeys);
+    assertThat(dao.loadAll(batchKeys.stream().map(Key::keyVersionIdentifier).toList()))
+        .containsExactlyInAnyOrderElementsOf(batchKeys);
+    LOGGER.info("transaction store: {} write units, {}ms mean",
+        capacityUnits(transactRegistry, "storeKey", CapacityManager.WRITE), meanMillis(transactRegistry, "storeKey"));
+    LOGGER.info("batch store: {} write units, {}ms mean",
+        capacityUnits(batchRegistry, "storeKey", CapacityManager.WRITE), meanMillis(batchRegistry, "storeKey"));
+  }
+
+}
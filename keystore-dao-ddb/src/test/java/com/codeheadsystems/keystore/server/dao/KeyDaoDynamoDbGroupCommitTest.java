@@ -0,0 +1,65 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.server.dao;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.codeheadsystems.keystore.server.dao.ddb.configuration.ImmutableTableConfiguration;
+import com.codeheadsystems.keystore.server.dao.ddb.configuration.TableConfiguration;
+import com.codeheadsystems.keystore.server.dao.ddb.manager.GroupCommitWriter;
+import com.codeheadsystems.keystore.server.dao.model.Key;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.LongStream;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Runs the full dao suite with batch writes grouped by the group commit writer.
+ */
+public class KeyDaoDynamoDbGroupCommitTest extends KeyDaoDynamoDbTest {
+
+  private final TableConfiguration groupCommitConfiguration = ImmutableTableConfiguration.builder()
+      .transactionalWrites(false)
+      .groupCommitMillis(5)
+      .build();
+
+  @Override
+  protected TableConfiguration daoConfiguration() {
+    return groupCommitConfiguration;
+  }
+
+  @Test
+  public void store_concurrent() {
+    final MeterRegistry registry = new SimpleMeterRegistry();
+    final KeyDao groupCommitDao = keyDao(registry, groupCommitConfiguration);
+    final List<Key> keys = LongStream.rangeClosed(1, 40)
+        .mapToObj(version -> getKey(true, version, owner()))
+        .toList();
+
+    keys.stream()
+        .map(key -> CompletableFuture.runAsync(() -> groupCommitDao.store(key)))
+        .toList()
+        .forEach(CompletableFuture::join);
+
+    assertThat(dao.loadAll(keys.stream().map(Key::keyVersionIdentifier).toList()))
+        .containsExactlyInAnyOrderElementsOf(keys);
+    assertThat(registry.summary(GroupCommitWriter.PREFIX + "batch.writes").totalAmount()).isEqualTo(40.0);
+  }
+
+}
@@ -0,0 +1,62 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.server.dao;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.codeheadsystems.keystore.server.dao.ddb.configuration.ImmutableTableConfiguration;
+import com.codeheadsystems.keystore.server.dao.ddb.configuration.IndexProjection;
+import com.codeheadsystems.keystore.server.dao.ddb.configuration.TableConfiguration;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableKeyIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.Key;
+import com.codeheadsystems.keystore.server.dao.model.KeyIdentifier;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Runs the full dao suite with indexes that only project the keys, so loading the active key fetches it from
+ * the table after finding it in the index.
+ */
+public class KeyDaoDynamoDbKeysOnlyTest extends KeyDaoDynamoDbTest {
+
+  private final TableConfiguration keysOnlyConfiguration = ImmutableTableConfiguration.builder()
+      .activeIndexProjection(IndexProjection.KEYS_ONLY)
+      .ownerIndexProjection(IndexProjection.KEYS_ONLY)
+      .ownerSearchIndexProjection(IndexProjection.KEYS_ONLY)
+      .build();
+
+  @Override
+  protected TableConfiguration daoConfiguration() {
+    return keysOnlyConfiguration;
+  }
+
+  @Test
+  public void load_fetchesFromTheTable() {
+    final Key key = getAndStoreKey(true, 1);
+    final KeyIdentifier identifier = ImmutableKeyIdentifier.builder()
+        .owner(key.keyVersionIdentifier().owner())
+        .key(key.keyVersionIdentifier().key())
+        .build();
+    final MeterRegistry registry = new SimpleMeterRegistry();
+
+    assertThat(keyDao(registry, keysOnlyConfiguration).load(identifier)).contains(key);
+
+    assertThat(registry.counter("ddbdao.active.fetch").count()).isEqualTo(1.0);
+  }
+
+}
@@ -17,16 +17,34 @@
 package com.codeheadsystems.keystore.server.dao;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
 
 import com.codeheadsystems.keystore.server.dao.ddb.configuration.ImmutableTableConfiguration;
 import com.codeheadsystems.keystore.server.dao.ddb.configuration.TableConfiguration;
 import com.codeheadsystems.keystore.server.dao.ddb.dagger.DdbModule;
 import com.codeheadsystems.keystore.server.dao.ddb.manager.AwsManager;
+import com.codeheadsystems.keystore.server.dao.ddb.manager.CapacityManager;
+import com.codeheadsystems.keystore.server.dao.ddb.manager.ScanExport;
+import com.codeheadsystems.keystore.server.dao.model.Batch;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableKeyVersionIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.Key;
+import com.codeheadsystems.keystore.server.dao.model.KeyVersionIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.OwnerIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.Token;
 import com.codeheadsystems.test.datastore.DataStore;
 import com.codeheadsystems.test.datastore.DynamoDbExtension;
 import io.github.resilience4j.micrometer.tagged.TaggedRetryMetrics;
 import io.github.resilience4j.retry.Retry;
 import io.github.resilience4j.retry.RetryRegistry;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
@@ -39,8 +57,8 @@ import software.amazon.awssdk.services.dynamodb.model.DeleteTableRequest;
 public class KeyDaoDynamoDbTest extends KeyDaoTest {
 
   private static Retry retry;
-  private final TableConfiguration tableConfiguration = ImmutableTableConfiguration.builder().build();
-  @DataStore private DynamoDbClient client;
+  protected final TableConfiguration tableConfiguration = ImmutableTableConfiguration.builder().build();
+  @DataStore protected DynamoDbClient client;
 
   @BeforeAll
   public static void setupRetry() {
@@ -56,15 +74,68 @@ public class KeyDaoDynamoDbTest extends KeyDaoTest {
     if (keyDao == null) {
       keyDao = DaggerDaoComponent.builder()
           .auxModule(new DaoComponent.AuxModule(meterRegistry, client))
+          .ddbModule(new DdbModule(daoConfiguration()))
           .build()
           .keyDao();
     }
     return keyDao;
   }
 
+  /**
+   * The configuration of the dao under test, which the table is created with as well.
+   *
+   * @return the configuration.
+   */
+  protected TableConfiguration daoConfiguration() {
+    return tableConfiguration;
+  }
+
+  /**
+   * Creates a separate dao against the same table, so its metrics can be measured on their own.
+   *
+   * @param registry      for the metrics of this dao.
+   * @param configuration for the dao.
+   * @return the dao.
+   */
+  protected KeyDao keyDao(final MeterRegistry registry, final TableConfiguration configuration) {
+    return DaggerDaoComponent.builder()
+        .auxModule(new DaoComponent.AuxModule(registry, client))
+        .ddbModule(new DdbModule(configuration))
+        .build()
+        .keyDao();
+  }
+
+  /**
+   * The capacity units consumed by the dao operation.
+   *
+   * @param registry  the dao was created with.
+   * @param operation the dao timer name, like loadKey.
+   * @param type      read or write.
+   * @return the units.
+   */
+  protected double capacityUnits(final MeterRegistry registry, final String operation, final String type) {
+    return registry.find(CapacityManager.CAPACITY_METRIC)
+        .tag(CapacityManager.OPERATION, operation)
+        .tag(CapacityManager.TYPE, type)
+        .summaries().stream()
+        .mapToDouble(DistributionSummary::totalAmount)
+        .sum();
+  }
+
+  /**
+   * The mean latency of the dao operation.
+   *
+   * @param registry  the dao was created with.
+   * @param operation the dao timer name, like loadKey.
+   * @return the mean in milliseconds.
+   */
+  protected double meanMillis(final MeterRegistry registry, final String operation) {
+    return registry.get(KeyDaoDynamoDb.PREFIX + operation).timer().mean(TimeUnit.MILLISECONDS);
+  }
+
   @BeforeEach
   public void setupDatabase() {
-    new AwsManager(client, tableConfiguration).createTable();
+    new AwsManager(client, daoConfiguration()).createTable();
   }
 
   @AfterEach
@@ -74,6 +145,74 @@ public class KeyDaoDynamoDbTest extends KeyDaoTest {
         .build());
   }
 
+  @Test
+  public void loadSnapshot() {
+    final Key key1 = getAndStoreKey(true, 1);
+    final Key key2 = getAndStoreKey(true, 2);
+    final KeyVersionIdentifier missing = ImmutableKeyVersionIdentifier.copyOf(key1.keyVersionIdentifier())
+        .withVersion(3L);
+    final KeyDaoDynamoDb ddbDao = (KeyDaoDynamoDb) keyDAO();
+    assertThat(ddbDao.loadSnapshot(List.of(key1.keyVersionIdentifier(), key2.keyVersionIdentifier(), missing)))
+        .containsExactly(key1, key2);
+  }
+
+  @Test
+  public void listOwners_sharded() {
+    final KeyDao shardedDao = keyDao(meterRegistry,
+        ImmutableTableConfiguration.builder().ownerSearchShards(4).build());
+    final OwnerIdentifier legacy = keyDAO().storeOwner("legacy"); // stored before sharding.
+    final List<OwnerIdentifier> owners = IntStream.range(0, 20)
+        .mapToObj(i -> shardedDao.storeOwner("owner" + i))
+        .toList();
+
+    final Batch<OwnerIdentifier> batch = shardedDao.listOwners(null);
+
+    assertThat(batch.nextToken()).isEmpty();
+    assertThat(batch.list())
+        .containsAll(owners)
+        .contains(legacy)
+        .isSortedAccordingTo(Comparator.comparing(OwnerIdentifier::owner));
+  }
+
+  @Test
+  public void export_allKeys() {
+    final List<Key> keys = IntStream.range(0, 20)
+        .mapToObj(i -> getKey(i % 3 == 0, i / 5 + 1, owner() + i % 5))
+        .toList();
+    keys.forEach(dao::store);
+    final Queue<Key> exported = new ConcurrentLinkedQueue<>();
+
+    final ScanExport export = ((KeyDaoDynamoDb) keyDAO()).export(4, exported::add);
+    export.join();
+
+    assertThat(exported).containsExactlyInAnyOrderElementsOf(keys);
+    assertThat(export.checkpoint()).isEmpty();
+  }
+
+  @Test
+  public void export_resumeFromCheckpoint() {
+    final List<Key> keys = IntStream.range(0, 20)
+        .mapToObj(i -> getAndStoreKey(true, i + 1))
+        .toList();
+    final KeyDaoDynamoDb exportDao = (KeyDaoDynamoDb) keyDao(meterRegistry,
+        ImmutableTableConfiguration.copyOf(daoConfiguration()).withExportPageSize(1));
+    final Queue<Key> exported = new ConcurrentLinkedQueue<>();
+    final ScanExport failed = exportDao.export(1, key -> {
+      if (exported.size() == 5) {
+        throw new IllegalStateException("consumer failed");
+      }
+      exported.add(key);
+    });
+    assertThatExceptionOfType(IllegalStateException.class).isThrownBy(failed::join);
+    final Optional<Token> checkpoint = failed.checkpoint();
+    assertThat(checkpoint).isPresent();
+    assertThat(exported).hasSize(5);
+
+    exportDao.export(checkpoint.get(), exported::add).join();
+
+    assertThat(exported).containsAll(keys);
+  }
+
   @Test
   public void testClient() {
     assertThat(client)
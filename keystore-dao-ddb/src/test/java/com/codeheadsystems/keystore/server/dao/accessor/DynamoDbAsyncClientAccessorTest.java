@@ -0,0 +1,200 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.server.dao.accessor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static software.amazon.awssdk.services.dynamodb.model.AttributeValue.fromS;
+
+import com.amazonaws.services.dynamodbv2.local.main.ServerRunner;
+import com.amazonaws.services.dynamodbv2.local.server.DynamoDBProxyServer;
+import com.codeheadsystems.keystore.server.dao.ddb.accessor.DynamoDbAsyncClientAccessor;
+import com.codeheadsystems.keystore.server.dao.ddb.accessor.DynamoDbExceptionMapper;
+import com.codeheadsystems.keystore.server.dao.ddb.configuration.HttpClientConfiguration;
+import com.codeheadsystems.keystore.server.dao.ddb.configuration.ImmutableHttpClientConfiguration;
+import com.codeheadsystems.keystore.server.dao.ddb.configuration.ImmutableTableConfiguration;
+import com.codeheadsystems.keystore.server.dao.ddb.configuration.TableConfiguration;
+import com.codeheadsystems.keystore.server.dao.ddb.factory.DynamoDbAsyncClientFactory;
+import com.codeheadsystems.keystore.server.dao.ddb.manager.AwsManager;
+import com.codeheadsystems.keystore.server.dao.ddb.manager.CapacityManager;
+import com.codeheadsystems.keystore.server.exception.DependencyException;
+import com.codeheadsystems.keystore.server.exception.RetryableException;
+import com.codeheadsystems.metrics.Metrics;
+import io.github.resilience4j.retry.Retry;
+import io.github.resilience4j.retry.RetryConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.DeleteTableRequest;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.GetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.ProvisionedThroughputExceededException;
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.ReturnConsumedCapacity;
+
+/**
+ * Runs the async accessor against dynamodb local, started as a real server so both http clients are used.
+ */
+class DynamoDbAsyncClientAccessorTest {
+
+  private static final AwsCredentialsProvider CREDENTIALS =
+      StaticCredentialsProvider.create(AwsBasicCredentials.create("local", "local"));
+  private static DynamoDBProxyServer server;
+  private static URI endpoint;
+
+  private final TableConfiguration tableConfiguration = ImmutableTableConfiguration.builder().build();
+  private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+  private final Retry retry = Retry.of("test", RetryConfig.custom()
+      .maxAttempts(3)
+      .retryExceptions(RetryableException.class)
+      .waitDuration(Duration.ofMillis(1))
+      .build());
+  private Metrics metrics;
+  private ScheduledExecutorService scheduler;
+  private DynamoDbClient client;
+
+  @BeforeAll
+  static void startServer() throws Exception {
+    final int port;
+    try (ServerSocket socket = new ServerSocket(0)) {
+      port = socket.getLocalPort();
+    }
+    server = ServerRunner.createServerFromCommandLineArgs(new String[]{"-inMemory", "-port", Integer.toString(port)});
+    server.start();
+    endpoint = URI.create("http://localhost:" + port);
+  }
+
+  @AfterAll
+  static void stopServer() throws Exception {
+    server.stop();
+  }
+
+  @BeforeEach
+  void setup() {
+    metrics = mock(Metrics.class);
+    when(metrics.registry()).thenReturn(registry);
+    scheduler = Executors.newSingleThreadScheduledExecutor();
+    client = DynamoDbClient.builder()
+        .credentialsProvider(CREDENTIALS)
+        .region(Region.US_EAST_1)
+        .endpointOverride(endpoint)
+        .build();
+    new AwsManager(client, tableConfiguration).createTable();
+  }
+
+  @AfterEach
+  void cleanup() {
+    client.deleteTable(DeleteTableRequest.builder().tableName(tableConfiguration.tableName()).build());
+    client.close();
+    scheduler.shutdownNow();
+  }
+
+  @ParameterizedTest
+  @EnumSource(HttpClientConfiguration.Type.class)
+  void putAndGet(final HttpClientConfiguration.Type type) {
+    final HttpClientConfiguration configuration = ImmutableHttpClientConfiguration.builder()
+        .type(type)
+        .maxConcurrency(4)
+        .build();
+    try (DynamoDbAsyncClient asyncClient = new DynamoDbAsyncClientFactory()
+        .client(configuration, CREDENTIALS, Region.US_EAST_1, endpoint)) {
+      final DynamoDbAsyncClientAccessor accessor = accessor(asyncClient);
+      final Map<String, AttributeValue> key = Map.of(
+          tableConfiguration.hashKey(), fromS("async:" + type),
+          tableConfiguration.rangeKey(), fromS("1"));
+
+      accessor.putItem(PutItemRequest.builder()
+          .tableName(tableConfiguration.tableName())
+          .item(key)
+          .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)
+          .build()).join();
+      final GetItemResponse response = accessor.getItem(GetItemRequest.builder()
+          .tableName(tableConfiguration.tableName())
+          .key(key)
+          .consistentRead(true)
+          .build()).join();
+
+      assertThat(response.item()).isEqualTo(key);
+      assertThat(registry.get(DynamoDbAsyncClientAccessor.PUT_ITEM_METRIC).timer().count()).isEqualTo(1);
+      assertThat(registry.get(DynamoDbAsyncClientAccessor.GET_ITEM_METRIC).timer().count()).isEqualTo(1);
+    }
+  }
+
+  @Test
+  void conditionFailure_isDependencyException() {
+    try (DynamoDbAsyncClient asyncClient = new DynamoDbAsyncClientFactory()
+        .client(ImmutableHttpClientConfiguration.builder().build(), CREDENTIALS, Region.US_EAST_1, endpoint)) {
+      final DynamoDbAsyncClientAccessor accessor = accessor(asyncClient);
+      final PutItemRequest request = PutItemRequest.builder()
+          .tableName(tableConfiguration.tableName())
+          .item(Map.of(tableConfiguration.hashKey(), fromS("async:condition"),
+              tableConfiguration.rangeKey(), fromS("1")))
+          .conditionExpression("attribute_not_exists(" + tableConfiguration.hashKey() + ")")
+          .build();
+      accessor.putItem(request).join();
+
+      final CompletableFuture<?> second = accessor.putItem(request);
+
+      assertThatExceptionOfType(CompletionException.class)
+          .isThrownBy(second::join)
+          .withCauseInstanceOf(DependencyException.class);
+    }
+  }
+
+  @Test
+  void throttled_isRetried() {
+    final DynamoDbAsyncClient asyncClient = mock(DynamoDbAsyncClient.class);
+    when(asyncClient.getItem(any(GetItemRequest.class)))
+        .thenReturn(CompletableFuture.failedFuture(ProvisionedThroughputExceededException.builder().build()))
+        .thenReturn(CompletableFuture.completedFuture(GetItemResponse.builder().build()));
+
+    assertThat(accessor(asyncClient).getItem(GetItemRequest.builder().build()).join()).isNotNull();
+
+    verify(asyncClient, times(2)).getItem(any(GetItemRequest.class));
+  }
+
+  private DynamoDbAsyncClientAccessor accessor(final DynamoDbAsyncClient asyncClient) {
+    return new DynamoDbAsyncClientAccessor(asyncClient, metrics, new CapacityManager(tableConfiguration, metrics),
+        new DynamoDbExceptionMapper(metrics), retry, retry, scheduler);
+  }
+
+}
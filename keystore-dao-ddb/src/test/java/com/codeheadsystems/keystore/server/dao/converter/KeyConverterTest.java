@@ -29,10 +29,15 @@ import static software.amazon.awssdk.services.dynamodb.model.AttributeValue.from
 
 import com.codeheadsystems.keystore.common.factory.ObjectMapperFactory;
 import com.codeheadsystems.keystore.server.dao.ddb.configuration.ImmutableTableConfiguration;
+import com.codeheadsystems.keystore.server.dao.ddb.configuration.IndexProjection;
 import com.codeheadsystems.keystore.server.dao.ddb.configuration.TableConfiguration;
 import com.codeheadsystems.keystore.server.dao.ddb.converter.KeyConverter;
 import com.codeheadsystems.keystore.server.dao.ddb.manager.TokenManager;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableKey;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableKeyIdentifier;
 import com.codeheadsystems.keystore.server.dao.model.ImmutableKeyVersionIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableRetentionPolicies;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableRetentionPolicy;
 import com.codeheadsystems.keystore.server.dao.model.Key;
 import com.codeheadsystems.metrics.Metrics;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -49,6 +54,8 @@ import software.amazon.awssdk.core.SdkBytes;
 import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
 import software.amazon.awssdk.services.dynamodb.model.GetItemResponse;
 import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.QueryRequest;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemRequest;
 import software.amazon.awssdk.utils.ImmutableMap;
 
 @ExtendWith(MockitoExtension.class)
@@ -61,6 +68,7 @@ public class KeyConverterTest {
   @Mock private MeterRegistry registry;
   @Mock private Counter activeCounter;
   @Mock private Counter inactiveCounter;
+  @Mock private Counter ttlCounter;
   @Mock private TokenManager tokenManager;
 
   private KeyConverter converter;
@@ -71,6 +79,7 @@ public class KeyConverterTest {
     when(metrics.registry()).thenReturn(registry);
     when(registry.counter(KEYCONVERTER_ACTIVEINDEX, INVALID_INDEX, MISSING_BUT_EXPECTED)).thenReturn(activeCounter);
     when(registry.counter(KEYCONVERTER_ACTIVEINDEX, INVALID_INDEX, FOUND_UNEXPECTEDLY)).thenReturn(inactiveCounter);
+    when(registry.counter(KEYCONVERTER_TTL)).thenReturn(ttlCounter);
     converter = new KeyConverter(TABLE_CONFIGURATION, metrics, tokenManager);
     objectMapper = new ObjectMapperFactory().generate();
   }
@@ -118,6 +127,25 @@ public class KeyConverterTest {
     ;
   }
 
+  @Test
+  void toPutItemRequest_expiringInactiveKey() throws IOException {
+    final TableConfiguration configuration = ImmutableTableConfiguration.builder()
+        .retention(ImmutableRetentionPolicies.builder()
+            .putOwners("owner", ImmutableRetentionPolicy.builder().expireInactiveSeconds(60).build())
+            .build())
+        .build();
+    final KeyConverter retentionConverter = new KeyConverter(configuration, metrics, tokenManager);
+    final InputStream stream = KeyConverterTest.class.getClassLoader().getResourceAsStream("fixture/Key.json");
+    final Key key = objectMapper.readValue(stream, Key.class);
+
+    assertThat(retentionConverter.toPutItemRequest(key).item())
+        .doesNotContainKey(configuration.ttlKey());
+    assertThat(retentionConverter.toPutItemRequest(ImmutableKey.copyOf(key).withActive(false)).item())
+        .containsEntry(configuration.ttlKey(),
+            fromN(Long.toString(key.updateDate().orElseThrow().toInstant().getEpochSecond() + 60)));
+    verify(ttlCounter).increment();
+  }
+
   @Test
   void fromRequest() {
     final ImmutableMap.Builder<String, AttributeValue> builder = ImmutableMap.builder();
@@ -193,4 +221,38 @@ public class KeyConverterTest {
     verify(inactiveCounter).increment(0);
 
   }
-}
\ No newline at end of file
+
+  @Test
+  void toActiveQueryRequest_keysOnly() {
+    converter = new KeyConverter(ImmutableTableConfiguration.builder()
+        .activeIndexProjection(IndexProjection.KEYS_ONLY).build(), metrics, tokenManager);
+    final QueryRequest request = converter.toActiveQueryRequest(ImmutableKeyIdentifier.builder()
+        .owner("owner").key("key").build());
+    assertThat(request.attributesToGet())
+        .containsExactly(TABLE_CONFIGURATION.hashKey(), TABLE_CONFIGURATION.rangeKey());
+  }
+
+  @Test
+  void toActiveQueryRequest_all() {
+    final QueryRequest request = converter.toActiveQueryRequest(ImmutableKeyIdentifier.builder()
+        .owner("owner").key("key").build());
+    assertThat(request.hasAttributesToGet()).isFalse();
+  }
+
+  @Test
+  void toVersionCounterRaiseItemRequest() {
+    final UpdateItemRequest request = converter.toVersionCounterRaiseItemRequest(
+        ImmutableKeyVersionIdentifier.builder().owner("owner").key("key").version(12L).build());
+    assertThat(request.key()).isEqualTo(converter.toVersionCounterPrimaryKey(ImmutableKeyIdentifier.builder()
+        .owner("owner").key("key").build()));
+    assertThat(request.conditionExpression()).isEqualTo("attribute_not_exists(#n) OR #n < :v");
+    assertThat(request.expressionAttributeValues()).containsEntry(":v", AttributeValue.fromN("12"));
+  }
+
+  @Test
+  void isComplete() {
+    assertThat(converter.isComplete(ImmutableMap.of(KEY_VALUE, fromS("x")))).isTrue();
+    assertThat(converter.isComplete(ImmutableMap.of(TABLE_CONFIGURATION.hashKey(), fromS(HASHKEY)))).isFalse();
+  }
+
+}
@@ -0,0 +1,90 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.codeheadsystems.keystore.server.dao.manager;
+package com.codeheadsystems.keystore.server.dao.manager;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+import com.codeheadsystems.keystore.server.dao.ddb.configuration.ImmutableTableConfiguration;
+import com.codeheadsystems.keystore.server.dao.ddb.manager.AdaptiveRateLimiter;
+import com.codeheadsystems.metrics.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class AdaptiveRateLimiterTest {
+
+  @Mock private Metrics metrics;
+
+  private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+  private AdaptiveRateLimiter limiter;
+
+  @BeforeEach
+  void setup() {
+    when(metrics.registry()).thenReturn(registry);
+    limiter = new AdaptiveRateLimiter(ImmutableTableConfiguration.builder()
+        .writeRateInitial(100)
+        .writeRateMin(10)
+        .writeRateMax(110)
+        .writeRateIncrease(5)
+        .writeRateDecrease(0.5)
+        .build(), metrics);
+  }
+
+  @Test
+  void record_increase() {
+    limiter.record(0.0);
+    assertThat(limiter.rate()).isEqualTo(105.0);
+    assertThat(registry.get(AdaptiveRateLimiter.WRITE_RATE_METRIC).gauge().value()).isEqualTo(105.0);
+  }
+
+  @Test
+  void record_increase_capped() {
+    limiter.record(0.0);
+    limiter.record(0.0);
+    limiter.record(0.0);
+    assertThat(limiter.rate()).isEqualTo(110.0);
+  }
+
+  @Test
+  void record_decrease_proportional() {
+    limiter.record(0.5);
+    assertThat(limiter.rate()).isEqualTo(75.0);
+    limiter.record(1.0);
+    assertThat(limiter.rate()).isEqualTo(37.5);
+  }
+
+  @Test
+  void record_decrease_floor() {
+    for (int i = 0; i < 10; i++) {
+      limiter.record(1.0);
+    }
+    assertThat(limiter.rate()).isEqualTo(10.0);
+  }
+
+  @Test
+  void acquire_withinRate() {
+    final long start = System.nanoTime();
+    limiter.acquire(1);
+    assertThat(System.nanoTime() - start).isLessThan(1_000_000_000L);
+  }
+
+}
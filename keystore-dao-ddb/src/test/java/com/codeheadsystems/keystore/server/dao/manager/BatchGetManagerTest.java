@@ -0,0 +1,160 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.codeheadsystems.keystore.server.dao.manager;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.codeheadsystems.keystore.server.dao.ddb.accessor.DynamoDbClientAccessor;
+import com.codeheadsystems.keystore.server.dao.ddb.configuration.ImmutableTableConfiguration;
+import com.codeheadsystems.keystore.server.dao.ddb.configuration.TableConfiguration;
+import com.codeheadsystems.keystore.server.dao.ddb.converter.KeyConverter;
+import com.codeheadsystems.keystore.server.dao.ddb.manager.BackoffManager;
+import com.codeheadsystems.keystore.server.dao.ddb.manager.BatchGetManager;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableKeyVersionIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.Key;
+import com.codeheadsystems.keystore.server.dao.model.KeyVersionIdentifier;
+import com.codeheadsystems.keystore.server.exception.DependencyException;
+import com.codeheadsystems.metrics.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.LongStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.ConsumedCapacity;
+import software.amazon.awssdk.services.dynamodb.model.KeysAndAttributes;
+
+@ExtendWith(MockitoExtension.class)
+class BatchGetManagerTest {
+
+  private static final TableConfiguration CONFIGURATION = ImmutableTableConfiguration.builder()
+      .backoffBaseMillis(1)
+      .backoffMaxMillis(2)
+      .build();
+
+  @Mock private DynamoDbClientAccessor accessor;
+  @Mock private KeyConverter keyConverter;
+  @Mock private Metrics metrics;
+  @Mock private Key key;
+
+  private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+  private ExecutorService executorService;
+  private BatchGetManager manager;
+
+  @BeforeEach
+  void setup() {
+    when(metrics.registry()).thenReturn(registry);
+    executorService = Executors.newFixedThreadPool(2);
+    manager = new BatchGetManager(accessor, keyConverter, new BackoffManager(CONFIGURATION), executorService,
+        metrics);
+  }
+
+  @AfterEach
+  void shutdown() {
+    executorService.shutdownNow();
+  }
+
+  @Test
+  void load_chunksIntoBatchesOf100() {
+    final List<KeyVersionIdentifier> identifiers = identifiers(250);
+    when(keyConverter.toBatchGetItemRequest(any())).thenReturn(BatchGetItemRequest.builder().build());
+    when(accessor.batchGetItem(any())).thenReturn(response(1.0, Map.of()));
+    when(keyConverter.from(any(BatchGetItemResponse.class))).thenReturn(List.of(key));
+
+    assertThat(manager.load(identifiers)).hasSize(3);
+
+    @SuppressWarnings("unchecked")
+    final ArgumentCaptor<List<KeyVersionIdentifier>> captor = ArgumentCaptor.forClass(List.class);
+    verify(keyConverter, times(3)).toBatchGetItemRequest(captor.capture());
+    assertThat(captor.getAllValues()).extracting(List::size).containsExactlyInAnyOrder(100, 100, 50);
+    assertThat(registry.counter(BatchGetManager.PREFIX + "chunks").count()).isEqualTo(3.0);
+    assertThat(registry.summary(BatchGetManager.PREFIX + "consumed.capacity").totalAmount()).isEqualTo(3.0);
+  }
+
+  @Test
+  void load_retriesUnprocessed() {
+    final Map<String, KeysAndAttributes> unprocessed = Map.of("table", KeysAndAttributes.builder()
+        .keys(Map.of())
+        .build());
+    when(keyConverter.toBatchGetItemRequest(any())).thenReturn(BatchGetItemRequest.builder().build());
+    when(accessor.batchGetItem(any()))
+        .thenReturn(response(1.0, unprocessed))
+        .thenReturn(response(0.5, Map.of()));
+    when(keyConverter.from(any(BatchGetItemResponse.class))).thenReturn(List.of(key));
+
+    assertThat(manager.load(identifiers(2))).hasSize(2);
+    final ArgumentCaptor<BatchGetItemRequest> captor = ArgumentCaptor.forClass(BatchGetItemRequest.class);
+    verify(accessor, times(2)).batchGetItem(captor.capture());
+    assertThat(captor.getAllValues().get(1).requestItems()).isEqualTo(unprocessed);
+    assertThat(registry.counter(BatchGetManager.PREFIX + "retries").count()).isEqualTo(1.0);
+    assertThat(registry.counter(BatchGetManager.PREFIX + "unprocessed").count()).isEqualTo(1.0);
+  }
+
+  @Test
+  void load_ranOut() {
+    final Map<String, KeysAndAttributes> unprocessed = Map.of("table", KeysAndAttributes.builder()
+        .keys(Map.of())
+        .build());
+    when(keyConverter.toBatchGetItemRequest(any())).thenReturn(BatchGetItemRequest.builder().build());
+    when(accessor.batchGetItem(any())).thenReturn(response(1.0, unprocessed));
+    when(keyConverter.from(any(BatchGetItemResponse.class))).thenReturn(List.of());
+
+    assertThatExceptionOfType(DependencyException.class)
+        .isThrownBy(() -> manager.load(identifiers(2)));
+    verify(accessor, times(BatchGetManager.MAX_TIMES)).batchGetItem(any());
+  }
+
+  @Test
+  void loadSnapshot_tooMany() {
+    assertThatExceptionOfType(IllegalArgumentException.class)
+        .isThrownBy(() -> manager.loadSnapshot(identifiers(101)));
+  }
+
+  @Test
+  void load_empty() {
+    assertThat(manager.load(List.of())).isEmpty();
+  }
+
+  private BatchGetItemResponse response(final double capacity,
+                                        final Map<String, KeysAndAttributes> unprocessed) {
+    return BatchGetItemResponse.builder()
+        .consumedCapacity(ConsumedCapacity.builder().capacityUnits(capacity).build())
+        .unprocessedKeys(unprocessed)
+        .build();
+  }
+
+  private List<KeyVersionIdentifier> identifiers(final int count) {
+    return LongStream.range(0, count)
+        .mapToObj(i -> (KeyVersionIdentifier) ImmutableKeyVersionIdentifier.builder()
+            .owner("owner").key("key").version(i).build())
+        .toList();
+  }
+
+}
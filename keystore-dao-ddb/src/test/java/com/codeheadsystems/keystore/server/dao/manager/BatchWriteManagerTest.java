@@ -0,0 +1,144 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.server.dao.manager;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static software.amazon.awssdk.services.dynamodb.model.AttributeValue.fromS;
+
+import com.codeheadsystems.keystore.server.dao.ddb.accessor.DynamoDbClientAccessor;
+import com.codeheadsystems.keystore.server.dao.ddb.configuration.ImmutableTableConfiguration;
+import com.codeheadsystems.keystore.server.dao.ddb.converter.BatchWriteConverter;
+import com.codeheadsystems.keystore.server.dao.ddb.manager.BackoffManager;
+import com.codeheadsystems.keystore.server.dao.ddb.manager.BatchWriteManager;
+import com.codeheadsystems.keystore.server.exception.RetryableException;
+import com.codeheadsystems.metrics.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.ConsumedCapacity;
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
+
+@ExtendWith(MockitoExtension.class)
+class BatchWriteManagerTest {
+
+  private static final String TABLE = "table";
+
+  @Mock private DynamoDbClientAccessor accessor;
+  @Mock private Metrics metrics;
+
+  private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+  private ExecutorService executorService;
+  private BatchWriteManager manager;
+
+  @BeforeEach
+  void setup() {
+    when(metrics.registry()).thenReturn(registry);
+    executorService = Executors.newFixedThreadPool(2);
+    final BackoffManager backoffManager = new BackoffManager(ImmutableTableConfiguration.builder()
+        .backoffBaseMillis(1).backoffMaxMillis(2).build());
+    manager = new BatchWriteManager(accessor, new BatchWriteConverter(), executorService, backoffManager, metrics);
+  }
+
+  @AfterEach
+  void shutdown() {
+    executorService.shutdownNow();
+  }
+
+  @Test
+  void delete_chunksIntoBatchesOf25() {
+    when(accessor.batchWriteItem(any())).thenReturn(response(1.0, Map.of()));
+    final double capacity = manager.delete(TABLE, keys(60));
+    final ArgumentCaptor<BatchWriteItemRequest> captor = ArgumentCaptor.forClass(BatchWriteItemRequest.class);
+    verify(accessor, times(3)).batchWriteItem(captor.capture());
+    assertThat(captor.getAllValues())
+        .extracting(r -> r.requestItems().get(TABLE).size())
+        .containsExactlyInAnyOrder(25, 25, 10);
+    assertThat(capacity).isEqualTo(3.0);
+    assertThat(registry.counter(BatchWriteManager.PREFIX + "deleted.items").count()).isEqualTo(60.0);
+  }
+
+  @Test
+  void put_chunksIntoBatchesOf25() {
+    when(accessor.batchWriteItem(any())).thenReturn(response(1.0, Map.of()));
+    final List<PutItemRequest> requests = keys(30).stream()
+        .map(key -> PutItemRequest.builder().tableName(TABLE).item(key).build())
+        .toList();
+    final double capacity = manager.put(requests);
+    final ArgumentCaptor<BatchWriteItemRequest> captor = ArgumentCaptor.forClass(BatchWriteItemRequest.class);
+    verify(accessor, times(2)).batchWriteItem(captor.capture());
+    assertThat(captor.getAllValues())
+        .extracting(r -> r.requestItems().get(TABLE).size())
+        .containsExactlyInAnyOrder(25, 5);
+    assertThat(capacity).isEqualTo(2.0);
+    assertThat(registry.counter(BatchWriteManager.PREFIX + "put.items").count()).isEqualTo(30.0);
+  }
+
+  @Test
+  void write_reprocessesUnprocessed() {
+    final BatchWriteItemRequest request = new BatchWriteConverter().fromDeleteKeys(TABLE, keys(2));
+    final List<WriteRequest> unprocessed = request.requestItems().get(TABLE).subList(0, 1);
+    when(accessor.batchWriteItem(any()))
+        .thenReturn(response(2.0, Map.of(TABLE, unprocessed)))
+        .thenReturn(response(1.0, Map.of()));
+    assertThat(manager.write(request, 5)).isEqualTo(3.0);
+    assertThat(registry.counter(BatchWriteManager.PREFIX + "unprocessed").count()).isEqualTo(1.0);
+  }
+
+  @Test
+  void write_ranOut() {
+    final BatchWriteItemRequest request = new BatchWriteConverter().fromDeleteKeys(TABLE, keys(1));
+    when(accessor.batchWriteItem(any())).thenReturn(response(0.0, request.requestItems()));
+    assertThatExceptionOfType(RetryableException.class)
+        .isThrownBy(() -> manager.write(request, 2));
+    verify(accessor, times(2)).batchWriteItem(any());
+    assertThat(registry.counter(BatchWriteManager.PREFIX + "ran.out").count()).isEqualTo(1.0);
+  }
+
+  private BatchWriteItemResponse response(final double capacity,
+                                          final Map<String, List<WriteRequest>> unprocessed) {
+    return BatchWriteItemResponse.builder()
+        .consumedCapacity(ConsumedCapacity.builder().tableName(TABLE).capacityUnits(capacity).build())
+        .unprocessedItems(unprocessed)
+        .build();
+  }
+
+  private List<Map<String, AttributeValue>> keys(final int count) {
+    return IntStream.range(0, count)
+        .mapToObj(i -> Map.of("hashKey", fromS("hash"), "rangeKey", fromS(Integer.toString(i))))
+        .toList();
+  }
+
+}
@@ -0,0 +1,167 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.codeheadsystems.keystore.server.dao.manager;
+package com.codeheadsystems.keystore.server.dao.manager;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+import com.codeheadsystems.keystore.server.dao.ddb.configuration.ImmutableTableConfiguration;
+import com.codeheadsystems.keystore.server.dao.ddb.manager.CapacityManager;
+import com.codeheadsystems.keystore.server.dao.ddb.model.OwnerCapacity;
+import com.codeheadsystems.metrics.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Clock;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import software.amazon.awssdk.services.dynamodb.model.Capacity;
+import software.amazon.awssdk.services.dynamodb.model.ConsumedCapacity;
+
+@ExtendWith(MockitoExtension.class)
+class CapacityManagerTest {
+
+  private static final String TABLE = "table";
+  private static final String INDEX = "gsi";
+
+  @Mock private Metrics metrics;
+  @Mock private Clock clock;
+
+  private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+  private CapacityManager manager;
+
+  @BeforeEach
+  void setup() {
+    when(metrics.registry()).thenReturn(registry);
+    when(clock.millis()).thenReturn(0L);
+    manager = new CapacityManager(ImmutableTableConfiguration.builder()
+        .capacityByOwner(true)
+        .capacityOwnerCardinality(1)
+        .capacityWindowSeconds(60)
+        .build(), metrics, clock);
+  }
+
+  @Test
+  void read_indexes() {
+    CapacityManager.withScope("loadKey", "owner", () -> {
+      manager.read("query", consumedCapacity(3.0, 1.0, 2.0));
+      return null;
+    });
+    assertThat(registry.get(CapacityManager.CAPACITY_METRIC)
+        .tags(CapacityManager.OPERATION, "loadKey", CapacityManager.REQUEST, "query",
+            CapacityManager.INDEX, CapacityManager.BASE_TABLE, CapacityManager.TYPE, CapacityManager.READ)
+        .summary().totalAmount()).isEqualTo(1.0);
+    assertThat(registry.get(CapacityManager.CAPACITY_METRIC)
+        .tags(CapacityManager.INDEX, INDEX)
+        .summary().totalAmount()).isEqualTo(2.0);
+    assertThat(registry.get(CapacityManager.OWNER_CAPACITY_METRIC)
+        .tags(CapacityManager.OWNER, "owner")
+        .summary().totalAmount()).isEqualTo(3.0);
+  }
+
+  @Test
+  void write_noScope() {
+    manager.write("putItem", List.of(consumedCapacity(2.0, 2.0, 0.0)));
+    assertThat(registry.get(CapacityManager.CAPACITY_METRIC)
+        .tags(CapacityManager.OPERATION, CapacityManager.UNKNOWN, CapacityManager.TYPE, CapacityManager.WRITE)
+        .summary().totalAmount()).isEqualTo(2.0);
+    assertThat(registry.find(CapacityManager.OWNER_CAPACITY_METRIC).summary()).isNull();
+    assertThat(manager.topOwners(10)).isEmpty();
+  }
+
+  @Test
+  void ownerCardinality() {
+    CapacityManager.withScope("loadKey", "first", () -> {
+      manager.read("getItem", consumedCapacity(1.0, 1.0, 0.0));
+      return null;
+    });
+    CapacityManager.withScope("loadKey", "second", () -> {
+      manager.read("getItem", consumedCapacity(1.0, 1.0, 0.0));
+      return null;
+    });
+    assertThat(registry.get(CapacityManager.OWNER_CAPACITY_METRIC)
+        .tags(CapacityManager.OWNER, CapacityManager.OTHER)
+        .summary().totalAmount()).isEqualTo(1.0);
+    // the rolling window still tracks everyone.
+    assertThat(manager.topOwners(10)).extracting(OwnerCapacity::owner).containsExactlyInAnyOrder("first", "second");
+  }
+
+  @Test
+  void topOwners() {
+    CapacityManager.withScope("storeKey", "light", () -> {
+      manager.write("batchWriteItem", consumedCapacity(1.0, 1.0, 0.0));
+      return null;
+    });
+    CapacityManager.withScope("storeKey", "heavy", () -> {
+      manager.write("batchWriteItem", consumedCapacity(5.0, 5.0, 0.0));
+      manager.read("query", consumedCapacity(1.0, 1.0, 0.0));
+      return null;
+    });
+    final List<OwnerCapacity> top = manager.topOwners(1);
+    assertThat(top).hasSize(1);
+    assertThat(top.get(0).owner()).isEqualTo("heavy");
+    assertThat(top.get(0).writeCapacityUnits()).isEqualTo(5.0);
+    assertThat(top.get(0).readCapacityUnits()).isEqualTo(1.0);
+  }
+
+  @Test
+  void topOwners_rolls() {
+    CapacityManager.withScope("storeKey", "owner", () -> {
+      manager.write("putItem", consumedCapacity(1.0, 1.0, 0.0));
+      return null;
+    });
+    when(clock.millis()).thenReturn(61_000L);
+    assertThat(manager.topOwners(10)).hasSize(1); // previous window
+    when(clock.millis()).thenReturn(122_000L);
+    assertThat(manager.topOwners(10)).isEmpty();
+  }
+
+  @Test
+  void propagate() throws Exception {
+    final ExecutorService executorService = Executors.newSingleThreadExecutor();
+    try {
+      CapacityManager.withScope("deleteOwner", "owner", () ->
+          CompletableFuture.supplyAsync(CapacityManager.propagate(() -> {
+            manager.write("batchWriteItem", consumedCapacity(4.0, 4.0, 0.0));
+            return null;
+          }), executorService).join());
+    } finally {
+      executorService.shutdown();
+    }
+    assertThat(manager.topOwners(10)).extracting(OwnerCapacity::owner).containsExactly("owner");
+  }
+
+  private ConsumedCapacity consumedCapacity(final double total,
+                                            final double table,
+                                            final double index) {
+    final ConsumedCapacity.Builder builder = ConsumedCapacity.builder()
+        .tableName(TABLE)
+        .capacityUnits(total)
+        .table(Capacity.builder().capacityUnits(table).build());
+    if (index > 0) {
+      builder.globalSecondaryIndexes(Map.of(INDEX, Capacity.builder().capacityUnits(index).build()));
+    }
+    return builder.build();
+  }
+
+}
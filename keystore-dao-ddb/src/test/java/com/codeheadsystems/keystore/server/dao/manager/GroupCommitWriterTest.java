@@ -0,0 +1,169 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.server.dao.manager;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static software.amazon.awssdk.services.dynamodb.model.AttributeValue.fromS;
+
+import com.codeheadsystems.keystore.server.dao.ddb.accessor.DynamoDbClientAccessor;
+import com.codeheadsystems.keystore.server.dao.ddb.configuration.ImmutableTableConfiguration;
+import com.codeheadsystems.keystore.server.dao.ddb.configuration.TableConfiguration;
+import com.codeheadsystems.keystore.server.dao.ddb.converter.BatchWriteConverter;
+import com.codeheadsystems.keystore.server.dao.ddb.manager.BackoffManager;
+import com.codeheadsystems.keystore.server.dao.ddb.manager.GroupCommitWriter;
+import com.codeheadsystems.keystore.server.exception.RetryableException;
+import com.codeheadsystems.metrics.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
+
+@ExtendWith(MockitoExtension.class)
+class GroupCommitWriterTest {
+
+  private static final String TABLE = "table";
+
+  @Mock private DynamoDbClientAccessor accessor;
+  @Mock private Metrics metrics;
+
+  private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+  private final BatchWriteConverter converter = new BatchWriteConverter();
+  private final TableConfiguration configuration = ImmutableTableConfiguration.builder()
+      .groupCommitMillis(200)
+      .backoffBaseMillis(1)
+      .backoffMaxMillis(2)
+      .build();
+  private ExecutorService executorService;
+  private GroupCommitWriter writer;
+
+  @BeforeEach
+  void setup() {
+    when(metrics.registry()).thenReturn(registry);
+    executorService = Executors.newFixedThreadPool(2);
+    writer = new GroupCommitWriter(accessor, converter, new BackoffManager(configuration), executorService,
+        configuration, metrics);
+  }
+
+  @AfterEach
+  void shutdown() {
+    writer.stop();
+    executorService.shutdownNow();
+  }
+
+  @Test
+  void write_coalescesConcurrentWrites() {
+    when(accessor.batchWriteItem(any())).thenReturn(response(Map.of()));
+    final List<CompletableFuture<Void>> futures = List.of(
+        writer.write(put("a", "1"), put("owner", "a")),
+        writer.write(put("b", "1"), put("owner", "b")),
+        writer.write(put("a", "2"), put("owner", "a"))); // the owner row is shared.
+    futures.forEach(CompletableFuture::join);
+    final ArgumentCaptor<BatchWriteItemRequest> captor = ArgumentCaptor.forClass(BatchWriteItemRequest.class);
+    verify(accessor).batchWriteItem(captor.capture());
+    assertThat(captor.getValue().requestItems().get(TABLE)).hasSize(5);
+    assertThat(registry.summary(GroupCommitWriter.PREFIX + "batch.writes").totalAmount()).isEqualTo(3.0);
+  }
+
+  @Test
+  void write_retriesOnlyUnprocessed() {
+    final PutItemRequest unprocessed = put("a", "1");
+    when(accessor.batchWriteItem(any()))
+        .thenReturn(response(Map.of(TABLE, List.of(converter.toWriteRequest(unprocessed)))))
+        .thenReturn(response(Map.of()));
+    final CompletableFuture<Void> first = writer.write(unprocessed);
+    final CompletableFuture<Void> second = writer.write(put("b", "1"));
+    first.join();
+    second.join();
+    final ArgumentCaptor<BatchWriteItemRequest> captor = ArgumentCaptor.forClass(BatchWriteItemRequest.class);
+    verify(accessor, times(2)).batchWriteItem(captor.capture());
+    assertThat(captor.getAllValues().get(1).requestItems().get(TABLE))
+        .containsExactly(converter.toWriteRequest(unprocessed));
+    assertThat(registry.counter(GroupCommitWriter.PREFIX + "unprocessed").count()).isEqualTo(1.0);
+  }
+
+  @Test
+  void write_ranOutFailsOnlyTheUnprocessedWriter() {
+    final PutItemRequest unprocessed = put("a", "1");
+    when(accessor.batchWriteItem(any()))
+        .thenReturn(response(Map.of(TABLE, List.of(converter.toWriteRequest(unprocessed)))));
+    final CompletableFuture<Void> first = writer.write(unprocessed);
+    final CompletableFuture<Void> second = writer.write(put("b", "1"));
+    assertThatExceptionOfType(CompletionException.class)
+        .isThrownBy(first::join)
+        .withCauseInstanceOf(RetryableException.class);
+    assertThat(second).isCompleted();
+    assertThat(registry.counter(GroupCommitWriter.PREFIX + "ran.out").count()).isEqualTo(1.0);
+  }
+
+  @Test
+  void write_conflictingItemWaitsForNextBatch() {
+    when(accessor.batchWriteItem(any())).thenReturn(response(Map.of()));
+    final CompletableFuture<Void> first = writer.write(put("a", "1", "x"));
+    final CompletableFuture<Void> second = writer.write(put("a", "1", "y"));
+    first.join();
+    second.join();
+    verify(accessor, times(2)).batchWriteItem(any());
+  }
+
+  @Test
+  void write_disabled() {
+    final TableConfiguration disabled = ImmutableTableConfiguration.builder().build();
+    final GroupCommitWriter disabledWriter = new GroupCommitWriter(accessor, converter,
+        new BackoffManager(disabled), executorService, disabled, metrics);
+    assertThat(disabledWriter.enabled()).isFalse();
+    assertThatExceptionOfType(IllegalStateException.class)
+        .isThrownBy(() -> disabledWriter.write(put("a", "1")));
+  }
+
+  private PutItemRequest put(final String hash, final String range) {
+    return put(hash, range, "value");
+  }
+
+  private PutItemRequest put(final String hash, final String range, final String value) {
+    return PutItemRequest.builder()
+        .tableName(TABLE)
+        .item(Map.of(configuration.hashKey(), fromS(hash), configuration.rangeKey(), fromS(range),
+            "value", fromS(value)))
+        .build();
+  }
+
+  private BatchWriteItemResponse response(final Map<String, List<WriteRequest>> unprocessed) {
+    return BatchWriteItemResponse.builder()
+        .unprocessedItems(unprocessed)
+        .build();
+  }
+
+}
@@ -0,0 +1,131 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.server.dao.manager;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static software.amazon.awssdk.services.dynamodb.model.AttributeValue.fromS;
+
+import com.codeheadsystems.keystore.common.factory.ObjectMapperFactory;
+import com.codeheadsystems.keystore.common.helper.DataHelper;
+import com.codeheadsystems.keystore.common.manager.JsonManager;
+import com.codeheadsystems.keystore.server.dao.ddb.accessor.DynamoDbClientAccessor;
+import com.codeheadsystems.keystore.server.dao.ddb.configuration.ImmutableTableConfiguration;
+import com.codeheadsystems.keystore.server.dao.ddb.converter.KeyConverter;
+import com.codeheadsystems.keystore.server.dao.ddb.factory.DdbObjectMapperFactory;
+import com.codeheadsystems.keystore.server.dao.ddb.manager.ScanExport;
+import com.codeheadsystems.keystore.server.dao.ddb.manager.ScanExportManager;
+import com.codeheadsystems.keystore.server.dao.ddb.manager.TokenManager;
+import com.codeheadsystems.keystore.server.dao.model.Key;
+import com.codeheadsystems.keystore.server.dao.model.Token;
+import com.codeheadsystems.keystore.server.exception.DependencyException;
+import com.codeheadsystems.metrics.Metrics;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.ConsumedCapacity;
+import software.amazon.awssdk.services.dynamodb.model.ScanRequest;
+import software.amazon.awssdk.services.dynamodb.model.ScanResponse;
+
+@ExtendWith(MockitoExtension.class)
+class ScanExportManagerTest {
+
+  private static final Map<String, AttributeValue> CURSOR = Map.of("hash", fromS("keyVersion:owner:key"));
+  private static final ScanRequest REQUEST = ScanRequest.builder().build();
+
+  @Mock private DynamoDbClientAccessor accessor;
+  @Mock private KeyConverter keyConverter;
+  @Mock private Metrics metrics;
+  @Mock private Key key;
+
+  private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+  private TokenManager tokenManager;
+  private ScanExportManager manager;
+
+  @BeforeEach
+  void setup() {
+    when(metrics.registry()).thenReturn(registry);
+    final ObjectMapper objectMapper = new DdbObjectMapperFactory(new ObjectMapperFactory()).generate();
+    tokenManager = new TokenManager(new DataHelper(), new JsonManager(objectMapper));
+    manager = new ScanExportManager(accessor, keyConverter, tokenManager,
+        ImmutableTableConfiguration.builder().exportReadUnitsPerSecond(0).build(), metrics);
+  }
+
+  @Test
+  void export_allSegments() {
+    when(keyConverter.toScanRequest(anyInt(), anyInt(), any())).thenReturn(REQUEST);
+    final ScanResponse last = ScanResponse.builder().build();
+    when(accessor.scan(REQUEST)).thenReturn(last);
+    when(keyConverter.from(last)).thenReturn(List.of(key));
+
+    final ScanExport export = manager.export(3, k -> { });
+    export.join();
+
+    verify(keyConverter).toScanRequest(0, 3, Map.of());
+    verify(keyConverter).toScanRequest(1, 3, Map.of());
+    verify(keyConverter).toScanRequest(2, 3, Map.of());
+    assertThat(export.checkpoint()).isEmpty();
+    assertThat(registry.counter(ScanExportManager.PREFIX + "keys").count()).isEqualTo(3.0);
+  }
+
+  @Test
+  void export_failureLeavesCheckpoint() {
+    when(keyConverter.toScanRequest(anyInt(), anyInt(), any())).thenReturn(REQUEST);
+    final ScanResponse page = ScanResponse.builder()
+        .lastEvaluatedKey(CURSOR)
+        .consumedCapacity(ConsumedCapacity.builder().capacityUnits(0.5).build())
+        .build();
+    final ScanResponse last = ScanResponse.builder().build();
+    when(accessor.scan(REQUEST))
+        .thenReturn(page)
+        .thenThrow(new DependencyException("failed"))
+        .thenReturn(last);
+    when(keyConverter.from(any(ScanResponse.class))).thenReturn(List.of(key));
+
+    final ScanExport failed = manager.export(1, k -> { });
+    assertThatExceptionOfType(DependencyException.class).isThrownBy(failed::join);
+    final Optional<Token> checkpoint = failed.checkpoint();
+    assertThat(checkpoint).isPresent();
+    assertThat(tokenManager.deserializeShards(checkpoint.get())).containsExactly(Map.entry("0/1", CURSOR));
+
+    final ScanExport resumed = manager.resume(checkpoint.get(), k -> { });
+    resumed.join();
+
+    verify(keyConverter).toScanRequest(0, 1, CURSOR);
+    assertThat(resumed.checkpoint()).isEmpty();
+    assertThat(registry.counter(ScanExportManager.PREFIX + "read.units").count()).isEqualTo(0.5);
+  }
+
+  @Test
+  void export_noSegments() {
+    assertThatExceptionOfType(IllegalArgumentException.class)
+        .isThrownBy(() -> manager.export(0, k -> { }));
+  }
+
+}
@@ -58,4 +58,12 @@ class TokenManagerTest {
         .isEqualTo(MAP);
   }
 
-}
\ No newline at end of file
+  @Test
+  public void roundTrip_shards() {
+    final Map<String, Map<String, AttributeValue>> cursors = Map.of("info#0", MAP, "info#1", Map.of());
+    final Token token = tokenManager.serializeShards(cursors);
+    assertThat(tokenManager.deserializeShards(token))
+        .isEqualTo(cursors);
+  }
+
+}
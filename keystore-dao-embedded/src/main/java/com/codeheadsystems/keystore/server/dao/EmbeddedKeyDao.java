@@ -0,0 +1,554 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.server.dao;
+
+import com.codeheadsystems.keystore.common.helper.DataHelper;
+import com.codeheadsystems.keystore.server.dao.embedded.configuration.EmbeddedConfiguration;
+import com.codeheadsystems.keystore.server.dao.embedded.converter.RecordConverter;
+import com.codeheadsystems.keystore.server.dao.embedded.manager.Location;
+import com.codeheadsystems.keystore.server.dao.embedded.manager.Segment;
+import com.codeheadsystems.keystore.server.dao.embedded.manager.SegmentManager;
+import com.codeheadsystems.keystore.server.dao.embedded.manager.SyncManager;
+import com.codeheadsystems.keystore.server.dao.embedded.model.LogRecord;
+import com.codeheadsystems.keystore.server.dao.model.Batch;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableBatch;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableKeyIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableKeyVersionIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableOwnerIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableToken;
+import com.codeheadsystems.keystore.server.dao.model.Key;
+import com.codeheadsystems.keystore.server.dao.model.KeyIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.KeyVersionIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.OwnerIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.Token;
+import com.codeheadsystems.metrics.Metrics;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Timer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * DAO over an embedded, append only log of memory mapped segments, for single node and sidecar deployments.
+ * Every change is appended as a record, and an in-memory index maps each owner, key and version to where its
+ * record is. Reads look up the index and decode straight from the mapping, so they take no lock and make no
+ * syscall. Writes are serialized by one lock, applied to the index once appended, and forced to disk as the
+ * fsync policy says. On startup the index is rebuilt by replaying the log.
+ * Superseded and deleted records are garbage. Compaction moves the live records of every sealed segment to the
+ * end of the log, then deletes the sealed segments. Since everything older goes with them, no delete record
+ * has to be kept.
+ */
+@Singleton
+public class EmbeddedKeyDao implements KeyDao {
+
+  /**
+   * The constant PREFIX.
+   */
+  public static final String PREFIX = "embeddeddao.";
+  private static final Logger LOGGER = LoggerFactory.getLogger(EmbeddedKeyDao.class);
+
+  private final ConcurrentHashMap<String, OwnerEntry> owners = new ConcurrentHashMap<>();
+  private final ConcurrentSkipListSet<String> ownerNames = new ConcurrentSkipListSet<>();
+  private final ReentrantLock lock = new ReentrantLock();
+  private final SegmentManager segmentManager;
+  private final SyncManager syncManager;
+  private final RecordConverter recordConverter;
+  private final DataHelper dataHelper;
+  private final int pageSize;
+  private final double compactionGarbageRatio;
+  private final Counter counterDeletedVersions;
+  private final Counter counterRelocated;
+  private final Timer compactionTimer;
+  private final ScheduledExecutorService scheduler;
+
+  /**
+   * Default constructor. Replays the log, then starts the background compaction.
+   *
+   * @param segmentManager  the log.
+   * @param syncManager     to force writes.
+   * @param recordConverter to read and write records.
+   * @param dataHelper      for the tokens.
+   * @param configuration   for the page size and compaction.
+   * @param metrics         for reporting.
+   */
+  @Inject
+  public EmbeddedKeyDao(final SegmentManager segmentManager,
+                        final SyncManager syncManager,
+                        final RecordConverter recordConverter,
+                        final DataHelper dataHelper,
+                        final EmbeddedConfiguration configuration,
+                        final Metrics metrics) {
+    LOGGER.info("EmbeddedKeyDao({},{},{})", segmentManager, syncManager, metrics);
+    this.segmentManager = segmentManager;
+    this.syncManager = syncManager;
+    this.recordConverter = recordConverter;
+    this.dataHelper = dataHelper;
+    this.pageSize = configuration.pageSize();
+    this.compactionGarbageRatio = configuration.compactionGarbageRatio();
+    this.counterDeletedVersions = metrics.registry().counter(PREFIX + "deleted.versions");
+    this.counterRelocated = metrics.registry().counter(PREFIX + "compaction.relocated");
+    this.compactionTimer = metrics.registry().timer(PREFIX + "compaction");
+    metrics.registry().gauge(PREFIX + "owners", owners, Map::size);
+    metrics.registry().gauge(PREFIX + "segments", segmentManager, SegmentManager::count);
+    segmentManager.recover((frame, location) -> apply(recordConverter.toLogRecord(frame), location));
+    if (configuration.compactionIntervalSeconds() > 0) {
+      scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "embedded-compaction");
+        thread.setDaemon(true);
+        return thread;
+      });
+      scheduler.scheduleWithFixedDelay(this::backgroundCompact, configuration.compactionIntervalSeconds(),
+          configuration.compactionIntervalSeconds(), TimeUnit.SECONDS);
+    } else {
+      scheduler = null;
+    }
+  }
+
+  private static void live(final Location location) {
+    location.segment().addLiveBytes(location.length());
+  }
+
+  private static void garbage(final Location location) {
+    if (location != null) {
+      location.segment().addLiveBytes(-location.length());
+    }
+  }
+
+  private static void garbage(final Version version) {
+    if (version != null) {
+      garbage(version.location());
+    }
+  }
+
+  /**
+   * Changes the index for the record at the location. Used for replay and for every write, with the lock held.
+   */
+  private void apply(final LogRecord record,
+                     final Location location) {
+    switch (record.type()) {
+      case PUT_OWNER -> {
+        final OwnerEntry entry = ownerEntry(record.owner());
+        garbage(entry.location);
+        entry.location = location;
+        live(location);
+      }
+      case PUT_KEY -> {
+        final OwnerEntry entry = ownerEntry(record.owner());
+        final KeyEntry keyEntry = entry.keys.computeIfAbsent(record.key().orElseThrow(), name -> new KeyEntry());
+        garbage(keyEntry.versions.put(record.version().orElseThrow(), new Version(location, record.active())));
+        live(location);
+        keyEntry.refreshActive();
+      }
+      case DELETE_VERSION -> {
+        final OwnerEntry entry = owners.get(record.owner());
+        final KeyEntry keyEntry = entry == null ? null : entry.keys.get(record.key().orElseThrow());
+        if (keyEntry != null) {
+          garbage(keyEntry.versions.remove(record.version().orElseThrow()));
+          if (keyEntry.versions.isEmpty()) {
+            entry.keys.remove(record.key().orElseThrow());
+          } else {
+            keyEntry.refreshActive();
+          }
+        }
+      }
+      case DELETE_KEY -> {
+        final OwnerEntry entry = owners.get(record.owner());
+        final KeyEntry keyEntry = entry == null ? null : entry.keys.remove(record.key().orElseThrow());
+        if (keyEntry != null) {
+          keyEntry.versions.values().forEach(EmbeddedKeyDao::garbage);
+        }
+      }
+      case DELETE_OWNER -> {
+        ownerNames.remove(record.owner());
+        final OwnerEntry entry = owners.remove(record.owner());
+        if (entry != null) {
+          garbage(entry.location);
+          entry.keys.values().forEach(keyEntry -> keyEntry.versions.values().forEach(EmbeddedKeyDao::garbage));
+        }
+      }
+      default -> throw new IllegalArgumentException("Unknown record type: " + record.type());
+    }
+  }
+
+  /**
+   * The owner, created if needed. Writes always add the owner record before the first key, but compaction may
+   * move the owner record behind keys written after it.
+   */
+  private OwnerEntry ownerEntry(final String owner) {
+    return owners.computeIfAbsent(owner, name -> {
+      ownerNames.add(name);
+      return new OwnerEntry();
+    });
+  }
+
+  private void append(final ByteBuffer frame) {
+    apply(recordConverter.toLogRecord(frame), segmentManager.append(frame));
+  }
+
+  /**
+   * Runs the change with the write lock held, then waits for the fsync policy.
+   */
+  private <T> T mutate(final Supplier<T> change) {
+    final T result;
+    final long sequence;
+    lock.lock();
+    try {
+      result = change.get();
+      sequence = segmentManager.appended();
+    } finally {
+      lock.unlock();
+    }
+    syncManager.sync(sequence);
+    return result;
+  }
+
+  private void storeLocked(final Key key) {
+    if (!owners.containsKey(key.keyVersionIdentifier().owner())) {
+      append(recordConverter.putOwner(key.keyVersionIdentifier().owner()));
+    }
+    append(recordConverter.putKey(key));
+  }
+
+  @Override
+  public void store(final Key key) {
+    LOGGER.debug("store({})", key.keyVersionIdentifier());
+    mutate(() -> {
+      storeLocked(key);
+      return null;
+    });
+  }
+
+  /**
+   * Appends every key under one lock, so they share one force.
+   */
+  @Override
+  public void storeAll(final Collection<Key> keys) {
+    LOGGER.debug("storeAll({})", keys.size());
+    mutate(() -> {
+      keys.forEach(this::storeLocked);
+      return null;
+    });
+  }
+
+  /**
+   * The version is one past the greatest, allocated and appended with the write lock held.
+   */
+  @Override
+  public Key storeNextVersion(final KeyIdentifier identifier,
+                              final Function<KeyVersionIdentifier, Key> factory) {
+    LOGGER.debug("storeNextVersion({})", identifier);
+    return mutate(() -> {
+      final long greatest = keyEntry(identifier)
+          .filter(entry -> !entry.versions.isEmpty())
+          .map(entry -> entry.versions.lastKey())
+          .orElse(0L);
+      final Key key = factory.apply(ImmutableKeyVersionIdentifier.builder()
+          .owner(identifier.owner())
+          .key(identifier.key())
+          .version(greatest + 1)
+          .build());
+      storeLocked(key);
+      return key;
+    });
+  }
+
+  @Override
+  public OwnerIdentifier storeOwner(final String owner) {
+    LOGGER.debug("storeOwner({})", owner);
+    mutate(() -> {
+      if (!owners.containsKey(owner)) {
+        append(recordConverter.putOwner(owner));
+      }
+      return null;
+    });
+    return ImmutableOwnerIdentifier.builder().owner(owner).build();
+  }
+
+  @Override
+  public Optional<Key> load(final KeyVersionIdentifier identifier) {
+    LOGGER.debug("load({})", identifier);
+    return keyEntry(identifier)
+        .map(entry -> entry.versions.get(identifier.version()))
+        .map(this::read);
+  }
+
+  /**
+   * Reads the active version with the greatest number.
+   * Empty optional if there is no active key or if there is no keys in general.
+   */
+  @Override
+  public Optional<Key> load(final KeyIdentifier identifier) {
+    LOGGER.debug("load({})", identifier);
+    return keyEntry(identifier)
+        .map(entry -> entry.active)
+        .map(this::read);
+  }
+
+  private Key read(final Version version) {
+    return recordConverter.toKey(version.location().read());
+  }
+
+  private Optional<KeyEntry> keyEntry(final KeyIdentifier identifier) {
+    return Optional.ofNullable(owners.get(identifier.owner()))
+        .map(owner -> owner.keys.get(identifier.key()));
+  }
+
+  @Override
+  public Optional<OwnerIdentifier> loadOwner(final String ownerName) {
+    LOGGER.debug("loadOwner({})", ownerName);
+    return owners.containsKey(ownerName)
+        ? Optional.of(ImmutableOwnerIdentifier.builder().owner(ownerName).build())
+        : Optional.empty();
+  }
+
+  @Override
+  public Batch<OwnerIdentifier> listOwners(final Token nextToken) {
+    LOGGER.debug("listOwners()");
+    return page(ownerNames, nextToken, Function.identity(),
+        owner -> ImmutableOwnerIdentifier.builder().owner(owner).build());
+  }
+
+  @Override
+  public Batch<KeyIdentifier> listKeys(final OwnerIdentifier identifier,
+                                       final Token nextToken) {
+    LOGGER.debug("listKeys({})", identifier);
+    final OwnerEntry entry = owners.get(identifier.owner());
+    if (entry == null) {
+      return ImmutableBatch.<KeyIdentifier>builder().build();
+    }
+    return page(entry.keys.keySet(), nextToken, Function.identity(),
+        key -> ImmutableKeyIdentifier.builder().owner(identifier.owner()).key(key).build());
+  }
+
+  @Override
+  public Batch<KeyVersionIdentifier> listVersions(final KeyIdentifier identifier,
+                                                  final Token nextToken) {
+    LOGGER.debug("listVersions({})", identifier);
+    final Optional<KeyEntry> entry = keyEntry(identifier);
+    if (entry.isEmpty()) {
+      return ImmutableBatch.<KeyVersionIdentifier>builder().build();
+    }
+    return page(entry.get().versions.keySet(), nextToken, Long::parseLong,
+        version -> ImmutableKeyVersionIdentifier.builder()
+            .owner(identifier.owner())
+            .key(identifier.key())
+            .version(version)
+            .build());
+  }
+
+  /**
+   * Reads one page from just after the token. If anything is left after the page, there is another page, which
+   * starts after the last value of this one.
+   */
+  private <C, T> Batch<T> page(final NavigableSet<C> source,
+                               final Token nextToken,
+                               final Function<String, C> parser,
+                               final Function<C, T> converter) {
+    final NavigableSet<C> remaining = nextToken == null
+        ? source
+        : source.tailSet(parser.apply(dataHelper.toStringFromBase64(nextToken.value())), false);
+    final List<C> cursors = new ArrayList<>();
+    final Iterator<C> iterator = remaining.iterator();
+    while (cursors.size() < pageSize && iterator.hasNext()) {
+      cursors.add(iterator.next());
+    }
+    final ImmutableBatch.Builder<T> builder = ImmutableBatch.builder();
+    if (iterator.hasNext()) {
+      final String cursor = String.valueOf(cursors.get(cursors.size() - 1));
+      builder.nextToken(ImmutableToken.builder().value(dataHelper.toBase64(cursor)).build());
+    }
+    return builder.list(cursors.stream().map(converter).toList()).build();
+  }
+
+  @Override
+  public boolean delete(final KeyVersionIdentifier identifier) {
+    LOGGER.debug("delete({})", identifier);
+    return mutate(() -> {
+      final boolean exists = keyEntry(identifier)
+          .map(entry -> entry.versions.containsKey(identifier.version()))
+          .orElse(false);
+      if (exists) {
+        append(recordConverter.deleteVersion(identifier));
+        counterDeletedVersions.increment();
+      }
+      return exists;
+    });
+  }
+
+  @Override
+  public boolean delete(final KeyIdentifier identifier) {
+    LOGGER.debug("delete({})", identifier);
+    return mutate(() -> {
+      final Optional<KeyEntry> entry = keyEntry(identifier);
+      entry.ifPresent(keyEntry -> {
+        counterDeletedVersions.increment(keyEntry.versions.size());
+        append(recordConverter.deleteKey(identifier));
+      });
+      return entry.isPresent();
+    });
+  }
+
+  /**
+   * Deletes every key of the owner and the owner itself with one record.
+   */
+  @Override
+  public boolean delete(final OwnerIdentifier identifier) {
+    LOGGER.debug("delete({})", identifier);
+    return mutate(() -> {
+      final OwnerEntry entry = owners.get(identifier.owner());
+      if (entry == null) {
+        return false;
+      }
+      counterDeletedVersions.increment(entry.keys.values().stream().mapToInt(k -> k.versions.size()).sum());
+      append(recordConverter.deleteOwner(identifier.owner()));
+      return true;
+    });
+  }
+
+  private void backgroundCompact() {
+    try {
+      compact();
+    } catch (RuntimeException e) {
+      LOGGER.error("backgroundCompact: failed", e);
+    }
+  }
+
+  /**
+   * Compacts the sealed segments if enough of them is garbage. Each live record is moved to the end of the log
+   * with the write lock held only for that record, so writers keep going. Once the moves are forced, the sealed
+   * segments are deleted oldest first, stopping at any that somehow still holds a live record, so no delete
+   * record is lost while an older segment it applies to is kept.
+   *
+   * @return true if the sealed segments were compacted.
+   */
+  public synchronized boolean compact() {
+    final List<Segment> sealed = segmentManager.sealed();
+    final long total = sealed.stream().mapToLong(Segment::position).sum();
+    final long live = sealed.stream().mapToLong(Segment::liveBytes).sum();
+    if (total == 0 || total - live < compactionGarbageRatio * total) {
+      return false;
+    }
+    LOGGER.info("compact: {} segments, {} of {} bytes live", sealed.size(), live, total);
+    compactionTimer.record(() -> {
+      final Set<Segment> compacting = new HashSet<>(sealed);
+      owners.forEach((owner, entry) -> {
+        relocate(compacting, () -> owners.get(owner) == entry ? entry.location : null);
+        entry.keys.forEach((name, keyEntry) -> keyEntry.versions.forEach((number, version) ->
+            relocate(compacting, () -> owners.get(owner) == entry
+                && entry.keys.get(name) == keyEntry
+                && keyEntry.versions.get(number) == version ? version.location() : null)));
+      });
+      segmentManager.force();
+      for (Segment segment : sealed) {
+        if (segment.liveBytes() > 0) {
+          LOGGER.warn("compact: {} still has {} live bytes, keeping it and newer", segment.path(),
+              segment.liveBytes());
+          break;
+        }
+        segmentManager.delete(segment);
+      }
+    });
+    return true;
+  }
+
+  /**
+   * Moves the record if it is still current and in a compacting segment. Current means the index still
+   * reaches it, so a record whose key or owner was deleted in the meantime is not brought back.
+   */
+  private void relocate(final Set<Segment> compacting,
+                        final Supplier<Location> current) {
+    lock.lock();
+    try {
+      final Location location = current.get();
+      if (location != null && compacting.contains(location.segment())) {
+        append(location.read());
+        counterRelocated.increment();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Stops the background threads, then forces and closes the log.
+   */
+  public void close() {
+    LOGGER.info("close()");
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+    }
+    syncManager.stop();
+    lock.lock();
+    try {
+      segmentManager.close();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Where a version is, and if it is active.
+   */
+  private record Version(Location location, boolean active) {
+  }
+
+  /**
+   * The keys of one owner, and where the owner record is.
+   */
+  private static class OwnerEntry {
+
+    private final ConcurrentSkipListMap<String, KeyEntry> keys = new ConcurrentSkipListMap<>();
+    private Location location;
+  }
+
+  /**
+   * The versions of one key, and the active one to read.
+   */
+  private static class KeyEntry {
+
+    private final ConcurrentSkipListMap<Long, Version> versions = new ConcurrentSkipListMap<>();
+    private volatile Version active;
+
+    private void refreshActive() {
+      active = versions.descendingMap().values().stream()
+          .filter(Version::active)
+          .findFirst()
+          .orElse(null);
+    }
+  }
+
+}
@@ -0,0 +1,126 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.server.dao.embedded.configuration;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import org.immutables.value.Value;
+
+/**
+ * The configuration of the embedded segment log.
+ */
+@Value.Immutable
+@JsonSerialize(as = ImmutableEmbeddedConfiguration.class)
+@JsonDeserialize(builder = ImmutableEmbeddedConfiguration.Builder.class)
+@JsonIgnoreProperties(ignoreUnknown = true)
+public interface EmbeddedConfiguration {
+
+  /**
+   * The directory the segments are kept in.
+   *
+   * @return the directory.
+   */
+  @JsonProperty("directory")
+  String directory();
+
+  /**
+   * The size each segment is mapped at. A new segment is started when a record does not fit.
+   *
+   * @return in bytes.
+   */
+  @Value.Default
+  @JsonProperty("segmentBytes")
+  default int segmentBytes() {
+    return 64 * 1024 * 1024;
+  }
+
+  /**
+   * When writes are forced to disk.
+   *
+   * @return the policy.
+   */
+  @Value.Default
+  @JsonProperty("fsyncPolicy")
+  default FsyncPolicy fsyncPolicy() {
+    return FsyncPolicy.GROUP;
+  }
+
+  /**
+   * How often the interval policy forces writes to disk.
+   *
+   * @return in milliseconds.
+   */
+  @Value.Default
+  @JsonProperty("fsyncIntervalMillis")
+  default long fsyncIntervalMillis() {
+    return 1000;
+  }
+
+  /**
+   * How often to check if the sealed segments need compacting. Zero only compacts when asked to.
+   *
+   * @return in seconds.
+   */
+  @Value.Default
+  @JsonProperty("compactionIntervalSeconds")
+  default long compactionIntervalSeconds() {
+    return 60;
+  }
+
+  /**
+   * The share of the sealed segments that must be garbage before they are compacted.
+   *
+   * @return between 0 and 1.
+   */
+  @Value.Default
+  @JsonProperty("compactionGarbageRatio")
+  default double compactionGarbageRatio() {
+    return 0.5;
+  }
+
+  /**
+   * The most results in one page of a list call.
+   *
+   * @return the page size.
+   */
+  @Value.Default
+  @JsonProperty("pageSize")
+  default int pageSize() {
+    return 100;
+  }
+
+  /**
+   * When writes are forced to disk.
+   */
+  enum FsyncPolicy {
+    /**
+     * Every write is forced before it returns.
+     */
+    ALWAYS,
+    /**
+     * Every write is forced before it returns, but concurrent writers share one force.
+     */
+    GROUP,
+    /**
+     * Writes are forced in the background on the interval, so a crash loses at most one interval.
+     */
+    INTERVAL
+  }
+
+}
@@ -0,0 +1,256 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.server.dao.embedded.converter;
+
+import com.codeheadsystems.keystore.server.dao.embedded.model.ImmutableLogRecord;
+import com.codeheadsystems.keystore.server.dao.embedded.model.LogRecord;
+import com.codeheadsystems.keystore.server.dao.embedded.model.RecordType;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableKey;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableKeyVersionIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.Key;
+import com.codeheadsystems.keystore.server.dao.model.KeyIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.KeyVersionIdentifier;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Converts records to and from the bytes of the segment log. Every record is framed as its payload length and
+ * the CRC32 of the payload, followed by the payload: the record type, then the owner, key name and version
+ * where the type has them. Key records continue with the active flag, so replay can stop reading there, then
+ * the value, aux, type and dates. Strings and byte arrays are length prefixed.
+ */
+@Singleton
+public class RecordConverter {
+
+  /**
+   * The constant HEADER, the bytes of the frame before the payload.
+   */
+  public static final int HEADER = 8;
+  private static final long NO_DATE = Long.MIN_VALUE;
+
+  /**
+   * Default constructor.
+   */
+  @Inject
+  public RecordConverter() {
+
+  }
+
+  private static byte[] utf8(final String string) {
+    return string.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static void put(final ByteBuffer buffer, final byte[] bytes) {
+    buffer.putInt(bytes.length);
+    buffer.put(bytes);
+  }
+
+  private static byte[] bytes(final ByteBuffer buffer) {
+    final byte[] bytes = new byte[buffer.getInt()];
+    buffer.get(bytes);
+    return bytes;
+  }
+
+  private static String string(final ByteBuffer buffer) {
+    return new String(bytes(buffer), StandardCharsets.UTF_8);
+  }
+
+  private static ByteBuffer frame(final RecordType type,
+                                  final int size,
+                                  final Consumer<ByteBuffer> writer) {
+    final ByteBuffer buffer = ByteBuffer.allocate(HEADER + 1 + size);
+    buffer.position(HEADER);
+    buffer.put(type.code());
+    writer.accept(buffer);
+    final CRC32 crc = new CRC32();
+    crc.update(buffer.array(), HEADER, 1 + size);
+    buffer.putInt(0, 1 + size);
+    buffer.putInt(4, (int) crc.getValue());
+    return buffer.flip();
+  }
+
+  /**
+   * The record for storing an owner.
+   *
+   * @param owner stored.
+   * @return the framed record.
+   */
+  public ByteBuffer putOwner(final String owner) {
+    return ownerRecord(RecordType.PUT_OWNER, owner);
+  }
+
+  /**
+   * The record for deleting an owner and its keys.
+   *
+   * @param owner deleted.
+   * @return the framed record.
+   */
+  public ByteBuffer deleteOwner(final String owner) {
+    return ownerRecord(RecordType.DELETE_OWNER, owner);
+  }
+
+  private ByteBuffer ownerRecord(final RecordType type,
+                                 final String owner) {
+    final byte[] ownerBytes = utf8(owner);
+    return frame(type, 4 + ownerBytes.length, buffer -> put(buffer, ownerBytes));
+  }
+
+  /**
+   * The record for deleting every version of a key.
+   *
+   * @param identifier deleted.
+   * @return the framed record.
+   */
+  public ByteBuffer deleteKey(final KeyIdentifier identifier) {
+    final byte[] owner = utf8(identifier.owner());
+    final byte[] key = utf8(identifier.key());
+    return frame(RecordType.DELETE_KEY, 8 + owner.length + key.length, buffer -> {
+      put(buffer, owner);
+      put(buffer, key);
+    });
+  }
+
+  /**
+   * The record for deleting one version of a key.
+   *
+   * @param identifier deleted.
+   * @return the framed record.
+   */
+  public ByteBuffer deleteVersion(final KeyVersionIdentifier identifier) {
+    final byte[] owner = utf8(identifier.owner());
+    final byte[] key = utf8(identifier.key());
+    return frame(RecordType.DELETE_VERSION, 16 + owner.length + key.length, buffer -> {
+      put(buffer, owner);
+      put(buffer, key);
+      buffer.putLong(identifier.version());
+    });
+  }
+
+  /**
+   * The record for storing a key version.
+   *
+   * @param key stored.
+   * @return the framed record.
+   */
+  public ByteBuffer putKey(final Key key) {
+    final byte[] owner = utf8(key.keyVersionIdentifier().owner());
+    final byte[] name = utf8(key.keyVersionIdentifier().key());
+    final byte[] value = key.value();
+    final byte[] aux = key.aux();
+    final byte[] type = utf8(key.type());
+    final int size = 4 + owner.length + 4 + name.length + 8 + 1 + 4 + value.length + 4 + aux.length
+        + 4 + type.length + 8 + 8;
+    return frame(RecordType.PUT_KEY, size, buffer -> {
+      put(buffer, owner);
+      put(buffer, name);
+      buffer.putLong(key.keyVersionIdentifier().version());
+      buffer.put((byte) (key.active() ? 1 : 0));
+      put(buffer, value);
+      put(buffer, aux);
+      put(buffer, type);
+      buffer.putLong(key.createDate().getTime());
+      buffer.putLong(key.updateDate().map(Date::getTime).orElse(NO_DATE));
+    });
+  }
+
+  /**
+   * The length of the valid record framed at the offset.
+   *
+   * @param buffer to read.
+   * @param offset of the frame.
+   * @param limit  the end of the readable bytes.
+   * @return the frame length, zero if the log ends here, or -1 if the record is torn or corrupt.
+   */
+  public int frameLength(final ByteBuffer buffer,
+                         final int offset,
+                         final int limit) {
+    if (offset + HEADER > limit) {
+      return 0;
+    }
+    final int length = buffer.getInt(offset);
+    if (length == 0 && buffer.getInt(offset + 4) == 0) {
+      return 0;
+    }
+    if (length <= 0 || offset + HEADER + length > limit) {
+      return -1;
+    }
+    final CRC32 crc = new CRC32();
+    crc.update(buffer.slice(offset + HEADER, length));
+    return (int) crc.getValue() == buffer.getInt(offset + 4) ? HEADER + length : -1;
+  }
+
+  /**
+   * Reads what the framed record changes.
+   *
+   * @param frame the record.
+   * @return the log record.
+   */
+  public LogRecord toLogRecord(final ByteBuffer frame) {
+    final ByteBuffer buffer = frame.duplicate().position(HEADER);
+    final RecordType type = RecordType.of(buffer.get());
+    final ImmutableLogRecord.Builder builder = ImmutableLogRecord.builder()
+        .type(type)
+        .owner(string(buffer));
+    if (type == RecordType.PUT_KEY || type == RecordType.DELETE_KEY || type == RecordType.DELETE_VERSION) {
+      builder.key(string(buffer));
+    }
+    if (type == RecordType.PUT_KEY || type == RecordType.DELETE_VERSION) {
+      builder.version(buffer.getLong());
+    }
+    if (type == RecordType.PUT_KEY) {
+      builder.active(buffer.get() == 1);
+    }
+    return builder.build();
+  }
+
+  /**
+   * Reads the key of a framed put key record.
+   *
+   * @param frame the record.
+   * @return the key.
+   */
+  public Key toKey(final ByteBuffer frame) {
+    final ByteBuffer buffer = frame.duplicate().position(HEADER);
+    final RecordType type = RecordType.of(buffer.get());
+    if (type != RecordType.PUT_KEY) {
+      throw new IllegalArgumentException("Not a key record: " + type);
+    }
+    final ImmutableKeyVersionIdentifier identifier = ImmutableKeyVersionIdentifier.builder()
+        .owner(string(buffer))
+        .key(string(buffer))
+        .version(buffer.getLong())
+        .build();
+    final ImmutableKey.Builder builder = ImmutableKey.builder()
+        .keyVersionIdentifier(identifier)
+        .active(buffer.get() == 1)
+        .value(bytes(buffer))
+        .aux(bytes(buffer))
+        .type(string(buffer))
+        .createDate(new Date(buffer.getLong()));
+    final long updateDate = buffer.getLong();
+    if (updateDate != NO_DATE) {
+      builder.updateDate(new Date(updateDate));
+    }
+    return builder.build();
+  }
+
+}
@@ -0,0 +1,75 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.server.dao.embedded.dagger;
+
+import com.codeheadsystems.keystore.server.dao.EmbeddedKeyDao;
+import com.codeheadsystems.keystore.server.dao.KeyDao;
+import com.codeheadsystems.keystore.server.dao.embedded.configuration.EmbeddedConfiguration;
+import com.codeheadsystems.metrics.dagger.MetricsModule;
+import dagger.Binds;
+import dagger.Module;
+import dagger.Provides;
+import javax.inject.Singleton;
+
+/**
+ * Builds out the embedded module.
+ */
+@Module(includes = {
+    EmbeddedModule.Binder.class,
+    MetricsModule.class
+})
+public class EmbeddedModule {
+
+  private final EmbeddedConfiguration embeddedConfiguration;
+
+  /**
+   * Uses the given configuration.
+   *
+   * @param embeddedConfiguration configuration.
+   */
+  public EmbeddedModule(final EmbeddedConfiguration embeddedConfiguration) {
+    this.embeddedConfiguration = embeddedConfiguration;
+  }
+
+  /**
+   * Embedded configuration.
+   *
+   * @return the embedded configuration
+   */
+  @Provides
+  @Singleton
+  public EmbeddedConfiguration embeddedConfiguration() {
+    return embeddedConfiguration;
+  }
+
+  /**
+   * Exposes the embedded dao as the DAO to use.
+   */
+  @Module
+  public interface Binder {
+
+    /**
+     * Dao key dao.
+     *
+     * @param dao the dao
+     * @return the key dao
+     */
+    @Binds
+    KeyDao dao(EmbeddedKeyDao dao);
+
+  }
+}
@@ -0,0 +1,39 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.server.dao.embedded.manager;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Where a record is in the segment log.
+ *
+ * @param segment holding the record.
+ * @param offset  of the record in the segment.
+ * @param length  of the framed record.
+ */
+public record Location(Segment segment, int offset, int length) {
+
+  /**
+   * A view of the framed record.
+   *
+   * @return the view.
+   */
+  public ByteBuffer read() {
+    return segment.read(offset, length);
+  }
+
+}
@@ -0,0 +1,206 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.server.dao.embedded.manager;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One memory mapped file of the segment log. Appends are made by one writer at a time; reads are absolute, so
+ * any number of readers can use the mapping at once without a syscall. The mapping stays valid after the file
+ * is closed and deleted, so a reader holding a location in a compacted segment still reads it.
+ */
+public class Segment {
+
+  private final long id;
+  private final Path path;
+  private final FileChannel channel;
+  private final MappedByteBuffer buffer;
+  private final AtomicLong liveBytes = new AtomicLong();
+  private volatile int position;
+
+  private Segment(final long id,
+                  final Path path,
+                  final FileChannel channel,
+                  final MappedByteBuffer buffer) {
+    this.id = id;
+    this.path = path;
+    this.channel = channel;
+    this.buffer = buffer;
+  }
+
+  /**
+   * Opens the segment file, creating it if needed, and maps it.
+   *
+   * @param id    of the segment.
+   * @param path  of the file.
+   * @param bytes to map, unless the file is already larger.
+   * @return the segment.
+   * @throws IOException if the file cannot be opened.
+   */
+  public static Segment open(final long id,
+                             final Path path,
+                             final int bytes) throws IOException {
+    final FileChannel channel = FileChannel.open(path,
+        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    final long size = Math.max(bytes, channel.size());
+    return new Segment(id, path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+  }
+
+  /**
+   * The id, segments are replayed in id order.
+   *
+   * @return the id.
+   */
+  public long id() {
+    return id;
+  }
+
+  /**
+   * The file of the segment.
+   *
+   * @return the path.
+   */
+  public Path path() {
+    return path;
+  }
+
+  /**
+   * The whole mapping, for scanning.
+   *
+   * @return the buffer.
+   */
+  public ByteBuffer buffer() {
+    return buffer;
+  }
+
+  /**
+   * The mapped size.
+   *
+   * @return in bytes.
+   */
+  public int capacity() {
+    return buffer.capacity();
+  }
+
+  /**
+   * Where the next record goes, which is also how many bytes are used.
+   *
+   * @return the position.
+   */
+  public int position() {
+    return position;
+  }
+
+  /**
+   * Sets where the next record goes, after replay.
+   *
+   * @param position the position.
+   */
+  public void position(final int position) {
+    this.position = position;
+  }
+
+  /**
+   * The bytes of the records the index still points at.
+   *
+   * @return in bytes.
+   */
+  public long liveBytes() {
+    return liveBytes.get();
+  }
+
+  /**
+   * Adds to the live bytes, negative when a record stops being live.
+   *
+   * @param bytes to add.
+   */
+  public void addLiveBytes(final long bytes) {
+    liveBytes.addAndGet(bytes);
+  }
+
+  /**
+   * If a record of the length fits after the position.
+   *
+   * @param length of the record.
+   * @return true if it fits.
+   */
+  public boolean fits(final int length) {
+    return position + length <= buffer.capacity();
+  }
+
+  /**
+   * Copies the record in at the position.
+   *
+   * @param frame the record, not consumed.
+   * @return the offset it was written at.
+   */
+  public int append(final ByteBuffer frame) {
+    final int offset = position;
+    buffer.put(offset, frame, frame.position(), frame.remaining());
+    position = offset + frame.remaining();
+    return offset;
+  }
+
+  /**
+   * A view of the record at the offset.
+   *
+   * @param offset of the record.
+   * @param length of the record.
+   * @return the view.
+   */
+  public ByteBuffer read(final int offset,
+                         final int length) {
+    return buffer.slice(offset, length);
+  }
+
+  /**
+   * Zeros everything from the offset on, so a torn record is not mistaken for a record later.
+   *
+   * @param offset to zero from.
+   */
+  public void truncate(final int offset) {
+    final byte[] zeros = new byte[Math.min(64 * 1024, buffer.capacity() - offset)];
+    for (int i = offset; i < buffer.capacity(); i += zeros.length) {
+      buffer.put(i, zeros, 0, Math.min(zeros.length, buffer.capacity() - i));
+    }
+    buffer.force();
+    position = offset;
+  }
+
+  /**
+   * Forces the writes to disk.
+   */
+  public void force() {
+    buffer.force();
+  }
+
+  /**
+   * Closes the file. The mapping stays readable.
+   *
+   * @throws IOException if the file cannot be closed.
+   */
+  public void close() throws IOException {
+    channel.close();
+  }
+
+}
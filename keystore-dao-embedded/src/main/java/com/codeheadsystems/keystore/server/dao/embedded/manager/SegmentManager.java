@@ -0,0 +1,233 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.server.dao.embedded.manager;
+
+import com.codeheadsystems.keystore.server.dao.embedded.configuration.EmbeddedConfiguration;
+import com.codeheadsystems.keystore.server.dao.embedded.converter.RecordConverter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The append only segment log. Records are appended to the active segment until one does not fit, then the
+ * active segment is forced and sealed and the next one is started. On startup every segment is replayed in
+ * order; a torn or corrupt record ends its segment, and the rest of that segment is zeroed.
+ * Appends must be made by one writer at a time.
+ */
+@Singleton
+public class SegmentManager {
+
+  /**
+   * The constant PREFIX, of the segment file names.
+   */
+  public static final String PREFIX = "segment-";
+  /**
+   * The constant SUFFIX, of the segment file names.
+   */
+  public static final String SUFFIX = ".log";
+  private static final Logger LOGGER = LoggerFactory.getLogger(SegmentManager.class);
+
+  private final Path directory;
+  private final int segmentBytes;
+  private final RecordConverter recordConverter;
+  private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+  private final AtomicLong appended = new AtomicLong();
+  private volatile Segment active;
+
+  /**
+   * Default constructor. Nothing is opened until recovery.
+   *
+   * @param configuration   for the directory and segment size.
+   * @param recordConverter to find the records.
+   */
+  @Inject
+  public SegmentManager(final EmbeddedConfiguration configuration,
+                        final RecordConverter recordConverter) {
+    this.directory = Path.of(configuration.directory());
+    this.segmentBytes = configuration.segmentBytes();
+    this.recordConverter = recordConverter;
+    LOGGER.info("SegmentManager({},{})", directory, segmentBytes);
+  }
+
+  private static boolean isSegment(final Path path) {
+    final String name = path.getFileName().toString();
+    return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+  }
+
+  private static long id(final Path path) {
+    final String name = path.getFileName().toString();
+    return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+  }
+
+  /**
+   * Opens every segment and replays its records in order.
+   *
+   * @param visitor given each framed record and where it is.
+   */
+  public void recover(final BiConsumer<ByteBuffer, Location> visitor) {
+    try {
+      Files.createDirectories(directory);
+      final List<Path> paths;
+      try (Stream<Path> list = Files.list(directory)) {
+        paths = list.filter(SegmentManager::isSegment)
+            .sorted(Comparator.comparingLong(SegmentManager::id))
+            .toList();
+      }
+      for (Path path : paths) {
+        final Segment segment = Segment.open(id(path), path, segmentBytes);
+        segments.put(segment.id(), segment);
+        replay(segment, visitor);
+      }
+      active = segments.isEmpty() ? create(1) : segments.lastEntry().getValue();
+      LOGGER.info("recover: {} segments, active {}", segments.size(), active.id());
+    } catch (IOException e) {
+      throw new UncheckedIOException("Unable to recover segments in " + directory, e);
+    }
+  }
+
+  private void replay(final Segment segment,
+                      final BiConsumer<ByteBuffer, Location> visitor) {
+    int offset = 0;
+    while (true) {
+      final int length = recordConverter.frameLength(segment.buffer(), offset, segment.capacity());
+      if (length == 0) {
+        break;
+      }
+      if (length < 0) {
+        LOGGER.warn("replay: torn record in {} at {}, truncating", segment.path(), offset);
+        segment.truncate(offset);
+        break;
+      }
+      final Location location = new Location(segment, offset, length);
+      visitor.accept(location.read(), location);
+      offset += length;
+    }
+    segment.position(offset);
+  }
+
+  private Segment create(final long id) throws IOException {
+    final Path path = directory.resolve(String.format("%s%020d%s", PREFIX, id, SUFFIX));
+    final Segment segment = Segment.open(id, path, segmentBytes);
+    segments.put(id, segment);
+    return segment;
+  }
+
+  /**
+   * Appends the record to the active segment, starting a new one if it does not fit.
+   *
+   * @param frame the framed record, not consumed.
+   * @return where it was written.
+   */
+  public Location append(final ByteBuffer frame) {
+    final int length = frame.remaining();
+    if (length > segmentBytes) {
+      throw new IllegalArgumentException("Record of " + length + " bytes is larger than a segment");
+    }
+    Segment segment = active;
+    if (!segment.fits(length)) {
+      segment.force();
+      try {
+        segment = create(segment.id() + 1);
+      } catch (IOException e) {
+        throw new UncheckedIOException("Unable to start a new segment in " + directory, e);
+      }
+      active = segment;
+    }
+    final int offset = segment.append(frame);
+    appended.addAndGet(length);
+    return new Location(segment, offset, length);
+  }
+
+  /**
+   * The bytes appended since startup, which orders the writes for forcing.
+   *
+   * @return in bytes.
+   */
+  public long appended() {
+    return appended.get();
+  }
+
+  /**
+   * Forces the active segment. Sealed segments were forced when they were sealed.
+   */
+  public void force() {
+    active.force();
+  }
+
+  /**
+   * The segments before the active one, oldest first.
+   *
+   * @return the sealed segments.
+   */
+  public List<Segment> sealed() {
+    return new ArrayList<>(segments.headMap(active.id(), false).values());
+  }
+
+  /**
+   * How many segments there are.
+   *
+   * @return the count.
+   */
+  public int count() {
+    return segments.size();
+  }
+
+  /**
+   * Removes the sealed segment and deletes its file.
+   *
+   * @param segment to delete.
+   */
+  public void delete(final Segment segment) {
+    LOGGER.debug("delete({})", segment.path());
+    segments.remove(segment.id());
+    try {
+      segment.close();
+      Files.deleteIfExists(segment.path());
+    } catch (IOException e) {
+      throw new UncheckedIOException("Unable to delete segment " + segment.path(), e);
+    }
+  }
+
+  /**
+   * Forces and closes every segment.
+   */
+  public void close() {
+    LOGGER.info("close()");
+    force();
+    for (Segment segment : segments.values()) {
+      try {
+        segment.close();
+      } catch (IOException e) {
+        LOGGER.warn("close: unable to close {}", segment.path(), e);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,144 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.server.dao.embedded.manager;
+
+import com.codeheadsystems.keystore.server.dao.embedded.configuration.EmbeddedConfiguration;
+import com.codeheadsystems.keystore.server.exception.DependencyException;
+import com.codeheadsystems.metrics.Metrics;
+import io.micrometer.core.instrument.Timer;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Forces the segment log to disk following the fsync policy. Always forces for every write. Group also makes
+ * every write wait for a force, but the first waiter forces for everyone written so far while the others wait
+ * on it, so concurrent writers share one force. Interval forces in the background and never makes writers wait.
+ */
+@Singleton
+public class SyncManager {
+
+  /**
+   * The constant FSYNC_METRIC.
+   */
+  public static final String FSYNC_METRIC = "embeddeddao.fsync";
+  private static final Logger LOGGER = LoggerFactory.getLogger(SyncManager.class);
+
+  private final SegmentManager segmentManager;
+  private final EmbeddedConfiguration.FsyncPolicy policy;
+  private final Timer timer;
+  private final Object lock = new Object();
+  private final ScheduledExecutorService scheduler;
+  private long synced;
+  private boolean syncing;
+
+  /**
+   * Default constructor. Starts the background force for the interval policy.
+   *
+   * @param segmentManager to force.
+   * @param configuration  for the policy.
+   * @param metrics        for reporting.
+   */
+  @Inject
+  public SyncManager(final SegmentManager segmentManager,
+                     final EmbeddedConfiguration configuration,
+                     final Metrics metrics) {
+    LOGGER.info("SyncManager({},{})", configuration.fsyncPolicy(), configuration.fsyncIntervalMillis());
+    this.segmentManager = segmentManager;
+    this.policy = configuration.fsyncPolicy();
+    this.timer = metrics.registry().timer(FSYNC_METRIC);
+    if (policy == EmbeddedConfiguration.FsyncPolicy.INTERVAL) {
+      scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "embedded-fsync");
+        thread.setDaemon(true);
+        return thread;
+      });
+      scheduler.scheduleWithFixedDelay(this::backgroundForce, configuration.fsyncIntervalMillis(),
+          configuration.fsyncIntervalMillis(), TimeUnit.MILLISECONDS);
+    } else {
+      scheduler = null;
+    }
+  }
+
+  private void backgroundForce() {
+    try {
+      timer.record(segmentManager::force);
+    } catch (RuntimeException e) {
+      LOGGER.error("backgroundForce: failed", e);
+    }
+  }
+
+  /**
+   * Waits until everything appended up to the sequence is on disk, as the policy requires.
+   *
+   * @param sequence the appended bytes after the write.
+   */
+  public void sync(final long sequence) {
+    switch (policy) {
+      case ALWAYS -> timer.record(segmentManager::force);
+      case GROUP -> groupSync(sequence);
+      default -> {
+        // forced in the background.
+      }
+    }
+  }
+
+  private void groupSync(final long sequence) {
+    synchronized (lock) {
+      while (synced < sequence && syncing) {
+        try {
+          lock.wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new DependencyException("Interrupted waiting for fsync", e);
+        }
+      }
+      if (synced >= sequence) {
+        return;
+      }
+      syncing = true;
+    }
+    final long target = segmentManager.appended();
+    boolean forced = false;
+    try {
+      timer.record(segmentManager::force);
+      forced = true;
+    } finally {
+      synchronized (lock) {
+        syncing = false;
+        if (forced) {
+          synced = Math.max(synced, target);
+        }
+        lock.notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Stops the background force.
+   */
+  public void stop() {
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+    }
+  }
+
+}
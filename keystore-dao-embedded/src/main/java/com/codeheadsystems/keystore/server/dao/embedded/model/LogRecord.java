@@ -0,0 +1,66 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.server.dao.embedded.model;
+
+import java.util.Optional;
+import org.immutables.value.Value;
+
+/**
+ * What a record in the segment log changes, without the key material. Enough to rebuild the index on replay.
+ */
+@Value.Immutable
+public interface LogRecord {
+
+  /**
+   * The kind of record.
+   *
+   * @return the type.
+   */
+  RecordType type();
+
+  /**
+   * The owner changed.
+   *
+   * @return the owner.
+   */
+  String owner();
+
+  /**
+   * The key changed, if the record is about a key.
+   *
+   * @return the key name.
+   */
+  Optional<String> key();
+
+  /**
+   * The version changed, if the record is about one version.
+   *
+   * @return the version.
+   */
+  Optional<Long> version();
+
+  /**
+   * If the stored version is active.
+   *
+   * @return true if active.
+   */
+  @Value.Default
+  default boolean active() {
+    return false;
+  }
+
+}
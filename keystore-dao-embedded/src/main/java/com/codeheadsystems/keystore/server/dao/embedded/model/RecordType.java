@@ -0,0 +1,75 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.server.dao.embedded.model;
+
+/**
+ * The kinds of records in the segment log.
+ */
+public enum RecordType {
+
+  /**
+   * An owner was stored.
+   */
+  PUT_OWNER((byte) 1),
+  /**
+   * A key version was stored.
+   */
+  PUT_KEY((byte) 2),
+  /**
+   * A key version was deleted.
+   */
+  DELETE_VERSION((byte) 3),
+  /**
+   * Every version of a key was deleted.
+   */
+  DELETE_KEY((byte) 4),
+  /**
+   * An owner and all of its keys were deleted.
+   */
+  DELETE_OWNER((byte) 5);
+
+  private final byte code;
+
+  RecordType(final byte code) {
+    this.code = code;
+  }
+
+  /**
+   * The record type for the code.
+   *
+   * @param code as written in the log.
+   * @return the record type.
+   */
+  public static RecordType of(final byte code) {
+    for (RecordType type : values()) {
+      if (type.code == code) {
+        return type;
+      }
+    }
+    throw new IllegalArgumentException("Unknown record type: " + code);
+  }
+
+  /**
+   * The code as written in the log.
+   *
+   * @return the code.
+   */
+  public byte code() {
+    return code;
+  }
+
+}
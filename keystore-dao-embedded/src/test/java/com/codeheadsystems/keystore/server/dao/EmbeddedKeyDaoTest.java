@@ -0,0 +1,168 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.server.dao;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.codeheadsystems.keystore.server.dao.embedded.configuration.EmbeddedConfiguration;
+import com.codeheadsystems.keystore.server.dao.embedded.configuration.ImmutableEmbeddedConfiguration;
+import com.codeheadsystems.keystore.server.dao.embedded.converter.RecordConverter;
+import com.codeheadsystems.keystore.server.dao.embedded.dagger.EmbeddedModule;
+import com.codeheadsystems.keystore.server.dao.embedded.manager.SegmentManager;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableKeyIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.Key;
+import com.codeheadsystems.keystore.server.dao.model.KeyIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.KeyVersionIdentifier;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Runs the dao suite against the embedded segment log, then checks recovery and compaction.
+ */
+class EmbeddedKeyDaoTest extends KeyDaoTest {
+
+  @TempDir
+  static Path suiteDirectory;
+  private static EmbeddedKeyDao keyDao;
+
+  @TempDir
+  Path directory;
+
+  @BeforeAll
+  public static void setupDao() {
+    keyDao = open(ImmutableEmbeddedConfiguration.builder().directory(suiteDirectory.toString()).build());
+  }
+
+  @AfterAll
+  public static void closeDao() {
+    keyDao.close();
+  }
+
+  private static EmbeddedKeyDao open(final EmbeddedConfiguration configuration) {
+    return DaggerDaoComponent.builder()
+        .embeddedModule(new EmbeddedModule(configuration))
+        .ourMeterModule(new DaoComponent.OurMeterModule(meterRegistry))
+        .build()
+        .embeddedKeyDao();
+  }
+
+  @Override
+  protected KeyDao keyDAO() {
+    return keyDao;
+  }
+
+  private EmbeddedConfiguration configuration() {
+    return ImmutableEmbeddedConfiguration.builder()
+        .directory(directory.toString())
+        .segmentBytes(1024)
+        .compactionIntervalSeconds(0)
+        .build();
+  }
+
+  private KeyIdentifier keyIdentifier(final Key key) {
+    return ImmutableKeyIdentifier.builder()
+        .owner(key.keyVersionIdentifier().owner())
+        .key(key.keyVersionIdentifier().key())
+        .build();
+  }
+
+  private long segments() throws IOException {
+    try (Stream<Path> paths = Files.list(directory)) {
+      return paths.filter(p -> p.getFileName().toString().startsWith(SegmentManager.PREFIX)).count();
+    }
+  }
+
+  @Test
+  public void recover_replaysLog() {
+    final EmbeddedKeyDao dao = open(configuration());
+    final Key kept = getKey(true, 1, owner());
+    final Key deleted = getKey(true, 2, owner());
+    dao.store(kept);
+    dao.store(deleted);
+    dao.delete(deleted.keyVersionIdentifier());
+    dao.storeOwner("empty-" + owner());
+    dao.close();
+
+    final EmbeddedKeyDao recovered = open(configuration());
+
+    assertThat(recovered.load(kept.keyVersionIdentifier())).contains(kept);
+    assertThat(recovered.load(deleted.keyVersionIdentifier())).isEmpty();
+    assertThat(recovered.load(keyIdentifier(kept))).contains(kept);
+    assertThat(recovered.loadOwner("empty-" + owner())).isPresent();
+    recovered.close();
+  }
+
+  @Test
+  public void recover_truncatesTornTail() throws IOException {
+    final EmbeddedKeyDao dao = open(configuration());
+    final Key key = getKey(true, 1, owner());
+    dao.store(key);
+    dao.close();
+    final RecordConverter converter = new RecordConverter();
+    final int end = converter.putOwner(owner()).remaining() + converter.putKey(key).remaining();
+    try (Stream<Path> paths = Files.list(directory);
+         FileChannel channel = FileChannel.open(paths.findFirst().orElseThrow(), StandardOpenOption.WRITE)) {
+      channel.write(ByteBuffer.wrap(new byte[]{0, 0, 0, 100, 1, 2, 3, 4, 9, 9, 9}), end);
+    }
+
+    final EmbeddedKeyDao recovered = open(configuration());
+    final Key next = getKey(true, 2, owner());
+    recovered.store(next);
+    recovered.close();
+    final EmbeddedKeyDao again = open(configuration());
+
+    assertThat(again.load(key.keyVersionIdentifier())).contains(key);
+    assertThat(again.load(next.keyVersionIdentifier())).contains(next);
+    again.close();
+  }
+
+  @Test
+  public void compact_dropsGarbage() throws IOException {
+    final EmbeddedKeyDao dao = open(configuration());
+    final List<Key> keys = LongStream.rangeClosed(1, 20)
+        .mapToObj(version -> getKey(true, version, owner()))
+        .toList();
+    dao.storeAll(keys);
+    keys.subList(0, 16).forEach(key -> dao.delete(key.keyVersionIdentifier()));
+    final long before = segments();
+
+    assertThat(dao.compact()).isTrue();
+
+    assertThat(segments()).isLessThan(before);
+    keys.subList(16, 20).forEach(key -> assertThat(dao.load(key.keyVersionIdentifier())).contains(key));
+    dao.close();
+    final EmbeddedKeyDao recovered = open(configuration());
+    assertThat(recovered.listVersions(keyIdentifier(keys.get(0)), null).list())
+        .extracting(KeyVersionIdentifier::version)
+        .containsExactly(17L, 18L, 19L, 20L);
+    assertThat(recovered.load(keyIdentifier(keys.get(0)))).contains(keys.get(19));
+    assertThat(recovered.loadOwner(owner())).isPresent();
+    recovered.close();
+  }
+
+}
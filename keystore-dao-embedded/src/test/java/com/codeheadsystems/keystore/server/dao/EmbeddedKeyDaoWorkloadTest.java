@@ -0,0 +1,55 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.server.dao;
+
+import com.codeheadsystems.keystore.server.dao.embedded.configuration.ImmutableEmbeddedConfiguration;
+import com.codeheadsystems.keystore.server.dao.embedded.dagger.EmbeddedModule;
+import java.nio.file.Path;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Runs the workloads against the embedded segment log, with the default group fsync.
+ */
+class EmbeddedKeyDaoWorkloadTest extends KeyDaoWorkloadTest {
+
+  @TempDir
+  static Path directory;
+  private static EmbeddedKeyDao keyDao;
+
+  @BeforeAll
+  public static void setupDao() {
+    keyDao = DaggerDaoComponent.builder()
+        .embeddedModule(new EmbeddedModule(ImmutableEmbeddedConfiguration.builder()
+            .directory(directory.toString())
+            .build()))
+        .ourMeterModule(new DaoComponent.OurMeterModule(meterRegistry))
+        .build()
+        .embeddedKeyDao();
+  }
+
+  @AfterAll
+  public static void closeDao() {
+    keyDao.close();
+  }
+
+  @Override
+  protected KeyDao keyDAO() {
+    return keyDao;
+  }
+}
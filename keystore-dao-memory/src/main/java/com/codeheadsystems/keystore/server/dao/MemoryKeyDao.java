@@ -0,0 +1,404 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.server.dao;
+
+import com.codeheadsystems.keystore.common.helper.DataHelper;
+import com.codeheadsystems.keystore.server.dao.memory.configuration.MemoryConfiguration;
+import com.codeheadsystems.keystore.server.dao.memory.manager.SnapshotManager;
+import com.codeheadsystems.keystore.server.dao.memory.model.ImmutableSnapshot;
+import com.codeheadsystems.keystore.server.dao.memory.model.Snapshot;
+import com.codeheadsystems.keystore.server.dao.model.Batch;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableBatch;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableKey;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableKeyIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableKeyVersionIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableOwnerIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableToken;
+import com.codeheadsystems.keystore.server.dao.model.Key;
+import com.codeheadsystems.keystore.server.dao.model.KeyIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.KeyVersionIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.OwnerIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.Token;
+import com.codeheadsystems.metrics.Metrics;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Timer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * DAO that keeps everything in memory, for edge nodes without a datastore and as the baseline for benchmarks.
+ * Owners, key names and versions are held in concurrent skip lists so listing is ordered and pages by keyset,
+ * the token holding the last value returned. Reads never lock. Writes lock the owner they change, so writers
+ * of different owners do not contend, and the active version of each key is a single volatile reference that
+ * is swapped after every write, so readers see either the old or the new active version but nothing between.
+ * When a snapshot file is configured the keys are restored from it on startup and written back when asked to,
+ * or in the background on the configured interval.
+ */
+@Singleton
+public class MemoryKeyDao implements KeyDao {
+
+  /**
+   * The constant PREFIX.
+   */
+  public static final String PREFIX = "memorydao.";
+  private static final Logger LOGGER = LoggerFactory.getLogger(MemoryKeyDao.class);
+
+  private final ConcurrentHashMap<String, OwnerEntry> owners = new ConcurrentHashMap<>();
+  private final ConcurrentSkipListSet<String> ownerNames = new ConcurrentSkipListSet<>();
+  private final SnapshotManager snapshotManager;
+  private final DataHelper dataHelper;
+  private final int pageSize;
+  private final Counter counterDeletedVersions;
+  private final Timer snapshotTimer;
+
+  /**
+   * Default constructor. Restores the last snapshot, if there is one.
+   *
+   * @param snapshotManager to persist the keys with.
+   * @param dataHelper      for the tokens.
+   * @param configuration   for the page size and the snapshot interval.
+   * @param metrics         for reporting.
+   */
+  @Inject
+  public MemoryKeyDao(final SnapshotManager snapshotManager,
+                      final DataHelper dataHelper,
+                      final MemoryConfiguration configuration,
+                      final Metrics metrics) {
+    LOGGER.info("MemoryKeyDao({},{})", snapshotManager, metrics);
+    this.snapshotManager = snapshotManager;
+    this.dataHelper = dataHelper;
+    this.pageSize = configuration.pageSize();
+    this.counterDeletedVersions = metrics.registry().counter(PREFIX + "deleted.versions");
+    this.snapshotTimer = metrics.registry().timer(PREFIX + "snapshot");
+    metrics.registry().gauge(PREFIX + "owners", owners, Map::size);
+    snapshotManager.load().ifPresent(this::restore);
+    if (snapshotManager.enabled() && configuration.snapshotIntervalSeconds() > 0) {
+      final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "memory-snapshot");
+        thread.setDaemon(true);
+        return thread;
+      });
+      scheduler.scheduleWithFixedDelay(this::backgroundSnapshot, configuration.snapshotIntervalSeconds(),
+          configuration.snapshotIntervalSeconds(), TimeUnit.SECONDS);
+    }
+  }
+
+  private void restore(final Snapshot snapshot) {
+    LOGGER.info("restore({},{})", snapshot.owners().size(), snapshot.keys().size());
+    snapshot.owners().forEach(this::storeOwner);
+    storeAll(snapshot.keys());
+  }
+
+  private void backgroundSnapshot() {
+    try {
+      snapshot();
+    } catch (RuntimeException e) {
+      LOGGER.error("backgroundSnapshot: failed", e);
+    }
+  }
+
+  /**
+   * Writes every owner and key to the snapshot file, if one is configured. Writers are not paused, so a write
+   * that races the snapshot may or may not be in it, but every version in it is complete.
+   */
+  public void snapshot() {
+    if (!snapshotManager.enabled()) {
+      return;
+    }
+    snapshotTimer.record(() -> {
+      final List<Key> keys = new ArrayList<>();
+      owners.values().forEach(owner -> owner.keys.values().forEach(entry -> keys.addAll(entry.versions.values())));
+      snapshotManager.save(ImmutableSnapshot.builder()
+          .owners(ownerNames)
+          .keys(keys)
+          .build());
+    });
+  }
+
+  /**
+   * Runs the change with the owner locked, creating the owner if needed. If the owner was deleted between the
+   * lookup and the lock, the change goes to the owner that replaces it.
+   */
+  private <T> T write(final String owner,
+                      final Function<OwnerEntry, T> change) {
+    while (true) {
+      final OwnerEntry entry = owners.computeIfAbsent(owner, name -> {
+        ownerNames.add(name);
+        return new OwnerEntry();
+      });
+      synchronized (entry) {
+        if (!entry.removed) {
+          return change.apply(entry);
+        }
+      }
+    }
+  }
+
+  /**
+   * Runs the change with the owner locked, only if the owner exists.
+   */
+  private <T> T update(final String owner,
+                       final Function<OwnerEntry, T> change,
+                       final T absent) {
+    final OwnerEntry entry = owners.get(owner);
+    if (entry == null) {
+      return absent;
+    }
+    synchronized (entry) {
+      return entry.removed ? absent : change.apply(entry);
+    }
+  }
+
+  @Override
+  public void store(final Key key) {
+    LOGGER.debug("store({})", key.keyVersionIdentifier());
+    write(key.keyVersionIdentifier().owner(), entry -> {
+      entry.store(ImmutableKey.copyOf(key));
+      return null;
+    });
+  }
+
+  /**
+   * Takes the lock of each owner once.
+   */
+  @Override
+  public void storeAll(final Collection<Key> keys) {
+    LOGGER.debug("storeAll({})", keys.size());
+    keys.stream()
+        .collect(Collectors.groupingBy(key -> key.keyVersionIdentifier().owner()))
+        .forEach((owner, ownerKeys) -> write(owner, entry -> {
+          ownerKeys.forEach(key -> entry.store(ImmutableKey.copyOf(key)));
+          return null;
+        }));
+  }
+
+  /**
+   * The version is one past the greatest, allocated and stored with the owner locked.
+   */
+  @Override
+  public Key storeNextVersion(final KeyIdentifier identifier,
+                              final Function<KeyVersionIdentifier, Key> factory) {
+    LOGGER.debug("storeNextVersion({})", identifier);
+    return write(identifier.owner(), entry -> {
+      final Key key = ImmutableKey.copyOf(factory.apply(ImmutableKeyVersionIdentifier.builder()
+          .owner(identifier.owner())
+          .key(identifier.key())
+          .version(entry.greatestVersion(identifier.key()) + 1)
+          .build()));
+      entry.store(key);
+      return key;
+    });
+  }
+
+  @Override
+  public OwnerIdentifier storeOwner(final String owner) {
+    LOGGER.debug("storeOwner({})", owner);
+    write(owner, entry -> null);
+    return ImmutableOwnerIdentifier.builder().owner(owner).build();
+  }
+
+  @Override
+  public Optional<Key> load(final KeyVersionIdentifier identifier) {
+    LOGGER.debug("load({})", identifier);
+    return keyEntry(identifier).map(entry -> entry.versions.get(identifier.version()));
+  }
+
+  /**
+   * Reads the active version with the greatest number.
+   * Empty optional if there is no active key or if there is no keys in general.
+   */
+  @Override
+  public Optional<Key> load(final KeyIdentifier identifier) {
+    LOGGER.debug("load({})", identifier);
+    return keyEntry(identifier).map(entry -> entry.active);
+  }
+
+  private Optional<KeyEntry> keyEntry(final KeyIdentifier identifier) {
+    return Optional.ofNullable(owners.get(identifier.owner()))
+        .map(owner -> owner.keys.get(identifier.key()));
+  }
+
+  @Override
+  public Optional<OwnerIdentifier> loadOwner(final String ownerName) {
+    LOGGER.debug("loadOwner({})", ownerName);
+    return owners.containsKey(ownerName)
+        ? Optional.of(ImmutableOwnerIdentifier.builder().owner(ownerName).build())
+        : Optional.empty();
+  }
+
+  @Override
+  public Batch<OwnerIdentifier> listOwners(final Token nextToken) {
+    LOGGER.debug("listOwners()");
+    return page(ownerNames, nextToken, Function.identity(),
+        owner -> ImmutableOwnerIdentifier.builder().owner(owner).build());
+  }
+
+  @Override
+  public Batch<KeyIdentifier> listKeys(final OwnerIdentifier identifier,
+                                       final Token nextToken) {
+    LOGGER.debug("listKeys({})", identifier);
+    final OwnerEntry entry = owners.get(identifier.owner());
+    if (entry == null) {
+      return ImmutableBatch.<KeyIdentifier>builder().build();
+    }
+    return page(entry.keys.keySet(), nextToken, Function.identity(),
+        key -> ImmutableKeyIdentifier.builder().owner(identifier.owner()).key(key).build());
+  }
+
+  @Override
+  public Batch<KeyVersionIdentifier> listVersions(final KeyIdentifier identifier,
+                                                  final Token nextToken) {
+    LOGGER.debug("listVersions({})", identifier);
+    final Optional<KeyEntry> entry = keyEntry(identifier);
+    if (entry.isEmpty()) {
+      return ImmutableBatch.<KeyVersionIdentifier>builder().build();
+    }
+    return page(entry.get().versions.keySet(), nextToken, Long::parseLong,
+        version -> ImmutableKeyVersionIdentifier.builder()
+            .owner(identifier.owner())
+            .key(identifier.key())
+            .version(version)
+            .build());
+  }
+
+  /**
+   * Reads one page from just after the token. If anything is left after the page, there is another page, which
+   * starts after the last value of this one.
+   */
+  private <C, T> Batch<T> page(final NavigableSet<C> source,
+                               final Token nextToken,
+                               final Function<String, C> parser,
+                               final Function<C, T> converter) {
+    final NavigableSet<C> remaining = nextToken == null
+        ? source
+        : source.tailSet(parser.apply(dataHelper.toStringFromBase64(nextToken.value())), false);
+    final List<C> cursors = new ArrayList<>();
+    final Iterator<C> iterator = remaining.iterator();
+    while (cursors.size() < pageSize && iterator.hasNext()) {
+      cursors.add(iterator.next());
+    }
+    final ImmutableBatch.Builder<T> builder = ImmutableBatch.builder();
+    if (iterator.hasNext()) {
+      final String cursor = String.valueOf(cursors.get(cursors.size() - 1));
+      builder.nextToken(ImmutableToken.builder().value(dataHelper.toBase64(cursor)).build());
+    }
+    return builder.list(cursors.stream().map(converter).toList()).build();
+  }
+
+  @Override
+  public boolean delete(final KeyVersionIdentifier identifier) {
+    LOGGER.debug("delete({})", identifier);
+    return update(identifier.owner(), entry -> entry.delete(identifier), false);
+  }
+
+  @Override
+  public boolean delete(final KeyIdentifier identifier) {
+    LOGGER.debug("delete({})", identifier);
+    return update(identifier.owner(), entry -> {
+      final KeyEntry removed = entry.keys.remove(identifier.key());
+      if (removed == null) {
+        return false;
+      }
+      counterDeletedVersions.increment(removed.versions.size());
+      return true;
+    }, false);
+  }
+
+  /**
+   * Deletes every key of the owner and the owner itself. The name leaves the listing before the owner leaves the
+   * map, so an owner stored again right after is listed.
+   */
+  @Override
+  public boolean delete(final OwnerIdentifier identifier) {
+    LOGGER.debug("delete({})", identifier);
+    return update(identifier.owner(), entry -> {
+      entry.removed = true;
+      ownerNames.remove(identifier.owner());
+      owners.remove(identifier.owner(), entry);
+      counterDeletedVersions.increment(entry.keys.values().stream().mapToInt(k -> k.versions.size()).sum());
+      return true;
+    }, false);
+  }
+
+  /**
+   * The keys of one owner. Only changed with its lock held.
+   */
+  private class OwnerEntry {
+
+    private final ConcurrentSkipListMap<String, KeyEntry> keys = new ConcurrentSkipListMap<>();
+    private boolean removed;
+
+    private void store(final Key key) {
+      final KeyEntry entry = keys.computeIfAbsent(key.keyVersionIdentifier().key(), name -> new KeyEntry());
+      entry.versions.put(key.keyVersionIdentifier().version(), key);
+      entry.refreshActive();
+    }
+
+    private long greatestVersion(final String key) {
+      final KeyEntry entry = keys.get(key);
+      return entry == null || entry.versions.isEmpty() ? 0L : entry.versions.lastKey();
+    }
+
+    private boolean delete(final KeyVersionIdentifier identifier) {
+      final KeyEntry entry = keys.get(identifier.key());
+      if (entry == null || entry.versions.remove(identifier.version()) == null) {
+        return false;
+      }
+      counterDeletedVersions.increment();
+      if (entry.versions.isEmpty()) {
+        keys.remove(identifier.key());
+      } else {
+        entry.refreshActive();
+      }
+      return true;
+    }
+  }
+
+  /**
+   * The versions of one key, and the active one to read.
+   */
+  private static class KeyEntry {
+
+    private final ConcurrentSkipListMap<Long, Key> versions = new ConcurrentSkipListMap<>();
+    private volatile Key active;
+
+    private void refreshActive() {
+      active = versions.descendingMap().values().stream()
+          .filter(Key::active)
+          .findFirst()
+          .orElse(null);
+    }
+  }
+
+}
@@ -0,0 +1,65 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.server.dao.memory.configuration;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import java.util.Optional;
+import org.immutables.value.Value;
+
+/**
+ * The configuration of the in-memory datastore.
+ */
+@Value.Immutable
+@JsonSerialize(as = ImmutableMemoryConfiguration.class)
+@JsonDeserialize(builder = ImmutableMemoryConfiguration.Builder.class)
+@JsonIgnoreProperties(ignoreUnknown = true)
+public interface MemoryConfiguration {
+
+  /**
+   * The most results in one page of a list call.
+   *
+   * @return the page size.
+   */
+  @Value.Default
+  @JsonProperty("pageSize")
+  default int pageSize() {
+    return 100;
+  }
+
+  /**
+   * The file the keys are snapshotted to and restored from on startup. Without it nothing is persisted.
+   *
+   * @return the file.
+   */
+  @JsonProperty("snapshotFile")
+  Optional<String> snapshotFile();
+
+  /**
+   * How often to snapshot in the background. Zero only snapshots when asked to.
+   *
+   * @return in seconds.
+   */
+  @Value.Default
+  @JsonProperty("snapshotIntervalSeconds")
+  default long snapshotIntervalSeconds() {
+    return 0;
+  }
+
+}
@@ -0,0 +1,107 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.server.dao.memory.manager;
+
+import com.codeheadsystems.keystore.common.factory.ObjectMapperFactory;
+import com.codeheadsystems.keystore.server.dao.memory.configuration.MemoryConfiguration;
+import com.codeheadsystems.keystore.server.dao.memory.model.Snapshot;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Optional;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persists snapshots of the in-memory datastore as a JSON file. Writes go to a temp file in the same directory
+ * and are moved into place, so a crash never leaves a partial snapshot behind.
+ */
+@Singleton
+public class SnapshotManager {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(SnapshotManager.class);
+
+  private final Optional<Path> file;
+  private final ObjectMapper objectMapper;
+
+  /**
+   * Default constructor.
+   *
+   * @param configuration       for the snapshot file.
+   * @param objectMapperFactory to generate our object mapper.
+   */
+  @Inject
+  public SnapshotManager(final MemoryConfiguration configuration,
+                         final ObjectMapperFactory objectMapperFactory) {
+    this.file = configuration.snapshotFile().map(Path::of).map(Path::toAbsolutePath);
+    this.objectMapper = objectMapperFactory.generate();
+    LOGGER.info("SnapshotManager({})", file);
+  }
+
+  /**
+   * If there is a snapshot file configured.
+   *
+   * @return true if enabled.
+   */
+  public boolean enabled() {
+    return file.isPresent();
+  }
+
+  /**
+   * Saves the snapshot, replacing the previous one. Does nothing if not enabled.
+   *
+   * @param snapshot to save.
+   */
+  public void save(final Snapshot snapshot) {
+    if (file.isEmpty()) {
+      return;
+    }
+    final Path path = file.get();
+    LOGGER.debug("save({},{})", path, snapshot.keys().size());
+    try {
+      Files.createDirectories(path.getParent());
+      final Path temp = Files.createTempFile(path.getParent(), "snapshot", ".tmp");
+      objectMapper.writeValue(temp.toFile(), snapshot);
+      Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Unable to save snapshot to " + path, e);
+    }
+  }
+
+  /**
+   * Loads the snapshot.
+   *
+   * @return the snapshot if enabled and one was saved.
+   */
+  public Optional<Snapshot> load() {
+    final Optional<Path> path = file.filter(Files::exists);
+    LOGGER.debug("load({})", path);
+    return path.map(p -> {
+      try {
+        return objectMapper.readValue(p.toFile(), Snapshot.class);
+      } catch (IOException e) {
+        throw new UncheckedIOException("Unable to read snapshot " + p, e);
+      }
+    });
+  }
+
+}
@@ -0,0 +1,52 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.server.dao.memory.model;
+
+import com.codeheadsystems.keystore.server.dao.model.Key;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import java.util.List;
+import org.immutables.value.Value;
+
+/**
+ * The contents of the in-memory datastore as written to disk.
+ */
+@Value.Immutable
+@JsonSerialize(as = ImmutableSnapshot.class)
+@JsonDeserialize(builder = ImmutableSnapshot.Builder.class)
+@JsonIgnoreProperties(ignoreUnknown = true)
+public interface Snapshot {
+
+  /**
+   * Every owner, including the ones without keys.
+   *
+   * @return the owners.
+   */
+  @JsonProperty("owners")
+  List<String> owners();
+
+  /**
+   * Every version of every key.
+   *
+   * @return the keys.
+   */
+  @JsonProperty("keys")
+  List<Key> keys();
+
+}
@@ -0,0 +1,145 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.server.dao;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.codeheadsystems.keystore.server.dao.memory.configuration.ImmutableMemoryConfiguration;
+import com.codeheadsystems.keystore.server.dao.memory.configuration.MemoryConfiguration;
+import com.codeheadsystems.keystore.server.dao.memory.dagger.MemoryModule;
+import com.codeheadsystems.keystore.server.dao.model.Batch;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableKey;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableKeyIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableKeyVersionIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableOwnerIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.Key;
+import com.codeheadsystems.keystore.server.dao.model.KeyIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.KeyVersionIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.OwnerIdentifier;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.LongStream;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Runs the dao suite against the in-memory dao.
+ */
+class MemoryKeyDaoTest extends KeyDaoTest {
+
+  private static KeyDao keyDao;
+  private static KeyDao pagingKeyDao;
+
+  @TempDir
+  Path tempDir;
+
+  @BeforeAll
+  public static void setupDao() {
+    keyDao = component(ImmutableMemoryConfiguration.builder().build()).keyDao();
+    pagingKeyDao = component(ImmutableMemoryConfiguration.builder().pageSize(2).build()).keyDao();
+  }
+
+  private static DaoComponent component(final MemoryConfiguration configuration) {
+    return DaggerDaoComponent.builder()
+        .memoryModule(new MemoryModule(configuration))
+        .ourMeterModule(new DaoComponent.OurMeterModule(meterRegistry))
+        .build();
+  }
+
+  @Override
+  protected KeyDao keyDAO() {
+    return keyDao;
+  }
+
+  @Test
+  public void listVersions_pages() {
+    final List<KeyVersionIdentifier> stored = LongStream.rangeClosed(1, 5)
+        .mapToObj(version -> getKey(true, version, owner()))
+        .peek(pagingKeyDao::store)
+        .map(Key::keyVersionIdentifier)
+        .toList();
+    final List<KeyVersionIdentifier> listed = new ArrayList<>();
+    Batch<KeyVersionIdentifier> batch = pagingKeyDao.listVersions(stored.get(0), null);
+    listed.addAll(batch.list());
+    while (batch.nextToken().isPresent()) {
+      assertThat(batch.list()).hasSize(2);
+      batch = pagingKeyDao.listVersions(stored.get(0), batch.nextToken().get());
+      listed.addAll(batch.list());
+    }
+    assertThat(listed).containsExactlyElementsOf(stored);
+  }
+
+  @Test
+  public void listKeys_pages() {
+    final OwnerIdentifier ownerIdentifier = ImmutableOwnerIdentifier.builder().owner(owner()).build();
+    final List<KeyIdentifier> stored = new ArrayList<>();
+    for (String name : List.of("a", "b", "c")) {
+      pagingKeyDao.store(withName(getKey(true, 1, owner()), name));
+      stored.add(ImmutableKeyIdentifier.builder().owner(owner()).key(name).build());
+    }
+    final Batch<KeyIdentifier> first = pagingKeyDao.listKeys(ownerIdentifier, null);
+    assertThat(first.list()).hasSize(2);
+    assertThat(first.nextToken()).isPresent();
+    final Batch<KeyIdentifier> second = pagingKeyDao.listKeys(ownerIdentifier, first.nextToken().get());
+    assertThat(second.nextToken()).isEmpty();
+    final List<KeyIdentifier> listed = new ArrayList<>(first.list());
+    listed.addAll(second.list());
+    assertThat(listed).containsExactlyElementsOf(stored);
+  }
+
+  @Test
+  public void load_switchesActiveVersion() {
+    final Key first = getAndStoreKey(true, 1);
+    final Key second = getAndStoreKey(true, 2);
+    getAndStoreKey(false, 3);
+    assertThat(keyDao.load(keyIdentifier(second))).contains(second);
+    keyDao.delete(second.keyVersionIdentifier());
+    assertThat(keyDao.load(keyIdentifier(first))).contains(first);
+  }
+
+  @Test
+  public void snapshot_restoresOnStartup() {
+    final MemoryConfiguration configuration = ImmutableMemoryConfiguration.builder()
+        .snapshotFile(tempDir.resolve("snapshot.json").toString())
+        .build();
+    final MemoryKeyDao dao = component(configuration).memoryKeyDao();
+    final Key key = getKey(true, 1, owner());
+    dao.store(key);
+    dao.storeOwner("empty-" + owner());
+    dao.snapshot();
+
+    final MemoryKeyDao restored = component(configuration).memoryKeyDao();
+
+    assertThat(restored.load(key.keyVersionIdentifier())).contains(key);
+    assertThat(restored.loadOwner("empty-" + owner())).isPresent();
+  }
+
+  private KeyIdentifier keyIdentifier(final Key key) {
+    return ImmutableKeyIdentifier.builder()
+        .owner(key.keyVersionIdentifier().owner())
+        .key(key.keyVersionIdentifier().key())
+        .build();
+  }
+
+  private Key withName(final Key key, final String name) {
+    return ImmutableKey.copyOf(key).withKeyVersionIdentifier(
+        ImmutableKeyVersionIdentifier.copyOf(key.keyVersionIdentifier()).withKey(name));
+  }
+
+}
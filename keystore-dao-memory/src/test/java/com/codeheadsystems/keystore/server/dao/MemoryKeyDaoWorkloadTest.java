@@ -0,0 +1,43 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.server.dao;
+
+import com.codeheadsystems.keystore.server.dao.memory.configuration.ImmutableMemoryConfiguration;
+import com.codeheadsystems.keystore.server.dao.memory.dagger.MemoryModule;
+import org.junit.jupiter.api.BeforeAll;
+
+/**
+ * Runs the workloads against the in-memory dao.
+ */
+class MemoryKeyDaoWorkloadTest extends KeyDaoWorkloadTest {
+
+  private static KeyDao keyDao;
+
+  @BeforeAll
+  public static void setupDao() {
+    keyDao = DaggerDaoComponent.builder()
+        .memoryModule(new MemoryModule(ImmutableMemoryConfiguration.builder().build()))
+        .ourMeterModule(new DaoComponent.OurMeterModule(meterRegistry))
+        .build()
+        .keyDao();
+  }
+
+  @Override
+  protected KeyDao keyDAO() {
+    return keyDao;
+  }
+}
@@ -0,0 +1,467 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.server.dao;
+
+import com.codeheadsystems.keystore.server.dao.model.ImmutableKeyIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableKeyVersionIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableOwnerIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.Key;
+import com.codeheadsystems.keystore.server.dao.model.KeyIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.KeyVersionIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.OwnerIdentifier;
+import com.codeheadsystems.keystore.server.dao.sql.accessor.R2dbcAccessor;
+import com.codeheadsystems.keystore.server.dao.sql.configuration.SqlConfiguration;
+import com.codeheadsystems.keystore.server.dao.sql.converter.R2dbcKeyConverter;
+import com.codeheadsystems.keystore.server.dao.sql.manager.StatementManager;
+import com.codeheadsystems.keystore.server.exception.DependencyException;
+import com.codeheadsystems.metrics.Metrics;
+import io.micrometer.core.instrument.Counter;
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * The reactive version of the sql dao, over r2dbc, with the same tables and sql as the jdbc one. Single results
+ * come back as futures. Listings are streams: rows are emitted as they are read, one keyset page at a time, so
+ * neither the caller nor the driver holds a whole owner, and the connection goes back to the pool between pages.
+ */
+@Singleton
+public class R2dbcKeyDAO {
+
+  /**
+   * The constant PREFIX.
+   */
+  public static final String PREFIX = "r2dbcdao.";
+  /**
+   * Orders keys by primary key, so concurrent writers lock rows in the same order.
+   */
+  private static final Comparator<Key> PRIMARY_KEY_ORDER = Comparator
+      .comparing((Key k) -> k.keyVersionIdentifier().owner())
+      .thenComparing(k -> k.keyVersionIdentifier().key())
+      .thenComparingLong(k -> k.keyVersionIdentifier().version());
+  private static final Logger LOGGER = LoggerFactory.getLogger(R2dbcKeyDAO.class);
+
+  private final R2dbcAccessor r2dbcAccessor;
+  private final StatementManager statementManager;
+  private final R2dbcKeyConverter keyConverter;
+  private final int batchSize;
+  private final int pageSize;
+  private final Counter counterDeletedVersions;
+  private final Counter counterNextVersionContention;
+
+  /**
+   * Default constructor.
+   *
+   * @param r2dbcAccessor    to run the statements with retries.
+   * @param statementManager the sql.
+   * @param keyConverter     key converter.
+   * @param configuration    for the batch and page sizes.
+   * @param metrics          for reporting.
+   */
+  @Inject
+  public R2dbcKeyDAO(final R2dbcAccessor r2dbcAccessor,
+                     final StatementManager statementManager,
+                     final R2dbcKeyConverter keyConverter,
+                     final SqlConfiguration configuration,
+                     final Metrics metrics) {
+    LOGGER.info("R2dbcKeyDAO({},{})", r2dbcAccessor, metrics);
+    this.r2dbcAccessor = r2dbcAccessor;
+    this.statementManager = statementManager;
+    this.keyConverter = keyConverter;
+    this.batchSize = configuration.batchSize();
+    this.pageSize = configuration.pageSize();
+    this.counterDeletedVersions = metrics.registry().counter(PREFIX + "deleted.versions");
+    this.counterNextVersionContention = metrics.registry().counter(PREFIX + "nextVersion.contention");
+  }
+
+  private static <T> List<List<T>> chunks(final List<T> list,
+                                          final int size) {
+    final List<List<T>> chunks = new ArrayList<>();
+    for (int i = 0; i < list.size(); i += size) {
+      chunks.add(list.subList(i, Math.min(list.size(), i + size)));
+    }
+    return chunks;
+  }
+
+  /**
+   * Stores the key.
+   *
+   * @param key to store.
+   * @return a future that completes when stored.
+   */
+  public CompletableFuture<Void> store(final Key key) {
+    LOGGER.debug("store({})", key.keyVersionIdentifier());
+    return store("storeKey", List.of(key)).toFuture();
+  }
+
+  /**
+   * Stores the keys in one transaction, with multi-row statements of up to the batch size.
+   *
+   * @param keys to store.
+   * @return a future that completes when stored.
+   */
+  public CompletableFuture<Void> storeAll(final Collection<Key> keys) {
+    LOGGER.debug("storeAll({})", keys.size());
+    if (keys.isEmpty()) {
+      return CompletableFuture.completedFuture(null);
+    }
+    return store("storeAll", keys).toFuture();
+  }
+
+  /**
+   * Adds the owners, then replaces the versions, like the jdbc dao.
+   */
+  private Mono<Void> store(final String name,
+                           final Collection<Key> keys) {
+    final Map<KeyVersionIdentifier, Key> unique = new LinkedHashMap<>();
+    keys.forEach(key -> unique.put(key.keyVersionIdentifier(), key));
+    final List<Key> sorted = unique.values().stream().sorted(PRIMARY_KEY_ORDER).toList();
+    final List<String> owners = sorted.stream().map(key -> key.keyVersionIdentifier().owner()).distinct().toList();
+    return r2dbcAccessor.transaction(name, connection -> storeOwners(connection, owners)
+            .thenMany(Flux.fromIterable(chunks(sorted, batchSize)).concatMap(chunk -> {
+              final Statement delete = R2dbcAccessor.statement(connection,
+                  statementManager.deleteVersions(chunk.size()));
+              final Statement insert = R2dbcAccessor.statement(connection, statementManager.insertKeys(chunk.size()));
+              int deleteIndex = 0;
+              int insertIndex = 0;
+              for (Key key : chunk) {
+                deleteIndex = keyConverter.bind(delete, deleteIndex, key.keyVersionIdentifier());
+                insertIndex = keyConverter.bind(insert, insertIndex, key);
+              }
+              return R2dbcAccessor.rowsUpdated(delete).then(R2dbcAccessor.rowsUpdated(insert));
+            }))
+            .then(Mono.just(sorted.size())))
+        .then();
+  }
+
+  /**
+   * Stores the next version of the key, allocated off its counter row like the jdbc dao.
+   *
+   * @param identifier of the key.
+   * @param factory    builds the key to store from the allocated version.
+   * @return the key that was stored.
+   */
+  public CompletableFuture<Key> storeNextVersion(final KeyIdentifier identifier,
+                                                 final Function<KeyVersionIdentifier, Key> factory) {
+    LOGGER.debug("storeNextVersion({})", identifier);
+    final AtomicInteger attempts = new AtomicInteger();
+    return r2dbcAccessor.transaction("storeNextVersion", connection -> {
+      if (attempts.getAndIncrement() > 0) {
+        counterNextVersionContention.increment();
+      }
+      final Statement seed = R2dbcAccessor.statement(connection, statementManager.seedVersion());
+      keyConverter.bind(seed, 0, identifier);
+      final Statement next = R2dbcAccessor.statement(connection, statementManager.nextVersion())
+          .returnGeneratedValues("next_version");
+      keyConverter.bind(next, keyConverter.bind(next, 0, identifier), identifier);
+      return storeOwners(connection, List.of(identifier.owner()))
+          .then(R2dbcAccessor.rowsUpdated(seed))
+          .then(Flux.from(next.execute())
+              .flatMap(result -> result.map((row, metadata) -> row.get(0, Long.class)))
+              .next()
+              .switchIfEmpty(Mono.error(() -> new DependencyException("No version allocated for " + identifier))))
+          .map(version -> factory.apply(ImmutableKeyVersionIdentifier.builder()
+              .owner(identifier.owner())
+              .key(identifier.key())
+              .version(version)
+              .build()))
+          .flatMap(key -> {
+            final Statement insert = R2dbcAccessor.statement(connection, statementManager.insertKeys(1));
+            keyConverter.bind(insert, 0, key);
+            return R2dbcAccessor.rowsUpdated(insert).thenReturn(key);
+          });
+    }).toFuture();
+  }
+
+  private Mono<Void> storeOwners(final Connection connection,
+                                 final List<String> owners) {
+    return Flux.fromIterable(chunks(owners, batchSize))
+        .concatMap(chunk -> {
+          final Statement statement = R2dbcAccessor.statement(connection, statementManager.storeOwners(chunk.size()));
+          for (int i = 0; i < chunk.size(); i++) {
+            statement.bind(i, chunk.get(i));
+          }
+          return R2dbcAccessor.rowsUpdated(statement);
+        })
+        .then();
+  }
+
+  /**
+   * Adds the owner if it does not exist.
+   *
+   * @param owner to add.
+   * @return the owner identifier.
+   */
+  public CompletableFuture<OwnerIdentifier> storeOwner(final String owner) {
+    LOGGER.debug("storeOwner({})", owner);
+    return r2dbcAccessor.transaction("storeOwner", connection -> storeOwners(connection, List.of(owner))
+            .then(Mono.<OwnerIdentifier>fromSupplier(() -> ImmutableOwnerIdentifier.builder().owner(owner).build())))
+        .toFuture();
+  }
+
+  /**
+   * Loads the key version.
+   *
+   * @param identifier of the version.
+   * @return the key if it exists.
+   */
+  public CompletableFuture<Optional<Key>> load(final KeyVersionIdentifier identifier) {
+    LOGGER.debug("load({})", identifier);
+    return r2dbcAccessor.read("loadKeyVersion", connection -> loadVersions(connection, List.of(identifier))
+            .next()
+            .map(Optional::of)
+            .defaultIfEmpty(Optional.empty()))
+        .toFuture();
+  }
+
+  /**
+   * Loads the versions that exist, with one query per batch.
+   *
+   * @param identifiers of the versions.
+   * @return the keys found, in no particular order.
+   */
+  public CompletableFuture<List<Key>> loadAll(final Collection<KeyVersionIdentifier> identifiers) {
+    LOGGER.debug("loadAll({})", identifiers.size());
+    final List<KeyVersionIdentifier> unique = identifiers.stream().distinct().toList();
+    if (unique.isEmpty()) {
+      return CompletableFuture.completedFuture(List.of());
+    }
+    return r2dbcAccessor.read("loadAll", connection -> Flux.fromIterable(chunks(unique, batchSize))
+            .concatMap(chunk -> loadVersions(connection, chunk))
+            .collectList())
+        .toFuture();
+  }
+
+  private Flux<Key> loadVersions(final Connection connection,
+                                 final List<KeyVersionIdentifier> identifiers) {
+    final Statement statement = R2dbcAccessor.statement(connection, statementManager.loadVersions(identifiers.size()));
+    int index = 0;
+    for (KeyVersionIdentifier identifier : identifiers) {
+      index = keyConverter.bind(statement, index, identifier);
+    }
+    return Flux.from(statement.execute()).flatMap(result -> result.map((row, metadata) -> keyConverter.toKey(row)));
+  }
+
+  /**
+   * Loads the active version with the greatest number.
+   *
+   * @param identifier of the key.
+   * @return the key if there is an active version.
+   */
+  public CompletableFuture<Optional<Key>> load(final KeyIdentifier identifier) {
+    LOGGER.debug("load({})", identifier);
+    return r2dbcAccessor.read("loadKey", connection -> {
+      final Statement statement = R2dbcAccessor.statement(connection, statementManager.loadActive());
+      keyConverter.bind(statement, 0, identifier);
+      return Flux.from(statement.execute())
+          .flatMap(result -> result.map((row, metadata) -> keyConverter.toKey(row)))
+          .next()
+          .map(Optional::of)
+          .defaultIfEmpty(Optional.empty());
+    }).toFuture();
+  }
+
+  /**
+   * Loads the owner.
+   *
+   * @param ownerName of the owner.
+   * @return the owner if it exists.
+   */
+  public CompletableFuture<Optional<OwnerIdentifier>> loadOwner(final String ownerName) {
+    LOGGER.debug("loadOwner({})", ownerName);
+    return r2dbcAccessor.read("loadOwner", connection -> {
+      final Statement statement = R2dbcAccessor.statement(connection, statementManager.loadOwner());
+      statement.bind(0, ownerName);
+      return Flux.from(statement.execute())
+          .flatMap(result -> result.map((row, metadata) -> row.get("owner", String.class)))
+          .next()
+          .<Optional<OwnerIdentifier>>map(owner -> Optional.of(ImmutableOwnerIdentifier.builder().owner(owner).build()))
+          .defaultIfEmpty(Optional.empty());
+    }).toFuture();
+  }
+
+  /**
+   * Streams every owner, in order.
+   *
+   * @return the owners.
+   */
+  public Flux<OwnerIdentifier> listOwners() {
+    LOGGER.debug("listOwners()");
+    return keyset("listOwners", (connection, after) -> {
+      final Statement statement = R2dbcAccessor.statement(connection, statementManager.listOwners(after != null));
+      int index = 0;
+      if (after != null) {
+        statement.bind(index++, after);
+      }
+      return statement.bind(index, pageSize);
+    }).map(owner -> ImmutableOwnerIdentifier.builder().owner(owner).build());
+  }
+
+  /**
+   * Streams every key of the owner, in order.
+   *
+   * @param identifier of the owner.
+   * @return the keys.
+   */
+  public Flux<KeyIdentifier> listKeys(final OwnerIdentifier identifier) {
+    LOGGER.debug("listKeys({})", identifier);
+    return keyset("listKeys", (connection, after) -> {
+      final Statement statement = R2dbcAccessor.statement(connection, statementManager.listKeys(after != null));
+      int index = 0;
+      statement.bind(index++, identifier.owner());
+      if (after != null) {
+        statement.bind(index++, after);
+      }
+      return statement.bind(index, pageSize);
+    }).map(key -> ImmutableKeyIdentifier.builder().owner(identifier.owner()).key(key).build());
+  }
+
+  /**
+   * Streams every version of the key, in order.
+   *
+   * @param identifier of the key.
+   * @return the versions.
+   */
+  public Flux<KeyVersionIdentifier> listVersions(final KeyIdentifier identifier) {
+    LOGGER.debug("listVersions({})", identifier);
+    return keyset("listVersions", (connection, after) -> {
+      final Statement statement = R2dbcAccessor.statement(connection, statementManager.listVersions(after != null));
+      int index = keyConverter.bind(statement, 0, identifier);
+      if (after != null) {
+        statement.bind(index++, Long.parseLong(after));
+      }
+      return statement.bind(index, pageSize);
+    }).map(version -> ImmutableKeyVersionIdentifier.builder()
+        .owner(identifier.owner())
+        .key(identifier.key())
+        .version(Long.parseLong(version))
+        .build());
+  }
+
+  /**
+   * Streams the first column page by page. Each page is read on its own connection; a full page means there may
+   * be more, and the next page starts after its last value.
+   */
+  private Flux<String> keyset(final String name,
+                              final PageStatement pageStatement) {
+    return keysetPage(name, pageStatement, null);
+  }
+
+  private Flux<String> keysetPage(final String name,
+                                  final PageStatement pageStatement,
+                                  final String after) {
+    final AtomicReference<String> last = new AtomicReference<>();
+    final AtomicInteger rows = new AtomicInteger();
+    return r2dbcAccessor.stream(name, connection -> Flux.from(pageStatement.statement(connection, after).execute())
+            .flatMap(result -> result.map((row, metadata) -> String.valueOf(row.get(0)))))
+        .doOnNext(value -> {
+          last.set(value);
+          rows.incrementAndGet();
+        })
+        .concatWith(Flux.defer(() -> rows.get() < pageSize
+            ? Flux.empty()
+            : keysetPage(name, pageStatement, last.get())));
+  }
+
+  /**
+   * Deletes the key version.
+   *
+   * @param identifier of the version.
+   * @return true if it existed.
+   */
+  public CompletableFuture<Boolean> delete(final KeyVersionIdentifier identifier) {
+    LOGGER.debug("delete({})", identifier);
+    return delete("deleteVersion", connection -> {
+      final Statement statement = R2dbcAccessor.statement(connection, statementManager.deleteVersions(1));
+      keyConverter.bind(statement, 0, identifier);
+      return R2dbcAccessor.rowsUpdated(statement);
+    });
+  }
+
+  /**
+   * Deletes every version of the key.
+   *
+   * @param identifier of the key.
+   * @return true if any version existed.
+   */
+  public CompletableFuture<Boolean> delete(final KeyIdentifier identifier) {
+    LOGGER.debug("delete({})", identifier);
+    return delete("deleteKey", connection -> {
+      final Statement counter = R2dbcAccessor.statement(connection, statementManager.deleteKeyVersion());
+      keyConverter.bind(counter, 0, identifier);
+      final Statement statement = R2dbcAccessor.statement(connection, statementManager.deleteKey());
+      keyConverter.bind(statement, 0, identifier);
+      return R2dbcAccessor.rowsUpdated(counter).then(R2dbcAccessor.rowsUpdated(statement));
+    });
+  }
+
+  /**
+   * Deletes every key of the owner, their version counters and the owner itself, in one transaction.
+   *
+   * @param identifier of the owner.
+   * @return true if the owner or any key existed.
+   */
+  public CompletableFuture<Boolean> delete(final OwnerIdentifier identifier) {
+    LOGGER.debug("delete({})", identifier);
+    return r2dbcAccessor.transaction("deleteOwner", connection -> {
+      final Statement versions = R2dbcAccessor.statement(connection, statementManager.deleteOwnerVersions())
+          .bind(0, identifier.owner());
+      final Statement keys = R2dbcAccessor.statement(connection, statementManager.deleteOwnerKeys())
+          .bind(0, identifier.owner());
+      final Statement owner = R2dbcAccessor.statement(connection, statementManager.deleteOwner())
+          .bind(0, identifier.owner());
+      return R2dbcAccessor.rowsUpdated(versions)
+          .then(R2dbcAccessor.rowsUpdated(keys))
+          .doOnNext(counterDeletedVersions::increment)
+          .flatMap(versions -> R2dbcAccessor.rowsUpdated(owner).map(owners -> versions + owners > 0));
+    }).toFuture();
+  }
+
+  private CompletableFuture<Boolean> delete(final String name,
+                                            final Function<Connection, Mono<Long>> work) {
+    return r2dbcAccessor.transaction(name, work)
+        .doOnNext(counterDeletedVersions::increment)
+        .map(versions -> versions > 0)
+        .toFuture();
+  }
+
+  /**
+   * Builds the statement of one page.
+   */
+  @FunctionalInterface
+  private interface PageStatement {
+
+    Statement statement(Connection connection, String after);
+  }
+
+}
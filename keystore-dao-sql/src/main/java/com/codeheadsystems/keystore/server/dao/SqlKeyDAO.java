@@ -16,8 +16,423 @@
 
 package com.codeheadsystems.keystore.server.dao;
 
+import com.codeheadsystems.keystore.server.dao.model.Batch;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableBatch;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableKeyIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableKeyVersionIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableOwnerIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.Key;
+import com.codeheadsystems.keystore.server.dao.model.KeyIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.KeyVersionIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.OwnerIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.Token;
+import com.codeheadsystems.keystore.server.dao.sql.accessor.SqlAccessor;
+import com.codeheadsystems.keystore.server.dao.sql.configuration.SqlConfiguration;
+import com.codeheadsystems.keystore.server.dao.sql.converter.KeyConverter;
+import com.codeheadsystems.keystore.server.dao.sql.manager.StatementManager;
+import com.codeheadsystems.metrics.Metrics;
+import io.micrometer.core.instrument.Counter;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 /**
- * The type Sql key dao.
+ * DAO for sql databases over jdbc. Writes are multi-row statements of up to the batch size, all in one
+ * transaction. List calls page by keyset: the token holds the last value returned, and the next page reads the
+ * primary key from just after it, so deep pages cost the same as the first. The next version of a key is taken
+ * off its counter row, which stays locked until the new version is inserted.
  */
-public class SqlKeyDAO {
+@Singleton
+public class SqlKeyDAO implements KeyDao {
+
+  /**
+   * The constant PREFIX.
+   */
+  public static final String PREFIX = "sqldao.";
+  /**
+   * Orders keys by primary key, so concurrent writers lock rows in the same order.
+   */
+  private static final Comparator<Key> PRIMARY_KEY_ORDER = Comparator
+      .comparing((Key k) -> k.keyVersionIdentifier().owner())
+      .thenComparing(k -> k.keyVersionIdentifier().key())
+      .thenComparingLong(k -> k.keyVersionIdentifier().version());
+  private static final Logger LOGGER = LoggerFactory.getLogger(SqlKeyDAO.class);
+
+  private final SqlAccessor sqlAccessor;
+  private final StatementManager statementManager;
+  private final KeyConverter keyConverter;
+  private final int batchSize;
+  private final int pageSize;
+  private final Counter counterDeletedVersions;
+  private final Counter counterNextVersionContention;
+
+  /**
+   * Default constructor.
+   *
+   * @param sqlAccessor      to run transactions with retries.
+   * @param statementManager the sql.
+   * @param keyConverter     key converter.
+   * @param configuration    for the batch and page sizes.
+   * @param metrics          for reporting.
+   */
+  @Inject
+  public SqlKeyDAO(final SqlAccessor sqlAccessor,
+                   final StatementManager statementManager,
+                   final KeyConverter keyConverter,
+                   final SqlConfiguration configuration,
+                   final Metrics metrics) {
+    LOGGER.info("SqlKeyDAO({},{})", sqlAccessor, metrics);
+    this.sqlAccessor = sqlAccessor;
+    this.statementManager = statementManager;
+    this.keyConverter = keyConverter;
+    this.batchSize = configuration.batchSize();
+    this.pageSize = configuration.pageSize();
+    this.counterDeletedVersions = metrics.registry().counter(PREFIX + "deleted.versions");
+    this.counterNextVersionContention = metrics.registry().counter(PREFIX + "nextVersion.contention");
+  }
+
+  private static <T> List<List<T>> chunks(final List<T> list,
+                                          final int size) {
+    final List<List<T>> chunks = new ArrayList<>();
+    for (int i = 0; i < list.size(); i += size) {
+      chunks.add(list.subList(i, Math.min(list.size(), i + size)));
+    }
+    return chunks;
+  }
+
+  @Override
+  public void store(final Key key) {
+    LOGGER.debug("store({})", key.keyVersionIdentifier());
+    store("storeKey", List.of(key));
+  }
+
+  @Override
+  public void storeAll(final Collection<Key> keys) {
+    LOGGER.debug("storeAll({})", keys.size());
+    if (!keys.isEmpty()) {
+      store("storeAll", keys);
+    }
+  }
+
+  /**
+   * Adds the owners, then replaces the versions: existing rows are deleted and every key is inserted with one
+   * multi-row insert per batch. A statement may not hold a version twice, so the last write of a version wins.
+   */
+  private void store(final String name,
+                     final Collection<Key> keys) {
+    final Map<KeyVersionIdentifier, Key> unique = new LinkedHashMap<>();
+    keys.forEach(key -> unique.put(key.keyVersionIdentifier(), key));
+    final List<Key> sorted = unique.values().stream().sorted(PRIMARY_KEY_ORDER).toList();
+    final List<String> owners = sorted.stream().map(key -> key.keyVersionIdentifier().owner()).distinct().toList();
+    sqlAccessor.transaction(name, connection -> {
+      storeOwners(connection, owners);
+      for (List<Key> chunk : chunks(sorted, batchSize)) {
+        try (PreparedStatement delete = connection.prepareStatement(statementManager.deleteVersions(chunk.size()))) {
+          int index = 1;
+          for (Key key : chunk) {
+            index = keyConverter.bind(delete, index, key.keyVersionIdentifier());
+          }
+          delete.executeUpdate();
+        }
+        try (PreparedStatement insert = connection.prepareStatement(statementManager.insertKeys(chunk.size()))) {
+          int index = 1;
+          for (Key key : chunk) {
+            index = keyConverter.bind(insert, index, key);
+          }
+          insert.executeUpdate();
+        }
+      }
+      return null;
+    });
+  }
+
+  /**
+   * Seeds the counter row of the key if needed, allocates the version off it and inserts the key, in one
+   * transaction. Concurrent allocations queue on the counter row. A version stored explicitly by a concurrent
+   * writer fails the insert as a duplicate, and the whole transaction is tried again, which counts as contention.
+   */
+  @Override
+  public Key storeNextVersion(final KeyIdentifier identifier,
+                              final Function<KeyVersionIdentifier, Key> factory) {
+    LOGGER.debug("storeNextVersion({})", identifier);
+    final AtomicInteger attempts = new AtomicInteger();
+    return sqlAccessor.transaction("storeNextVersion", connection -> {
+      if (attempts.getAndIncrement() > 0) {
+        counterNextVersionContention.increment();
+      }
+      storeOwners(connection, List.of(identifier.owner()));
+      try (PreparedStatement seed = connection.prepareStatement(statementManager.seedVersion())) {
+        keyConverter.bind(seed, 1, identifier);
+        seed.executeUpdate();
+      }
+      final long version;
+      try (PreparedStatement next = connection.prepareStatement(statementManager.nextVersion(),
+          new String[]{"next_version"})) {
+        keyConverter.bind(next, keyConverter.bind(next, 1, identifier), identifier);
+        next.executeUpdate();
+        try (ResultSet resultSet = next.getGeneratedKeys()) {
+          if (!resultSet.next()) {
+            throw new SQLException("No version allocated for " + identifier);
+          }
+          version = resultSet.getLong(1);
+        }
+      }
+      final Key key = factory.apply(ImmutableKeyVersionIdentifier.builder()
+          .owner(identifier.owner())
+          .key(identifier.key())
+          .version(version)
+          .build());
+      try (PreparedStatement insert = connection.prepareStatement(statementManager.insertKeys(1))) {
+        keyConverter.bind(insert, 1, key);
+        insert.executeUpdate();
+      }
+      return key;
+    });
+  }
+
+  private void storeOwners(final Connection connection,
+                           final List<String> owners) throws SQLException {
+    for (List<String> chunk : chunks(owners, batchSize)) {
+      try (PreparedStatement statement = connection.prepareStatement(statementManager.storeOwners(chunk.size()))) {
+        for (int i = 0; i < chunk.size(); i++) {
+          statement.setString(i + 1, chunk.get(i));
+        }
+        statement.executeUpdate();
+      }
+    }
+  }
+
+  @Override
+  public OwnerIdentifier storeOwner(final String owner) {
+    LOGGER.debug("storeOwner({})", owner);
+    sqlAccessor.transaction("storeOwner", connection -> {
+      storeOwners(connection, List.of(owner));
+      return null;
+    });
+    return ImmutableOwnerIdentifier.builder().owner(owner).build();
+  }
+
+  @Override
+  public Optional<Key> load(final KeyVersionIdentifier identifier) {
+    LOGGER.debug("load({})", identifier);
+    return sqlAccessor.transaction("loadKeyVersion", connection ->
+        loadVersions(connection, List.of(identifier)).stream().findFirst());
+  }
+
+  /**
+   * Loads the versions with one query per batch.
+   */
+  @Override
+  public List<Key> loadAll(final Collection<KeyVersionIdentifier> identifiers) {
+    LOGGER.debug("loadAll({})", identifiers.size());
+    final List<KeyVersionIdentifier> unique = identifiers.stream().distinct().toList();
+    if (unique.isEmpty()) {
+      return List.of();
+    }
+    return sqlAccessor.transaction("loadAll", connection -> {
+      final List<Key> result = new ArrayList<>();
+      for (List<KeyVersionIdentifier> chunk : chunks(unique, batchSize)) {
+        result.addAll(loadVersions(connection, chunk));
+      }
+      return result;
+    });
+  }
+
+  private List<Key> loadVersions(final Connection connection,
+                                 final List<KeyVersionIdentifier> identifiers) throws SQLException {
+    try (PreparedStatement statement = connection.prepareStatement(
+        statementManager.loadVersions(identifiers.size()))) {
+      int index = 1;
+      for (KeyVersionIdentifier identifier : identifiers) {
+        index = keyConverter.bind(statement, index, identifier);
+      }
+      return keys(statement);
+    }
+  }
+
+  private List<Key> keys(final PreparedStatement statement) throws SQLException {
+    final List<Key> keys = new ArrayList<>();
+    try (ResultSet resultSet = statement.executeQuery()) {
+      while (resultSet.next()) {
+        keys.add(keyConverter.toKey(resultSet));
+      }
+    }
+    return keys;
+  }
+
+  /**
+   * Reads the active version with the greatest number off the active key index.
+   * Empty optional if there is no active key or if there is no keys in general.
+   */
+  @Override
+  public Optional<Key> load(final KeyIdentifier identifier) {
+    LOGGER.debug("load({})", identifier);
+    return sqlAccessor.transaction("loadKey", connection -> {
+      try (PreparedStatement statement = connection.prepareStatement(statementManager.loadActive())) {
+        keyConverter.bind(statement, 1, identifier);
+        return keys(statement).stream().findFirst();
+      }
+    });
+  }
+
+  @Override
+  public Optional<OwnerIdentifier> loadOwner(final String ownerName) {
+    LOGGER.debug("loadOwner({})", ownerName);
+    return sqlAccessor.transaction("loadOwner", connection -> {
+      try (PreparedStatement statement = connection.prepareStatement(statementManager.loadOwner())) {
+        statement.setString(1, ownerName);
+        try (ResultSet resultSet = statement.executeQuery()) {
+          return resultSet.next()
+              ? Optional.of(ImmutableOwnerIdentifier.builder().owner(resultSet.getString("owner")).build())
+              : Optional.empty();
+        }
+      }
+    });
+  }
+
+  @Override
+  public Batch<OwnerIdentifier> listOwners(final Token nextToken) {
+    LOGGER.debug("listOwners()");
+    return sqlAccessor.transaction("listOwners", connection -> {
+      try (PreparedStatement statement = connection.prepareStatement(
+          statementManager.listOwners(nextToken != null))) {
+        int index = 1;
+        if (nextToken != null) {
+          statement.setString(index++, keyConverter.fromToken(nextToken));
+        }
+        statement.setInt(index, pageSize + 1);
+        return page(statement, owner -> ImmutableOwnerIdentifier.builder().owner(owner).build());
+      }
+    });
+  }
+
+  @Override
+  public Batch<KeyIdentifier> listKeys(final OwnerIdentifier identifier,
+                                       final Token nextToken) {
+    LOGGER.debug("listKeys({})", identifier);
+    return sqlAccessor.transaction("listKeys", connection -> {
+      try (PreparedStatement statement = connection.prepareStatement(
+          statementManager.listKeys(nextToken != null))) {
+        int index = 1;
+        statement.setString(index++, identifier.owner());
+        if (nextToken != null) {
+          statement.setString(index++, keyConverter.fromToken(nextToken));
+        }
+        statement.setInt(index, pageSize + 1);
+        return page(statement, key -> ImmutableKeyIdentifier.builder().owner(identifier.owner()).key(key).build());
+      }
+    });
+  }
+
+  @Override
+  public Batch<KeyVersionIdentifier> listVersions(final KeyIdentifier identifier,
+                                                  final Token nextToken) {
+    LOGGER.debug("listVersions({})", identifier);
+    return sqlAccessor.transaction("listVersions", connection -> {
+      try (PreparedStatement statement = connection.prepareStatement(
+          statementManager.listVersions(nextToken != null))) {
+        int index = keyConverter.bind(statement, 1, identifier);
+        if (nextToken != null) {
+          statement.setLong(index++, Long.parseLong(keyConverter.fromToken(nextToken)));
+        }
+        statement.setInt(index, pageSize + 1);
+        return page(statement, version -> ImmutableKeyVersionIdentifier.builder()
+            .owner(identifier.owner())
+            .key(identifier.key())
+            .version(Long.parseLong(version))
+            .build());
+      }
+    });
+  }
+
+  /**
+   * Reads one page of the first column. The query asks for one more row than the page size; if it comes back
+   * there is another page, which starts after the last value of this one.
+   */
+  private <T> Batch<T> page(final PreparedStatement statement,
+                            final Function<String, T> converter) throws SQLException {
+    final List<String> cursors = new ArrayList<>();
+    try (ResultSet resultSet = statement.executeQuery()) {
+      while (resultSet.next()) {
+        cursors.add(resultSet.getString(1));
+      }
+    }
+    final ImmutableBatch.Builder<T> builder = ImmutableBatch.builder();
+    if (cursors.size() > pageSize) {
+      cursors.remove(pageSize);
+      builder.nextToken(keyConverter.toToken(cursors.get(pageSize - 1)));
+    }
+    return builder.list(cursors.stream().map(converter).toList()).build();
+  }
+
+  @Override
+  public boolean delete(final KeyVersionIdentifier identifier) {
+    LOGGER.debug("delete({})", identifier);
+    return delete("deleteVersion", connection -> {
+      try (PreparedStatement statement = connection.prepareStatement(statementManager.deleteVersions(1))) {
+        keyConverter.bind(statement, 1, identifier);
+        return statement.executeUpdate();
+      }
+    }) > 0;
+  }
+
+  /**
+   * Deletes the version counter with the versions, so the versions of the key start over.
+   */
+  @Override
+  public boolean delete(final KeyIdentifier identifier) {
+    LOGGER.debug("delete({})", identifier);
+    return delete("deleteKey", connection -> {
+      try (PreparedStatement statement = connection.prepareStatement(statementManager.deleteKey());
+           PreparedStatement counter = connection.prepareStatement(statementManager.deleteKeyVersion())) {
+        keyConverter.bind(statement, 1, identifier);
+        keyConverter.bind(counter, 1, identifier);
+        counter.executeUpdate();
+        return statement.executeUpdate();
+      }
+    }) > 0;
+  }
+
+  /**
+   * Deletes every key of the owner, their version counters and the owner itself, in one transaction.
+   */
+  @Override
+  public boolean delete(final OwnerIdentifier identifier) {
+    LOGGER.debug("delete({})", identifier);
+    final int[] deleted = sqlAccessor.transaction("deleteOwner", connection -> {
+      try (PreparedStatement keys = connection.prepareStatement(statementManager.deleteOwnerKeys());
+           PreparedStatement versions = connection.prepareStatement(statementManager.deleteOwnerVersions());
+           PreparedStatement owner = connection.prepareStatement(statementManager.deleteOwner())) {
+        keys.setString(1, identifier.owner());
+        versions.setString(1, identifier.owner());
+        owner.setString(1, identifier.owner());
+        versions.executeUpdate();
+        return new int[]{keys.executeUpdate(), owner.executeUpdate()};
+      }
+    });
+    counterDeletedVersions.increment(deleted[0]);
+    return deleted[0] + deleted[1] > 0;
+  }
+
+  private int delete(final String name,
+                     final SqlAccessor.Work<Integer> work) {
+    final int versions = sqlAccessor.transaction(name, work);
+    counterDeletedVersions.increment(versions);
+    return versions;
+  }
+
 }
@@ -0,0 +1,206 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.server.dao.sql.accessor;
+
+import com.codeheadsystems.keystore.server.exception.DependencyException;
+import com.codeheadsystems.keystore.server.exception.RetryableException;
+import com.codeheadsystems.metrics.Metrics;
+import io.micrometer.core.instrument.Timer;
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.R2dbcException;
+import io.r2dbc.spi.R2dbcRollbackException;
+import io.r2dbc.spi.R2dbcTransientException;
+import io.r2dbc.spi.Result;
+import io.r2dbc.spi.Statement;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+/**
+ * The reactive version of the accessor, over a pooled r2dbc connection factory. Transactions, retries, timing and
+ * exception conversion work like the jdbc accessor, but nothing blocks. Failed publishers hold our own
+ * RetryableException or DependencyException.
+ */
+@Singleton
+public class R2dbcAccessor {
+
+  /**
+   * The constant PREFIX.
+   */
+  public static final String PREFIX = "r2dbcAccessor.";
+  /**
+   * The constant MAX_ATTEMPTS, matching the jdbc retry policy.
+   */
+  public static final int MAX_ATTEMPTS = 3;
+  private static final Logger LOGGER = LoggerFactory.getLogger(R2dbcAccessor.class);
+
+  private final ConnectionFactory connectionFactory;
+  private final Metrics metrics;
+
+  /**
+   * Default constructor.
+   *
+   * @param connectionFactory the connection pool.
+   * @param metrics           for reporting.
+   */
+  @Inject
+  public R2dbcAccessor(final ConnectionFactory connectionFactory,
+                       final Metrics metrics) {
+    LOGGER.info("R2dbcAccessor({},{})", connectionFactory, metrics);
+    this.connectionFactory = connectionFactory;
+    this.metrics = metrics;
+  }
+
+  /**
+   * Converts the exception, like the jdbc accessor does.
+   *
+   * @param e the exception.
+   * @return the converted exception.
+   */
+  public static RuntimeException map(final Throwable e) {
+    if (e instanceof RetryableException || e instanceof DependencyException) {
+      return (RuntimeException) e;
+    }
+    if (e instanceof R2dbcException r2dbcException) {
+      final String state = r2dbcException.getSqlState() == null ? "" : r2dbcException.getSqlState();
+      if (e instanceof R2dbcTransientException
+          || e instanceof R2dbcRollbackException
+          || state.startsWith("08")
+          || state.startsWith("40")
+          || state.equals(SqlAccessor.UNIQUE_VIOLATION)) {
+        return new RetryableException(e);
+      }
+    }
+    return new DependencyException(e);
+  }
+
+  /**
+   * Creates the statement, converting the ? markers of the shared sql to the indexed markers r2dbc drivers
+   * take. Parameters are still bound by index from zero.
+   *
+   * @param connection to create it on.
+   * @param sql        with ? markers.
+   * @return the statement.
+   */
+  public static Statement statement(final Connection connection,
+                                    final String sql) {
+    final StringBuilder builder = new StringBuilder(sql.length() + 16);
+    int marker = 0;
+    for (char c : sql.toCharArray()) {
+      if (c == '?') {
+        builder.append('$').append(++marker);
+      } else {
+        builder.append(c);
+      }
+    }
+    return connection.createStatement(builder.toString());
+  }
+
+  /**
+   * Executes the statement.
+   *
+   * @param statement to execute.
+   * @return the rows updated.
+   */
+  public static Mono<Long> rowsUpdated(final Statement statement) {
+    return Flux.from(statement.execute())
+        .flatMap(Result::getRowsUpdated)
+        .reduce(0L, Long::sum);
+  }
+
+  /**
+   * Runs the work in a transaction, committing if it completes and rolling back if it fails. Retried as a whole.
+   *
+   * @param name for the metrics.
+   * @param work to run, which must emit a value.
+   * @param <T>  type.
+   * @return the result of the work.
+   */
+  public <T> Mono<T> transaction(final String name,
+                                 final Function<Connection, Mono<T>> work) {
+    return retried(timed(name, Mono.usingWhen(connectionFactory.create(),
+        connection -> Mono.from(connection.beginTransaction()).then(work.apply(connection)),
+        connection -> closeAfter(connection, Mono.defer(() -> Mono.from(connection.commitTransaction()))),
+        (connection, error) -> closeAfter(connection, Mono.defer(() -> Mono.from(connection.rollbackTransaction()))),
+        connection -> closeAfter(connection, Mono.defer(() -> Mono.from(connection.rollbackTransaction()))))));
+  }
+
+  /**
+   * Runs a read on one connection, outside of a transaction. Retried as a whole.
+   *
+   * @param name for the metrics.
+   * @param work to run.
+   * @param <T>  type.
+   * @return the result of the work.
+   */
+  public <T> Mono<T> read(final String name,
+                          final Function<Connection, Mono<T>> work) {
+    return retried(timed(name, Mono.usingWhen(connectionFactory.create(), work, Connection::close)));
+  }
+
+  /**
+   * Streams rows on one connection, outside of a transaction. Not retried, rows may have been emitted already.
+   *
+   * @param name for the metrics.
+   * @param work to run.
+   * @param <T>  type.
+   * @return the rows.
+   */
+  public <T> Flux<T> stream(final String name,
+                            final Function<Connection, Flux<T>> work) {
+    return Flux.defer(() -> {
+      final Timer timer = metrics.registry().timer(PREFIX + name);
+      final long start = System.nanoTime();
+      return Flux.usingWhen(connectionFactory.create(), work, Connection::close)
+          .onErrorMap(R2dbcAccessor::map)
+          .doFinally(signal -> timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+    });
+  }
+
+  private static Mono<Void> closeAfter(final Connection connection,
+                                       final Mono<Void> action) {
+    return action
+        .onErrorResume(e -> Mono.from(connection.close()).then(Mono.error(e)))
+        .then(Mono.defer(() -> Mono.from(connection.close())));
+  }
+
+  private <T> Mono<T> timed(final String name,
+                            final Mono<T> mono) {
+    return Mono.defer(() -> {
+      final Timer timer = metrics.registry().timer(PREFIX + name);
+      final long start = System.nanoTime();
+      return mono
+          .onErrorMap(R2dbcAccessor::map)
+          .doFinally(signal -> timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+    });
+  }
+
+  private <T> Mono<T> retried(final Mono<T> mono) {
+    return mono.retryWhen(Retry.backoff(MAX_ATTEMPTS - 1, Duration.ofMillis(100))
+        .filter(RetryableException.class::isInstance)
+        .onRetryExhaustedThrow((spec, signal) -> signal.failure()));
+  }
+
+}
@@ -0,0 +1,144 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.server.dao.sql.accessor;
+
+import com.codeheadsystems.keystore.server.dao.sql.dagger.SqlModule;
+import com.codeheadsystems.keystore.server.exception.DependencyException;
+import com.codeheadsystems.keystore.server.exception.RetryableException;
+import com.codeheadsystems.metrics.Metrics;
+import io.github.resilience4j.retry.Retry;
+import io.micrometer.core.instrument.Timer;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import javax.sql.DataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Provides a wrapper to the connection pool. It only exists to manage transactions, retries and metrics. Each
+ * call is one transaction on one pooled connection, retried as a whole.
+ */
+@Singleton
+public class SqlAccessor {
+
+  /**
+   * The constant PREFIX.
+   */
+  public static final String PREFIX = "sqlAccessor.";
+  /**
+   * The constant UNIQUE_VIOLATION, the sql state of a duplicate primary key.
+   */
+  public static final String UNIQUE_VIOLATION = "23505";
+  private static final Logger LOGGER = LoggerFactory.getLogger(SqlAccessor.class);
+
+  private final DataSource dataSource;
+  private final Metrics metrics;
+  private final Retry retry;
+
+  /**
+   * Default constructor.
+   *
+   * @param dataSource the connection pool.
+   * @param metrics    for reporting.
+   * @param retry      retry policy.
+   */
+  @Inject
+  public SqlAccessor(final DataSource dataSource,
+                     final Metrics metrics,
+                     @Named(SqlModule.SQL_RETRY) final Retry retry) {
+    LOGGER.info("SqlAccessor({},{},{})", dataSource, metrics, retry);
+    this.dataSource = dataSource;
+    this.metrics = metrics;
+    this.retry = retry;
+  }
+
+  /**
+   * Converts the exception. Lost connections, serialization failures, deadlocks and duplicate keys (two writers
+   * storing the same new row) can all succeed when the transaction is tried again.
+   *
+   * @param e the exception.
+   * @return the converted exception.
+   */
+  public static RuntimeException map(final SQLException e) {
+    final String state = e.getSQLState() == null ? "" : e.getSQLState();
+    if (e instanceof SQLTransientException
+        || e instanceof SQLRecoverableException
+        || state.startsWith("08")
+        || state.startsWith("40")
+        || state.equals(UNIQUE_VIOLATION)) {
+      return new RetryableException(e);
+    }
+    return new DependencyException(e);
+  }
+
+  /**
+   * Runs the work in a transaction, committing if it returns and rolling back if it throws.
+   *
+   * @param name for the metrics.
+   * @param work to run.
+   * @param <T>  type.
+   * @return the result of the work.
+   */
+  public <T> T transaction(final String name,
+                           final Work<T> work) {
+    return Retry.decorateSupplier(retry, () -> call(name, work)).get();
+  }
+
+  private <T> T call(final String name,
+                     final Work<T> work) {
+    final String metricName = PREFIX + name;
+    final Timer timer = metrics.registry().timer(metricName);
+    return metrics.time(metricName, timer, () -> {
+      try (Connection connection = dataSource.getConnection()) {
+        try {
+          final T result = work.apply(connection);
+          connection.commit();
+          return result;
+        } catch (SQLException | RuntimeException e) {
+          connection.rollback();
+          throw e;
+        }
+      } catch (SQLException e) {
+        throw map(e);
+      }
+    });
+  }
+
+  /**
+   * Work done with a connection. The connection is not in auto commit.
+   *
+   * @param <T> type.
+   */
+  @FunctionalInterface
+  public interface Work<T> {
+
+    /**
+     * Does the work.
+     *
+     * @param connection to use, only during the call.
+     * @return the result.
+     * @throws SQLException if the database fails.
+     */
+    T apply(Connection connection) throws SQLException;
+  }
+
+}
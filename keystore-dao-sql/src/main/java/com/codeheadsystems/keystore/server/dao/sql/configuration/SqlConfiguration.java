@@ -0,0 +1,150 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.server.dao.sql.configuration;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import java.util.Optional;
+import org.immutables.value.Value;
+
+/**
+ * The configuration of the sql datastore and its connection pool.
+ */
+@Value.Immutable
+@JsonSerialize(as = ImmutableSqlConfiguration.class)
+@JsonDeserialize(builder = ImmutableSqlConfiguration.Builder.class)
+@JsonIgnoreProperties(ignoreUnknown = true)
+public interface SqlConfiguration {
+
+  /**
+   * The jdbc url of the database.
+   *
+   * @return the url.
+   */
+  @JsonProperty("jdbcUrl")
+  String jdbcUrl();
+
+  /**
+   * The r2dbc url of the same database, only needed by the reactive dao.
+   *
+   * @return the url.
+   */
+  @JsonProperty("r2dbcUrl")
+  Optional<String> r2dbcUrl();
+
+  /**
+   * Username string.
+   *
+   * @return the string
+   */
+  @Value.Default
+  @JsonProperty("username")
+  default String username() {
+    return "";
+  }
+
+  /**
+   * Password string.
+   *
+   * @return the string
+   */
+  @Value.Default
+  @JsonProperty("password")
+  default String password() {
+    return "";
+  }
+
+  /**
+   * The most connections the pool opens.
+   *
+   * @return the pool size.
+   */
+  @Value.Default
+  @JsonProperty("maximumPoolSize")
+  default int maximumPoolSize() {
+    return 10;
+  }
+
+  /**
+   * How long to wait for a connection from the pool before failing.
+   *
+   * @return in milliseconds.
+   */
+  @Value.Default
+  @JsonProperty("connectionTimeoutMillis")
+  default long connectionTimeoutMillis() {
+    return 5000;
+  }
+
+  /**
+   * The most rows in one multi-row statement. Larger writes and reads are split into statements of this size.
+   *
+   * @return the rows.
+   */
+  @Value.Default
+  @JsonProperty("batchSize")
+  default int batchSize() {
+    return 50;
+  }
+
+  /**
+   * The most results in one page of a list call.
+   *
+   * @return the page size.
+   */
+  @Value.Default
+  @JsonProperty("pageSize")
+  default int pageSize() {
+    return 100;
+  }
+
+  /**
+   * Owners table string.
+   *
+   * @return the string
+   */
+  @Value.Default
+  @JsonProperty("ownersTable")
+  default String ownersTable() {
+    return "keystore_owners";
+  }
+
+  /**
+   * Keys table string.
+   *
+   * @return the string
+   */
+  @Value.Default
+  @JsonProperty("keysTable")
+  default String keysTable() {
+    return "keystore_keys";
+  }
+
+  /**
+   * The table of the next version counter of each key.
+   *
+   * @return the string
+   */
+  @Value.Default
+  @JsonProperty("versionsTable")
+  default String versionsTable() {
+    return "keystore_versions";
+  }
+
+}
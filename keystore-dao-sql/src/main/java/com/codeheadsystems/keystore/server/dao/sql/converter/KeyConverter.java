@@ -0,0 +1,170 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.server.dao.sql.converter;
+
+import com.codeheadsystems.keystore.common.helper.DataHelper;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableKey;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableKeyVersionIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableToken;
+import com.codeheadsystems.keystore.server.dao.model.Key;
+import com.codeheadsystems.keystore.server.dao.model.KeyIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.KeyVersionIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.Token;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Date;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Converts keys to and from rows. Every bind method starts at the given parameter index and returns the index
+ * after the last one it set, so multi-row statements can be bound in a loop.
+ */
+@Singleton
+public class KeyConverter {
+
+  /**
+   * The constant COLUMNS, in the order they are bound and read.
+   */
+  public static final String COLUMNS =
+      "owner, key_name, version, key_value, aux, active, key_type, create_date, update_date";
+  /**
+   * The constant COLUMN_COUNT.
+   */
+  public static final int COLUMN_COUNT = 9;
+
+  private final DataHelper dataHelper;
+
+  /**
+   * Default constructor.
+   *
+   * @param dataHelper for the tokens.
+   */
+  @Inject
+  public KeyConverter(final DataHelper dataHelper) {
+    this.dataHelper = dataHelper;
+  }
+
+  /**
+   * Binds every column of the key.
+   *
+   * @param statement to bind.
+   * @param index     of the first parameter.
+   * @param key       to bind.
+   * @return the next index.
+   * @throws SQLException if the statement fails.
+   */
+  public int bind(final PreparedStatement statement,
+                  final int index,
+                  final Key key) throws SQLException {
+    int i = bind(statement, index, key.keyVersionIdentifier());
+    statement.setBytes(i++, key.value());
+    statement.setBytes(i++, key.aux());
+    statement.setBoolean(i++, key.active());
+    statement.setString(i++, key.type());
+    statement.setLong(i++, key.createDate().getTime());
+    if (key.updateDate().isPresent()) {
+      statement.setLong(i++, key.updateDate().get().getTime());
+    } else {
+      statement.setNull(i++, Types.BIGINT);
+    }
+    return i;
+  }
+
+  /**
+   * Binds the owner, key name and version.
+   *
+   * @param statement  to bind.
+   * @param index      of the first parameter.
+   * @param identifier to bind.
+   * @return the next index.
+   * @throws SQLException if the statement fails.
+   */
+  public int bind(final PreparedStatement statement,
+                  final int index,
+                  final KeyVersionIdentifier identifier) throws SQLException {
+    final int i = bind(statement, index, (KeyIdentifier) identifier);
+    statement.setLong(i, identifier.version());
+    return i + 1;
+  }
+
+  /**
+   * Binds the owner and key name.
+   *
+   * @param statement  to bind.
+   * @param index      of the first parameter.
+   * @param identifier to bind.
+   * @return the next index.
+   * @throws SQLException if the statement fails.
+   */
+  public int bind(final PreparedStatement statement,
+                  final int index,
+                  final KeyIdentifier identifier) throws SQLException {
+    statement.setString(index, identifier.owner());
+    statement.setString(index + 1, identifier.key());
+    return index + 2;
+  }
+
+  /**
+   * Reads the key from the current row, selected with the COLUMNS.
+   *
+   * @param resultSet on the row.
+   * @return the key.
+   * @throws SQLException if the result set fails.
+   */
+  public Key toKey(final ResultSet resultSet) throws SQLException {
+    final ImmutableKey.Builder builder = ImmutableKey.builder()
+        .keyVersionIdentifier(ImmutableKeyVersionIdentifier.builder()
+            .owner(resultSet.getString("owner"))
+            .key(resultSet.getString("key_name"))
+            .version(resultSet.getLong("version"))
+            .build())
+        .value(resultSet.getBytes("key_value"))
+        .aux(resultSet.getBytes("aux"))
+        .active(resultSet.getBoolean("active"))
+        .type(resultSet.getString("key_type"))
+        .createDate(new Date(resultSet.getLong("create_date")));
+    final long updateDate = resultSet.getLong("update_date");
+    if (!resultSet.wasNull()) {
+      builder.updateDate(new Date(updateDate));
+    }
+    return builder.build();
+  }
+
+  /**
+   * Converts the last value of a page to a token. Pages are keyset based: the next page starts after it.
+   *
+   * @param cursor the last value returned.
+   * @return the token.
+   */
+  public Token toToken(final String cursor) {
+    return ImmutableToken.builder().value(dataHelper.toBase64(cursor)).build();
+  }
+
+  /**
+   * Converts a token back to the last value of the previous page.
+   *
+   * @param token from a previous page.
+   * @return the cursor.
+   */
+  public String fromToken(final Token token) {
+    return dataHelper.toStringFromBase64(token.value());
+  }
+
+}
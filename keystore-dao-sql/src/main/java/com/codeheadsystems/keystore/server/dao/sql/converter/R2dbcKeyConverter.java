@@ -0,0 +1,126 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.server.dao.sql.converter;
+
+import com.codeheadsystems.keystore.server.dao.model.ImmutableKey;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableKeyVersionIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.Key;
+import com.codeheadsystems.keystore.server.dao.model.KeyIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.KeyVersionIdentifier;
+import io.r2dbc.spi.Row;
+import io.r2dbc.spi.Statement;
+import java.util.Date;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Converts keys to and from r2dbc rows, with the columns of the jdbc key converter. Every bind method starts at
+ * the given parameter index, from zero, and returns the index after the last one it set.
+ */
+@Singleton
+public class R2dbcKeyConverter {
+
+  /**
+   * Default constructor.
+   */
+  @Inject
+  public R2dbcKeyConverter() {
+  }
+
+  /**
+   * Binds every column of the key.
+   *
+   * @param statement to bind.
+   * @param index     of the first parameter.
+   * @param key       to bind.
+   * @return the next index.
+   */
+  public int bind(final Statement statement,
+                  final int index,
+                  final Key key) {
+    int i = bind(statement, index, key.keyVersionIdentifier());
+    statement.bind(i++, key.value());
+    statement.bind(i++, key.aux());
+    statement.bind(i++, key.active());
+    statement.bind(i++, key.type());
+    statement.bind(i++, key.createDate().getTime());
+    if (key.updateDate().isPresent()) {
+      statement.bind(i++, key.updateDate().get().getTime());
+    } else {
+      statement.bindNull(i++, Long.class);
+    }
+    return i;
+  }
+
+  /**
+   * Binds the owner, key name and version.
+   *
+   * @param statement  to bind.
+   * @param index      of the first parameter.
+   * @param identifier to bind.
+   * @return the next index.
+   */
+  public int bind(final Statement statement,
+                  final int index,
+                  final KeyVersionIdentifier identifier) {
+    final int i = bind(statement, index, (KeyIdentifier) identifier);
+    statement.bind(i, identifier.version());
+    return i + 1;
+  }
+
+  /**
+   * Binds the owner and key name.
+   *
+   * @param statement  to bind.
+   * @param index      of the first parameter.
+   * @param identifier to bind.
+   * @return the next index.
+   */
+  public int bind(final Statement statement,
+                  final int index,
+                  final KeyIdentifier identifier) {
+    statement.bind(index, identifier.owner());
+    statement.bind(index + 1, identifier.key());
+    return index + 2;
+  }
+
+  /**
+   * Reads the key from the row, selected with the COLUMNS of the key converter.
+   *
+   * @param row to read.
+   * @return the key.
+   */
+  public Key toKey(final Row row) {
+    final ImmutableKey.Builder builder = ImmutableKey.builder()
+        .keyVersionIdentifier(ImmutableKeyVersionIdentifier.builder()
+            .owner(row.get("owner", String.class))
+            .key(row.get("key_name", String.class))
+            .version(row.get("version", Long.class))
+            .build())
+        .value(row.get("key_value", byte[].class))
+        .aux(row.get("aux", byte[].class))
+        .active(row.get("active", Boolean.class))
+        .type(row.get("key_type", String.class))
+        .createDate(new Date(row.get("create_date", Long.class)));
+    final Long updateDate = row.get("update_date", Long.class);
+    if (updateDate != null) {
+      builder.updateDate(new Date(updateDate));
+    }
+    return builder.build();
+  }
+
+}
@@ -0,0 +1,63 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.server.dao.sql.dagger;
+
+import com.codeheadsystems.keystore.server.dao.sql.configuration.SqlConfiguration;
+import dagger.Module;
+import dagger.Provides;
+import io.r2dbc.pool.ConnectionPool;
+import io.r2dbc.pool.ConnectionPoolConfiguration;
+import io.r2dbc.spi.ConnectionFactories;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.ConnectionFactoryOptions;
+import java.time.Duration;
+import javax.inject.Singleton;
+
+/**
+ * Provides the pooled r2dbc connection factory for the reactive dao. Use it with the sql module, which provides
+ * the configuration; the r2dbc url must be set.
+ */
+@Module
+public class R2dbcModule {
+
+  /**
+   * The connection pool, sized like the jdbc pool.
+   *
+   * @param configuration for the database.
+   * @return the connection factory.
+   */
+  @Provides
+  @Singleton
+  public ConnectionFactory connectionFactory(final SqlConfiguration configuration) {
+    final String url = configuration.r2dbcUrl()
+        .orElseThrow(() -> new IllegalStateException("The reactive dao needs the r2dbcUrl"));
+    final ConnectionFactoryOptions.Builder options = ConnectionFactoryOptions.parse(url).mutate();
+    if (!configuration.username().isEmpty()) {
+      options.option(ConnectionFactoryOptions.USER, configuration.username());
+    }
+    if (!configuration.password().isEmpty()) {
+      options.option(ConnectionFactoryOptions.PASSWORD, configuration.password());
+    }
+    return new ConnectionPool(ConnectionPoolConfiguration.builder(ConnectionFactories.get(options.build()))
+        .name(SqlModule.POOL_NAME + "-r2dbc")
+        .initialSize(1)
+        .maxSize(configuration.maximumPoolSize())
+        .maxAcquireTime(Duration.ofMillis(configuration.connectionTimeoutMillis()))
+        .build());
+  }
+
+}
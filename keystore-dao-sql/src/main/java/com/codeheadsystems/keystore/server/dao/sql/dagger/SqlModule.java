@@ -0,0 +1,140 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.server.dao.sql.dagger;
+
+import com.codeheadsystems.keystore.server.dao.KeyDao;
+import com.codeheadsystems.keystore.server.dao.SqlKeyDAO;
+import com.codeheadsystems.keystore.server.dao.sql.configuration.SqlConfiguration;
+import com.codeheadsystems.keystore.server.exception.RetryableException;
+import com.codeheadsystems.metrics.Metrics;
+import com.codeheadsystems.metrics.dagger.MetricsModule;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import dagger.Binds;
+import dagger.Module;
+import dagger.Provides;
+import io.github.resilience4j.core.IntervalFunction;
+import io.github.resilience4j.micrometer.tagged.TaggedRetryMetrics;
+import io.github.resilience4j.retry.Retry;
+import io.github.resilience4j.retry.RetryConfig;
+import io.github.resilience4j.retry.RetryRegistry;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import javax.sql.DataSource;
+
+/**
+ * Builds out the sql module.
+ */
+@Module(includes = {
+    SqlModule.Binder.class,
+    MetricsModule.class
+})
+public class SqlModule {
+
+  /**
+   * The constant SQL_RETRY.
+   */
+  public static final String SQL_RETRY = "SQL_RETRY";
+  /**
+   * The constant POOL_NAME, the pool metrics are reported under it.
+   */
+  public static final String POOL_NAME = "keystore-sql";
+
+  private final SqlConfiguration sqlConfiguration;
+
+  /**
+   * Uses the given configuration.
+   *
+   * @param sqlConfiguration configuration.
+   */
+  public SqlModule(final SqlConfiguration sqlConfiguration) {
+    this.sqlConfiguration = sqlConfiguration;
+  }
+
+  /**
+   * Sql configuration.
+   *
+   * @return the sql configuration
+   */
+  @Provides
+  @Singleton
+  public SqlConfiguration sqlConfiguration() {
+    return sqlConfiguration;
+  }
+
+  /**
+   * The connection pool. Connections are not in auto commit, the accessor commits every transaction.
+   *
+   * @param configuration for the database.
+   * @param metrics       the pool reports to.
+   * @return the data source.
+   */
+  @Provides
+  @Singleton
+  public DataSource dataSource(final SqlConfiguration configuration,
+                               final Metrics metrics) {
+    final HikariConfig config = new HikariConfig();
+    config.setPoolName(POOL_NAME);
+    config.setJdbcUrl(configuration.jdbcUrl());
+    config.setUsername(configuration.username());
+    config.setPassword(configuration.password());
+    config.setMaximumPoolSize(configuration.maximumPoolSize());
+    config.setConnectionTimeout(configuration.connectionTimeoutMillis());
+    config.setAutoCommit(false);
+    config.setMetricRegistry(metrics.registry());
+    return new HikariDataSource(config);
+  }
+
+  /**
+   * Provides a retry policy given the metrics.
+   *
+   * @param metrics object in play.
+   * @return a retry object specific for sql.
+   */
+  @Named(SQL_RETRY)
+  @Provides
+  @Singleton
+  public Retry retry(final Metrics metrics) {
+    final RetryConfig config = RetryConfig.custom()
+        .maxAttempts(3)
+        .retryExceptions(RetryableException.class)
+        .intervalFunction(IntervalFunction.ofExponentialBackoff(100, 2))
+        .failAfterMaxAttempts(true)
+        .build();
+    final RetryRegistry registry = RetryRegistry.of(config);
+    TaggedRetryMetrics.ofRetryRegistry(registry)
+        .bindTo(metrics.registry());
+    return registry.retry(SQL_RETRY);
+  }
+
+  /**
+   * Exposes the sql dao as the DAO to use.
+   */
+  @Module
+  public interface Binder {
+
+    /**
+     * Dao key dao.
+     *
+     * @param dao the dao
+     * @return the key dao
+     */
+    @Binds
+    KeyDao dao(SqlKeyDAO dao);
+
+  }
+}
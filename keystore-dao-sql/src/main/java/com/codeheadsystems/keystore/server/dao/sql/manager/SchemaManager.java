@@ -0,0 +1,113 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.server.dao.sql.manager;
+
+import com.codeheadsystems.keystore.server.dao.sql.accessor.SqlAccessor;
+import com.codeheadsystems.keystore.server.dao.sql.configuration.SqlConfiguration;
+import java.sql.Statement;
+import java.util.List;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates the tables if they are missing. Keys are keyed by (owner, key_name, version), so every list call and
+ * every version lookup is a range of the primary key. The active key index is keyed on the columns the active
+ * lookup filters and sorts on, and carries every other column the lookup selects, so finding the newest active
+ * version reads one index entry and never the table. PostgreSQL carries them with INCLUDE; H2 has no INCLUDE, so
+ * there they trail the key columns. It replaces the earlier active index that only held the key columns.
+ * The versions table holds the last version allocated for each key, the row locked while the next is taken.
+ */
+@Singleton
+public class SchemaManager {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(SchemaManager.class);
+
+  private static final String ACTIVE_KEY = "owner, key_name, active, version";
+  private static final String ACTIVE_INCLUDED = "key_value, aux, key_type, create_date, update_date";
+
+  private final SqlAccessor sqlAccessor;
+  private final SqlConfiguration configuration;
+
+  /**
+   * Default constructor.
+   *
+   * @param sqlAccessor   to run the ddl.
+   * @param configuration for the table names.
+   */
+  @Inject
+  public SchemaManager(final SqlAccessor sqlAccessor,
+                       final SqlConfiguration configuration) {
+    this.sqlAccessor = sqlAccessor;
+    this.configuration = configuration;
+  }
+
+  /**
+   * The ddl, in the order to run it.
+   *
+   * @return the statements.
+   */
+  public List<String> ddl() {
+    final String keys = configuration.keysTable();
+    return List.of(
+        "CREATE TABLE IF NOT EXISTS " + configuration.ownersTable() + " ("
+            + "owner VARCHAR(255) NOT NULL, "
+            + "PRIMARY KEY (owner))",
+        "CREATE TABLE IF NOT EXISTS " + keys + " ("
+            + "owner VARCHAR(255) NOT NULL, "
+            + "key_name VARCHAR(255) NOT NULL, "
+            + "version BIGINT NOT NULL, "
+            + "key_value BYTEA NOT NULL, "
+            + "aux BYTEA NOT NULL, "
+            + "active BOOLEAN NOT NULL, "
+            + "key_type VARCHAR(64) NOT NULL, "
+            + "create_date BIGINT NOT NULL, "
+            + "update_date BIGINT, "
+            + "PRIMARY KEY (owner, key_name, version))",
+        "DROP INDEX IF EXISTS " + keys + "_active",
+        "CREATE INDEX IF NOT EXISTS " + keys + "_active_covering ON " + keys + activeIndexColumns(),
+        "CREATE TABLE IF NOT EXISTS " + configuration.versionsTable() + " ("
+            + "owner VARCHAR(255) NOT NULL, "
+            + "key_name VARCHAR(255) NOT NULL, "
+            + "next_version BIGINT NOT NULL, "
+            + "PRIMARY KEY (owner, key_name))");
+  }
+
+  private String activeIndexColumns() {
+    if (configuration.jdbcUrl().startsWith("jdbc:postgresql:")) {
+      return " (" + ACTIVE_KEY + ") INCLUDE (" + ACTIVE_INCLUDED + ")";
+    }
+    return " (" + ACTIVE_KEY + ", " + ACTIVE_INCLUDED + ")";
+  }
+
+  /**
+   * Creates the tables and indexes that do not exist.
+   */
+  public void createSchema() {
+    LOGGER.info("createSchema({},{})", configuration.ownersTable(), configuration.keysTable());
+    sqlAccessor.transaction("createSchema", connection -> {
+      try (Statement statement = connection.createStatement()) {
+        for (String sql : ddl()) {
+          statement.execute(sql);
+        }
+      }
+      return null;
+    });
+  }
+
+}
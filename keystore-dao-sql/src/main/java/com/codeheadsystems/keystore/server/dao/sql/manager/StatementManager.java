@@ -0,0 +1,214 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.server.dao.sql.manager;
+
+import static com.codeheadsystems.keystore.server.dao.sql.converter.KeyConverter.COLUMNS;
+import static com.codeheadsystems.keystore.server.dao.sql.converter.KeyConverter.COLUMN_COUNT;
+
+import com.codeheadsystems.keystore.server.dao.sql.configuration.SqlConfiguration;
+import java.util.Collections;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * The sql of the dao. Statements that take several rows are built for the row count, which is at most the batch
+ * size. Everything here runs on PostgreSQL and on H2 in PostgreSQL mode.
+ */
+@Singleton
+public class StatementManager {
+
+  private final String owners;
+  private final String keys;
+  private final String versions;
+
+  /**
+   * Default constructor.
+   *
+   * @param configuration for the table names.
+   */
+  @Inject
+  public StatementManager(final SqlConfiguration configuration) {
+    this.owners = configuration.ownersTable();
+    this.keys = configuration.keysTable();
+    this.versions = configuration.versionsTable();
+  }
+
+  private static String rows(final int rows, final int columns) {
+    final String row = "(" + String.join(", ", Collections.nCopies(columns, "?")) + ")";
+    return String.join(", ", Collections.nCopies(rows, row));
+  }
+
+  /**
+   * Adds the owners that do not exist yet.
+   *
+   * @param rows the number of owners.
+   * @return the sql.
+   */
+  public String storeOwners(final int rows) {
+    return "INSERT INTO " + owners + " (owner) VALUES " + rows(rows, 1) + " ON CONFLICT DO NOTHING";
+  }
+
+  /**
+   * Stores the keys in one multi-row insert. Existing versions must be deleted first.
+   *
+   * @param rows the number of keys.
+   * @return the sql.
+   */
+  public String insertKeys(final int rows) {
+    return "INSERT INTO " + keys + " (" + COLUMNS + ") VALUES " + rows(rows, COLUMN_COUNT);
+  }
+
+  /**
+   * Adds the version counter of the key if it does not exist yet.
+   *
+   * @return the sql.
+   */
+  public String seedVersion() {
+    return "INSERT INTO " + versions + " (owner, key_name, next_version) VALUES (?, ?, 0) ON CONFLICT DO NOTHING";
+  }
+
+  /**
+   * Allocates the next version of the key, locking its counter row until the transaction ends. The counter never
+   * goes backwards and always moves past the greatest stored version, so explicitly stored versions are skipped.
+   * Ask for the next_version column back as a generated value, which PostgreSQL runs as UPDATE ... RETURNING.
+   * The owner and key are bound twice: for the greatest stored version, then for the counter row.
+   *
+   * @return the sql.
+   */
+  public String nextVersion() {
+    return "UPDATE " + versions + " SET next_version = GREATEST(next_version, "
+        + "(SELECT COALESCE(MAX(version), 0) FROM " + keys + " WHERE owner = ? AND key_name = ?)) + 1"
+        + " WHERE owner = ? AND key_name = ?";
+  }
+
+  /**
+   * Deletes the version counter of the key.
+   *
+   * @return the sql.
+   */
+  public String deleteKeyVersion() {
+    return "DELETE FROM " + versions + " WHERE owner = ? AND key_name = ?";
+  }
+
+  /**
+   * Deletes the version counters of every key of the owner.
+   *
+   * @return the sql.
+   */
+  public String deleteOwnerVersions() {
+    return "DELETE FROM " + versions + " WHERE owner = ?";
+  }
+
+  /**
+   * Deletes the key versions by primary key.
+   *
+   * @param rows the number of versions.
+   * @return the sql.
+   */
+  public String deleteVersions(final int rows) {
+    return "DELETE FROM " + keys + " WHERE (owner, key_name, version) IN (" + rows(rows, 3) + ")";
+  }
+
+  /**
+   * Loads the key versions by primary key.
+   *
+   * @param rows the number of versions.
+   * @return the sql.
+   */
+  public String loadVersions(final int rows) {
+    return "SELECT " + COLUMNS + " FROM " + keys + " WHERE (owner, key_name, version) IN (" + rows(rows, 3) + ")";
+  }
+
+  /**
+   * Loads the active version with the greatest number, read off the active key index.
+   *
+   * @return the sql.
+   */
+  public String loadActive() {
+    return "SELECT " + COLUMNS + " FROM " + keys
+        + " WHERE owner = ? AND key_name = ? AND active = TRUE ORDER BY version DESC LIMIT 1";
+  }
+
+  /**
+   * Loads the owner.
+   *
+   * @return the sql.
+   */
+  public String loadOwner() {
+    return "SELECT owner FROM " + owners + " WHERE owner = ?";
+  }
+
+  /**
+   * Lists the owners, after the cursor when there is one. The limit is bound last.
+   *
+   * @param after if there is a cursor.
+   * @return the sql.
+   */
+  public String listOwners(final boolean after) {
+    return "SELECT owner FROM " + owners + (after ? " WHERE owner > ?" : "") + " ORDER BY owner LIMIT ?";
+  }
+
+  /**
+   * Lists the key names of the owner, after the cursor when there is one. The limit is bound last.
+   *
+   * @param after if there is a cursor.
+   * @return the sql.
+   */
+  public String listKeys(final boolean after) {
+    return "SELECT DISTINCT key_name FROM " + keys + " WHERE owner = ?" + (after ? " AND key_name > ?" : "")
+        + " ORDER BY key_name LIMIT ?";
+  }
+
+  /**
+   * Lists the versions of the key, after the cursor when there is one. The limit is bound last.
+   *
+   * @param after if there is a cursor.
+   * @return the sql.
+   */
+  public String listVersions(final boolean after) {
+    return "SELECT version FROM " + keys + " WHERE owner = ? AND key_name = ?" + (after ? " AND version > ?" : "")
+        + " ORDER BY version LIMIT ?";
+  }
+
+  /**
+   * Deletes every version of the key.
+   *
+   * @return the sql.
+   */
+  public String deleteKey() {
+    return "DELETE FROM " + keys + " WHERE owner = ? AND key_name = ?";
+  }
+
+  /**
+   * Deletes every key of the owner.
+   *
+   * @return the sql.
+   */
+  public String deleteOwnerKeys() {
+    return "DELETE FROM " + keys + " WHERE owner = ?";
+  }
+
+  /**
+   * Deletes the owner.
+   *
+   * @return the sql.
+   */
+  public String deleteOwner() {
+    return "DELETE FROM " + owners + " WHERE owner = ?";
+  }
+
+}
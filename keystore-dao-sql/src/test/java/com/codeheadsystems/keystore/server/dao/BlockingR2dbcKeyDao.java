@@ -0,0 +1,116 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.server.dao;
+
+import com.codeheadsystems.keystore.server.dao.model.Batch;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableBatch;
+import com.codeheadsystems.keystore.server.dao.model.Key;
+import com.codeheadsystems.keystore.server.dao.model.KeyIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.KeyVersionIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.OwnerIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.Token;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Function;
+
+/**
+ * Joins every call of the reactive dao, so it can run the shared dao suite. Listings come back whole.
+ */
+class BlockingR2dbcKeyDao implements KeyDao {
+
+  private final R2dbcKeyDAO dao;
+
+  BlockingR2dbcKeyDao(final R2dbcKeyDAO dao) {
+    this.dao = dao;
+  }
+
+  @Override
+  public void store(final Key key) {
+    dao.store(key).join();
+  }
+
+  @Override
+  public void storeAll(final Collection<Key> keys) {
+    dao.storeAll(keys).join();
+  }
+
+  @Override
+  public Key storeNextVersion(final KeyIdentifier identifier,
+                              final Function<KeyVersionIdentifier, Key> factory) {
+    return dao.storeNextVersion(identifier, factory).join();
+  }
+
+  @Override
+  public OwnerIdentifier storeOwner(final String owner) {
+    return dao.storeOwner(owner).join();
+  }
+
+  @Override
+  public Optional<Key> load(final KeyVersionIdentifier identifier) {
+    return dao.load(identifier).join();
+  }
+
+  @Override
+  public List<Key> loadAll(final Collection<KeyVersionIdentifier> identifiers) {
+    return dao.loadAll(identifiers).join();
+  }
+
+  @Override
+  public Optional<Key> load(final KeyIdentifier identifier) {
+    return dao.load(identifier).join();
+  }
+
+  @Override
+  public Optional<OwnerIdentifier> loadOwner(final String ownerName) {
+    return dao.loadOwner(ownerName).join();
+  }
+
+  @Override
+  public Batch<OwnerIdentifier> listOwners(final Token nextToken) {
+    return ImmutableBatch.<OwnerIdentifier>builder().list(dao.listOwners().collectList().block()).build();
+  }
+
+  @Override
+  public Batch<KeyIdentifier> listKeys(final OwnerIdentifier identifier,
+                                       final Token nextToken) {
+    return ImmutableBatch.<KeyIdentifier>builder().list(dao.listKeys(identifier).collectList().block()).build();
+  }
+
+  @Override
+  public Batch<KeyVersionIdentifier> listVersions(final KeyIdentifier identifier,
+                                                  final Token nextToken) {
+    return ImmutableBatch.<KeyVersionIdentifier>builder()
+        .list(dao.listVersions(identifier).collectList().block())
+        .build();
+  }
+
+  @Override
+  public boolean delete(final KeyVersionIdentifier identifier) {
+    return dao.delete(identifier).join();
+  }
+
+  @Override
+  public boolean delete(final KeyIdentifier identifier) {
+    return dao.delete(identifier).join();
+  }
+
+  @Override
+  public boolean delete(final OwnerIdentifier identifier) {
+    return dao.delete(identifier).join();
+  }
+}
@@ -0,0 +1,137 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.server.dao;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.codeheadsystems.keystore.server.dao.model.Key;
+import com.codeheadsystems.keystore.server.dao.model.KeyVersionIdentifier;
+import com.codeheadsystems.keystore.server.dao.sql.configuration.ImmutableSqlConfiguration;
+import com.codeheadsystems.keystore.server.dao.sql.configuration.SqlConfiguration;
+import com.codeheadsystems.keystore.server.dao.sql.dagger.SqlModule;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.LongStream;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Runs the dao suite against H2 over r2dbc, with the schema made over jdbc.
+ */
+class R2dbcKeyDAOTest extends KeyDaoTest {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(R2dbcKeyDAOTest.class);
+  private static final String OPTIONS = "MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1";
+  private static final int CONCURRENCY = 8;
+  private static R2dbcKeyDAO r2dbcKeyDao;
+  private static R2dbcKeyDAO pagingR2dbcKeyDao;
+  private static KeyDao jdbcKeyDao;
+  private static ExecutorService executorService;
+
+  @BeforeAll
+  public static void setupDatabase() {
+    final DaoComponent component = component(ImmutableSqlConfiguration.builder()
+        .jdbcUrl("jdbc:h2:mem:keystore_r2dbc;" + OPTIONS)
+        .r2dbcUrl("r2dbc:h2:mem:///keystore_r2dbc?options=" + OPTIONS)
+        .maximumPoolSize(CONCURRENCY)
+        .build());
+    component.schemaManager().createSchema();
+    r2dbcKeyDao = component.r2dbcKeyDao();
+    jdbcKeyDao = component.keyDao();
+    pagingR2dbcKeyDao = component(ImmutableSqlConfiguration.builder()
+        .jdbcUrl("jdbc:h2:mem:keystore_r2dbc;" + OPTIONS)
+        .r2dbcUrl("r2dbc:h2:mem:///keystore_r2dbc?options=" + OPTIONS)
+        .pageSize(2)
+        .build())
+        .r2dbcKeyDao();
+    executorService = Executors.newFixedThreadPool(CONCURRENCY);
+  }
+
+  @AfterAll
+  public static void shutdown() {
+    executorService.shutdownNow();
+  }
+
+  private static DaoComponent component(final SqlConfiguration configuration) {
+    return DaggerDaoComponent.builder()
+        .sqlModule(new SqlModule(configuration))
+        .ourMeterModule(new DaoComponent.OurMeterModule(meterRegistry))
+        .build();
+  }
+
+  @Override
+  protected KeyDao keyDAO() {
+    return new BlockingR2dbcKeyDao(r2dbcKeyDao);
+  }
+
+  @Test
+  public void listVersions_streamsEveryPage() {
+    final List<KeyVersionIdentifier> stored = LongStream.rangeClosed(1, 5)
+        .mapToObj(version -> getAndStoreKey(true, version).keyVersionIdentifier())
+        .toList();
+
+    assertThat(pagingR2dbcKeyDao.listVersions(stored.get(0)).collectList().block())
+        .containsExactlyElementsOf(stored);
+    assertThat(pagingR2dbcKeyDao.listVersions(stored.get(0)).take(3).collectList().block())
+        .containsExactlyElementsOf(stored.subList(0, 3));
+  }
+
+  /**
+   * Stores and loads the same keys with both daos at the same concurrency, and logs the rates.
+   */
+  @Test
+  public void throughput_comparedToJdbc() throws Exception {
+    final List<Key> jdbcKeys = LongStream.rangeClosed(1, 200)
+        .mapToObj(v -> getKey(true, v, owner() + ".jdbc"))
+        .toList();
+    final List<Key> r2dbcKeys = LongStream.rangeClosed(1, 200)
+        .mapToObj(v -> getKey(true, v, owner() + ".r2dbc"))
+        .toList();
+
+    final long jdbcStart = System.nanoTime();
+    final List<Future<?>> futures = jdbcKeys.stream()
+        .<Future<?>>map(key -> executorService.submit(() -> {
+          jdbcKeyDao.store(key);
+          jdbcKeyDao.load(key.keyVersionIdentifier());
+        }))
+        .toList();
+    for (Future<?> future : futures) {
+      future.get();
+    }
+    final long jdbcNanos = System.nanoTime() - jdbcStart;
+
+    final long r2dbcStart = System.nanoTime();
+    Flux.fromIterable(r2dbcKeys)
+        .flatMap(key -> Mono.fromFuture(() -> r2dbcKeyDao.store(key))
+            .then(Mono.fromFuture(() -> r2dbcKeyDao.load(key.keyVersionIdentifier()))), CONCURRENCY)
+        .blockLast();
+    final long r2dbcNanos = System.nanoTime() - r2dbcStart;
+
+    LOGGER.info("throughput: jdbc {} ops/s, r2dbc {} ops/s",
+        2L * jdbcKeys.size() * 1_000_000_000L / jdbcNanos, 2L * r2dbcKeys.size() * 1_000_000_000L / r2dbcNanos);
+    assertThat(jdbcKeyDao.loadAll(r2dbcKeys.stream().map(Key::keyVersionIdentifier).toList()))
+        .containsExactlyInAnyOrderElementsOf(r2dbcKeys);
+  }
+
+}
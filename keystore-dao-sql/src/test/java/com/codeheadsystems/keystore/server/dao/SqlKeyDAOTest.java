@@ -0,0 +1,106 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.server.dao;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.codeheadsystems.keystore.server.dao.model.Batch;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableKey;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableKeyIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableKeyVersionIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableOwnerIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.Key;
+import com.codeheadsystems.keystore.server.dao.model.KeyIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.KeyVersionIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.OwnerIdentifier;
+import com.codeheadsystems.keystore.server.dao.sql.configuration.ImmutableSqlConfiguration;
+import com.codeheadsystems.keystore.server.dao.sql.configuration.SqlConfiguration;
+import com.codeheadsystems.keystore.server.dao.sql.dagger.SqlModule;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.LongStream;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Runs the dao suite against H2 in PostgreSQL mode.
+ */
+class SqlKeyDAOTest extends KeyDaoTest {
+
+  public static final String JDBC_URL =
+      "jdbc:h2:mem:keystore;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1";
+  private static KeyDao keyDao;
+  private static KeyDao pagingKeyDao;
+
+  @BeforeAll
+  public static void setupDatabase() {
+    final DaoComponent component = component(ImmutableSqlConfiguration.builder().jdbcUrl(JDBC_URL).build());
+    component.schemaManager().createSchema();
+    keyDao = component.keyDao();
+    pagingKeyDao = component(ImmutableSqlConfiguration.builder().jdbcUrl(JDBC_URL).pageSize(2).batchSize(3).build())
+        .keyDao();
+  }
+
+  private static DaoComponent component(final SqlConfiguration configuration) {
+    return DaggerDaoComponent.builder()
+        .sqlModule(new SqlModule(configuration))
+        .ourMeterModule(new DaoComponent.OurMeterModule(meterRegistry))
+        .build();
+  }
+
+  @Override
+  protected KeyDao keyDAO() {
+    return keyDao;
+  }
+
+  @Test
+  public void listVersions_pages() {
+    final List<KeyVersionIdentifier> stored = LongStream.rangeClosed(1, 5)
+        .mapToObj(version -> getAndStoreKey(true, version).keyVersionIdentifier())
+        .toList();
+    final List<KeyVersionIdentifier> listed = new ArrayList<>();
+    Batch<KeyVersionIdentifier> batch = pagingKeyDao.listVersions(stored.get(0), null);
+    listed.addAll(batch.list());
+    while (batch.nextToken().isPresent()) {
+      assertThat(batch.list()).hasSize(2);
+      batch = pagingKeyDao.listVersions(stored.get(0), batch.nextToken().get());
+      listed.addAll(batch.list());
+    }
+    assertThat(listed).containsExactlyElementsOf(stored);
+  }
+
+  @Test
+  public void listKeys_pages() {
+    final OwnerIdentifier ownerIdentifier = ImmutableOwnerIdentifier.builder().owner(owner()).build();
+    final List<KeyIdentifier> stored = new ArrayList<>();
+    for (String name : List.of("a", "b", "c")) {
+      final Key key = getKey(true, 1, owner());
+      pagingKeyDao.store(ImmutableKey.copyOf(key).withKeyVersionIdentifier(
+          ImmutableKeyVersionIdentifier.copyOf(key.keyVersionIdentifier()).withKey(name)));
+      stored.add(ImmutableKeyIdentifier.builder().owner(owner()).key(name).build());
+    }
+    final Batch<KeyIdentifier> first = pagingKeyDao.listKeys(ownerIdentifier, null);
+    assertThat(first.list()).hasSize(2);
+    assertThat(first.nextToken()).isPresent();
+    final Batch<KeyIdentifier> second = pagingKeyDao.listKeys(ownerIdentifier, first.nextToken().get());
+    assertThat(second.nextToken()).isEmpty();
+    final List<KeyIdentifier> listed = new ArrayList<>(first.list());
+    listed.addAll(second.list());
+    assertThat(listed).containsExactlyElementsOf(stored);
+  }
+
+}
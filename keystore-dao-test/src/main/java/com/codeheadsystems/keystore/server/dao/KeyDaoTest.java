@@ -28,8 +28,11 @@ import com.codeheadsystems.test.unique.UniqueStringExtension;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.List;
 import java.util.Optional;
 import java.util.Random;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
 import org.assertj.core.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -366,8 +369,7 @@ public abstract class KeyDaoTest extends BaseMetricTest {
   /**
    * Delete all key versions.
    */
-// Disabled because this is really a batch process.
-  //@Test
+  @Test
   public void deleteAllKeyVersions() {
     LOGGER.info("deleteAllKeyVersions -->");
     final Key key1 = getAndStoreKey(false, 1);
@@ -383,7 +385,7 @@ public abstract class KeyDaoTest extends BaseMetricTest {
         .hasSize(3)
         .containsOnly(key1.keyVersionIdentifier(), key2.keyVersionIdentifier(), key3.keyVersionIdentifier());
 
-    dao.delete(identifier);
+    assertThat(dao.delete(identifier)).isTrue();
     Assertions.assertThat(dao.load(key1.keyVersionIdentifier()))
         .isEmpty();
     Assertions.assertThat(dao.load(key2.keyVersionIdentifier()))
@@ -399,9 +401,149 @@ public abstract class KeyDaoTest extends BaseMetricTest {
         .isEmpty();
   }
 
-  private Key getKey(final boolean active,
-                     final long version,
-                     final String owner) {
+  /**
+   * Load all.
+   */
+  @Test
+  public void loadAll() {
+    LOGGER.info("loadAll -->");
+    final Key key1 = getAndStoreKey(false, 1);
+    final Key key2 = getAndStoreKey(true, 2);
+    final Key key3 = getAndStoreKey(true, 3);
+    final KeyVersionIdentifier missing = ImmutableKeyVersionIdentifier.copyOf(key1.keyVersionIdentifier())
+        .withVersion(4L);
+    assertThat(dao.loadAll(List.of(key1.keyVersionIdentifier(), key2.keyVersionIdentifier(),
+        key3.keyVersionIdentifier(), missing, key1.keyVersionIdentifier())))
+        .containsExactlyInAnyOrder(key1, key2, key3);
+    assertThat(dao.loadAll(List.of()))
+        .isEmpty();
+  }
+
+  /**
+   * Store all.
+   */
+  @Test
+  public void storeAll() {
+    LOGGER.info("storeAll -->");
+    // more than one batch, spread over keys so no key has more versions than a string range key sorts right.
+    final List<List<Key>> versionsByKey = IntStream.range(0, 5)
+        .mapToObj(index -> LongStream.rangeClosed(1, 6)
+            .mapToObj(version -> withKeyName(getKey(version < 6, version), "bulk" + index))
+            .toList())
+        .toList();
+    final List<Key> keys = versionsByKey.stream().flatMap(List::stream).toList();
+    dao.storeAll(keys);
+    assertThat(dao.loadAll(keys.stream().map(Key::keyVersionIdentifier).toList()))
+        .containsExactlyInAnyOrderElementsOf(keys);
+    for (List<Key> versions : versionsByKey) {
+      assertThat(dao.load(getKeyIdentifier(versions.get(0))))
+          .contains(versions.get(4));
+    }
+    dao.storeAll(List.of());
+  }
+
+  /**
+   * Delete owner.
+   */
+  @Test
+  public void deleteOwner() {
+    LOGGER.info("deleteOwner -->");
+    final OwnerIdentifier ownerIdentifier = dao.storeOwner(owner());
+    final Key key1 = getAndStoreKey(true, 1);
+    final Key key2 = getAndStoreKey(true, 2);
+    final Key other = ImmutableKey.copyOf(getKey(true, 1))
+        .withKeyVersionIdentifier(ImmutableKeyVersionIdentifier.copyOf(key1.keyVersionIdentifier()).withKey("other"));
+    dao.store(other);
+    assertThat(dao.listKeys(ownerIdentifier, null).list())
+        .hasSize(2);
+
+    assertThat(dao.delete(ownerIdentifier)).isTrue();
+    assertThat(dao.load(key1.keyVersionIdentifier())).isEmpty();
+    assertThat(dao.load(key2.keyVersionIdentifier())).isEmpty();
+    assertThat(dao.load(other.keyVersionIdentifier())).isEmpty();
+    assertThat(dao.loadOwner(owner())).isEmpty();
+    assertThat(dao.listKeys(ownerIdentifier, null).list()).isEmpty();
+    assertThat(dao.delete(ownerIdentifier)).isFalse();
+  }
+
+  /**
+   * Store next version.
+   */
+  @Test
+  public void storeNextVersion() {
+    LOGGER.info("storeNextVersion -->");
+    final KeyIdentifier identifier = getKeyIdentifier(getKey());
+    final Key key1 = dao.storeNextVersion(identifier, id -> ImmutableKey.copyOf(getKey(true, 0))
+        .withKeyVersionIdentifier(id));
+    final Key key2 = dao.storeNextVersion(identifier, id -> ImmutableKey.copyOf(getKey(true, 0))
+        .withKeyVersionIdentifier(id));
+    assertThat(key1.keyVersionIdentifier().version()).isEqualTo(1L);
+    assertThat(key2.keyVersionIdentifier().version()).isEqualTo(2L);
+    assertThat(dao.load(key1.keyVersionIdentifier())).contains(key1);
+    assertThat(dao.load(key2.keyVersionIdentifier())).contains(key2);
+    assertQueryReturnsKey(key2);
+  }
+
+  /**
+   * Store next version after explicitly stored versions.
+   */
+  @Test
+  public void storeNextVersion_afterStore() {
+    LOGGER.info("storeNextVersion_afterStore -->");
+    final Key stored = getAndStoreKey(true, 5);
+    final Key next = dao.storeNextVersion(getKeyIdentifier(stored), id -> ImmutableKey.copyOf(getKey(false, 0))
+        .withKeyVersionIdentifier(id));
+    assertThat(next.keyVersionIdentifier().version()).isGreaterThan(5L);
+    assertThat(dao.load(next.keyVersionIdentifier())).contains(next);
+    assertQueryReturnsKey(stored);
+  }
+
+  /**
+   * Store next version after the counter exists, past a version stored explicitly since.
+   */
+  @Test
+  public void storeNextVersion_pastExplicitVersions() {
+    LOGGER.info("storeNextVersion_pastExplicitVersions -->");
+    final Key first = getKey(true, 0);
+    final KeyIdentifier identifier = getKeyIdentifier(first);
+    final Key allocated = dao.storeNextVersion(identifier, id -> ImmutableKey.copyOf(first)
+        .withKeyVersionIdentifier(id));
+    final Key stored = getAndStoreKey(true, allocated.keyVersionIdentifier().version() + 5);
+    final Key next = dao.storeNextVersion(identifier, id -> ImmutableKey.copyOf(getKey(true, 0))
+        .withKeyVersionIdentifier(id));
+    assertThat(next.keyVersionIdentifier().version()).isGreaterThan(stored.keyVersionIdentifier().version());
+    assertThat(dao.load(identifier)).contains(next);
+  }
+
+  /**
+   * Stream the listings.
+   */
+  @Test
+  public void streams() {
+    LOGGER.info("streams -->");
+    final OwnerIdentifier ownerIdentifier = dao.storeOwner(owner());
+    final List<Key> keys = LongStream.rangeClosed(1, 5)
+        .mapToObj(version -> getAndStoreKey(version == 5, version))
+        .toList();
+    assertThat(dao.streamVersions(getKeyIdentifier(keys.get(0))))
+        .containsExactlyInAnyOrderElementsOf(keys.stream().map(Key::keyVersionIdentifier).toList());
+    assertThat(dao.streamKeys(ownerIdentifier))
+        .containsExactly(getKeyIdentifier(keys.get(0)));
+    assertThat(dao.streamOwners())
+        .contains(ownerIdentifier);
+  }
+
+  /**
+   * Gets a new key, without storing it.
+   *
+   * @param active  the active
+   * @param version the version
+   * @param owner   the owner
+   * @return the key
+   */
+  protected Key getKey(final boolean active,
+                       final long version,
+                       final String owner) {
     final InputStream stream = KeyDaoTest.class.getClassLoader().getResourceAsStream("fixture/Key.json");
     try {
       final Key key = mapper.readValue(stream, Key.class);
@@ -465,6 +607,11 @@ public abstract class KeyDaoTest extends BaseMetricTest {
     return key;
   }
 
+  private Key withKeyName(final Key key, final String name) {
+    return ImmutableKey.copyOf(key)
+        .withKeyVersionIdentifier(ImmutableKeyVersionIdentifier.copyOf(key.keyVersionIdentifier()).withKey(name));
+  }
+
   private KeyIdentifier getKeyIdentifier(final Key key) {
     final KeyIdentifier keyIdentifier = ImmutableKeyIdentifier.builder()
         .owner(key.keyVersionIdentifier().owner())
@@ -0,0 +1,129 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.server.dao;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.codeheadsystems.keystore.server.dao.workload.Distribution;
+import com.codeheadsystems.keystore.server.dao.workload.ImmutableWorkloadConfiguration;
+import com.codeheadsystems.keystore.server.dao.workload.OperationReport;
+import com.codeheadsystems.keystore.server.dao.workload.WorkloadConfiguration;
+import com.codeheadsystems.keystore.server.dao.workload.WorkloadReport;
+import com.codeheadsystems.keystore.server.dao.workload.WorkloadRunner;
+import com.codeheadsystems.metrics.test.BaseMetricTest;
+import com.codeheadsystems.test.unique.UniqueString;
+import com.codeheadsystems.test.unique.UniqueStringExtension;
+import java.io.IOException;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs small workloads against a dao and writes their reports to build/workload, one json file per run. The runs
+ * are kept short so they fit in the build; use the workload runner directly for real measurements.
+ */
+@ExtendWith(UniqueStringExtension.class)
+public abstract class KeyDaoWorkloadTest extends BaseMetricTest {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(KeyDaoWorkloadTest.class);
+
+  /**
+   * The Name, which keeps the owners of each run apart.
+   */
+  @UniqueString(prefix = "workload", separator = ".")
+  protected String name;
+
+  /**
+   * Key dao key dao.
+   *
+   * @return the key dao
+   */
+  protected abstract KeyDao keyDAO();
+
+  /**
+   * The workload the runs start from.
+   *
+   * @return the configuration.
+   */
+  protected WorkloadConfiguration configuration() {
+    return ImmutableWorkloadConfiguration.builder()
+        .name(name)
+        .owners(5)
+        .keysPerOwner(10)
+        .versionsPerKey(3)
+        .threads(4)
+        .operations(2_000)
+        .build();
+  }
+
+  /**
+   * Where the reports go.
+   *
+   * @return the directory.
+   */
+  protected Path reportDirectory() {
+    return Path.of("build", "workload");
+  }
+
+  /**
+   * Closed loop runs, one per distribution.
+   *
+   * @param distribution to choose keys with.
+   * @throws IOException if the report cannot be written.
+   */
+  @ParameterizedTest
+  @EnumSource(Distribution.class)
+  public void closedLoop(final Distribution distribution) throws IOException {
+    LOGGER.info("closedLoop({}) -->", distribution);
+    run("closed-" + distribution.name().toLowerCase(),
+        ImmutableWorkloadConfiguration.copyOf(configuration()).withDistribution(distribution));
+  }
+
+  /**
+   * An open loop run.
+   *
+   * @throws IOException if the report cannot be written.
+   */
+  @Test
+  public void openLoop() throws IOException {
+    LOGGER.info("openLoop -->");
+    run("open", ImmutableWorkloadConfiguration.copyOf(configuration())
+        .withArrivalRate(1_000.0)
+        .withOperations(1_000));
+  }
+
+  private void run(final String label,
+                   final WorkloadConfiguration configuration) throws IOException {
+    final WorkloadRunner runner = new WorkloadRunner(keyDAO(), configuration);
+    runner.load();
+    final WorkloadReport report = runner.run();
+    runner.write(report, reportDirectory().resolve(getClass().getSimpleName() + "-" + label + ".json"));
+
+    assertThat(report.operations().values().stream()
+        .mapToLong(operation -> operation.count() + operation.errors())
+        .sum())
+        .isEqualTo(configuration.operations());
+    assertThat(report.operations().values())
+        .extracting(OperationReport::count)
+        .allMatch(count -> count > 0);
+  }
+
+}
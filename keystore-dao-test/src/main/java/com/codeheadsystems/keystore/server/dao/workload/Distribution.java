@@ -0,0 +1,37 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.server.dao.workload;
+
+/**
+ * How the keys of a workload are chosen.
+ */
+public enum Distribution {
+
+  /**
+   * Every key is as likely.
+   */
+  UNIFORM,
+  /**
+   * A few keys get most of the operations, scattered over the owners.
+   */
+  ZIPFIAN,
+  /**
+   * A fixed fraction of the keys gets a fixed fraction of the operations.
+   */
+  HOTSPOT
+
+}
@@ -0,0 +1,106 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.server.dao.workload;
+
+import java.util.Random;
+
+/**
+ * Chooses the index of the next key out of the data set, following the distribution of the workload. The zipfian
+ * distribution is the one of Gray et al, Quickly Generating Billion-Record Synthetic Databases, as YCSB uses it,
+ * with the ranks scattered so the hot keys are not all under the first owner.
+ */
+public class KeyChooser {
+
+  private static final long SCRAMBLE = 2_147_483_647L; // prime, so a bijection for any smaller item count.
+
+  private final Distribution distribution;
+  private final int items;
+  private final int hotItems;
+  private final double hotspotOperationFraction;
+  private final double theta;
+  private final double zetan;
+  private final double alpha;
+  private final double eta;
+  private final double half;
+
+  /**
+   * Default constructor.
+   *
+   * @param configuration of the workload.
+   * @param items         to choose from.
+   */
+  public KeyChooser(final WorkloadConfiguration configuration,
+                    final int items) {
+    if (items < 1) {
+      throw new IllegalArgumentException("There must be keys to choose: " + items);
+    }
+    this.distribution = configuration.distribution();
+    this.items = items;
+    this.hotItems = Math.max(1, Math.min(items, (int) (items * configuration.hotspotDataFraction())));
+    this.hotspotOperationFraction = configuration.hotspotOperationFraction();
+    this.theta = configuration.zipfianConstant();
+    this.zetan = zeta(items, theta);
+    this.alpha = 1.0 / (1.0 - theta);
+    this.eta = (1 - Math.pow(2.0 / items, 1 - theta)) / (1 - zeta(2, theta) / zetan);
+    this.half = Math.pow(0.5, theta);
+  }
+
+  private static double zeta(final long n, final double theta) {
+    double sum = 0;
+    for (long i = 1; i <= n; i++) {
+      sum += 1 / Math.pow(i, theta);
+    }
+    return sum;
+  }
+
+  /**
+   * The next key.
+   *
+   * @param random to choose with.
+   * @return from 0 to the items, exclusive.
+   */
+  public int next(final Random random) {
+    return switch (distribution) {
+      case UNIFORM -> random.nextInt(items);
+      case HOTSPOT -> hotspot(random);
+      case ZIPFIAN -> (int) (zipfian(random) * SCRAMBLE % items);
+    };
+  }
+
+  private int hotspot(final Random random) {
+    if (hotItems == items || random.nextDouble() < hotspotOperationFraction) {
+      return random.nextInt(hotItems);
+    }
+    return hotItems + random.nextInt(items - hotItems);
+  }
+
+  private long zipfian(final Random random) {
+    if (items == 1) {
+      return 0;
+    }
+    final double u = random.nextDouble();
+    final double uz = u * zetan;
+    if (uz < 1.0) {
+      return 0;
+    }
+    if (uz < 1.0 + half) {
+      return 1;
+    }
+    return Math.min(items - 1, (long) (items * Math.pow(eta * u - eta + 1, alpha)));
+  }
+
+}
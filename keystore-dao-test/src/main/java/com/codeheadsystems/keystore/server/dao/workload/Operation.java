@@ -0,0 +1,45 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.server.dao.workload;
+
+/**
+ * The operations a workload mixes.
+ */
+public enum Operation {
+
+  /**
+   * Loads the active version of a key.
+   */
+  READ_LATEST,
+  /**
+   * Loads one version of a key.
+   */
+  READ_VERSION,
+  /**
+   * Stores one version of a key, replacing it if it is there.
+   */
+  STORE,
+  /**
+   * Lists the first page of the versions of a key.
+   */
+  LIST,
+  /**
+   * Deletes one version of a key. A later store of that version puts it back.
+   */
+  DELETE
+
+}
@@ -0,0 +1,106 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.server.dao.workload;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import org.immutables.value.Value;
+
+/**
+ * The results of one operation of a workload. Latencies are of the successful operations.
+ */
+@Value.Immutable
+@JsonSerialize(as = ImmutableOperationReport.class)
+@JsonDeserialize(builder = ImmutableOperationReport.Builder.class)
+@JsonIgnoreProperties(ignoreUnknown = true)
+public interface OperationReport {
+
+  /**
+   * The successful operations.
+   *
+   * @return the count.
+   */
+  @JsonProperty("count")
+  long count();
+
+  /**
+   * The operations that threw.
+   *
+   * @return the count.
+   */
+  @JsonProperty("errors")
+  long errors();
+
+  /**
+   * The reads that found nothing, and the deletes that had nothing to delete.
+   *
+   * @return the count.
+   */
+  @JsonProperty("misses")
+  long misses();
+
+  /**
+   * Mean latency.
+   *
+   * @return in microseconds.
+   */
+  @JsonProperty("meanMicros")
+  double meanMicros();
+
+  /**
+   * Median latency.
+   *
+   * @return in microseconds.
+   */
+  @JsonProperty("p50Micros")
+  long p50Micros();
+
+  /**
+   * 90th percentile latency.
+   *
+   * @return in microseconds.
+   */
+  @JsonProperty("p90Micros")
+  long p90Micros();
+
+  /**
+   * 99th percentile latency.
+   *
+   * @return in microseconds.
+   */
+  @JsonProperty("p99Micros")
+  long p99Micros();
+
+  /**
+   * 99.9th percentile latency.
+   *
+   * @return in microseconds.
+   */
+  @JsonProperty("p999Micros")
+  long p999Micros();
+
+  /**
+   * Max latency.
+   *
+   * @return in microseconds.
+   */
+  @JsonProperty("maxMicros")
+  long maxMicros();
+
+}
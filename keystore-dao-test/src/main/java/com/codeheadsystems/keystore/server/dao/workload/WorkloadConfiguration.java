@@ -0,0 +1,211 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.server.dao.workload;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import java.util.Optional;
+import org.immutables.value.Value;
+
+/**
+ * The shape of a workload: the data set, how keys are chosen, the mix of operations, and how hard it is driven.
+ * The weights of the mix are relative to each other and need not add up to one.
+ */
+@Value.Immutable
+@JsonSerialize(as = ImmutableWorkloadConfiguration.class)
+@JsonDeserialize(builder = ImmutableWorkloadConfiguration.Builder.class)
+@JsonIgnoreProperties(ignoreUnknown = true)
+public interface WorkloadConfiguration {
+
+  /**
+   * The name of the workload, which also prefixes the owners so workloads can share a datastore.
+   *
+   * @return the name.
+   */
+  @Value.Default
+  @JsonProperty("name")
+  default String name() {
+    return "workload";
+  }
+
+  /**
+   * The owners in the data set.
+   *
+   * @return the owners.
+   */
+  @Value.Default
+  @JsonProperty("owners")
+  default int owners() {
+    return 10;
+  }
+
+  /**
+   * The keys of each owner.
+   *
+   * @return the keys.
+   */
+  @Value.Default
+  @JsonProperty("keysPerOwner")
+  default int keysPerOwner() {
+    return 10;
+  }
+
+  /**
+   * The versions of each key. The last one is active.
+   *
+   * @return the versions.
+   */
+  @Value.Default
+  @JsonProperty("versionsPerKey")
+  default int versionsPerKey() {
+    return 3;
+  }
+
+  /**
+   * How keys are chosen.
+   *
+   * @return the distribution.
+   */
+  @Value.Default
+  @JsonProperty("distribution")
+  default Distribution distribution() {
+    return Distribution.ZIPFIAN;
+  }
+
+  /**
+   * The skew of the zipfian distribution, below one.
+   *
+   * @return the constant.
+   */
+  @Value.Default
+  @JsonProperty("zipfianConstant")
+  default double zipfianConstant() {
+    return 0.99;
+  }
+
+  /**
+   * The fraction of the keys that are hot in the hotspot distribution.
+   *
+   * @return between 0 and 1.
+   */
+  @Value.Default
+  @JsonProperty("hotspotDataFraction")
+  default double hotspotDataFraction() {
+    return 0.2;
+  }
+
+  /**
+   * The fraction of the operations that go to the hot keys in the hotspot distribution.
+   *
+   * @return between 0 and 1.
+   */
+  @Value.Default
+  @JsonProperty("hotspotOperationFraction")
+  default double hotspotOperationFraction() {
+    return 0.8;
+  }
+
+  /**
+   * The weight of loading the active version.
+   *
+   * @return the weight.
+   */
+  @Value.Default
+  @JsonProperty("readLatest")
+  default double readLatest() {
+    return 0.5;
+  }
+
+  /**
+   * The weight of loading one version.
+   *
+   * @return the weight.
+   */
+  @Value.Default
+  @JsonProperty("readVersion")
+  default double readVersion() {
+    return 0.3;
+  }
+
+  /**
+   * The weight of storing a version.
+   *
+   * @return the weight.
+   */
+  @Value.Default
+  @JsonProperty("store")
+  default double store() {
+    return 0.1;
+  }
+
+  /**
+   * The weight of listing the versions.
+   *
+   * @return the weight.
+   */
+  @Value.Default
+  @JsonProperty("list")
+  default double list() {
+    return 0.05;
+  }
+
+  /**
+   * The weight of deleting a version.
+   *
+   * @return the weight.
+   */
+  @Value.Default
+  @JsonProperty("delete")
+  default double delete() {
+    return 0.05;
+  }
+
+  /**
+   * The threads running operations. Without an arrival rate each runs the next operation as soon as its last
+   * finished.
+   *
+   * @return the threads.
+   */
+  @Value.Default
+  @JsonProperty("threads")
+  default int threads() {
+    return 4;
+  }
+
+  /**
+   * Runs open loop at this many operations a second instead, whatever the latency. The latency is measured from
+   * when each operation should have started, so a backlog shows up in it.
+   *
+   * @return operations a second.
+   */
+  @JsonProperty("arrivalRate")
+  Optional<Double> arrivalRate();
+
+  /**
+   * The operations to run.
+   *
+   * @return the operations.
+   */
+  @Value.Default
+  @JsonProperty("operations")
+  default long operations() {
+    return 10_000;
+  }
+
+}
@@ -0,0 +1,75 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.server.dao.workload;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import java.util.Map;
+import org.immutables.value.Value;
+
+/**
+ * The results of a workload run, meant to be read by tools comparing runs.
+ */
+@Value.Immutable
+@JsonSerialize(as = ImmutableWorkloadReport.class)
+@JsonDeserialize(builder = ImmutableWorkloadReport.Builder.class)
+@JsonIgnoreProperties(ignoreUnknown = true)
+public interface WorkloadReport {
+
+  /**
+   * The dao that was driven.
+   *
+   * @return the class name.
+   */
+  @JsonProperty("backend")
+  String backend();
+
+  /**
+   * The workload that was run.
+   *
+   * @return the configuration.
+   */
+  @JsonProperty("configuration")
+  WorkloadConfiguration configuration();
+
+  /**
+   * How long the run took.
+   *
+   * @return in milliseconds.
+   */
+  @JsonProperty("elapsedMillis")
+  long elapsedMillis();
+
+  /**
+   * The operations finished a second, failed ones included.
+   *
+   * @return the throughput.
+   */
+  @JsonProperty("throughput")
+  double throughput();
+
+  /**
+   * The results of each operation in the mix.
+   *
+   * @return the reports.
+   */
+  @JsonProperty("operations")
+  Map<Operation, OperationReport> operations();
+
+}
@@ -0,0 +1,333 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.server.dao.workload;
+
+import com.codeheadsystems.keystore.common.factory.ObjectMapperFactory;
+import com.codeheadsystems.keystore.server.dao.KeyDao;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableKey;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableKeyIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableKeyVersionIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.Key;
+import com.codeheadsystems.keystore.server.dao.model.KeyIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.KeyVersionIdentifier;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Drives any dao with a workload, in the style of YCSB. The data set is loaded first, then the operations of the
+ * mix run against keys chosen by the distribution, either closed loop on a fixed number of threads or open loop
+ * at a fixed arrival rate. Latencies go into HdrHistograms and come back as a report that can be written as json.
+ * <p>
+ * The data set is owners, each with keys, each with versions. Stores rewrite existing versions and deletes remove
+ * them until a store puts them back, so the data set stays about the same size however long the run.
+ */
+public class WorkloadRunner {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(WorkloadRunner.class);
+  private static final int SIGNIFICANT_DIGITS = 3;
+  private static final byte[] VALUE = new byte[32];
+  private static final byte[] AUX = new byte[16];
+
+  private final KeyDao keyDao;
+  private final WorkloadConfiguration configuration;
+  private final KeyChooser keyChooser;
+  private final int items;
+  private final double[] cumulativeWeights;
+  private final ObjectMapper mapper = new ObjectMapperFactory().generate();
+  private volatile Map<Operation, Stats> stats;
+
+  /**
+   * Default constructor.
+   *
+   * @param keyDao        to drive.
+   * @param configuration of the workload.
+   */
+  public WorkloadRunner(final KeyDao keyDao,
+                        final WorkloadConfiguration configuration) {
+    LOGGER.info("WorkloadRunner({},{})", keyDao, configuration);
+    this.keyDao = keyDao;
+    this.configuration = configuration;
+    this.items = configuration.owners() * configuration.keysPerOwner();
+    this.keyChooser = new KeyChooser(configuration, items);
+    this.cumulativeWeights = new double[Operation.values().length];
+    double total = 0;
+    for (Operation operation : Operation.values()) {
+      total += weight(operation);
+      cumulativeWeights[operation.ordinal()] = total;
+    }
+    if (total <= 0) {
+      throw new IllegalArgumentException("The mix has no operations");
+    }
+  }
+
+  /**
+   * Stores the data set, on the threads of the workload.
+   */
+  public void load() {
+    final long start = System.nanoTime();
+    final ForkJoinPool pool = new ForkJoinPool(configuration.threads());
+    try {
+      pool.submit(() -> IntStream.range(0, items).parallel().forEach(index ->
+          keyDao.storeAll(LongStream.rangeClosed(1, configuration.versionsPerKey())
+              .mapToObj(version -> key(index, version))
+              .toList()))).join();
+    } finally {
+      pool.shutdown();
+    }
+    LOGGER.info("load: {} keys in {}ms", items, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+  }
+
+  /**
+   * Runs the workload.
+   *
+   * @return the report.
+   */
+  public WorkloadReport run() {
+    final Map<Operation, Stats> runStats = new EnumMap<>(Operation.class);
+    for (Operation operation : Operation.values()) {
+      runStats.put(operation, new Stats());
+    }
+    stats = runStats;
+    final long start = System.nanoTime();
+    configuration.arrivalRate().ifPresentOrElse(this::openLoop, this::closedLoop);
+    final long elapsed = System.nanoTime() - start;
+    final ImmutableWorkloadReport.Builder builder = ImmutableWorkloadReport.builder()
+        .backend(keyDao.getClass().getSimpleName())
+        .configuration(configuration)
+        .elapsedMillis(TimeUnit.NANOSECONDS.toMillis(elapsed))
+        .throughput(configuration.operations() * 1e9 / elapsed);
+    runStats.forEach((operation, stat) -> {
+      if (weight(operation) > 0) {
+        builder.putOperations(operation, stat.report());
+      }
+    });
+    final WorkloadReport report = builder.build();
+    LOGGER.info("run: {} operations on {} at {} a second", configuration.operations(), report.backend(),
+        Math.round(report.throughput()));
+    return report;
+  }
+
+  /**
+   * Writes the report as json.
+   *
+   * @param report to write.
+   * @param path   of the file.
+   * @throws IOException if it cannot be written.
+   */
+  public void write(final WorkloadReport report,
+                    final Path path) throws IOException {
+    final Path parent = path.toAbsolutePath().getParent();
+    if (parent != null) {
+      Files.createDirectories(parent);
+    }
+    mapper.writerWithDefaultPrettyPrinter().writeValue(path.toFile(), report);
+  }
+
+  private void closedLoop() {
+    final AtomicLong remaining = new AtomicLong(configuration.operations());
+    final ExecutorService executorService = executorService();
+    for (int i = 0; i < configuration.threads(); i++) {
+      executorService.execute(() -> {
+        final Random random = ThreadLocalRandom.current();
+        while (remaining.getAndDecrement() > 0) {
+          execute(random, System.nanoTime());
+        }
+      });
+    }
+    await(executorService);
+  }
+
+  /**
+   * Issues the operations on schedule whether or not the earlier ones finished, so a slow dao builds a backlog
+   * instead of slowing the arrivals.
+   */
+  private void openLoop(final double arrivalRate) {
+    final double interval = 1e9 / arrivalRate;
+    final ExecutorService executorService = executorService();
+    final long start = System.nanoTime();
+    for (long i = 0; i < configuration.operations(); i++) {
+      final long intended = start + (long) (i * interval);
+      long wait;
+      while ((wait = intended - System.nanoTime()) > 0) {
+        LockSupport.parkNanos(wait);
+      }
+      executorService.execute(() -> execute(ThreadLocalRandom.current(), intended));
+    }
+    await(executorService);
+  }
+
+  private ExecutorService executorService() {
+    final AtomicInteger count = new AtomicInteger();
+    return Executors.newFixedThreadPool(configuration.threads(), runnable -> {
+      final Thread thread = new Thread(runnable, "workload-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  private void await(final ExecutorService executorService) {
+    executorService.shutdown();
+    try {
+      if (!executorService.awaitTermination(1, TimeUnit.HOURS)) {
+        throw new IllegalStateException("The workload did not finish");
+      }
+    } catch (InterruptedException e) {
+      executorService.shutdownNow();
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted running the workload", e);
+    }
+  }
+
+  /**
+   * Runs one operation.
+   *
+   * @param random   to choose the operation and key with.
+   * @param intended when the operation should have started, which the latency is measured from.
+   */
+  private void execute(final Random random,
+                       final long intended) {
+    final Operation operation = operation(random);
+    final int index = keyChooser.next(random);
+    final long version = 1 + random.nextInt(configuration.versionsPerKey());
+    final Stats stat = stats.get(operation);
+    try {
+      final boolean hit = switch (operation) {
+        case READ_LATEST -> keyDao.load(keyIdentifier(index)).isPresent();
+        case READ_VERSION -> keyDao.load(keyVersionIdentifier(index, version)).isPresent();
+        case STORE -> {
+          keyDao.store(key(index, version));
+          yield true;
+        }
+        case LIST -> !keyDao.listVersions(keyIdentifier(index), null).list().isEmpty();
+        case DELETE -> keyDao.delete(keyVersionIdentifier(index, version));
+      };
+      stat.histogram.recordValue(Math.max(0, System.nanoTime() - intended));
+      if (!hit) {
+        stat.misses.increment();
+      }
+    } catch (RuntimeException e) {
+      LOGGER.debug("execute: {} failed", operation, e);
+      stat.errors.increment();
+    }
+  }
+
+  private Operation operation(final Random random) {
+    final double value = random.nextDouble() * cumulativeWeights[cumulativeWeights.length - 1];
+    for (Operation operation : Operation.values()) {
+      if (value < cumulativeWeights[operation.ordinal()]) {
+        return operation;
+      }
+    }
+    return Operation.READ_LATEST; // rounding at the very top.
+  }
+
+  private double weight(final Operation operation) {
+    return switch (operation) {
+      case READ_LATEST -> configuration.readLatest();
+      case READ_VERSION -> configuration.readVersion();
+      case STORE -> configuration.store();
+      case LIST -> configuration.list();
+      case DELETE -> configuration.delete();
+    };
+  }
+
+  private KeyIdentifier keyIdentifier(final int index) {
+    return ImmutableKeyIdentifier.builder()
+        .owner(owner(index))
+        .key(keyName(index))
+        .build();
+  }
+
+  private KeyVersionIdentifier keyVersionIdentifier(final int index,
+                                                    final long version) {
+    return ImmutableKeyVersionIdentifier.builder()
+        .owner(owner(index))
+        .key(keyName(index))
+        .version(version)
+        .build();
+  }
+
+  private Key key(final int index,
+                  final long version) {
+    return ImmutableKey.builder()
+        .keyVersionIdentifier(keyVersionIdentifier(index, version))
+        .value(VALUE)
+        .aux(AUX)
+        .type("AES")
+        .active(version == configuration.versionsPerKey())
+        .createDate(new Date())
+        .build();
+  }
+
+  private String owner(final int index) {
+    return configuration.name() + ".owner." + index / configuration.keysPerOwner();
+  }
+
+  private String keyName(final int index) {
+    return "key." + index % configuration.keysPerOwner();
+  }
+
+  /**
+   * What was recorded for one operation.
+   */
+  private static class Stats {
+
+    private final Histogram histogram = new ConcurrentHistogram(SIGNIFICANT_DIGITS);
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private OperationReport report() {
+      return ImmutableOperationReport.builder()
+          .count(histogram.getTotalCount())
+          .errors(errors.sum())
+          .misses(misses.sum())
+          .meanMicros(histogram.getMean() / 1000)
+          .p50Micros(micros(50))
+          .p90Micros(micros(90))
+          .p99Micros(micros(99))
+          .p999Micros(micros(99.9))
+          .maxMicros(histogram.getMaxValue() / 1000)
+          .build();
+    }
+
+    private long micros(final double percentile) {
+      return histogram.getValueAtPercentile(percentile) / 1000;
+    }
+  }
+
+}
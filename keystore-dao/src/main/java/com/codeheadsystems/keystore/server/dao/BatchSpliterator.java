@@ -0,0 +1,171 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.server.dao;
+
+import com.codeheadsystems.keystore.server.dao.model.Batch;
+import com.codeheadsystems.keystore.server.dao.model.Token;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Walks a paged listing of the dao, like listOwners, listKeys or listVersions, following the tokens so callers
+ * need not. Pages are only fetched as they are reached, and only the current page is held, so walking a large
+ * listing runs in constant memory.
+ * With a prefetch executor, the next page is requested as soon as the current one arrives, so its io overlaps
+ * with consuming the current page. Splitting hands off the rest of the current page and moves on to the next,
+ * so parallel streams work through the listing page by page.
+ *
+ * @param <T> the type listed.
+ */
+public class BatchSpliterator<T> implements Spliterator<T> {
+
+  private final Function<Token, Batch<T>> lister;
+  private final Executor prefetchExecutor;
+  private boolean started;
+  private List<T> page;
+  private int index;
+  private Token token;
+  private CompletableFuture<Batch<T>> prefetch;
+
+  /**
+   * Default constructor.
+   *
+   * @param lister           gets the page for the token, which is null for the first page.
+   * @param prefetchExecutor to fetch the next page on, null to fetch pages only when they are reached.
+   */
+  public BatchSpliterator(final Function<Token, Batch<T>> lister,
+                          final Executor prefetchExecutor) {
+    this.lister = lister;
+    this.prefetchExecutor = prefetchExecutor;
+  }
+
+  /**
+   * A lazy stream over the listing.
+   *
+   * @param lister gets the page for the token, which is null for the first page.
+   * @param <T>    the type listed.
+   * @return the stream.
+   */
+  public static <T> Stream<T> stream(final Function<Token, Batch<T>> lister) {
+    return stream(lister, null);
+  }
+
+  /**
+   * A lazy stream over the listing that prefetches the next page.
+   *
+   * @param lister           gets the page for the token, which is null for the first page.
+   * @param prefetchExecutor to fetch the next page on, null to fetch pages only when they are reached.
+   * @param <T>              the type listed.
+   * @return the stream.
+   */
+  public static <T> Stream<T> stream(final Function<Token, Batch<T>> lister,
+                                     final Executor prefetchExecutor) {
+    return StreamSupport.stream(new BatchSpliterator<>(lister, prefetchExecutor), false);
+  }
+
+  /**
+   * A lazy iterator over the listing.
+   *
+   * @param lister gets the page for the token, which is null for the first page.
+   * @param <T>    the type listed.
+   * @return the iterator.
+   */
+  public static <T> Iterator<T> iterator(final Function<Token, Batch<T>> lister) {
+    return Spliterators.iterator(new BatchSpliterator<>(lister, null));
+  }
+
+  @Override
+  public boolean tryAdvance(final Consumer<? super T> action) {
+    if (!hasElements()) {
+      return false;
+    }
+    action.accept(page.get(index++));
+    return true;
+  }
+
+  /**
+   * Hands off the rest of the current page, unless it is the last one.
+   *
+   * @return the spliterator of the rest of the current page, or null.
+   */
+  @Override
+  public Spliterator<T> trySplit() {
+    if (!hasElements() || (token == null && prefetch == null)) {
+      return null;
+    }
+    final Spliterator<T> split = Spliterators.spliterator(page.subList(index, page.size()), characteristics());
+    page = null;
+    return split;
+  }
+
+  @Override
+  public long estimateSize() {
+    return Long.MAX_VALUE;
+  }
+
+  @Override
+  public int characteristics() {
+    return ORDERED | NONNULL;
+  }
+
+  private boolean hasElements() {
+    while (page == null || index >= page.size()) {
+      final Batch<T> batch;
+      if (prefetch != null) {
+        batch = join(prefetch);
+        prefetch = null;
+      } else if (!started) {
+        started = true;
+        batch = lister.apply(null);
+      } else if (token != null) {
+        batch = lister.apply(token);
+      } else {
+        return false;
+      }
+      page = batch.list();
+      index = 0;
+      token = batch.nextToken().orElse(null);
+      if (token != null && prefetchExecutor != null) {
+        final Token next = token;
+        prefetch = CompletableFuture.supplyAsync(() -> lister.apply(next), prefetchExecutor);
+        token = null;
+      }
+    }
+    return true;
+  }
+
+  private Batch<T> join(final CompletableFuture<Batch<T>> future) {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException cause) {
+        throw cause;
+      }
+      throw e;
+    }
+  }
+
+}
@@ -22,7 +22,11 @@ import com.codeheadsystems.keystore.server.dao.model.KeyIdentifier;
 import com.codeheadsystems.keystore.server.dao.model.KeyVersionIdentifier;
 import com.codeheadsystems.keystore.server.dao.model.OwnerIdentifier;
 import com.codeheadsystems.keystore.server.dao.model.Token;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 /**
  * The DAO is largely mechanical; no business logic exists here.
@@ -36,6 +40,30 @@ public interface KeyDao {
    */
   void store(Key key);
 
+  /**
+   * Stores the keys in the data store. Implementations should override this if the data store can write many
+   * keys in fewer round trips. Unlike store, this need not be atomic per key.
+   *
+   * @param keys to store.
+   */
+  default void storeAll(Collection<Key> keys) {
+    keys.forEach(this::store);
+  }
+
+  /**
+   * Stores the next version of the key, so callers need not read the latest version first. The version is
+   * allocated atomically by the data store and is greater than every version the key has, so concurrent callers
+   * each get their own. Data stores that keep a counter per key also never hand out a deleted version again,
+   * until the key itself is deleted.
+   * The factory builds the key for the version given and must keep that identifier. It may be called again with
+   * a later version if the first one was taken by a concurrent store of an explicit version.
+   *
+   * @param identifier the key to add a version to.
+   * @param factory    builds the key to store from the allocated version.
+   * @return the key that was stored.
+   */
+  Key storeNextVersion(KeyIdentifier identifier, Function<KeyVersionIdentifier, Key> factory);
+
   /**
    * Stores the owner into the data store.
    *
@@ -52,6 +80,21 @@ public interface KeyDao {
    */
   Optional<Key> load(KeyVersionIdentifier identifier);
 
+  /**
+   * Gets from the data store all the keys found for the identifiers given. Implementations should override
+   * this if the data store can load many keys in fewer round trips.
+   *
+   * @param identifiers the identifiers for the keys.
+   * @return the keys found, in no particular order. Missing keys are not included.
+   */
+  default List<Key> loadAll(Collection<KeyVersionIdentifier> identifiers) {
+    return identifiers.stream()
+        .distinct()
+        .map(this::load)
+        .flatMap(Optional::stream)
+        .toList();
+  }
+
   /**
    * Gets the latest key version for the list of keys.
    *
@@ -94,6 +137,35 @@ public interface KeyDao {
    */
   Batch<KeyVersionIdentifier> listVersions(KeyIdentifier identifier, Token nextToken);
 
+  /**
+   * Streams all the owners, fetching pages as they are reached.
+   *
+   * @return stream of owner identifiers.
+   */
+  default Stream<OwnerIdentifier> streamOwners() {
+    return BatchSpliterator.stream(this::listOwners);
+  }
+
+  /**
+   * Streams all the keys for an owner, fetching pages as they are reached.
+   *
+   * @param identifier to list.
+   * @return stream of key identifiers.
+   */
+  default Stream<KeyIdentifier> streamKeys(OwnerIdentifier identifier) {
+    return BatchSpliterator.stream(token -> listKeys(identifier, token));
+  }
+
+  /**
+   * Streams all the versions for a key, fetching pages as they are reached.
+   *
+   * @param identifier to list.
+   * @return stream of key version identifiers.
+   */
+  default Stream<KeyVersionIdentifier> streamVersions(KeyIdentifier identifier) {
+    return BatchSpliterator.stream(token -> listVersions(identifier, token));
+  }
+
   // These exist for completeness, but need caution when using.
 
   /**
@@ -0,0 +1,88 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.server.dao.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import java.util.Map;
+import org.immutables.value.Value;
+
+/**
+ * The retention policies in play. A policy set for the key wins over one set for its owner, which wins over the
+ * default.
+ */
+@Value.Immutable
+@JsonSerialize(as = ImmutableRetentionPolicies.class)
+@JsonDeserialize(builder = ImmutableRetentionPolicies.Builder.class)
+@JsonIgnoreProperties(ignoreUnknown = true)
+public interface RetentionPolicies {
+
+  /**
+   * The policy for keys without their own, or an owner policy.
+   *
+   * @return the policy.
+   */
+  @Value.Default
+  @JsonProperty("defaultPolicy")
+  default RetentionPolicy defaultPolicy() {
+    return ImmutableRetentionPolicy.builder().build();
+  }
+
+  /**
+   * Policies by owner.
+   *
+   * @return the policies.
+   */
+  @JsonProperty("owners")
+  Map<String, RetentionPolicy> owners();
+
+  /**
+   * Policies by key, named 'owner:key'.
+   *
+   * @return the policies.
+   */
+  @JsonProperty("keys")
+  Map<String, RetentionPolicy> keys();
+
+  /**
+   * The policy for the key.
+   *
+   * @param identifier of the key, or any of its versions.
+   * @return the policy.
+   */
+  default RetentionPolicy policy(final KeyIdentifier identifier) {
+    final RetentionPolicy keyPolicy = keys().get(identifier.owner() + ":" + identifier.key());
+    if (keyPolicy != null) {
+      return keyPolicy;
+    }
+    return owners().getOrDefault(identifier.owner(), defaultPolicy());
+  }
+
+  /**
+   * If any of the policies removes anything.
+   *
+   * @return true if so.
+   */
+  default boolean removes() {
+    return defaultPolicy().removes()
+        || owners().values().stream().anyMatch(RetentionPolicy::removes)
+        || keys().values().stream().anyMatch(RetentionPolicy::removes);
+  }
+
+}
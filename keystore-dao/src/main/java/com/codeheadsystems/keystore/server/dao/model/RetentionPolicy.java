@@ -0,0 +1,94 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.server.dao.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import java.time.Instant;
+import java.util.Optional;
+import org.immutables.value.Value;
+
+/**
+ * How long the versions of a key are kept. Active versions are always kept. An inactive version is removed once
+ * it falls outside the newest versions kept, or once it has been inactive longer than the expiry. The defaults
+ * keep everything.
+ */
+@Value.Immutable
+@JsonSerialize(as = ImmutableRetentionPolicy.class)
+@JsonDeserialize(builder = ImmutableRetentionPolicy.Builder.class)
+@JsonIgnoreProperties(ignoreUnknown = true)
+public interface RetentionPolicy {
+
+  /**
+   * How many of the newest versions of a key are kept, active or not. Zero keeps them all.
+   *
+   * @return the versions kept.
+   */
+  @Value.Default
+  @JsonProperty("keepVersions")
+  default int keepVersions() {
+    return 0;
+  }
+
+  /**
+   * How long an inactive version is kept, from when it was deactivated (or created, if it never changed). Zero
+   * keeps them forever.
+   *
+   * @return the expiry in seconds.
+   */
+  @Value.Default
+  @JsonProperty("expireInactiveSeconds")
+  default long expireInactiveSeconds() {
+    return 0L;
+  }
+
+  /**
+   * If this policy ever removes anything.
+   *
+   * @return true if it does.
+   */
+  default boolean removes() {
+    return keepVersions() > 0 || expireInactiveSeconds() > 0;
+  }
+
+  /**
+   * When the version expires under this policy. Active versions never do.
+   *
+   * @param key the version.
+   * @return the expiry, if any.
+   */
+  default Optional<Instant> expiry(final Key key) {
+    if (key.active() || expireInactiveSeconds() <= 0) {
+      return Optional.empty();
+    }
+    return Optional.of(key.updateDate().orElse(key.createDate()).toInstant().plusSeconds(expireInactiveSeconds()));
+  }
+
+  /**
+   * If the version has expired under this policy.
+   *
+   * @param key the version.
+   * @param now the current time.
+   * @return true if expired.
+   */
+  default boolean expired(final Key key, final Instant now) {
+    return expiry(key).map(expiry -> !expiry.isAfter(now)).orElse(false);
+  }
+
+}
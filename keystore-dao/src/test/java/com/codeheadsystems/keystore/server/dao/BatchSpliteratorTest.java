@@ -0,0 +1,129 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.server.dao;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+import com.codeheadsystems.keystore.server.dao.model.Batch;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableBatch;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableToken;
+import com.codeheadsystems.keystore.server.dao.model.Token;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import org.junit.jupiter.api.Test;
+
+class BatchSpliteratorTest {
+
+  private static final int PAGES = 4;
+  private static final int PAGE_SIZE = 10;
+
+  private final List<Token> fetched = new ArrayList<>();
+
+  @Test
+  void stream_followsTokens() {
+    assertThat(BatchSpliterator.stream(this::page).toList())
+        .containsExactlyElementsOf(IntStream.range(0, PAGES * PAGE_SIZE).boxed().toList());
+    assertThat(fetched).hasSize(PAGES);
+  }
+
+  @Test
+  void stream_isLazy() {
+    final Stream<Integer> stream = BatchSpliterator.stream(this::page);
+    assertThat(fetched).isEmpty();
+    assertThat(stream.limit(PAGE_SIZE + 1).toList()).hasSize(PAGE_SIZE + 1);
+    assertThat(fetched).hasSize(2);
+  }
+
+  @Test
+  void iterator() {
+    final Iterator<Integer> iterator = BatchSpliterator.iterator(this::page);
+    assertThat(iterator.next()).isZero();
+    assertThat(fetched).hasSize(1);
+  }
+
+  @Test
+  void stream_empty() {
+    assertThat(BatchSpliterator.stream(token -> ImmutableBatch.<Integer>builder().build())).isEmpty();
+  }
+
+  @Test
+  void prefetch_requestsTheNextPageEarly() throws Exception {
+    final ExecutorService executorService = Executors.newSingleThreadExecutor();
+    try {
+      final Spliterator<Integer> spliterator = new BatchSpliterator<>(this::page, executorService);
+      assertThat(spliterator.tryAdvance(i -> assertThat(i).isZero())).isTrue();
+      executorService.submit(() -> null).get(); // the prefetch was queued before this.
+      synchronized (fetched) {
+        assertThat(fetched).hasSize(2);
+      }
+      assertThat(StreamSupport.stream(spliterator, false).count()).isEqualTo(PAGES * PAGE_SIZE - 1);
+    } finally {
+      executorService.shutdownNow();
+    }
+  }
+
+  @Test
+  void trySplit_handsOffThePage() {
+    final Spliterator<Integer> spliterator = new BatchSpliterator<>(this::page, null);
+    final Spliterator<Integer> split = spliterator.trySplit();
+    assertThat(split).isNotNull();
+    assertThat(split.estimateSize()).isEqualTo(PAGE_SIZE);
+    assertThat(StreamSupport.stream(spliterator, false).findFirst()).contains(PAGE_SIZE);
+    assertThat(BatchSpliterator.stream(this::page).parallel().mapToInt(Integer::intValue).sum())
+        .isEqualTo(IntStream.range(0, PAGES * PAGE_SIZE).sum());
+  }
+
+  @Test
+  void failure_isUnwrapped() {
+    final ExecutorService executorService = Executors.newSingleThreadExecutor();
+    try {
+      final Stream<Integer> stream = BatchSpliterator.stream(token -> {
+        if (token != null) {
+          throw new IllegalStateException("boom");
+        }
+        return page(null);
+      }, executorService);
+      assertThatExceptionOfType(IllegalStateException.class)
+          .isThrownBy(stream::toList)
+          .withMessage("boom");
+    } finally {
+      executorService.shutdownNow();
+    }
+  }
+
+  private Batch<Integer> page(final Token token) {
+    synchronized (fetched) {
+      fetched.add(token);
+    }
+    final int number = token == null ? 0 : Integer.parseInt(token.value());
+    final ImmutableBatch.Builder<Integer> builder = ImmutableBatch.<Integer>builder()
+        .list(IntStream.range(number * PAGE_SIZE, (number + 1) * PAGE_SIZE).boxed().toList());
+    if (number + 1 < PAGES) {
+      builder.nextToken(ImmutableToken.builder().value(Integer.toString(number + 1)).build());
+    }
+    return builder.build();
+  }
+
+}
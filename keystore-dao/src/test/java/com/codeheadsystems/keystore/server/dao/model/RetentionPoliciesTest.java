@@ -0,0 +1,78 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.server.dao.model;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.codeheadsystems.test.model.BaseJacksonTest;
+import java.time.Instant;
+import java.util.Date;
+import org.junit.jupiter.api.Test;
+
+public class RetentionPoliciesTest extends BaseJacksonTest<RetentionPolicies> {
+
+  private static final RetentionPolicy OWNER_POLICY = ImmutableRetentionPolicy.builder().keepVersions(3).build();
+  private static final RetentionPolicy KEY_POLICY = ImmutableRetentionPolicy.builder()
+      .expireInactiveSeconds(60)
+      .build();
+
+  @Override
+  protected Class<RetentionPolicies> getBaseClass() {
+    return RetentionPolicies.class;
+  }
+
+  @Override
+  protected RetentionPolicies getInstance() {
+    return ImmutableRetentionPolicies.builder()
+        .putOwners("owner", OWNER_POLICY)
+        .putKeys("owner:id", KEY_POLICY)
+        .build();
+  }
+
+  @Test
+  void policy() {
+    final RetentionPolicies policies = getInstance();
+    assertThat(policies.policy(identifier("owner", "id"))).isEqualTo(KEY_POLICY);
+    assertThat(policies.policy(identifier("owner", "other"))).isEqualTo(OWNER_POLICY);
+    assertThat(policies.policy(identifier("other", "id"))).isEqualTo(policies.defaultPolicy());
+    assertThat(policies.removes()).isTrue();
+    assertThat(ImmutableRetentionPolicies.builder().build().removes()).isFalse();
+  }
+
+  @Test
+  void expired() {
+    final Instant deactivated = Instant.parse("2022-01-01T00:00:00Z");
+    final ImmutableKey inactive = ImmutableKey.builder()
+        .active(false)
+        .type("a type")
+        .createDate(Date.from(deactivated.minusSeconds(600)))
+        .updateDate(Date.from(deactivated))
+        .keyVersionIdentifier(ImmutableKeyVersionIdentifier.builder().key("id").owner("owner").version(1L).build())
+        .value((byte) 1)
+        .aux((byte) 2)
+        .build();
+    assertThat(KEY_POLICY.expiry(inactive)).contains(deactivated.plusSeconds(60));
+    assertThat(KEY_POLICY.expired(inactive, deactivated.plusSeconds(59))).isFalse();
+    assertThat(KEY_POLICY.expired(inactive, deactivated.plusSeconds(60))).isTrue();
+    assertThat(KEY_POLICY.expiry(inactive.withActive(true))).isEmpty();
+    assertThat(OWNER_POLICY.expiry(inactive)).isEmpty();
+  }
+
+  private KeyIdentifier identifier(final String owner, final String key) {
+    return ImmutableKeyIdentifier.builder().owner(owner).key(key).build();
+  }
+}
@@ -17,10 +17,14 @@
 package com.codeheadsystems.keystore;
 
 import com.codahale.metrics.health.HealthCheck;
+import com.codeheadsystems.keystore.command.ExportCommand;
+import com.codeheadsystems.keystore.command.ImportCommand;
 import com.codeheadsystems.keystore.config.KeyStoreConfiguration;
 import com.codeheadsystems.keystore.dagger.DropWizardComponent;
 import com.codeheadsystems.metrics.helper.DropwizardMetricsHelper;
 import io.dropwizard.Application;
+import io.dropwizard.lifecycle.Managed;
+import io.dropwizard.setup.Bootstrap;
 import io.dropwizard.setup.Environment;
 import io.micrometer.core.instrument.MeterRegistry;
 import javax.inject.Inject;
@@ -56,6 +60,17 @@ public class Server extends Application<KeyStoreConfiguration> {
     server.run(args);
   }
 
+  /**
+   * Adds the admin commands next to server and check.
+   *
+   * @param bootstrap for the application.
+   */
+  @Override
+  public void initialize(final Bootstrap<KeyStoreConfiguration> bootstrap) {
+    bootstrap.addCommand(new ExportCommand());
+    bootstrap.addCommand(new ImportCommand());
+  }
+
   @Override
   public void run(final KeyStoreConfiguration configuration,
                   final Environment environment) throws Exception {
@@ -71,6 +86,10 @@ public class Server extends Application<KeyStoreConfiguration> {
       LOGGER.info("Registering healthCheck: " + healthCheck.getClass().getSimpleName());
       environment.healthChecks().register(healthCheck.getClass().getSimpleName(), healthCheck);
     }
+    for (Managed managed : component.managed()) {
+      LOGGER.info("Registering managed: " + managed.getClass().getSimpleName());
+      environment.lifecycle().manage(managed);
+    }
   }
 
 
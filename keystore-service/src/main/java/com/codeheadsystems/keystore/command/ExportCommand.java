@@ -0,0 +1,94 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.command;
+
+import com.codeheadsystems.keystore.config.KeyStoreConfiguration;
+import com.codeheadsystems.keystore.manager.KeyTransferManager;
+import com.codeheadsystems.keystore.model.TransferProgress;
+import io.dropwizard.setup.Bootstrap;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import net.sourceforge.argparse4j.impl.Arguments;
+import net.sourceforge.argparse4j.inf.Namespace;
+import net.sourceforge.argparse4j.inf.Subparser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Exports the datastore to a file: {@code export --file keys.ksx config.yaml}. With --resume an interrupted
+ * export is cut back to its last good checkpoint and continued from there.
+ */
+public class ExportCommand extends TransferCommand {
+
+  /**
+   * The constant RESUME argument.
+   */
+  public static final String RESUME = "resume";
+  private static final Logger LOGGER = LoggerFactory.getLogger(ExportCommand.class);
+
+  /**
+   * Instantiates a new command.
+   */
+  public ExportCommand() {
+    super("export", "Exports every owner, key and version of the datastore to a file");
+  }
+
+  @Override
+  public void configure(final Subparser subparser) {
+    super.configure(subparser);
+    subparser.addArgument("--" + RESUME)
+        .dest(RESUME)
+        .action(Arguments.storeTrue())
+        .help("continue the export in the file from its last checkpoint");
+  }
+
+  @Override
+  protected void run(final Bootstrap<KeyStoreConfiguration> bootstrap,
+                     final Namespace namespace,
+                     final KeyStoreConfiguration configuration) throws Exception {
+    final Path path = Path.of(namespace.getString(FILE));
+    final KeyTransferManager manager = keyTransferManager(configuration);
+    TransferProgress resumeFrom = null;
+    if (namespace.getBoolean(RESUME) && Files.exists(path)) {
+      try (InputStream in = Files.newInputStream(path)) {
+        resumeFrom = manager.lastCheckpoint(in);
+      }
+    }
+    if (resumeFrom != null && resumeFrom.complete()) {
+      LOGGER.info("export: already complete {}", resumeFrom);
+      return;
+    }
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+      final long offset = resumeFrom == null ? 0 : resumeFrom.bytes();
+      channel.truncate(offset);
+      channel.position(offset);
+      LOGGER.info("export: {} from {}", path, resumeFrom);
+      final OutputStream out = Channels.newOutputStream(channel);
+      final TransferProgress progress = manager.export(out, resumeFrom, namespace.getInt(PARALLELISM),
+          throughput(resumeFrom == null ? 0 : resumeFrom.records()));
+      out.flush();
+      channel.force(true);
+      LOGGER.info("export: complete {}", progress);
+    }
+  }
+
+}
@@ -0,0 +1,86 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.command;
+
+import com.codeheadsystems.keystore.config.KeyStoreConfiguration;
+import com.codeheadsystems.keystore.model.TransferProgress;
+import io.dropwizard.setup.Bootstrap;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import net.sourceforge.argparse4j.inf.Namespace;
+import net.sourceforge.argparse4j.inf.Subparser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Imports an export file into the datastore: {@code import --file keys.ksx config.yaml}. Every checkpoint logs
+ * the records committed, and --skip with that count resumes an interrupted import.
+ */
+public class ImportCommand extends TransferCommand {
+
+  /**
+   * The constant SKIP argument.
+   */
+  public static final String SKIP = "skip";
+  /**
+   * The constant BATCH_SIZE argument.
+   */
+  public static final String BATCH_SIZE = "batchSize";
+  /**
+   * The constant DEFAULT_BATCH_SIZE.
+   */
+  public static final int DEFAULT_BATCH_SIZE = 500;
+  private static final Logger LOGGER = LoggerFactory.getLogger(ImportCommand.class);
+
+  /**
+   * Instantiates a new command.
+   */
+  public ImportCommand() {
+    super("import", "Imports an export file into the datastore");
+  }
+
+  @Override
+  public void configure(final Subparser subparser) {
+    super.configure(subparser);
+    subparser.addArgument("--" + SKIP)
+        .dest(SKIP)
+        .type(Long.class)
+        .setDefault(0L)
+        .help("records already committed by an earlier import");
+    subparser.addArgument("--" + BATCH_SIZE)
+        .dest(BATCH_SIZE)
+        .type(Integer.class)
+        .setDefault(DEFAULT_BATCH_SIZE)
+        .help("keys per batched write");
+  }
+
+  @Override
+  protected void run(final Bootstrap<KeyStoreConfiguration> bootstrap,
+                     final Namespace namespace,
+                     final KeyStoreConfiguration configuration) throws Exception {
+    final Path path = Path.of(namespace.getString(FILE));
+    final long skip = namespace.getLong(SKIP);
+    LOGGER.info("import: {} skipping {}", path, skip);
+    try (InputStream in = Files.newInputStream(path)) {
+      final TransferProgress progress = keyTransferManager(configuration).importFrom(in, skip,
+          namespace.getInt(BATCH_SIZE), namespace.getInt(PARALLELISM), throughput(skip));
+      LOGGER.info("import: complete {}", progress);
+    }
+  }
+
+}
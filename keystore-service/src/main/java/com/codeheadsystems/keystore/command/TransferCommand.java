@@ -0,0 +1,102 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.command;
+
+import com.codeheadsystems.keystore.DropWizardFactory;
+import com.codeheadsystems.keystore.config.KeyStoreConfiguration;
+import com.codeheadsystems.keystore.manager.KeyTransferManager;
+import com.codeheadsystems.keystore.model.TransferProgress;
+import io.dropwizard.cli.ConfiguredCommand;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.function.Consumer;
+import net.sourceforge.argparse4j.inf.Subparser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The shared parts of the export and import commands. They build the same component the server would from the
+ * configuration, so they work against whichever datastore it names.
+ */
+public abstract class TransferCommand extends ConfiguredCommand<KeyStoreConfiguration> {
+
+  /**
+   * The constant FILE argument.
+   */
+  public static final String FILE = "file";
+  /**
+   * The constant PARALLELISM argument.
+   */
+  public static final String PARALLELISM = "parallelism";
+  /**
+   * The constant DEFAULT_PARALLELISM.
+   */
+  public static final int DEFAULT_PARALLELISM = 8;
+  private static final Logger LOGGER = LoggerFactory.getLogger(TransferCommand.class);
+
+  /**
+   * Instantiates a new command.
+   *
+   * @param name        of the command.
+   * @param description of the command.
+   */
+  protected TransferCommand(final String name,
+                            final String description) {
+    super(name, description);
+  }
+
+  @Override
+  public void configure(final Subparser subparser) {
+    super.configure(subparser);
+    subparser.addArgument("--" + FILE)
+        .dest(FILE)
+        .required(true)
+        .help("the export file");
+    subparser.addArgument("--" + PARALLELISM)
+        .dest(PARALLELISM)
+        .type(Integer.class)
+        .setDefault(DEFAULT_PARALLELISM)
+        .help("requests to the datastore at once");
+  }
+
+  /**
+   * The transfer manager over the datastore of the configuration.
+   *
+   * @param configuration of the service.
+   * @return the manager.
+   */
+  protected KeyTransferManager keyTransferManager(final KeyStoreConfiguration configuration) {
+    return DropWizardFactory.getDropWizardFactory(configuration)
+        .build(configuration, new SimpleMeterRegistry())
+        .keyTransferManager();
+  }
+
+  /**
+   * Logs every checkpoint with the throughput since the start.
+   *
+   * @param startRecords the records the transfer resumed from.
+   * @return the listener.
+   */
+  protected Consumer<TransferProgress> throughput(final long startRecords) {
+    final long start = System.nanoTime();
+    return progress -> {
+      final double seconds = Math.max(1e-3, (System.nanoTime() - start) / 1e9);
+      LOGGER.info("{}: records:{} bytes:{} rate:{}/s", getName(), progress.records(), progress.bytes(),
+          String.format("%.1f", Math.max(0, progress.records() - startRecords) / seconds));
+    };
+  }
+
+}
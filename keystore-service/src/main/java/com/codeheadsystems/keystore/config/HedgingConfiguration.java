@@ -0,0 +1,98 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.codeheadsystems.keystore.config;
+package com.codeheadsystems.keystore.config;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import org.immutables.value.Value;
+
+/**
+ * Configuration for the hedging server, which sends a second read to the datastore when the first is slow. The
+ * datastore uses the dataStore of the service.
+ */
+@Value.Immutable
+@JsonSerialize(as = ImmutableHedgingConfiguration.class)
+@JsonDeserialize(builder = ImmutableHedgingConfiguration.Builder.class)
+@JsonIgnoreProperties(ignoreUnknown = true)
+public interface HedgingConfiguration {
+
+  /**
+   * The drop wizard factory of the datastore the reads are hedged against.
+   *
+   * @return the class name.
+   */
+  @JsonProperty("delegateFactory")
+  String delegateFactory();
+
+  /**
+   * The percentile of the recent latency of a read after which the second read is sent.
+   *
+   * @return between 0 and 1.
+   */
+  @Value.Default
+  @JsonProperty("percentile")
+  default double percentile() {
+    return 0.95;
+  }
+
+  /**
+   * The most extra reads hedging may add, as a percent of the reads.
+   *
+   * @return the percent.
+   */
+  @Value.Default
+  @JsonProperty("budgetPercent")
+  default double budgetPercent() {
+    return 5.0;
+  }
+
+  /**
+   * The shortest wait before a second read is sent, however fast the reads have been.
+   *
+   * @return in milliseconds.
+   */
+  @Value.Default
+  @JsonProperty("minDelayMillis")
+  default long minDelayMillis() {
+    return 1;
+  }
+
+  /**
+   * How many of the most recent latencies of each read the percentile is taken over.
+   *
+   * @return the samples.
+   */
+  @Value.Default
+  @JsonProperty("windowSize")
+  default int windowSize() {
+    return 1000;
+  }
+
+  /**
+   * The threads the reads run on. Reads past what they can take run on the caller without hedging.
+   *
+   * @return the threads.
+   */
+  @Value.Default
+  @JsonProperty("threads")
+  default int threads() {
+    return 64;
+  }
+
+}
@@ -25,6 +25,11 @@ public class KeyStoreConfiguration extends Configuration {
 
   private String dropWizardFactory;
   private DataStore dataStore;
+  private OwnerDeletionConfiguration ownerDeletion = ImmutableOwnerDeletionConfiguration.builder().build();
+  private RetentionConfiguration retention = ImmutableRetentionConfiguration.builder().build();
+  private MigrationConfiguration migration;
+  private TieredConfiguration tiered;
+  private HedgingConfiguration hedging;
 
   /**
    * Gets data store.
@@ -61,4 +66,94 @@ public class KeyStoreConfiguration extends Configuration {
   public void setDropWizardFactory(final String dropWizardFactory) {
     this.dropWizardFactory = dropWizardFactory;
   }
+
+  /**
+   * Gets owner deletion configuration.
+   *
+   * @return the owner deletion configuration
+   */
+  public OwnerDeletionConfiguration getOwnerDeletion() {
+    return ownerDeletion;
+  }
+
+  /**
+   * Sets owner deletion configuration.
+   *
+   * @param ownerDeletion the owner deletion configuration
+   */
+  public void setOwnerDeletion(final OwnerDeletionConfiguration ownerDeletion) {
+    this.ownerDeletion = ownerDeletion;
+  }
+
+  /**
+   * Gets retention configuration.
+   *
+   * @return the retention configuration
+   */
+  public RetentionConfiguration getRetention() {
+    return retention;
+  }
+
+  /**
+   * Sets retention configuration.
+   *
+   * @param retention the retention configuration
+   */
+  public void setRetention(final RetentionConfiguration retention) {
+    this.retention = retention;
+  }
+
+  /**
+   * Gets migration configuration, only used by the migrating server.
+   *
+   * @return the migration configuration
+   */
+  public MigrationConfiguration getMigration() {
+    return migration;
+  }
+
+  /**
+   * Sets migration configuration.
+   *
+   * @param migration the migration configuration
+   */
+  public void setMigration(final MigrationConfiguration migration) {
+    this.migration = migration;
+  }
+
+  /**
+   * Gets tiered configuration, only used by the tiered server.
+   *
+   * @return the tiered configuration
+   */
+  public TieredConfiguration getTiered() {
+    return tiered;
+  }
+
+  /**
+   * Sets tiered configuration.
+   *
+   * @param tiered the tiered configuration
+   */
+  public void setTiered(final TieredConfiguration tiered) {
+    this.tiered = tiered;
+  }
+
+  /**
+   * Gets hedging configuration, only used by the hedging server.
+   *
+   * @return the hedging configuration
+   */
+  public HedgingConfiguration getHedging() {
+    return hedging;
+  }
+
+  /**
+   * Sets hedging configuration.
+   *
+   * @param hedging the hedging configuration
+   */
+  public void setHedging(final HedgingConfiguration hedging) {
+    this.hedging = hedging;
+  }
 }
@@ -0,0 +1,92 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.codeheadsystems.keystore.config;
+package com.codeheadsystems.keystore.config;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import org.immutables.value.Value;
+
+/**
+ * Configuration for moving between datastores with the migrating server. The primary uses the dataStore of the
+ * service, the secondary its own.
+ */
+@Value.Immutable
+@JsonSerialize(as = ImmutableMigrationConfiguration.class)
+@JsonDeserialize(builder = ImmutableMigrationConfiguration.Builder.class)
+@JsonIgnoreProperties(ignoreUnknown = true)
+public interface MigrationConfiguration {
+
+  /**
+   * The drop wizard factory of the primary, which serves every read.
+   *
+   * @return the class name.
+   */
+  @JsonProperty("primaryFactory")
+  String primaryFactory();
+
+  /**
+   * The drop wizard factory of the secondary, which gets every write.
+   *
+   * @return the class name.
+   */
+  @JsonProperty("secondaryFactory")
+  String secondaryFactory();
+
+  /**
+   * Where the secondary is.
+   *
+   * @return the data store.
+   */
+  @JsonProperty("secondaryDataStore")
+  DataStore secondaryDataStore();
+
+  /**
+   * The fraction of reads repeated against the secondary to compare results and latency.
+   *
+   * @return between 0 and 1.
+   */
+  @Value.Default
+  @JsonProperty("shadowReadRate")
+  default double shadowReadRate() {
+    return 0.01;
+  }
+
+  /**
+   * The threads doing shadow reads. Shadow reads past what they keep up with are dropped.
+   *
+   * @return the threads.
+   */
+  @Value.Default
+  @JsonProperty("shadowReadThreads")
+  default int shadowReadThreads() {
+    return 2;
+  }
+
+  /**
+   * The shadow reads that may wait for a thread before new ones are dropped.
+   *
+   * @return the queue size.
+   */
+  @Value.Default
+  @JsonProperty("shadowReadQueue")
+  default int shadowReadQueue() {
+    return 1000;
+  }
+
+}
@@ -0,0 +1,78 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.codeheadsystems.keystore.config;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import java.util.Optional;
+import org.immutables.value.Value;
+
+/**
+ * Configuration for background owner deletion. The defaults are intentionally gentle on the datastore.
+ */
+@Value.Immutable
+@JsonSerialize(as = ImmutableOwnerDeletionConfiguration.class)
+@JsonDeserialize(builder = ImmutableOwnerDeletionConfiguration.Builder.class)
+@JsonIgnoreProperties(ignoreUnknown = true)
+public interface OwnerDeletionConfiguration {
+
+  /**
+   * The ceiling of datastore delete operations per second, across all deletion jobs.
+   *
+   * @return the ops per second.
+   */
+  @Value.Default
+  @JsonProperty("opsPerSecond")
+  default double opsPerSecond() {
+    return 50.0;
+  }
+
+  /**
+   * How many keys of an owner are deleted at once.
+   *
+   * @return the concurrency.
+   */
+  @Value.Default
+  @JsonProperty("concurrency")
+  default int concurrency() {
+    return 4;
+  }
+
+  /**
+   * How many passes over the owner's keys a job makes before giving up on a tenant that is still storing keys.
+   * The job fails past this, and can be queued again once the writes stop.
+   *
+   * @return the passes.
+   */
+  @Value.Default
+  @JsonProperty("maxPasses")
+  default int maxPasses() {
+    return 3;
+  }
+
+  /**
+   * Where the job checkpoints are kept so deletions resume after a restart. There is no default: it must be
+   * durable storage that survives a restart, which a temp directory usually is not. Without it, owner deletion
+   * is disabled and jobs are rejected.
+   *
+   * @return the directory.
+   */
+  @JsonProperty("checkpointDirectory")
+  Optional<String> checkpointDirectory();
+
+}
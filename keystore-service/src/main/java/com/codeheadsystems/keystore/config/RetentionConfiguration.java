@@ -0,0 +1,70 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.codeheadsystems.keystore.config;
+package com.codeheadsystems.keystore.config;
+
+import com.codeheadsystems.keystore.server.dao.model.ImmutableRetentionPolicies;
+import com.codeheadsystems.keystore.server.dao.model.RetentionPolicies;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import org.immutables.value.Value;
+
+/**
+ * Configuration for the retention of key versions. The dynamodb and cassandra datastores also expire versions
+ * on their own with ttls; the background pruner covers everything else, and the versions kept per key.
+ */
+@Value.Immutable
+@JsonSerialize(as = ImmutableRetentionConfiguration.class)
+@JsonDeserialize(builder = ImmutableRetentionConfiguration.Builder.class)
+@JsonIgnoreProperties(ignoreUnknown = true)
+public interface RetentionConfiguration {
+
+  /**
+   * The retention policies. The defaults keep everything, and the pruner does not run.
+   *
+   * @return the policies.
+   */
+  @Value.Default
+  @JsonProperty("policies")
+  default RetentionPolicies policies() {
+    return ImmutableRetentionPolicies.builder().build();
+  }
+
+  /**
+   * How long between prune runs. Zero disables the pruner.
+   *
+   * @return the interval in seconds.
+   */
+  @Value.Default
+  @JsonProperty("pruneIntervalSeconds")
+  default long pruneIntervalSeconds() {
+    return 3600L;
+  }
+
+  /**
+   * The ceiling of datastore operations per second of a prune run.
+   *
+   * @return the ops per second.
+   */
+  @Value.Default
+  @JsonProperty("opsPerSecond")
+  default double opsPerSecond() {
+    return 50.0;
+  }
+
+}
@@ -0,0 +1,85 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.config;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import org.immutables.value.Value;
+
+/**
+ * Configuration for the tiered server, which keeps a local persistent copy of the keys in front of the remote
+ * datastore. The remote uses the dataStore of the service, the local tier its own.
+ */
+@Value.Immutable
+@JsonSerialize(as = ImmutableTieredConfiguration.class)
+@JsonDeserialize(builder = ImmutableTieredConfiguration.Builder.class)
+@JsonIgnoreProperties(ignoreUnknown = true)
+public interface TieredConfiguration {
+
+  /**
+   * The drop wizard factory of the remote datastore, which holds the truth.
+   *
+   * @return the class name.
+   */
+  @JsonProperty("remoteFactory")
+  String remoteFactory();
+
+  /**
+   * The drop wizard factory of the local tier.
+   *
+   * @return the class name.
+   */
+  @Value.Default
+  @JsonProperty("localFactory")
+  default String localFactory() {
+    return "com.codeheadsystems.keystore.dagger.EmbeddedServer";
+  }
+
+  /**
+   * Where the local tier is, for the embedded tier the connection url is its directory.
+   *
+   * @return the data store.
+   */
+  @JsonProperty("localDataStore")
+  DataStore localDataStore();
+
+  /**
+   * How long an active version lookup is served locally before it is checked against the remote again.
+   *
+   * @return in milliseconds.
+   */
+  @Value.Default
+  @JsonProperty("activeTtlMillis")
+  default long activeTtlMillis() {
+    return 5000;
+  }
+
+  /**
+   * How long a local copy of a version is served before it is checked against the remote again, which bounds
+   * how long a version deleted on another node is still served here.
+   *
+   * @return in milliseconds.
+   */
+  @Value.Default
+  @JsonProperty("versionTtlMillis")
+  default long versionTtlMillis() {
+    return 60000;
+  }
+
+}
@@ -17,11 +17,17 @@
 package com.codeheadsystems.keystore.converter;
 
 import com.codeheadsystems.keystore.api.ImmutableKey;
+import com.codeheadsystems.keystore.api.ImmutableOwnerCapacity;
+import com.codeheadsystems.keystore.api.ImmutableOwnerDeletionStatus;
 import com.codeheadsystems.keystore.api.Key;
+import com.codeheadsystems.keystore.api.OwnerCapacity;
+import com.codeheadsystems.keystore.api.OwnerDeletionStatus;
+import com.codeheadsystems.keystore.model.OwnerDeletionCheckpoint;
 import com.codeheadsystems.keystore.server.dao.model.ImmutableKeyIdentifier;
 import com.codeheadsystems.keystore.server.dao.model.ImmutableKeyVersionIdentifier;
 import com.codeheadsystems.keystore.server.dao.model.KeyIdentifier;
 import com.codeheadsystems.keystore.server.dao.model.KeyVersionIdentifier;
+import java.util.Locale;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import org.slf4j.Logger;
@@ -102,4 +108,37 @@ public class ApiConverter {
         .status(daoKey.active() ? ACTIVE : INACTIVE)
         .build();
   }
+
+  /**
+   * Converts the deletion job checkpoint to its external status. The token is internal and never exposed.
+   *
+   * @param checkpoint to convert.
+   * @return the status.
+   */
+  public OwnerDeletionStatus toApiOwnerDeletionStatus(final OwnerDeletionCheckpoint checkpoint) {
+    return ImmutableOwnerDeletionStatus.builder()
+        .owner(checkpoint.owner())
+        .state(checkpoint.state().name().toLowerCase(Locale.ROOT))
+        .keysDeleted(checkpoint.keysDeleted())
+        .versionsDeleted(checkpoint.versionsDeleted())
+        .created(checkpoint.created())
+        .updated(checkpoint.updated())
+        .error(checkpoint.error())
+        .build();
+  }
+
+  /**
+   * Converts the capacity consumed by an owner.
+   *
+   * @param ownerCapacity to convert.
+   * @return the external capacity.
+   */
+  public OwnerCapacity toApiOwnerCapacity(
+      final com.codeheadsystems.keystore.server.dao.ddb.model.OwnerCapacity ownerCapacity) {
+    return ImmutableOwnerCapacity.builder()
+        .owner(ownerCapacity.owner())
+        .readCapacityUnits(ownerCapacity.readCapacityUnits())
+        .writeCapacityUnits(ownerCapacity.writeCapacityUnits())
+        .build();
+  }
 }
@@ -18,6 +18,7 @@ package com.codeheadsystems.keystore.dagger;
 
 import com.codeheadsystems.keystore.DropWizardFactory;
 import com.codeheadsystems.keystore.config.KeyStoreConfiguration;
+import com.codeheadsystems.keystore.server.dao.casssandra.configuration.ImmutableTableConfiguration;
 import com.codeheadsystems.keystore.server.dao.casssandra.dagger.CassandraModule;
 import com.codeheadsystems.keystore.server.dao.casssandra.dagger.CqlSessionModule;
 import com.codeheadsystems.metrics.dagger.MetricsModule;
@@ -62,6 +63,9 @@ public class CassandraServer implements DropWizardFactory {
     getAddress(configuration);
     return DaggerCassandraServer_CassandraComponent.builder()
         .cqlSessionModule(new CqlSessionModule(getAddress(configuration)))
+        .cassandraModule(new CassandraModule(ImmutableTableConfiguration.builder()
+            .retention(configuration.getRetention().policies())
+            .build()))
         .metricsModule(new MetricsModule(meterRegistry))
         .build();
   }
@@ -17,7 +17,10 @@
 package com.codeheadsystems.keystore.dagger;
 
 import com.codahale.metrics.health.HealthCheck;
+import com.codeheadsystems.keystore.manager.KeyTransferManager;
 import com.codeheadsystems.keystore.resource.JettyResource;
+import com.codeheadsystems.keystore.server.dao.KeyDao;
+import io.dropwizard.lifecycle.Managed;
 import java.util.Set;
 
 /**
@@ -39,4 +42,25 @@ public interface DropWizardComponent {
    */
   Set<HealthCheck> healthChecks();
 
+  /**
+   * Managed objects set.
+   *
+   * @return the set
+   */
+  Set<Managed> managed();
+
+  /**
+   * The export and import of the datastore, for the admin commands.
+   *
+   * @return the manager
+   */
+  KeyTransferManager keyTransferManager();
+
+  /**
+   * The datastore of this component, so other components can be built over it.
+   *
+   * @return the dao
+   */
+  KeyDao keyDao();
+
 }
@@ -19,13 +19,19 @@ package com.codeheadsystems.keystore.dagger;
 import com.codeheadsystems.keystore.DropWizardFactory;
 import com.codeheadsystems.keystore.config.DataStore;
 import com.codeheadsystems.keystore.config.KeyStoreConfiguration;
+import com.codeheadsystems.keystore.resource.CapacityAdminResource;
+import com.codeheadsystems.keystore.resource.JettyResource;
+import com.codeheadsystems.keystore.server.dao.ddb.configuration.HttpClientConfiguration;
 import com.codeheadsystems.keystore.server.dao.ddb.configuration.ImmutableTableConfiguration;
 import com.codeheadsystems.keystore.server.dao.ddb.dagger.DdbModule;
+import com.codeheadsystems.keystore.server.dao.ddb.factory.DynamoDbAsyncClientFactory;
 import com.codeheadsystems.keystore.server.dao.ddb.manager.AwsManager;
 import com.codeheadsystems.metrics.dagger.MetricsModule;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import dagger.Component;
 import dagger.Module;
 import dagger.Provides;
+import dagger.multibindings.IntoSet;
 import io.micrometer.core.instrument.MeterRegistry;
 import java.net.URI;
 import java.net.URISyntaxException;
@@ -35,6 +41,7 @@ import software.amazon.awssdk.auth.credentials.AwsCredentials;
 import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
 import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
 import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
 
 /**
@@ -48,6 +55,9 @@ public class DynamoDbServer implements DropWizardFactory {
     return DaggerDynamoDbServer_KeystoreDynamoDbComponent.builder()
         .keyStoreModule(new KeyStoreModule(configuration))
         .metricsModule(new MetricsModule(meterRegistry))
+        .ddbModule(new DdbModule(ImmutableTableConfiguration.builder()
+            .retention(configuration.getRetention().policies())
+            .build()))
         .build();
   }
 
@@ -95,6 +105,40 @@ public class DynamoDbServer implements DropWizardFactory {
           throw new IllegalStateException("Should not have happened given the hardcoded url", e);
         }
       }
+
+      /**
+       * Returns the async client, for the async accessor. The http client settings come from the datastore aux
+       * map, like {@code type: CRT} or {@code maxConcurrency: 100}.
+       *
+       * @param configuration for the keystore.
+       * @param factory       to build the client.
+       * @param objectMapper  to read the http client settings.
+       * @return an async db client.
+       */
+      @Provides
+      @Singleton
+      public DynamoDbAsyncClient localAsyncClient(final KeyStoreConfiguration configuration,
+                                                  final DynamoDbAsyncClientFactory factory,
+                                                  final ObjectMapper objectMapper) {
+        final DataStore dataStore = configuration.getDataStore();
+        final AwsCredentials credentials = AwsBasicCredentials.create(dataStore.username(), dataStore.password());
+        final HttpClientConfiguration httpClientConfiguration =
+            objectMapper.convertValue(dataStore.aux(), HttpClientConfiguration.class);
+        return factory.client(httpClientConfiguration, StaticCredentialsProvider.create(credentials),
+            Region.US_EAST_1, URI.create(dataStore.connectionUrl()));
+      }
+
+      /**
+       * The capacity admin resource, which only the dynamodb backend can back.
+       *
+       * @param resource the resource.
+       * @return the jetty resource.
+       */
+      @Provides
+      @IntoSet
+      public JettyResource capacityAdminResource(final CapacityAdminResource resource) {
+        return resource;
+      }
     }
 
   }
@@ -0,0 +1,107 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.dagger;
+
+import com.codeheadsystems.keystore.DropWizardFactory;
+import com.codeheadsystems.keystore.common.factory.ObjectMapperFactory;
+import com.codeheadsystems.keystore.config.DataStore;
+import com.codeheadsystems.keystore.config.KeyStoreConfiguration;
+import com.codeheadsystems.keystore.server.dao.EmbeddedKeyDao;
+import com.codeheadsystems.keystore.server.dao.embedded.configuration.EmbeddedConfiguration;
+import com.codeheadsystems.keystore.server.dao.embedded.dagger.EmbeddedModule;
+import com.codeheadsystems.metrics.dagger.MetricsModule;
+import dagger.Component;
+import dagger.Module;
+import dagger.Provides;
+import dagger.multibindings.IntoSet;
+import io.dropwizard.lifecycle.Managed;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.HashMap;
+import java.util.Map;
+import javax.inject.Singleton;
+
+/**
+ * Builds out a drop wizard component where the keys are in an embedded segment log, for single node and sidecar
+ * deployments. The connection url is the directory of the log, and the segment, fsync and compaction settings
+ * come from the datastore aux map, like {@code fsyncPolicy: INTERVAL}.
+ */
+public class EmbeddedServer implements DropWizardFactory {
+
+  /**
+   * Reads the embedded configuration from the datastore.
+   *
+   * @param dataStore of the service.
+   * @return the embedded configuration.
+   */
+  static EmbeddedConfiguration embeddedConfiguration(final DataStore dataStore) {
+    final Map<String, String> values = new HashMap<>(dataStore.aux());
+    values.put("directory", dataStore.connectionUrl());
+    return new ObjectMapperFactory().generate().convertValue(values, EmbeddedConfiguration.class);
+  }
+
+  @Override
+  public DropWizardComponent build(final KeyStoreConfiguration configuration,
+                                   final MeterRegistry meterRegistry) {
+    return DaggerEmbeddedServer_EmbeddedComponent.builder()
+        .keyStoreModule(new KeyStoreModule(configuration))
+        .metricsModule(new MetricsModule(meterRegistry))
+        .embeddedModule(new EmbeddedModule(embeddedConfiguration(configuration.getDataStore())))
+        .build();
+  }
+
+  /**
+   * The dagger component to build.
+   */
+  @Singleton
+  @Component(modules = {
+      EmbeddedModule.class,
+      CloseModule.class,
+      KeyStoreModule.class})
+  public interface EmbeddedComponent extends DropWizardComponent {
+
+  }
+
+  /**
+   * Forces and closes the log when the service stops.
+   */
+  @Module
+  public static class CloseModule {
+
+    /**
+     * Close managed.
+     *
+     * @param dao the dao to close.
+     * @return the managed
+     */
+    @Provides
+    @IntoSet
+    public Managed close(final EmbeddedKeyDao dao) {
+      return new Managed() {
+        @Override
+        public void start() {
+          // recovered when the dao was built.
+        }
+
+        @Override
+        public void stop() {
+          dao.close();
+        }
+      };
+    }
+  }
+
+}
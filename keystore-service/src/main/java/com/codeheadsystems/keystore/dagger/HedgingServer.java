@@ -0,0 +1,113 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.dagger;
+
+import com.codeheadsystems.keystore.DropWizardFactory;
+import com.codeheadsystems.keystore.config.HedgingConfiguration;
+import com.codeheadsystems.keystore.config.KeyStoreConfiguration;
+import com.codeheadsystems.keystore.dao.HedgingKeyDao;
+import com.codeheadsystems.keystore.server.dao.KeyDao;
+import com.codeheadsystems.metrics.dagger.MetricsModule;
+import dagger.Binds;
+import dagger.Component;
+import dagger.Module;
+import dagger.Provides;
+import io.micrometer.core.instrument.MeterRegistry;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+/**
+ * Builds out a drop wizard component that hedges the reads against a datastore. The datastore comes from its own
+ * drop wizard factory, so any of them, cassandra and dynamodb included, can be hedged.
+ */
+public class HedgingServer implements DropWizardFactory {
+
+  @Override
+  public DropWizardComponent build(final KeyStoreConfiguration configuration,
+                                   final MeterRegistry meterRegistry) {
+    final HedgingConfiguration hedging = configuration.getHedging();
+    if (hedging == null) {
+      throw new IllegalStateException("The hedging server needs a hedging configuration");
+    }
+    final KeyDao delegate = MigratingServer.backend(configuration, hedging.delegateFactory(),
+        configuration.getDataStore(), meterRegistry);
+    return DaggerHedgingServer_HedgingComponent.builder()
+        .auxModule(new HedgingComponent.AuxModule(delegate))
+        .keyStoreModule(new KeyStoreModule(configuration))
+        .metricsModule(new MetricsModule(meterRegistry))
+        .build();
+  }
+
+  /**
+   * The dagger component to build.
+   */
+  @Singleton
+  @Component(modules = {
+      HedgingComponent.AuxModule.class,
+      HedgingComponent.Binder.class,
+      KeyStoreModule.class})
+  public interface HedgingComponent extends DropWizardComponent {
+
+    /**
+     * Provides the datastore.
+     */
+    @Module
+    class AuxModule {
+
+      private final KeyDao delegate;
+
+      /**
+       * Default constructor.
+       *
+       * @param delegate the datastore.
+       */
+      public AuxModule(final KeyDao delegate) {
+        this.delegate = delegate;
+      }
+
+      /**
+       * The delegate dao.
+       *
+       * @return the dao.
+       */
+      @Provides
+      @Singleton
+      @Named(HedgingKeyDao.DELEGATE)
+      public KeyDao delegate() {
+        return delegate;
+      }
+    }
+
+    /**
+     * Binds the hedging dao as the dao of the service.
+     */
+    @Module
+    interface Binder {
+
+      /**
+       * Key dao.
+       *
+       * @param dao the dao
+       * @return the key dao
+       */
+      @Binds
+      KeyDao keyDao(HedgingKeyDao dao);
+    }
+
+  }
+
+}
@@ -27,6 +27,7 @@ import javax.inject.Singleton;
  */
 @Module(includes = {
     HealthCheckModule.class,
+    ManagedModule.class,
     MetricsModule.class,
     ResourceModule.class,
     RngModule.class
@@ -0,0 +1,51 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.codeheadsystems.keystore.dagger;
+
+import com.codeheadsystems.keystore.manager.OwnerDeletionManager;
+import com.codeheadsystems.keystore.manager.RetentionManager;
+import dagger.Binds;
+import dagger.Module;
+import dagger.multibindings.IntoSet;
+import io.dropwizard.lifecycle.Managed;
+
+/**
+ * Objects whose lifecycle is managed by drop wizard, started before the server accepts requests.
+ */
+@Module
+public interface ManagedModule {
+
+  /**
+   * Owner deletion manager managed.
+   *
+   * @param manager the manager
+   * @return the managed
+   */
+  @Binds
+  @IntoSet
+  Managed ownerDeletionManager(OwnerDeletionManager manager);
+
+  /**
+   * Retention manager managed.
+   *
+   * @param manager the manager
+   * @return the managed
+   */
+  @Binds
+  @IntoSet
+  Managed retentionManager(RetentionManager manager);
+
+}
@@ -0,0 +1,109 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.dagger;
+
+import com.codeheadsystems.keystore.DropWizardFactory;
+import com.codeheadsystems.keystore.common.factory.ObjectMapperFactory;
+import com.codeheadsystems.keystore.config.DataStore;
+import com.codeheadsystems.keystore.config.KeyStoreConfiguration;
+import com.codeheadsystems.keystore.server.dao.MemoryKeyDao;
+import com.codeheadsystems.keystore.server.dao.memory.configuration.MemoryConfiguration;
+import com.codeheadsystems.keystore.server.dao.memory.dagger.MemoryModule;
+import com.codeheadsystems.metrics.dagger.MetricsModule;
+import dagger.Component;
+import dagger.Module;
+import dagger.Provides;
+import dagger.multibindings.IntoSet;
+import io.dropwizard.lifecycle.Managed;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.HashMap;
+import java.util.Map;
+import javax.inject.Singleton;
+
+/**
+ * Builds out a drop wizard component where the keys are only held in memory, for edge nodes and benchmarks.
+ * A non-empty connection url is the snapshot file, which is restored on startup and written on shutdown. The
+ * page size and snapshot interval come from the datastore aux map, like {@code snapshotIntervalSeconds: 60}.
+ */
+public class MemoryServer implements DropWizardFactory {
+
+  /**
+   * Reads the memory configuration from the datastore.
+   *
+   * @param dataStore of the service.
+   * @return the memory configuration.
+   */
+  static MemoryConfiguration memoryConfiguration(final DataStore dataStore) {
+    final Map<String, String> values = new HashMap<>(dataStore.aux());
+    if (!dataStore.connectionUrl().isBlank()) {
+      values.put("snapshotFile", dataStore.connectionUrl());
+    }
+    return new ObjectMapperFactory().generate().convertValue(values, MemoryConfiguration.class);
+  }
+
+  @Override
+  public DropWizardComponent build(final KeyStoreConfiguration configuration,
+                                   final MeterRegistry meterRegistry) {
+    return DaggerMemoryServer_MemoryComponent.builder()
+        .keyStoreModule(new KeyStoreModule(configuration))
+        .metricsModule(new MetricsModule(meterRegistry))
+        .memoryModule(new MemoryModule(memoryConfiguration(configuration.getDataStore())))
+        .build();
+  }
+
+  /**
+   * The dagger component to build.
+   */
+  @Singleton
+  @Component(modules = {
+      MemoryModule.class,
+      SnapshotModule.class,
+      KeyStoreModule.class})
+  public interface MemoryComponent extends DropWizardComponent {
+
+  }
+
+  /**
+   * Snapshots the keys when the service stops.
+   */
+  @Module
+  public static class SnapshotModule {
+
+    /**
+     * Snapshot managed.
+     *
+     * @param dao the dao to snapshot.
+     * @return the managed
+     */
+    @Provides
+    @IntoSet
+    public Managed snapshot(final MemoryKeyDao dao) {
+      return new Managed() {
+        @Override
+        public void start() {
+          // restored when the dao was built.
+        }
+
+        @Override
+        public void stop() {
+          dao.snapshot();
+        }
+      };
+    }
+  }
+
+}
@@ -0,0 +1,155 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.dagger;
+
+import com.codeheadsystems.keystore.DropWizardFactory;
+import com.codeheadsystems.keystore.config.DataStore;
+import com.codeheadsystems.keystore.config.KeyStoreConfiguration;
+import com.codeheadsystems.keystore.config.MigrationConfiguration;
+import com.codeheadsystems.keystore.dao.MigratingKeyDao;
+import com.codeheadsystems.keystore.server.dao.KeyDao;
+import com.codeheadsystems.metrics.dagger.MetricsModule;
+import dagger.Binds;
+import dagger.Component;
+import dagger.Module;
+import dagger.Provides;
+import io.micrometer.core.instrument.MeterRegistry;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+/**
+ * Builds out a drop wizard component that writes to two datastores while moving between them. Each datastore
+ * comes from its own drop wizard factory, and the service runs over the migrating dao that joins them. Swap the
+ * primary and secondary once the secondary is caught up, then drop the migration.
+ */
+public class MigratingServer implements DropWizardFactory {
+
+  @Override
+  public DropWizardComponent build(final KeyStoreConfiguration configuration,
+                                   final MeterRegistry meterRegistry) {
+    final MigrationConfiguration migration = configuration.getMigration();
+    if (migration == null) {
+      throw new IllegalStateException("The migrating server needs a migration configuration");
+    }
+    final KeyDao primary = backend(configuration, migration.primaryFactory(), configuration.getDataStore(),
+        meterRegistry);
+    final KeyDao secondary = backend(configuration, migration.secondaryFactory(), migration.secondaryDataStore(),
+        meterRegistry);
+    return DaggerMigratingServer_MigratingComponent.builder()
+        .auxModule(new MigratingComponent.AuxModule(primary, secondary))
+        .keyStoreModule(new KeyStoreModule(configuration))
+        .metricsModule(new MetricsModule(meterRegistry))
+        .build();
+  }
+
+  /**
+   * Builds one of the datastores with its own factory. Only its dao is used.
+   *
+   * @param configuration of the service.
+   * @param factory       the drop wizard factory of the datastore.
+   * @param dataStore     where the datastore is.
+   * @param meterRegistry for reporting.
+   * @return the dao of the datastore.
+   */
+  static KeyDao backend(final KeyStoreConfiguration configuration,
+                        final String factory,
+                        final DataStore dataStore,
+                        final MeterRegistry meterRegistry) {
+    final KeyStoreConfiguration backendConfiguration = new KeyStoreConfiguration();
+    backendConfiguration.setDropWizardFactory(factory);
+    backendConfiguration.setDataStore(dataStore);
+    backendConfiguration.setOwnerDeletion(configuration.getOwnerDeletion());
+    return DropWizardFactory.getDropWizardFactory(backendConfiguration)
+        .build(backendConfiguration, meterRegistry)
+        .keyDao();
+  }
+
+  /**
+   * The dagger component to build.
+   */
+  @Singleton
+  @Component(modules = {
+      MigratingComponent.AuxModule.class,
+      MigratingComponent.Binder.class,
+      KeyStoreModule.class})
+  public interface MigratingComponent extends DropWizardComponent {
+
+    /**
+     * Provides the two datastores.
+     */
+    @Module
+    class AuxModule {
+
+      private final KeyDao primary;
+      private final KeyDao secondary;
+
+      /**
+       * Default constructor.
+       *
+       * @param primary   the datastore reads are served from.
+       * @param secondary the datastore being migrated to or from.
+       */
+      public AuxModule(final KeyDao primary,
+                       final KeyDao secondary) {
+        this.primary = primary;
+        this.secondary = secondary;
+      }
+
+      /**
+       * The primary dao.
+       *
+       * @return the dao.
+       */
+      @Provides
+      @Singleton
+      @Named(MigratingKeyDao.PRIMARY)
+      public KeyDao primary() {
+        return primary;
+      }
+
+      /**
+       * The secondary dao.
+       *
+       * @return the dao.
+       */
+      @Provides
+      @Singleton
+      @Named(MigratingKeyDao.SECONDARY)
+      public KeyDao secondary() {
+        return secondary;
+      }
+    }
+
+    /**
+     * Binds the migrating dao as the dao of the service.
+     */
+    @Module
+    interface Binder {
+
+      /**
+       * Key dao.
+       *
+       * @param dao the dao
+       * @return the key dao
+       */
+      @Binds
+      KeyDao keyDao(MigratingKeyDao dao);
+    }
+
+  }
+
+}
@@ -20,6 +20,7 @@ import com.codeheadsystems.keystore.resource.JettyResource;
 import com.codeheadsystems.keystore.resource.KeyManagerResource;
 import com.codeheadsystems.keystore.resource.KeyReaderResource;
 import com.codeheadsystems.keystore.resource.KeyRotationResource;
+import com.codeheadsystems.keystore.resource.OwnerAdminResource;
 import dagger.Binds;
 import dagger.Module;
 import dagger.multibindings.IntoSet;
@@ -59,4 +60,14 @@ public interface ResourceModule {
   @Binds
   @IntoSet
   JettyResource keyRotationResource(KeyRotationResource resource);
+
+  /**
+   * Owner admin resource jetty resource.
+   *
+   * @param resource the resource
+   * @return the jetty resource
+   */
+  @Binds
+  @IntoSet
+  JettyResource ownerAdminResource(OwnerAdminResource resource);
 }
@@ -0,0 +1,83 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.dagger;
+
+import com.codeheadsystems.keystore.DropWizardFactory;
+import com.codeheadsystems.keystore.common.factory.ObjectMapperFactory;
+import com.codeheadsystems.keystore.config.DataStore;
+import com.codeheadsystems.keystore.config.KeyStoreConfiguration;
+import com.codeheadsystems.keystore.server.dao.sql.configuration.SqlConfiguration;
+import com.codeheadsystems.keystore.server.dao.sql.dagger.SqlModule;
+import com.codeheadsystems.keystore.server.dao.sql.manager.SchemaManager;
+import com.codeheadsystems.metrics.dagger.MetricsModule;
+import dagger.Component;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.HashMap;
+import java.util.Map;
+import javax.inject.Singleton;
+
+/**
+ * Builds out a drop wizard component where the backend is a sql database. The connection url is the jdbc url,
+ * and the pool and paging settings come from the datastore aux map, like {@code maximumPoolSize: 20}.
+ */
+public class SqlServer implements DropWizardFactory {
+
+  /**
+   * Reads the sql configuration from the datastore.
+   *
+   * @param dataStore of the service.
+   * @return the sql configuration.
+   */
+  static SqlConfiguration sqlConfiguration(final DataStore dataStore) {
+    final Map<String, String> values = new HashMap<>(dataStore.aux());
+    values.put("jdbcUrl", dataStore.connectionUrl());
+    values.put("username", dataStore.username());
+    values.put("password", dataStore.password());
+    return new ObjectMapperFactory().generate().convertValue(values, SqlConfiguration.class);
+  }
+
+  @Override
+  public DropWizardComponent build(final KeyStoreConfiguration configuration,
+                                   final MeterRegistry meterRegistry) {
+    final SqlComponent component = DaggerSqlServer_SqlComponent.builder()
+        .keyStoreModule(new KeyStoreModule(configuration))
+        .metricsModule(new MetricsModule(meterRegistry))
+        .sqlModule(new SqlModule(sqlConfiguration(configuration.getDataStore())))
+        .build();
+    component.schemaManager().createSchema();
+    return component;
+  }
+
+  /**
+   * The dagger component to build.
+   */
+  @Singleton
+  @Component(modules = {
+      SqlModule.class,
+      KeyStoreModule.class})
+  public interface SqlComponent extends DropWizardComponent {
+
+    /**
+     * Creates the tables on startup.
+     *
+     * @return the schema manager.
+     */
+    SchemaManager schemaManager();
+
+  }
+
+}
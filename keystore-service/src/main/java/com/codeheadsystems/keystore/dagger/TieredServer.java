@@ -0,0 +1,141 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.dagger;
+
+import com.codeheadsystems.keystore.DropWizardFactory;
+import com.codeheadsystems.keystore.config.KeyStoreConfiguration;
+import com.codeheadsystems.keystore.config.TieredConfiguration;
+import com.codeheadsystems.keystore.dao.TieredKeyDao;
+import com.codeheadsystems.keystore.server.dao.KeyDao;
+import com.codeheadsystems.metrics.dagger.MetricsModule;
+import dagger.Binds;
+import dagger.Component;
+import dagger.Module;
+import dagger.Provides;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Builds out a drop wizard component with a local persistent tier in front of the remote datastore. Each comes
+ * from its own drop wizard factory, and the service runs over the tiered dao that joins them. How long the local
+ * tier took to open, which is the warm start, is logged and reported.
+ */
+public class TieredServer implements DropWizardFactory {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(TieredServer.class);
+
+  @Override
+  public DropWizardComponent build(final KeyStoreConfiguration configuration,
+                                   final MeterRegistry meterRegistry) {
+    final TieredConfiguration tiered = configuration.getTiered();
+    if (tiered == null) {
+      throw new IllegalStateException("The tiered server needs a tiered configuration");
+    }
+    final KeyDao remote = MigratingServer.backend(configuration, tiered.remoteFactory(),
+        configuration.getDataStore(), meterRegistry);
+    final long start = System.nanoTime();
+    final KeyDao local = MigratingServer.backend(configuration, tiered.localFactory(), tiered.localDataStore(),
+        meterRegistry);
+    final Duration warmStart = Duration.ofNanos(System.nanoTime() - start);
+    meterRegistry.timer(TieredKeyDao.WARM_START_METRIC).record(warmStart);
+    LOGGER.info("build: local tier opened in {}", warmStart);
+    return DaggerTieredServer_TieredComponent.builder()
+        .auxModule(new TieredComponent.AuxModule(remote, local))
+        .keyStoreModule(new KeyStoreModule(configuration))
+        .metricsModule(new MetricsModule(meterRegistry))
+        .build();
+  }
+
+  /**
+   * The dagger component to build.
+   */
+  @Singleton
+  @Component(modules = {
+      TieredComponent.AuxModule.class,
+      TieredComponent.Binder.class,
+      KeyStoreModule.class})
+  public interface TieredComponent extends DropWizardComponent {
+
+    /**
+     * Provides the two tiers.
+     */
+    @Module
+    class AuxModule {
+
+      private final KeyDao remote;
+      private final KeyDao local;
+
+      /**
+       * Default constructor.
+       *
+       * @param remote the datastore that holds the truth.
+       * @param local  the local persistent tier.
+       */
+      public AuxModule(final KeyDao remote,
+                       final KeyDao local) {
+        this.remote = remote;
+        this.local = local;
+      }
+
+      /**
+       * The remote dao.
+       *
+       * @return the dao.
+       */
+      @Provides
+      @Singleton
+      @Named(TieredKeyDao.REMOTE)
+      public KeyDao remote() {
+        return remote;
+      }
+
+      /**
+       * The local dao.
+       *
+       * @return the dao.
+       */
+      @Provides
+      @Singleton
+      @Named(TieredKeyDao.LOCAL)
+      public KeyDao local() {
+        return local;
+      }
+    }
+
+    /**
+     * Binds the tiered dao as the dao of the service.
+     */
+    @Module
+    interface Binder {
+
+      /**
+       * Key dao.
+       *
+       * @param dao the dao
+       * @return the key dao
+       */
+      @Binds
+      KeyDao keyDao(TieredKeyDao dao);
+    }
+
+  }
+
+}
@@ -0,0 +1,384 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.dao;
+
+import com.codeheadsystems.keystore.config.HedgingConfiguration;
+import com.codeheadsystems.keystore.config.KeyStoreConfiguration;
+import com.codeheadsystems.keystore.server.dao.KeyDao;
+import com.codeheadsystems.keystore.server.dao.model.Batch;
+import com.codeheadsystems.keystore.server.dao.model.Key;
+import com.codeheadsystems.keystore.server.dao.model.KeyIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.KeyVersionIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.OwnerIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.Token;
+import com.codeheadsystems.keystore.server.exception.DependencyException;
+import com.codeheadsystems.metrics.Metrics;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cuts the tail latency of reads from a slow replica or partition. Reads run on their own threads, and when one
+ * has not answered within the recent latency percentile of that read, an identical second read is sent. The
+ * first answer wins and the other read is cancelled. Only reads are hedged, since they can safely run twice;
+ * writes and deletes go straight to the datastore on the caller.
+ * <p>
+ * Hedges are paid for out of a budget that every read adds a little to, so hedging never adds more than the
+ * configured percent of extra reads, even when the datastore is slow across the board.
+ */
+@Singleton
+public class HedgingKeyDao implements KeyDao {
+
+  /**
+   * The constant DELEGATE.
+   */
+  public static final String DELEGATE = "delegate";
+  /**
+   * The constant PREFIX.
+   */
+  public static final String PREFIX = "hedgingkeydao.";
+  /**
+   * The constant METHOD tag.
+   */
+  public static final String METHOD = "method";
+  /**
+   * The constant REASON tag.
+   */
+  public static final String REASON = "reason";
+  /**
+   * The constant HEDGE_SENT_METRIC.
+   */
+  public static final String HEDGE_SENT_METRIC = PREFIX + "hedge.sent";
+  /**
+   * The constant HEDGE_WON_METRIC, hedges that answered before the first read.
+   */
+  public static final String HEDGE_WON_METRIC = PREFIX + "hedge.won";
+  /**
+   * The constant HEDGE_SKIPPED_METRIC, tagged with the reason: out of budget, or no thread free.
+   */
+  public static final String HEDGE_SKIPPED_METRIC = PREFIX + "hedge.skipped";
+  /**
+   * The constant DELAY_METRIC, the current wait before a hedge is sent.
+   */
+  public static final String DELAY_METRIC = PREFIX + "delay";
+  private static final Logger LOGGER = LoggerFactory.getLogger(HedgingKeyDao.class);
+  private static final long HEDGE = 1000; // budget credits per hedge.
+  private static final long BURST = 10; // hedges the budget can save up.
+
+  private final KeyDao delegate;
+  private final double percentile;
+  private final int windowSize;
+  private final long minDelayNanos;
+  private final long creditsPerRead;
+  private final ExecutorService executorService;
+  private final MeterRegistry registry;
+  private final Map<String, Tracker> trackers = new ConcurrentHashMap<>();
+  private final AtomicLong credits = new AtomicLong();
+
+  /**
+   * Default constructor.
+   *
+   * @param delegate      the datastore.
+   * @param configuration for the hedging.
+   * @param metrics       for reporting.
+   */
+  @Inject
+  public HedgingKeyDao(@Named(DELEGATE) final KeyDao delegate,
+                       final KeyStoreConfiguration configuration,
+                       final Metrics metrics) {
+    this(delegate, configuration.getHedging(), executorService(configuration.getHedging()), metrics);
+  }
+
+  /**
+   * Constructor with the executor given.
+   *
+   * @param delegate        the datastore.
+   * @param configuration   for the hedging.
+   * @param executorService runs the reads.
+   * @param metrics         for reporting.
+   */
+  HedgingKeyDao(final KeyDao delegate,
+                final HedgingConfiguration configuration,
+                final ExecutorService executorService,
+                final Metrics metrics) {
+    LOGGER.info("HedgingKeyDao({},{})", delegate, configuration);
+    this.delegate = delegate;
+    this.percentile = configuration.percentile();
+    this.windowSize = configuration.windowSize();
+    this.minDelayNanos = TimeUnit.MILLISECONDS.toNanos(configuration.minDelayMillis());
+    this.creditsPerRead = Math.round(configuration.budgetPercent() * HEDGE / 100);
+    this.executorService = executorService;
+    this.registry = metrics.registry();
+  }
+
+  private static ExecutorService executorService(final HedgingConfiguration configuration) {
+    final AtomicInteger count = new AtomicInteger();
+    return new ThreadPoolExecutor(configuration.threads(), configuration.threads(),
+        0L, TimeUnit.MILLISECONDS, new SynchronousQueue<>(), runnable -> {
+          final Thread thread = new Thread(runnable, "hedged-read-" + count.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        });
+  }
+
+  @Override
+  public void store(final Key key) {
+    delegate.store(key);
+  }
+
+  @Override
+  public void storeAll(final Collection<Key> keys) {
+    delegate.storeAll(keys);
+  }
+
+  @Override
+  public Key storeNextVersion(final KeyIdentifier identifier,
+                              final Function<KeyVersionIdentifier, Key> factory) {
+    return delegate.storeNextVersion(identifier, factory);
+  }
+
+  @Override
+  public OwnerIdentifier storeOwner(final String owner) {
+    return delegate.storeOwner(owner);
+  }
+
+  @Override
+  public Optional<Key> load(final KeyVersionIdentifier identifier) {
+    return read("loadKeyVersion", dao -> dao.load(identifier));
+  }
+
+  @Override
+  public List<Key> loadAll(final Collection<KeyVersionIdentifier> identifiers) {
+    return read("loadAll", dao -> dao.loadAll(identifiers));
+  }
+
+  @Override
+  public Optional<Key> load(final KeyIdentifier identifier) {
+    return read("loadKey", dao -> dao.load(identifier));
+  }
+
+  @Override
+  public Optional<OwnerIdentifier> loadOwner(final String ownerName) {
+    return read("loadOwner", dao -> dao.loadOwner(ownerName));
+  }
+
+  @Override
+  public Batch<OwnerIdentifier> listOwners(final Token nextToken) {
+    return read("listOwners", dao -> dao.listOwners(nextToken));
+  }
+
+  @Override
+  public Batch<KeyIdentifier> listKeys(final OwnerIdentifier identifier,
+                                       final Token nextToken) {
+    return read("listKeys", dao -> dao.listKeys(identifier, nextToken));
+  }
+
+  @Override
+  public Batch<KeyVersionIdentifier> listVersions(final KeyIdentifier identifier,
+                                                  final Token nextToken) {
+    return read("listVersions", dao -> dao.listVersions(identifier, nextToken));
+  }
+
+  @Override
+  public boolean delete(final KeyVersionIdentifier identifier) {
+    return delegate.delete(identifier);
+  }
+
+  @Override
+  public boolean delete(final KeyIdentifier identifier) {
+    return delegate.delete(identifier);
+  }
+
+  @Override
+  public boolean delete(final OwnerIdentifier identifier) {
+    return delegate.delete(identifier);
+  }
+
+  private <T> T read(final String method,
+                     final Function<KeyDao, T> call) {
+    final Tracker tracker = trackers.computeIfAbsent(method, Tracker::new);
+    credits.accumulateAndGet(creditsPerRead, (current, add) -> Math.min(HEDGE * BURST, current + add));
+    final Race<T> race = new Race<>(call, tracker);
+    final Future<?> first;
+    try {
+      first = executorService.submit(() -> race.run(0));
+    } catch (RejectedExecutionException e) {
+      skipped(method, "busy");
+      final long start = System.nanoTime();
+      final T result = call.apply(delegate);
+      tracker.record(System.nanoTime() - start);
+      return result;
+    }
+    Future<?> second = null;
+    try {
+      try {
+        return race.result.get(tracker.delayNanos, TimeUnit.NANOSECONDS);
+      } catch (TimeoutException e) {
+        second = hedge(method, race);
+        final T result = race.result.get();
+        if (race.winner.get() == 1) {
+          registry.counter(HEDGE_WON_METRIC, METHOD, method).increment();
+        }
+        return result;
+      }
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException runtimeException) {
+        throw runtimeException;
+      }
+      throw new DependencyException("Unable to " + method, e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new DependencyException("Interrupted waiting to " + method, e);
+    } finally {
+      first.cancel(true);
+      if (second != null) {
+        second.cancel(true);
+      }
+    }
+  }
+
+  /**
+   * Sends the second read if the budget and the threads allow it.
+   */
+  private <T> Future<?> hedge(final String method,
+                              final Race<T> race) {
+    if (!withdraw()) {
+      skipped(method, "budget");
+      return null;
+    }
+    race.pending.incrementAndGet();
+    try {
+      final Future<?> future = executorService.submit(() -> race.run(1));
+      registry.counter(HEDGE_SENT_METRIC, METHOD, method).increment();
+      return future;
+    } catch (RejectedExecutionException e) {
+      race.pending.decrementAndGet();
+      credits.addAndGet(HEDGE);
+      skipped(method, "busy");
+      return null;
+    }
+  }
+
+  private boolean withdraw() {
+    long current;
+    do {
+      current = credits.get();
+      if (current < HEDGE) {
+        return false;
+      }
+    } while (!credits.compareAndSet(current, current - HEDGE));
+    return true;
+  }
+
+  private void skipped(final String method, final String reason) {
+    registry.counter(HEDGE_SKIPPED_METRIC, METHOD, method, REASON, reason).increment();
+  }
+
+  /**
+   * One read and its hedge. The first answer completes the result; a failure only does once no read is left
+   * that could still answer.
+   */
+  private final class Race<T> {
+
+    private final Function<KeyDao, T> call;
+    private final Tracker tracker;
+    private final CompletableFuture<T> result = new CompletableFuture<>();
+    private final AtomicInteger pending = new AtomicInteger(1);
+    private final AtomicInteger winner = new AtomicInteger(-1);
+
+    private Race(final Function<KeyDao, T> call,
+                 final Tracker tracker) {
+      this.call = call;
+      this.tracker = tracker;
+    }
+
+    private void run(final int attempt) {
+      if (result.isDone()) {
+        return;
+      }
+      final long start = System.nanoTime();
+      try {
+        final T value = call.apply(delegate);
+        tracker.record(System.nanoTime() - start);
+        if (winner.compareAndSet(-1, attempt)) {
+          result.complete(value);
+        }
+      } catch (RuntimeException e) {
+        if (pending.decrementAndGet() == 0) {
+          result.completeExceptionally(e);
+        }
+      }
+    }
+  }
+
+  /**
+   * The recent latencies of one read, and the percentile of them a hedge waits for. The percentile is taken again
+   * every tenth of the window, and until then no hedge is sent.
+   */
+  private final class Tracker {
+
+    private final long[] samples = new long[windowSize];
+    private final int every = Math.max(1, windowSize / 10);
+    private int next;
+    private int count;
+    private int since;
+    private volatile long delayNanos = Long.MAX_VALUE;
+
+    private Tracker(final String method) {
+      Gauge.builder(DELAY_METRIC, this, t -> t.delayNanos == Long.MAX_VALUE ? Double.NaN : t.delayNanos / 1e6)
+          .tag(METHOD, method)
+          .baseUnit("milliseconds")
+          .register(registry);
+    }
+
+    private synchronized void record(final long nanos) {
+      samples[next] = nanos;
+      next = (next + 1) % samples.length;
+      count = Math.min(count + 1, samples.length);
+      if (++since >= every) {
+        since = 0;
+        final long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        final int index = Math.max(0, (int) Math.ceil(percentile * count) - 1);
+        delayNanos = Math.max(minDelayNanos, sorted[index]);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,322 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.dao;
+
+import com.codeheadsystems.keystore.config.KeyStoreConfiguration;
+import com.codeheadsystems.keystore.config.MigrationConfiguration;
+import com.codeheadsystems.keystore.server.dao.KeyDao;
+import com.codeheadsystems.keystore.server.dao.model.Batch;
+import com.codeheadsystems.keystore.server.dao.model.Key;
+import com.codeheadsystems.keystore.server.dao.model.KeyIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.KeyVersionIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.OwnerIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.Token;
+import com.codeheadsystems.metrics.Metrics;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.BiPredicate;
+import java.util.function.Function;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Moves the service between datastores without downtime. Every write goes to the primary and then the
+ * secondary, and every read is served by the primary. A sampled fraction of reads is repeated against the
+ * secondary on its own threads and the results compared, and both backends are timed under the same metric
+ * names so their latency can be compared side by side.
+ * <p>
+ * The primary is authoritative: its failures go to the caller, while a failed secondary write is logged and
+ * counted so the secondary can be repaired, for example with an import, before it is promoted.
+ */
+@Singleton
+public class MigratingKeyDao implements KeyDao {
+
+  /**
+   * The constant PRIMARY.
+   */
+  public static final String PRIMARY = "primary";
+  /**
+   * The constant SECONDARY.
+   */
+  public static final String SECONDARY = "secondary";
+  /**
+   * The constant PREFIX.
+   */
+  public static final String PREFIX = "migratingdao.";
+  /**
+   * The constant BACKEND tag.
+   */
+  public static final String BACKEND = "backend";
+  /**
+   * The constant METHOD tag.
+   */
+  public static final String METHOD = "method";
+  /**
+   * The constant RESULT tag.
+   */
+  public static final String RESULT = "result";
+  /**
+   * The constant SHADOW_METRIC, tagged with the method and the result of the comparison.
+   */
+  public static final String SHADOW_METRIC = PREFIX + "shadow";
+  /**
+   * The constant SECONDARY_WRITE_FAILED_METRIC.
+   */
+  public static final String SECONDARY_WRITE_FAILED_METRIC = PREFIX + "secondary.write.failed";
+  private static final Logger LOGGER = LoggerFactory.getLogger(MigratingKeyDao.class);
+
+  private final KeyDao primary;
+  private final KeyDao secondary;
+  private final double shadowReadRate;
+  private final Executor shadowExecutor;
+  private final MeterRegistry registry;
+  private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+
+  /**
+   * Default constructor.
+   *
+   * @param primary       the datastore reads are served from.
+   * @param secondary     the datastore being migrated to or from.
+   * @param configuration for the shadow reads.
+   * @param metrics       for reporting.
+   */
+  @Inject
+  public MigratingKeyDao(@Named(PRIMARY) final KeyDao primary,
+                         @Named(SECONDARY) final KeyDao secondary,
+                         final KeyStoreConfiguration configuration,
+                         final Metrics metrics) {
+    this(primary, secondary, configuration.getMigration().shadowReadRate(),
+        shadowExecutor(configuration.getMigration()), metrics);
+  }
+
+  /**
+   * Constructor with the shadow read executor given.
+   *
+   * @param primary        the datastore reads are served from.
+   * @param secondary      the datastore being migrated to or from.
+   * @param shadowReadRate the fraction of reads repeated against the secondary.
+   * @param shadowExecutor runs the shadow reads.
+   * @param metrics        for reporting.
+   */
+  MigratingKeyDao(final KeyDao primary,
+                  final KeyDao secondary,
+                  final double shadowReadRate,
+                  final Executor shadowExecutor,
+                  final Metrics metrics) {
+    LOGGER.info("MigratingKeyDao({},{},{})", primary, secondary, shadowReadRate);
+    this.primary = primary;
+    this.secondary = secondary;
+    this.shadowReadRate = shadowReadRate;
+    this.shadowExecutor = shadowExecutor;
+    this.registry = metrics.registry();
+  }
+
+  private static Executor shadowExecutor(final MigrationConfiguration configuration) {
+    final AtomicInteger count = new AtomicInteger();
+    return new ThreadPoolExecutor(configuration.shadowReadThreads(), configuration.shadowReadThreads(),
+        0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(configuration.shadowReadQueue()), runnable -> {
+          final Thread thread = new Thread(runnable, "shadow-read-" + count.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        });
+  }
+
+  @Override
+  public void store(final Key key) {
+    write("store", dao -> {
+      dao.store(key);
+      return null;
+    });
+  }
+
+  @Override
+  public void storeAll(final Collection<Key> keys) {
+    write("storeAll", dao -> {
+      dao.storeAll(keys);
+      return null;
+    });
+  }
+
+  /**
+   * The primary allocates the version, and the key it stored is copied to the secondary as is, so both hold the
+   * same version.
+   */
+  @Override
+  public Key storeNextVersion(final KeyIdentifier identifier,
+                              final Function<KeyVersionIdentifier, Key> factory) {
+    return write("storeNextVersion", dao -> dao.storeNextVersion(identifier, factory), (dao, key) -> {
+      dao.store(key);
+      return null;
+    });
+  }
+
+  @Override
+  public OwnerIdentifier storeOwner(final String owner) {
+    return write("storeOwner", dao -> dao.storeOwner(owner));
+  }
+
+  @Override
+  public Optional<Key> load(final KeyVersionIdentifier identifier) {
+    return read("loadKeyVersion", dao -> dao.load(identifier), Objects::equals);
+  }
+
+  @Override
+  public List<Key> loadAll(final Collection<KeyVersionIdentifier> identifiers) {
+    return read("loadAll", dao -> dao.loadAll(identifiers), (a, b) -> new HashSet<>(a).equals(new HashSet<>(b)));
+  }
+
+  @Override
+  public Optional<Key> load(final KeyIdentifier identifier) {
+    return read("loadKey", dao -> dao.load(identifier), Objects::equals);
+  }
+
+  @Override
+  public Optional<OwnerIdentifier> loadOwner(final String ownerName) {
+    return read("loadOwner", dao -> dao.loadOwner(ownerName), Objects::equals);
+  }
+
+  /**
+   * Tokens belong to one datastore, so only the first page is shadowed.
+   */
+  @Override
+  public Batch<OwnerIdentifier> listOwners(final Token nextToken) {
+    return list("listOwners", nextToken, dao -> dao.listOwners(nextToken));
+  }
+
+  @Override
+  public Batch<KeyIdentifier> listKeys(final OwnerIdentifier identifier,
+                                       final Token nextToken) {
+    return list("listKeys", nextToken, dao -> dao.listKeys(identifier, nextToken));
+  }
+
+  @Override
+  public Batch<KeyVersionIdentifier> listVersions(final KeyIdentifier identifier,
+                                                  final Token nextToken) {
+    return list("listVersions", nextToken, dao -> dao.listVersions(identifier, nextToken));
+  }
+
+  @Override
+  public boolean delete(final KeyVersionIdentifier identifier) {
+    return write("deleteVersion", dao -> dao.delete(identifier));
+  }
+
+  @Override
+  public boolean delete(final KeyIdentifier identifier) {
+    return write("deleteKey", dao -> dao.delete(identifier));
+  }
+
+  @Override
+  public boolean delete(final OwnerIdentifier identifier) {
+    return write("deleteOwner", dao -> dao.delete(identifier));
+  }
+
+  private <T> Batch<T> list(final String method,
+                            final Token nextToken,
+                            final Function<KeyDao, Batch<T>> call) {
+    if (nextToken != null) {
+      return time(method, PRIMARY, call);
+    }
+    return read(method, call, (a, b) -> a.list().equals(b.list()));
+  }
+
+  private <T> T write(final String method,
+                      final Function<KeyDao, T> call) {
+    return write(method, call, (dao, result) -> call.apply(dao));
+  }
+
+  /**
+   * Writes to the primary, then to the secondary with what the primary returned.
+   */
+  private <T> T write(final String method,
+                      final Function<KeyDao, T> call,
+                      final BiFunction<KeyDao, T, ?> secondaryCall) {
+    final T result = time(method, PRIMARY, call);
+    try {
+      time(method, SECONDARY, dao -> secondaryCall.apply(dao, result));
+    } catch (RuntimeException e) {
+      LOGGER.warn("{}: secondary write failed", method, e);
+      registry.counter(SECONDARY_WRITE_FAILED_METRIC, METHOD, method).increment();
+    }
+    return result;
+  }
+
+  private <T> T read(final String method,
+                     final Function<KeyDao, T> call,
+                     final BiPredicate<T, T> same) {
+    final T expected = time(method, PRIMARY, call);
+    if (shadowReadRate > 0 && ThreadLocalRandom.current().nextDouble() < shadowReadRate) {
+      try {
+        shadowExecutor.execute(() -> shadow(method, call, same, expected));
+      } catch (RejectedExecutionException e) {
+        shadowResult(method, "dropped");
+      }
+    }
+    return expected;
+  }
+
+  private <T> void shadow(final String method,
+                          final Function<KeyDao, T> call,
+                          final BiPredicate<T, T> same,
+                          final T expected) {
+    try {
+      final T actual = time(method, SECONDARY, call);
+      if (same.test(expected, actual)) {
+        shadowResult(method, "match");
+      } else {
+        LOGGER.warn("{}: shadow read mismatch", method); // don't log the results, they may hold keys.
+        shadowResult(method, "mismatch");
+      }
+    } catch (RuntimeException e) {
+      LOGGER.warn("{}: shadow read failed", method, e);
+      shadowResult(method, "error");
+    }
+  }
+
+  private void shadowResult(final String method, final String result) {
+    registry.counter(SHADOW_METRIC, METHOD, method, RESULT, result).increment();
+  }
+
+  private <T> T time(final String method,
+                     final String backend,
+                     final Function<KeyDao, T> call) {
+    final Timer timer = timers.computeIfAbsent(method + "." + backend, name -> Timer.builder(PREFIX + method)
+        .tag(BACKEND, backend)
+        .publishPercentileHistogram()
+        .register(registry));
+    final KeyDao dao = PRIMARY.equals(backend) ? primary : secondary;
+    return timer.record(() -> call.apply(dao));
+  }
+
+}
@@ -0,0 +1,422 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.dao;
+
+import com.codeheadsystems.keystore.config.KeyStoreConfiguration;
+import com.codeheadsystems.keystore.server.dao.KeyDao;
+import com.codeheadsystems.keystore.server.dao.model.Batch;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableKeyIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.Key;
+import com.codeheadsystems.keystore.server.dao.model.KeyIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.KeyVersionIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.OwnerIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.RetentionPolicies;
+import com.codeheadsystems.keystore.server.dao.model.Token;
+import com.codeheadsystems.metrics.Metrics;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps a local persistent copy of the keys in front of the remote datastore, so a restarted or new node starts
+ * warm instead of sending every read to the remote. Key versions never change their material, so a version in the
+ * local tier is served from there; misses read through to the remote and fill the local tier. Active version
+ * lookups can change with any write on any node, so the version found is only trusted for the active ttl before
+ * the remote is asked again.
+ * <p>
+ * Versions do go away under a retention policy, and the remote may expire them on its own (dynamodb and
+ * cassandra ttls). A local copy that has expired under its policy is treated as a miss and dropped, and expired
+ * versions read from the remote are not filled. Versions are also deleted on other nodes (key and owner
+ * deletes, versions trimmed under a policy) without this node hearing of it, so a local copy is only trusted for
+ * the version ttl. Past that it is read from the remote again, and dropped if the remote no longer has it. A
+ * copy left from before a restart is trusted for one version ttl from when it is first read, which keeps the
+ * start warm and still bounds how long a deleted version is served.
+ * <p>
+ * The remote is authoritative. Writes go to the remote first and then the local tier, and a failing local tier
+ * is logged, counted and read around, never failing the caller. Listing and owners always go to the remote.
+ */
+@Singleton
+public class TieredKeyDao implements KeyDao {
+
+  /**
+   * The constant REMOTE.
+   */
+  public static final String REMOTE = "remote";
+  /**
+   * The constant LOCAL.
+   */
+  public static final String LOCAL = "local";
+  /**
+   * The constant ACTIVE, the tier of the active version lookups.
+   */
+  public static final String ACTIVE = "active";
+  /**
+   * The constant PREFIX.
+   */
+  public static final String PREFIX = "tieredkeydao.";
+  /**
+   * The constant TIER tag.
+   */
+  public static final String TIER = "tier";
+  /**
+   * The constant RESULT tag.
+   */
+  public static final String RESULT = "result";
+  /**
+   * The constant METHOD tag.
+   */
+  public static final String METHOD = "method";
+  /**
+   * The constant LOOKUP_METRIC, tagged with the tier and hit or miss.
+   */
+  public static final String LOOKUP_METRIC = PREFIX + "lookup";
+  /**
+   * The constant LOCAL_ERROR_METRIC.
+   */
+  public static final String LOCAL_ERROR_METRIC = PREFIX + "local.error";
+  /**
+   * The constant WARM_START_METRIC, how long the local tier took to open.
+   */
+  public static final String WARM_START_METRIC = PREFIX + "warmStart";
+  /**
+   * The constant EXPIRED_METRIC, local copies dropped since they expired under their retention policy.
+   */
+  public static final String EXPIRED_METRIC = PREFIX + "local.expired";
+  /**
+   * The constant REVALIDATE_METRIC, local copies past the version ttl read from the remote again.
+   */
+  public static final String REVALIDATE_METRIC = PREFIX + "local.revalidate";
+  /**
+   * The constant DELETED_METRIC, local copies dropped since the remote no longer has them.
+   */
+  public static final String DELETED_METRIC = PREFIX + "local.deleted";
+  private static final Logger LOGGER = LoggerFactory.getLogger(TieredKeyDao.class);
+
+  private final KeyDao remote;
+  private final KeyDao local;
+  private final Duration activeTtl;
+  private final Duration versionTtl;
+  private final RetentionPolicies retention;
+  private final Clock clock;
+  private final MeterRegistry registry;
+  private final Map<KeyIdentifier, Active> actives = new ConcurrentHashMap<>();
+  private final Map<KeyVersionIdentifier, Instant> trusted = new ConcurrentHashMap<>();
+
+  /**
+   * Default constructor.
+   *
+   * @param remote        the datastore that holds the truth.
+   * @param local         the local persistent tier.
+   * @param configuration for the ttls and the retention policies.
+   * @param metrics       for reporting.
+   */
+  @Inject
+  public TieredKeyDao(@Named(REMOTE) final KeyDao remote,
+                      @Named(LOCAL) final KeyDao local,
+                      final KeyStoreConfiguration configuration,
+                      final Metrics metrics) {
+    this(remote, local, Duration.ofMillis(configuration.getTiered().activeTtlMillis()),
+        Duration.ofMillis(configuration.getTiered().versionTtlMillis()),
+        configuration.getRetention().policies(), Clock.systemUTC(), metrics);
+  }
+
+  /**
+   * Constructor with the clock given.
+   *
+   * @param remote    the datastore that holds the truth.
+   * @param local     the local persistent tier.
+   * @param activeTtl  how long active version lookups are served locally.
+   * @param versionTtl how long a local copy of a version is served before the remote is asked again.
+   * @param retention  the policies versions expire under.
+   * @param clock      for the ttls and the expiry.
+   * @param metrics    for reporting.
+   */
+  TieredKeyDao(final KeyDao remote,
+               final KeyDao local,
+               final Duration activeTtl,
+               final Duration versionTtl,
+               final RetentionPolicies retention,
+               final Clock clock,
+               final Metrics metrics) {
+    LOGGER.info("TieredKeyDao({},{},{},{})", remote, local, activeTtl, versionTtl);
+    this.remote = remote;
+    this.local = local;
+    this.activeTtl = activeTtl;
+    this.versionTtl = versionTtl;
+    this.retention = retention;
+    this.clock = clock;
+    this.registry = metrics.registry();
+  }
+
+  private static KeyIdentifier keyIdentifier(final KeyIdentifier identifier) {
+    return ImmutableKeyIdentifier.builder().owner(identifier.owner()).key(identifier.key()).build();
+  }
+
+  @Override
+  public void store(final Key key) {
+    remote.store(key);
+    actives.remove(keyIdentifier(key.keyVersionIdentifier()));
+    local("store", () -> {
+      local.store(key);
+      trust(key);
+      return null;
+    });
+  }
+
+  @Override
+  public void storeAll(final Collection<Key> keys) {
+    remote.storeAll(keys);
+    keys.forEach(key -> actives.remove(keyIdentifier(key.keyVersionIdentifier())));
+    local("storeAll", () -> {
+      local.storeAll(keys);
+      keys.forEach(this::trust);
+      return null;
+    });
+  }
+
+  /**
+   * The remote tier allocates the version, and the key it stored fills the local tier.
+   */
+  @Override
+  public Key storeNextVersion(final KeyIdentifier identifier,
+                              final Function<KeyVersionIdentifier, Key> factory) {
+    final Key key = remote.storeNextVersion(identifier, factory);
+    actives.remove(keyIdentifier(identifier));
+    fill(key);
+    return key;
+  }
+
+  @Override
+  public OwnerIdentifier storeOwner(final String owner) {
+    return remote.storeOwner(owner);
+  }
+
+  @Override
+  public Optional<Key> load(final KeyVersionIdentifier identifier) {
+    final Optional<Key> cached = cachedVersion("loadKeyVersion", identifier);
+    lookup(LOCAL, cached.isPresent());
+    if (cached.isPresent()) {
+      return cached;
+    }
+    final Optional<Key> key = remote.load(identifier);
+    lookup(REMOTE, key.isPresent());
+    key.ifPresentOrElse(this::fill, () -> dropDeleted(identifier));
+    return key;
+  }
+
+  /**
+   * Serves what the local tier has and reads the rest, with the copies past the version ttl, from the remote in
+   * one call.
+   */
+  @Override
+  public List<Key> loadAll(final Collection<KeyVersionIdentifier> identifiers) {
+    final List<Key> result = new ArrayList<>();
+    final List<KeyVersionIdentifier> misses = new ArrayList<>();
+    for (KeyVersionIdentifier identifier : identifiers.stream().distinct().toList()) {
+      final Optional<Key> cached = cachedVersion("loadAll", identifier);
+      lookup(LOCAL, cached.isPresent());
+      cached.ifPresentOrElse(result::add, () -> misses.add(identifier));
+    }
+    if (!misses.isEmpty()) {
+      final List<Key> keys = remote.loadAll(misses);
+      keys.forEach(this::fill);
+      result.addAll(keys);
+      final Set<KeyVersionIdentifier> found = keys.stream()
+          .map(Key::keyVersionIdentifier)
+          .collect(Collectors.toSet());
+      misses.stream().filter(identifier -> !found.contains(identifier)).forEach(this::dropDeleted);
+    }
+    return result;
+  }
+
+  /**
+   * Serves the version found by the last remote lookup while it is within the ttl.
+   */
+  @Override
+  public Optional<Key> load(final KeyIdentifier identifier) {
+    final KeyIdentifier keyIdentifier = keyIdentifier(identifier);
+    final Active active = actives.get(keyIdentifier);
+    if (active != null && clock.instant().isBefore(active.expires())) {
+      final Optional<Key> cached = cachedVersion("loadKey", active.identifier());
+      if (cached.isPresent()) {
+        lookup(ACTIVE, true);
+        return cached;
+      }
+    }
+    lookup(ACTIVE, false);
+    final Optional<Key> key = remote.load(identifier);
+    key.ifPresentOrElse(k -> {
+      fill(k);
+      actives.put(keyIdentifier, new Active(k.keyVersionIdentifier(), clock.instant().plus(activeTtl)));
+    }, () -> actives.remove(keyIdentifier));
+    return key;
+  }
+
+  @Override
+  public Optional<OwnerIdentifier> loadOwner(final String ownerName) {
+    return remote.loadOwner(ownerName);
+  }
+
+  @Override
+  public Batch<OwnerIdentifier> listOwners(final Token nextToken) {
+    return remote.listOwners(nextToken);
+  }
+
+  @Override
+  public Batch<KeyIdentifier> listKeys(final OwnerIdentifier identifier,
+                                       final Token nextToken) {
+    return remote.listKeys(identifier, nextToken);
+  }
+
+  @Override
+  public Batch<KeyVersionIdentifier> listVersions(final KeyIdentifier identifier,
+                                                  final Token nextToken) {
+    return remote.listVersions(identifier, nextToken);
+  }
+
+  @Override
+  public boolean delete(final KeyVersionIdentifier identifier) {
+    final boolean result = remote.delete(identifier);
+    actives.remove(keyIdentifier(identifier));
+    trusted.remove(identifier);
+    local("deleteVersion", () -> local.delete(identifier));
+    return result;
+  }
+
+  @Override
+  public boolean delete(final KeyIdentifier identifier) {
+    final boolean result = remote.delete(identifier);
+    final KeyIdentifier keyIdentifier = keyIdentifier(identifier);
+    actives.remove(keyIdentifier);
+    trusted.keySet().removeIf(version -> keyIdentifier(version).equals(keyIdentifier));
+    local("deleteKey", () -> local.delete(identifier));
+    return result;
+  }
+
+  @Override
+  public boolean delete(final OwnerIdentifier identifier) {
+    final boolean result = remote.delete(identifier);
+    actives.keySet().removeIf(keyIdentifier -> keyIdentifier.owner().equals(identifier.owner()));
+    trusted.keySet().removeIf(version -> version.owner().equals(identifier.owner()));
+    local("deleteOwner", () -> local.delete(identifier));
+    return result;
+  }
+
+  private void fill(final Key key) {
+    if (expired(key)) {
+      return; // the remote has, or soon will, let it go.
+    }
+    local("fill", () -> {
+      local.store(key);
+      trust(key);
+      return null;
+    });
+  }
+
+  private void trust(final Key key) {
+    trusted.put(key.keyVersionIdentifier(), clock.instant().plus(versionTtl));
+  }
+
+  /**
+   * The remote does not have the version. If the local tier has a copy, it was deleted elsewhere, so drop it.
+   */
+  private void dropDeleted(final KeyVersionIdentifier identifier) {
+    if (trusted.remove(identifier) != null) {
+      registry.counter(DELETED_METRIC).increment();
+      local("drop", () -> local.delete(identifier));
+    }
+  }
+
+  private void lookup(final String tier, final boolean hit) {
+    registry.counter(LOOKUP_METRIC, TIER, tier, RESULT, hit ? "hit" : "miss").increment();
+  }
+
+  /**
+   * Reads the version from the local tier. A copy that has expired under its retention policy is dropped and
+   * treated as a miss. A copy past the version ttl is also a miss, left in place for the remote read to either
+   * trust again or drop.
+   */
+  private Optional<Key> cachedVersion(final String method,
+                                      final KeyVersionIdentifier identifier) {
+    final Optional<Key> cached = cached(method, () -> local.load(identifier));
+    if (cached.isPresent() && expired(cached.get())) {
+      registry.counter(EXPIRED_METRIC).increment();
+      trusted.remove(identifier);
+      local("evict", () -> local.delete(identifier));
+      return Optional.empty();
+    }
+    if (cached.isPresent() && !trusted(identifier)) {
+      registry.counter(REVALIDATE_METRIC).increment();
+      return Optional.empty();
+    }
+    return cached;
+  }
+
+  private boolean trusted(final KeyVersionIdentifier identifier) {
+    final Instant now = clock.instant();
+    // a copy we have not seen since the start is from before a restart, trusted for one ttl from now.
+    return now.isBefore(trusted.computeIfAbsent(identifier, i -> now.plus(versionTtl)));
+  }
+
+  private boolean expired(final Key key) {
+    return retention.policy(keyIdentifier(key.keyVersionIdentifier())).expiry(key)
+        .map(expiry -> !expiry.isAfter(clock.instant()))
+        .orElse(false);
+  }
+
+  private Optional<Key> cached(final String method,
+                             final Supplier<Optional<Key>> call) {
+    return local(method, call).flatMap(Function.identity());
+  }
+
+  /**
+   * Calls the local tier. A failure is logged and counted, and treated as if the local tier had nothing.
+   */
+  private <T> Optional<T> local(final String method,
+                                final Supplier<T> call) {
+    try {
+      return Optional.ofNullable(call.get());
+    } catch (RuntimeException e) {
+      LOGGER.warn("{}: local tier failed", method, e);
+      registry.counter(LOCAL_ERROR_METRIC, METHOD, method).increment();
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * The active version found by a remote lookup, and until when it is trusted.
+   */
+  private record Active(KeyVersionIdentifier identifier, Instant expires) {
+  }
+
+}
@@ -23,10 +23,8 @@ import com.codeheadsystems.keystore.common.model.Rng;
 import com.codeheadsystems.keystore.exception.AlreadyExistsException;
 import com.codeheadsystems.keystore.server.dao.KeyDao;
 import com.codeheadsystems.keystore.server.dao.model.ImmutableKey;
-import com.codeheadsystems.keystore.server.dao.model.ImmutableKeyVersionIdentifier;
 import com.codeheadsystems.keystore.server.dao.model.Key;
 import com.codeheadsystems.keystore.server.dao.model.KeyIdentifier;
-import com.codeheadsystems.keystore.server.dao.model.KeyVersionIdentifier;
 import java.util.Date;
 import java.util.Optional;
 import javax.inject.Inject;
@@ -85,21 +83,19 @@ public class KeyStoreAdminManager {
     if (currentKey.isPresent()) {
       throw new AlreadyExistsException();
     }
-    final KeyVersionIdentifier newKeyIdentifier = ImmutableKeyVersionIdentifier.builder()
-        .owner(identifier.owner()).key(identifier.key()).version(1L).build();
     final byte[] secret = new byte[KEY_SIZE];
     rng.random(secret);
     final byte[] aux = new byte[AUX_SIZE];
     rng.random(aux);
-    final Key key = ImmutableKey.builder()
-        .keyVersionIdentifier(newKeyIdentifier)
+    final Date createDate = new Date();
+    final Key key = keyDao.storeNextVersion(identifier, versionIdentifier -> ImmutableKey.builder()
+        .keyVersionIdentifier(versionIdentifier)
         .type("256")
         .active(true)
-        .createDate(new Date())
+        .createDate(createDate)
         .value(secret)
         .aux(aux)
-        .build();
-    keyDao.store(key);
+        .build());
     dataHelper.clear(secret); // secret is copied to make the key.
     return key;
   }
@@ -0,0 +1,645 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.codeheadsystems.keystore.model;
+package com.codeheadsystems.keystore.manager;
+
+import com.codeheadsystems.keystore.model.ImmutableTransferProgress;
+import com.codeheadsystems.keystore.model.TransferProgress;
+import com.codeheadsystems.keystore.server.dao.BatchSpliterator;
+import com.codeheadsystems.keystore.server.dao.KeyDao;
+import com.codeheadsystems.keystore.server.dao.model.Batch;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableKey;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableKeyVersionIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableToken;
+import com.codeheadsystems.keystore.server.dao.model.Key;
+import com.codeheadsystems.keystore.server.dao.model.KeyIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.KeyVersionIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.OwnerIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.Token;
+import com.codeheadsystems.metrics.Metrics;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Moves every owner, key and version between any two datastores through a file, using only the KeyDao.
+ * <p>
+ * The file starts with a magic number followed by frames of a tag byte, a length and the payload. Owner and key
+ * frames are the records. A checkpoint frame with the record count and the CRC32 of the frames since the last
+ * one is written every so many records, and after every page of owners along with the token for the next page.
+ * An end frame closes the file. Records are only trusted once their checksum matches: an import holds them
+ * until then, an export resumes by cutting the file back to its last good checkpoint with a token, and an
+ * import resumes by skipping the records it already committed.
+ */
+@Singleton
+public class KeyTransferManager {
+
+  /**
+   * The constant PREFIX.
+   */
+  public static final String PREFIX = "keyTransfer.";
+  /**
+   * The constant MAGIC, "KSX1", the first bytes of every file.
+   */
+  public static final int MAGIC = 0x4B535831;
+  /**
+   * The constant OWNER frame tag.
+   */
+  public static final byte OWNER = 'O';
+  /**
+   * The constant KEY frame tag.
+   */
+  public static final byte KEY = 'K';
+  /**
+   * The constant CHECKPOINT frame tag.
+   */
+  public static final byte CHECKPOINT = 'C';
+  /**
+   * The constant END frame tag.
+   */
+  public static final byte END = 'E';
+  /**
+   * The constant CHECKSUM_INTERVAL, the most records between checkpoints. Bounds what an import holds.
+   */
+  public static final int CHECKSUM_INTERVAL = 10_000;
+  private static final Logger LOGGER = LoggerFactory.getLogger(KeyTransferManager.class);
+  private static final int HEADER_BYTES = Integer.BYTES;
+  private static final int FRAME_BYTES = 1 + Integer.BYTES;
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  private final KeyDao keyDao;
+  private final Counter counterExportRecords;
+  private final Counter counterExportBytes;
+  private final Counter counterImportRecords;
+  private final Counter counterImportBatches;
+
+  /**
+   * Default constructor.
+   *
+   * @param keyDao  the datastore of this service, the default source and target.
+   * @param metrics for reporting.
+   */
+  @Inject
+  public KeyTransferManager(final KeyDao keyDao,
+                            final Metrics metrics) {
+    LOGGER.info("KeyTransferManager({})", keyDao);
+    this.keyDao = keyDao;
+    final MeterRegistry registry = metrics.registry();
+    counterExportRecords = registry.counter(PREFIX + "export.records");
+    counterExportBytes = registry.counter(PREFIX + "export.bytes");
+    counterImportRecords = registry.counter(PREFIX + "import.records");
+    counterImportBatches = registry.counter(PREFIX + "import.batches");
+  }
+
+  /**
+   * Exports the datastore of this service.
+   *
+   * @param outputStream to write to, positioned at the resume offset when resuming.
+   * @param resumeFrom   the last checkpoint of the file, null to start a new file.
+   * @param parallelism  keys whose versions are read at once.
+   * @param listener     told about every checkpoint written.
+   * @return the final progress.
+   * @throws IOException if the file could not be written.
+   */
+  public TransferProgress export(final OutputStream outputStream,
+                                 final TransferProgress resumeFrom,
+                                 final int parallelism,
+                                 final Consumer<TransferProgress> listener) throws IOException {
+    return export(keyDao, outputStream, resumeFrom, parallelism, listener);
+  }
+
+  /**
+   * Exports every owner, key and version of the source. Owners are listed a page at a time, and the versions of
+   * the keys on a page are read in parallel but written in order, so memory is bounded by a page.
+   *
+   * @param source       to export.
+   * @param outputStream to write to, positioned at the resume offset when resuming.
+   * @param resumeFrom   the last checkpoint of the file, null to start a new file.
+   * @param parallelism  keys whose versions are read at once.
+   * @param listener     told about every checkpoint written.
+   * @return the final progress.
+   * @throws IOException if the file could not be written.
+   */
+  public TransferProgress export(final KeyDao source,
+                                 final OutputStream outputStream,
+                                 final TransferProgress resumeFrom,
+                                 final int parallelism,
+                                 final Consumer<TransferProgress> listener) throws IOException {
+    LOGGER.info("export({},{})", resumeFrom, parallelism);
+    if (resumeFrom != null && resumeFrom.complete()) {
+      return resumeFrom;
+    }
+    final FrameWriter writer = new FrameWriter(outputStream, resumeFrom);
+    final ExecutorService executorService = executor(parallelism, "key-export-");
+    try {
+      Token token = resumeFrom == null ? null : resumeFrom.nextToken().orElse(null);
+      do {
+        final Batch<OwnerIdentifier> owners = source.listOwners(token);
+        for (OwnerIdentifier owner : owners.list()) {
+          writer.owner(owner.owner());
+          exportKeys(source, owner, writer, executorService);
+        }
+        token = owners.nextToken().orElse(null);
+        if (token != null) {
+          listener.accept(writer.checkpoint(token));
+        }
+      } while (token != null);
+      final TransferProgress progress = writer.end();
+      listener.accept(progress);
+      return progress;
+    } finally {
+      executorService.shutdownNow();
+    }
+  }
+
+  private void exportKeys(final KeyDao source,
+                          final OwnerIdentifier owner,
+                          final FrameWriter writer,
+                          final ExecutorService executorService) throws IOException {
+    Token token = null;
+    do {
+      final Batch<KeyIdentifier> keys = source.listKeys(owner, token);
+      final List<CompletableFuture<List<Key>>> futures = keys.list().stream()
+          .map(key -> CompletableFuture.supplyAsync(() -> versions(source, key), executorService))
+          .toList();
+      for (CompletableFuture<List<Key>> future : futures) {
+        for (Key key : join(future)) {
+          writer.key(key);
+        }
+      }
+      token = keys.nextToken().orElse(null);
+    } while (token != null);
+  }
+
+  private List<Key> versions(final KeyDao source,
+                             final KeyIdentifier identifier) {
+    final List<KeyVersionIdentifier> identifiers =
+        BatchSpliterator.stream(token -> source.listVersions(identifier, token)).toList();
+    return source.loadAll(identifiers).stream()
+        .sorted(Comparator.comparing(k -> k.keyVersionIdentifier().version()))
+        .toList();
+  }
+
+  /**
+   * Reads the file up to its last checkpoint with a matching checksum. Anything after it is a partial write.
+   *
+   * @param inputStream the file.
+   * @return the progress to resume the export from, null if not even the header is there.
+   * @throws IOException if the file could not be read, or is not an export.
+   */
+  public TransferProgress lastCheckpoint(final InputStream inputStream) throws IOException {
+    final FrameReader reader = new FrameReader(inputStream);
+    try {
+      reader.header();
+    } catch (EOFException e) {
+      return null;
+    }
+    TransferProgress last = ImmutableTransferProgress.builder()
+        .records(0).bytes(HEADER_BYTES).complete(false).build();
+    try {
+      Frame frame;
+      while ((frame = reader.next()) != null) {
+        if (frame.tag() == CHECKPOINT || frame.tag() == END) {
+          final TransferProgress progress = reader.verify(frame);
+          if (progress.complete() || progress.nextToken().isPresent()) {
+            last = progress; // the export can only restart at a page of owners.
+          }
+          if (progress.complete()) {
+            break;
+          }
+        }
+      }
+    } catch (EOFException e) {
+      LOGGER.info("lastCheckpoint: partial frame after {}", last);
+    } catch (IOException e) {
+      LOGGER.warn("lastCheckpoint: {} after {}", e.getMessage(), last);
+    }
+    return last;
+  }
+
+  /**
+   * Imports into the datastore of this service.
+   *
+   * @param inputStream the file.
+   * @param skipRecords records already committed by an earlier import, 0 to start.
+   * @param batchSize   keys per storeAll.
+   * @param parallelism batches written at once.
+   * @param listener    told about every checkpoint committed.
+   * @return the final progress.
+   * @throws IOException if the file could not be read or is corrupt.
+   */
+  public TransferProgress importFrom(final InputStream inputStream,
+                                     final long skipRecords,
+                                     final int batchSize,
+                                     final int parallelism,
+                                     final Consumer<TransferProgress> listener) throws IOException {
+    return importFrom(keyDao, inputStream, skipRecords, batchSize, parallelism, listener);
+  }
+
+  /**
+   * Imports the file into the target with batched writes. Records are held until their checkpoint verifies, so
+   * nothing corrupt is written. At most the parallelism batches are in flight; the reader waits for a free slot,
+   * so a slow target slows the read rather than filling memory. At the checkpoints that end a page of owners the
+   * batches in flight are waited for, so the records reported to the listener are committed.
+   *
+   * @param target      to import into.
+   * @param inputStream the file.
+   * @param skipRecords records already committed by an earlier import, 0 to start.
+   * @param batchSize   keys per storeAll.
+   * @param parallelism batches written at once.
+   * @param listener    told about every checkpoint committed.
+   * @return the final progress.
+   * @throws IOException if the file could not be read or is corrupt.
+   */
+  public TransferProgress importFrom(final KeyDao target,
+                                     final InputStream inputStream,
+                                     final long skipRecords,
+                                     final int batchSize,
+                                     final int parallelism,
+                                     final Consumer<TransferProgress> listener) throws IOException {
+    LOGGER.info("importFrom({},{},{})", skipRecords, batchSize, parallelism);
+    final FrameReader reader = new FrameReader(inputStream);
+    final BatchWriter writer = new BatchWriter(target, batchSize, parallelism);
+    final List<Frame> pending = new ArrayList<>();
+    try {
+      reader.header();
+      Frame frame;
+      while ((frame = reader.next()) != null) {
+        switch (frame.tag()) {
+          case OWNER, KEY -> {
+            if (reader.records() > skipRecords) {
+              pending.add(frame);
+            }
+          }
+          case CHECKPOINT, END -> {
+            final TransferProgress progress = reader.verify(frame);
+            for (Frame record : pending) {
+              if (record.tag() == OWNER) {
+                writer.owner(record.payload().readUTF());
+              } else {
+                writer.key(readKey(record.payload()));
+              }
+            }
+            counterImportRecords.increment(pending.size());
+            pending.clear();
+            if (progress.complete() || progress.nextToken().isPresent()) {
+              writer.drain();
+              listener.accept(progress);
+            }
+            if (progress.complete()) {
+              return progress;
+            }
+          }
+          default -> throw new IOException("Unknown frame " + frame.tag() + " after record " + reader.records());
+        }
+      }
+      throw new EOFException("No end frame after record " + reader.records());
+    } finally {
+      writer.close();
+    }
+  }
+
+  private static void writeKey(final DataOutputStream out, final Key key) throws IOException {
+    final KeyVersionIdentifier identifier = key.keyVersionIdentifier();
+    out.writeUTF(identifier.owner());
+    out.writeUTF(identifier.key());
+    out.writeLong(identifier.version());
+    out.writeUTF(key.type());
+    out.writeBoolean(key.active());
+    out.writeLong(key.createDate().getTime());
+    out.writeLong(key.updateDate().map(Date::getTime).orElse(-1L));
+    out.writeInt(key.value().length);
+    out.write(key.value());
+    out.writeInt(key.aux().length);
+    out.write(key.aux());
+  }
+
+  private static Key readKey(final DataInputStream in) throws IOException {
+    final ImmutableKey.Builder builder = ImmutableKey.builder()
+        .keyVersionIdentifier(ImmutableKeyVersionIdentifier.builder()
+            .owner(in.readUTF())
+            .key(in.readUTF())
+            .version(in.readLong())
+            .build())
+        .type(in.readUTF())
+        .active(in.readBoolean())
+        .createDate(new Date(in.readLong()));
+    final long update = in.readLong();
+    if (update >= 0) {
+      builder.updateDate(new Date(update));
+    }
+    return builder
+        .value(in.readNBytes(in.readInt()))
+        .aux(in.readNBytes(in.readInt()))
+        .build();
+  }
+
+  private static ExecutorService executor(final int parallelism, final String name) {
+    final AtomicInteger count = new AtomicInteger();
+    return Executors.newFixedThreadPool(parallelism, runnable -> {
+      final Thread thread = new Thread(runnable, name + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  private static <T> T join(final CompletableFuture<T> future) {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException runtimeException) {
+        throw runtimeException;
+      }
+      throw e;
+    }
+  }
+
+  private record Frame(byte tag, DataInputStream payload) {
+  }
+
+  /**
+   * Writes the frames, keeping the count, the offset and the checksum since the last checkpoint.
+   */
+  private class FrameWriter {
+
+    private final DataOutputStream out;
+    private final CRC32 crc = new CRC32();
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private final DataOutputStream payload = new DataOutputStream(buffer);
+    private long records;
+    private long bytes;
+    private long checksumRecords;
+
+    private FrameWriter(final OutputStream outputStream,
+                        final TransferProgress resumeFrom) throws IOException {
+      this.out = new DataOutputStream(new BufferedOutputStream(outputStream, BUFFER_SIZE));
+      if (resumeFrom == null) {
+        out.writeInt(MAGIC);
+        bytes = HEADER_BYTES;
+      } else {
+        records = resumeFrom.records();
+        bytes = resumeFrom.bytes();
+        checksumRecords = records;
+      }
+    }
+
+    private void owner(final String owner) throws IOException {
+      payload.writeUTF(owner);
+      record(OWNER);
+    }
+
+    private void key(final Key key) throws IOException {
+      writeKey(payload, key);
+      record(KEY);
+    }
+
+    private void record(final byte tag) throws IOException {
+      final byte[] frame = frame(tag);
+      crc.update(frame);
+      records++;
+      counterExportRecords.increment();
+      if (records - checksumRecords >= CHECKSUM_INTERVAL) {
+        checkpoint(null);
+      }
+    }
+
+    /**
+     * A checkpoint, with the token if it ends a page of owners.
+     */
+    private TransferProgress checkpoint(final Token token) throws IOException {
+      payload.writeLong(records);
+      payload.writeInt((int) crc.getValue());
+      payload.writeBoolean(token != null);
+      if (token != null) {
+        payload.writeUTF(token.value());
+      }
+      return flush(CHECKPOINT, token);
+    }
+
+    private TransferProgress end() throws IOException {
+      payload.writeLong(records);
+      payload.writeInt((int) crc.getValue());
+      return flush(END, null);
+    }
+
+    private TransferProgress flush(final byte tag, final Token token) throws IOException {
+      frame(tag);
+      crc.reset();
+      checksumRecords = records;
+      out.flush();
+      return ImmutableTransferProgress.builder()
+          .records(records)
+          .bytes(bytes)
+          .nextToken(Optional.ofNullable(token))
+          .complete(tag == END)
+          .build();
+    }
+
+    private byte[] frame(final byte tag) throws IOException {
+      final byte[] body = buffer.toByteArray();
+      buffer.reset();
+      final ByteArrayOutputStream frame = new ByteArrayOutputStream(FRAME_BYTES + body.length);
+      final DataOutputStream frameOut = new DataOutputStream(frame);
+      frameOut.writeByte(tag);
+      frameOut.writeInt(body.length);
+      frameOut.write(body);
+      final byte[] bytesOut = frame.toByteArray();
+      out.write(bytesOut);
+      bytes += bytesOut.length;
+      counterExportBytes.increment(bytesOut.length);
+      return bytesOut;
+    }
+  }
+
+  /**
+   * Reads the frames, keeping the count, the offset and the checksum since the last checkpoint.
+   */
+  private static class FrameReader {
+
+    private final DataInputStream in;
+    private final CRC32 crc = new CRC32();
+    private long records;
+    private long bytes;
+
+    private FrameReader(final InputStream inputStream) {
+      this.in = new DataInputStream(new BufferedInputStream(inputStream, BUFFER_SIZE));
+    }
+
+    private void header() throws IOException {
+      if (in.readInt() != MAGIC) {
+        throw new IOException("Not a keystore export");
+      }
+      bytes = HEADER_BYTES;
+    }
+
+    private long records() {
+      return records;
+    }
+
+    /**
+     * The next frame, or null at the end of the file.
+     */
+    private Frame next() throws IOException {
+      final int tag = in.read();
+      if (tag < 0) {
+        return null;
+      }
+      final int length = in.readInt();
+      final byte[] body = in.readNBytes(length);
+      if (body.length < length) {
+        throw new EOFException("Partial frame after record " + records);
+      }
+      bytes += FRAME_BYTES + length;
+      if (tag == OWNER || tag == KEY) {
+        crc.update(tag);
+        crc.update(new byte[]{(byte) (length >>> 24), (byte) (length >>> 16), (byte) (length >>> 8), (byte) length});
+        crc.update(body);
+        records++;
+      }
+      return new Frame((byte) tag, new DataInputStream(new ByteArrayInputStream(body)));
+    }
+
+    /**
+     * Checks the checkpoint or end frame against what was read since the last one.
+     */
+    private TransferProgress verify(final Frame frame) throws IOException {
+      final DataInputStream payload = frame.payload();
+      final long expectedRecords = payload.readLong();
+      final int expectedCrc = payload.readInt();
+      if (expectedRecords != records || expectedCrc != (int) crc.getValue()) {
+        throw new IOException("Checksum mismatch at record " + records);
+      }
+      crc.reset();
+      final ImmutableTransferProgress.Builder builder = ImmutableTransferProgress.builder()
+          .records(records)
+          .bytes(bytes)
+          .complete(frame.tag() == END);
+      if (frame.tag() == CHECKPOINT && payload.readBoolean()) {
+        builder.nextToken(ImmutableToken.builder().value(payload.readUTF()).build());
+      }
+      return builder.build();
+    }
+  }
+
+  /**
+   * Writes the imported keys with storeAll, at most the parallelism batches at once.
+   */
+  private class BatchWriter {
+
+    private final KeyDao target;
+    private final int batchSize;
+    private final int parallelism;
+    private final Semaphore permits;
+    private final ExecutorService executorService;
+    private final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+    private List<Key> batch = new ArrayList<>();
+
+    private BatchWriter(final KeyDao target,
+                        final int batchSize,
+                        final int parallelism) {
+      this.target = target;
+      this.batchSize = batchSize;
+      this.parallelism = parallelism;
+      this.permits = new Semaphore(parallelism);
+      this.executorService = executor(parallelism, "key-import-");
+    }
+
+    private void owner(final String owner) {
+      target.storeOwner(owner);
+    }
+
+    private void key(final Key key) throws IOException {
+      batch.add(key);
+      if (batch.size() >= batchSize) {
+        submit();
+      }
+    }
+
+    private void submit() throws IOException {
+      if (batch.isEmpty()) {
+        return;
+      }
+      final List<Key> keys = batch;
+      batch = new ArrayList<>();
+      acquire(1);
+      executorService.execute(() -> {
+        try {
+          target.storeAll(keys);
+          counterImportBatches.increment();
+        } catch (RuntimeException e) {
+          failure.compareAndSet(null, e);
+        } finally {
+          permits.release();
+        }
+      });
+    }
+
+    /**
+     * Writes what is left and waits for every batch in flight.
+     */
+    private void drain() throws IOException {
+      submit();
+      acquire(parallelism);
+      permits.release(parallelism);
+      final RuntimeException e = failure.get();
+      if (e != null) {
+        throw e;
+      }
+    }
+
+    private void acquire(final int count) throws IOException {
+      try {
+        permits.acquire(count);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted waiting for the import batches");
+      }
+    }
+
+    private void close() {
+      executorService.shutdownNow();
+    }
+  }
+
+}
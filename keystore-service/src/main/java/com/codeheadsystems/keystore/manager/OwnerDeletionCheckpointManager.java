@@ -0,0 +1,141 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.codeheadsystems.keystore.manager;
+
+import com.codeheadsystems.keystore.common.factory.ObjectMapperFactory;
+import com.codeheadsystems.keystore.config.KeyStoreConfiguration;
+import com.codeheadsystems.keystore.model.OwnerDeletionCheckpoint;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persists owner deletion checkpoints as one JSON file per owner. Writes go to a temp file and are moved into
+ * place, so a crash never leaves a partial checkpoint behind. With no directory configured there is nothing to
+ * load and nothing can be saved.
+ */
+@Singleton
+public class OwnerDeletionCheckpointManager {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(OwnerDeletionCheckpointManager.class);
+  private static final String SUFFIX = ".json";
+
+  private final Optional<Path> directory;
+  private final ObjectMapper objectMapper;
+
+  /**
+   * Default constructor.
+   *
+   * @param configuration        for the checkpoint directory.
+   * @param objectMapperFactory  to generate our object mapper.
+   */
+  @Inject
+  public OwnerDeletionCheckpointManager(final KeyStoreConfiguration configuration,
+                                        final ObjectMapperFactory objectMapperFactory) {
+    this.directory = configuration.getOwnerDeletion().checkpointDirectory().map(Path::of);
+    this.objectMapper = objectMapperFactory.generate();
+    LOGGER.info("OwnerDeletionCheckpointManager({})", directory);
+  }
+
+  /**
+   * If a checkpoint directory is configured.
+   *
+   * @return true if checkpoints can be saved.
+   */
+  public boolean enabled() {
+    return directory.isPresent();
+  }
+
+  /**
+   * Saves the checkpoint, replacing any previous one for the owner.
+   *
+   * @param checkpoint to save.
+   * @throws IllegalStateException if no checkpoint directory is configured.
+   */
+  public void save(final OwnerDeletionCheckpoint checkpoint) {
+    LOGGER.debug("save({},{})", checkpoint.owner(), checkpoint.state());
+    final Path dir = directory
+        .orElseThrow(() -> new IllegalStateException("ownerDeletion.checkpointDirectory is not set"));
+    try {
+      Files.createDirectories(dir);
+      final Path path = dir.resolve(fileName(checkpoint.owner()));
+      final Path temp = Files.createTempFile(dir, "checkpoint", ".tmp");
+      objectMapper.writeValue(temp.toFile(), checkpoint);
+      Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Unable to save checkpoint for " + checkpoint.owner(), e);
+    }
+  }
+
+  /**
+   * Loads the checkpoint for the owner.
+   *
+   * @param owner to load.
+   * @return the checkpoint if one exists.
+   */
+  public Optional<OwnerDeletionCheckpoint> load(final String owner) {
+    LOGGER.debug("load({})", owner);
+    return directory.map(dir -> dir.resolve(fileName(owner)))
+        .filter(Files::exists)
+        .map(this::read);
+  }
+
+  /**
+   * Loads every checkpoint in the directory.
+   *
+   * @return the checkpoints.
+   */
+  public List<OwnerDeletionCheckpoint> loadAll() {
+    LOGGER.debug("loadAll()");
+    if (directory.isEmpty() || !Files.isDirectory(directory.get())) {
+      return List.of();
+    }
+    try (Stream<Path> paths = Files.list(directory.get())) {
+      final List<OwnerDeletionCheckpoint> result = new ArrayList<>();
+      paths.filter(p -> p.getFileName().toString().endsWith(SUFFIX))
+          .forEach(p -> result.add(read(p)));
+      return result;
+    } catch (IOException e) {
+      throw new UncheckedIOException("Unable to list checkpoints in " + directory.get(), e);
+    }
+  }
+
+  private OwnerDeletionCheckpoint read(final Path path) {
+    try {
+      return objectMapper.readValue(path.toFile(), OwnerDeletionCheckpoint.class);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Unable to read checkpoint " + path, e);
+    }
+  }
+
+  private String fileName(final String owner) {
+    return URLEncoder.encode(owner, StandardCharsets.UTF_8) + SUFFIX;
+  }
+
+}
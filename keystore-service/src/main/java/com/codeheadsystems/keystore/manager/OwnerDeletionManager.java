@@ -0,0 +1,317 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.codeheadsystems.keystore.manager;
+
+import com.codeheadsystems.keystore.config.KeyStoreConfiguration;
+import com.codeheadsystems.keystore.config.OwnerDeletionConfiguration;
+import com.codeheadsystems.keystore.model.ImmutableOwnerDeletionCheckpoint;
+import com.codeheadsystems.keystore.model.OwnerDeletionCheckpoint;
+import com.codeheadsystems.keystore.server.dao.BatchSpliterator;
+import com.codeheadsystems.keystore.server.dao.KeyDao;
+import com.codeheadsystems.keystore.server.dao.model.Batch;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableOwnerIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.KeyIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.OwnerIdentifier;
+import com.codeheadsystems.metrics.Metrics;
+import com.google.common.util.concurrent.RateLimiter;
+import io.dropwizard.lifecycle.Managed;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Clock;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Deletes owners in the background. Jobs run one at a time on their own thread, never on a request thread.
+ * Each page of keys is deleted version by version with bounded concurrency, then each key itself (its owner row
+ * and whatever bookkeeping the datastore keeps for it). Every listing and delete goes through a rate limiter
+ * shared by all jobs so offboarding a tenant doesn't raise datastore latency for everyone else. Once the owner
+ * has no keys left, only the owner record remains to be deleted. Keys stored while the job runs are picked up
+ * by another pass, up to a limit, so a tenant that keeps writing fails the job rather than holding it forever.
+ * The job checkpoints after every page, and queued or running jobs are resumed on start.
+ */
+@Singleton
+public class OwnerDeletionManager implements Managed {
+
+  /**
+   * The constant PREFIX.
+   */
+  public static final String PREFIX = "ownerDeletion.";
+  private static final Logger LOGGER = LoggerFactory.getLogger(OwnerDeletionManager.class);
+
+  private final KeyDao keyDao;
+  private final OwnerDeletionCheckpointManager checkpointManager;
+  private final Clock clock;
+  private final RateLimiter rateLimiter;
+  private final int concurrency;
+  private final int maxPasses;
+  private final Map<String, OwnerDeletionCheckpoint> jobs = new ConcurrentHashMap<>();
+  private final AtomicInteger activeJobs = new AtomicInteger();
+  private final Counter counterKeys;
+  private final Counter counterVersions;
+  private final Counter counterCompleted;
+  private final Counter counterFailed;
+  private ExecutorService jobExecutor;
+  private ExecutorService workerExecutor;
+
+  /**
+   * Default constructor.
+   *
+   * @param keyDao            for deletes.
+   * @param checkpointManager for persisting progress.
+   * @param configuration     for the rate and concurrency.
+   * @param metrics           for reporting.
+   */
+  @Inject
+  public OwnerDeletionManager(final KeyDao keyDao,
+                              final OwnerDeletionCheckpointManager checkpointManager,
+                              final KeyStoreConfiguration configuration,
+                              final Metrics metrics) {
+    this(keyDao, checkpointManager, configuration.getOwnerDeletion(), Clock.systemUTC(), metrics);
+  }
+
+  /**
+   * Constructor with the clock.
+   *
+   * @param keyDao            for deletes.
+   * @param checkpointManager for persisting progress.
+   * @param ownerDeletion     the rate, concurrency and passes.
+   * @param clock             for the checkpoint timestamps.
+   * @param metrics           for reporting.
+   */
+  public OwnerDeletionManager(final KeyDao keyDao,
+                              final OwnerDeletionCheckpointManager checkpointManager,
+                              final OwnerDeletionConfiguration ownerDeletion,
+                              final Clock clock,
+                              final Metrics metrics) {
+    LOGGER.info("OwnerDeletionManager({},{},{})", ownerDeletion.opsPerSecond(), ownerDeletion.concurrency(),
+        ownerDeletion.maxPasses());
+    this.keyDao = keyDao;
+    this.checkpointManager = checkpointManager;
+    this.clock = clock;
+    this.rateLimiter = RateLimiter.create(ownerDeletion.opsPerSecond());
+    this.concurrency = ownerDeletion.concurrency();
+    this.maxPasses = ownerDeletion.maxPasses();
+    final MeterRegistry registry = metrics.registry();
+    counterKeys = registry.counter(PREFIX + "keys");
+    counterVersions = registry.counter(PREFIX + "versions");
+    counterCompleted = registry.counter(PREFIX + "completed");
+    counterFailed = registry.counter(PREFIX + "failed");
+    registry.gauge(PREFIX + "active", activeJobs);
+    registry.gauge(PREFIX + "queued", jobs, j -> j.values().stream()
+        .filter(c -> c.state() == OwnerDeletionCheckpoint.State.QUEUED).count());
+  }
+
+  /**
+   * Starts the executors and resumes any job that was queued or running when we stopped.
+   */
+  @Override
+  public void start() {
+    LOGGER.info("start()");
+    jobExecutor = Executors.newSingleThreadExecutor(runnable -> daemon(runnable, "owner-deletion"));
+    final AtomicInteger count = new AtomicInteger();
+    workerExecutor = Executors.newFixedThreadPool(concurrency,
+        runnable -> daemon(runnable, "owner-deletion-worker-" + count.incrementAndGet()));
+    if (!checkpointManager.enabled()) {
+      LOGGER.warn("No ownerDeletion.checkpointDirectory configured, owner deletion is disabled");
+      return;
+    }
+    for (OwnerDeletionCheckpoint checkpoint : checkpointManager.loadAll()) {
+      jobs.put(checkpoint.owner(), checkpoint);
+      if (checkpoint.inProgress()) {
+        LOGGER.info("Resuming owner deletion: {}", checkpoint.owner());
+        jobExecutor.submit(() -> run(checkpoint.owner()));
+      }
+    }
+  }
+
+  /**
+   * Stops the executors. In flight pages are redone on resume, which is fine since deletes are idempotent.
+   *
+   * @throws InterruptedException if interrupted waiting for shutdown.
+   */
+  @Override
+  public void stop() throws InterruptedException {
+    LOGGER.info("stop()");
+    if (jobExecutor == null) {
+      return; // never started
+    }
+    jobExecutor.shutdownNow();
+    workerExecutor.shutdownNow();
+    jobExecutor.awaitTermination(30, TimeUnit.SECONDS);
+    workerExecutor.awaitTermination(30, TimeUnit.SECONDS);
+  }
+
+  /**
+   * If owner deletion can run. Without a checkpoint directory a job could not survive a restart, so none are
+   * accepted.
+   *
+   * @return true if jobs are accepted.
+   */
+  public boolean enabled() {
+    return checkpointManager.enabled();
+  }
+
+  /**
+   * Queues the deletion of the owner. If the owner already has a job in progress, that job is returned.
+   *
+   * @param owner to delete.
+   * @return the current checkpoint of the job.
+   * @throws IllegalStateException if owner deletion is not enabled.
+   */
+  public synchronized OwnerDeletionCheckpoint enqueue(final String owner) {
+    LOGGER.debug("enqueue({})", owner);
+    if (!enabled()) {
+      throw new IllegalStateException("Owner deletion is disabled, ownerDeletion.checkpointDirectory is not set");
+    }
+    final Optional<OwnerDeletionCheckpoint> current = status(owner);
+    if (current.isPresent() && current.get().inProgress()) {
+      return current.get();
+    }
+    final long now = clock.millis();
+    final OwnerDeletionCheckpoint checkpoint = ImmutableOwnerDeletionCheckpoint.builder()
+        .owner(owner)
+        .state(OwnerDeletionCheckpoint.State.QUEUED)
+        .keysDeleted(0)
+        .versionsDeleted(0)
+        .created(now)
+        .updated(now)
+        .build();
+    save(checkpoint);
+    jobExecutor.submit(() -> run(owner));
+    return checkpoint;
+  }
+
+  /**
+   * The status of the owner deletion.
+   *
+   * @param owner to check.
+   * @return the checkpoint if there was ever a job.
+   */
+  public Optional<OwnerDeletionCheckpoint> status(final String owner) {
+    final OwnerDeletionCheckpoint checkpoint = jobs.get(owner);
+    if (checkpoint != null) {
+      return Optional.of(checkpoint);
+    }
+    return checkpointManager.load(owner);
+  }
+
+  /**
+   * Runs the job from its last checkpoint until complete.
+   *
+   * @param owner to delete.
+   */
+  void run(final String owner) {
+    LOGGER.info("run({})", owner);
+    activeJobs.incrementAndGet();
+    ImmutableOwnerDeletionCheckpoint checkpoint = ImmutableOwnerDeletionCheckpoint.copyOf(jobs.get(owner))
+        .withState(OwnerDeletionCheckpoint.State.RUNNING);
+    try {
+      final OwnerIdentifier identifier = ImmutableOwnerIdentifier.builder().owner(owner).build();
+      int pass = 0;
+      long passVersions;
+      do {
+        if (++pass > maxPasses) {
+          throw new IllegalStateException("Keys are still being stored after " + maxPasses + " passes");
+        }
+        passVersions = 0;
+        do {
+          rateLimiter.acquire();
+          final Batch<KeyIdentifier> batch = keyDao.listKeys(identifier, checkpoint.nextToken().orElse(null));
+          final List<CompletableFuture<Long>> futures = batch.list().stream()
+              .map(key -> CompletableFuture.supplyAsync(() -> deleteKey(key), workerExecutor))
+              .toList();
+          final List<Long> versions = futures.stream().map(CompletableFuture::join).toList();
+          // a key listed again with no versions left was already deleted, the listing just lags behind.
+          final long keys = versions.stream().filter(v -> v > 0).count();
+          final long sum = versions.stream().mapToLong(Long::longValue).sum();
+          passVersions += sum;
+          checkpoint = checkpoint
+              .withNextToken(batch.nextToken())
+              .withKeysDeleted(checkpoint.keysDeleted() + keys)
+              .withVersionsDeleted(checkpoint.versionsDeleted() + sum)
+              .withUpdated(clock.millis());
+          counterKeys.increment(keys);
+          save(checkpoint);
+        } while (checkpoint.nextToken().isPresent());
+        // keys stored while the job ran are picked up by another pass. A pass that found nothing left to
+        // delete only saw stale listings, so there is no point in another.
+      } while ((pass == 1 || passVersions > 0) && hasKeys(identifier));
+      rateLimiter.acquire();
+      keyDao.delete(identifier); // with no keys left, this is only the owner record.
+      save(checkpoint.withState(OwnerDeletionCheckpoint.State.COMPLETE).withUpdated(clock.millis()));
+      counterCompleted.increment();
+      LOGGER.info("Owner deletion complete: {} keys:{} versions:{}", owner,
+          checkpoint.keysDeleted(), checkpoint.versionsDeleted());
+    } catch (RuntimeException e) {
+      final Throwable cause = (e instanceof CompletionException && e.getCause() != null) ? e.getCause() : e;
+      LOGGER.error("Owner deletion failed: {}", owner, cause);
+      counterFailed.increment();
+      save(checkpoint.withState(OwnerDeletionCheckpoint.State.FAILED)
+          .withError(String.valueOf(cause.getMessage()))
+          .withUpdated(clock.millis()));
+    } finally {
+      activeJobs.decrementAndGet();
+    }
+  }
+
+  private boolean hasKeys(final OwnerIdentifier identifier) {
+    rateLimiter.acquire();
+    return !keyDao.listKeys(identifier, null).list().isEmpty();
+  }
+
+  private long deleteKey(final KeyIdentifier identifier) {
+    final AtomicLong count = new AtomicLong();
+    BatchSpliterator.stream(token -> {
+          rateLimiter.acquire();
+          return keyDao.listVersions(identifier, token);
+        })
+        .forEach(version -> {
+          rateLimiter.acquire();
+          keyDao.delete(version);
+          count.incrementAndGet();
+        });
+    rateLimiter.acquire();
+    keyDao.delete(identifier); // the versions are gone, so this is the owner row and key bookkeeping.
+    counterVersions.increment(count.get());
+    return count.get();
+  }
+
+  private void save(final OwnerDeletionCheckpoint checkpoint) {
+    checkpointManager.save(checkpoint);
+    jobs.put(checkpoint.owner(), checkpoint);
+  }
+
+  private Thread daemon(final Runnable runnable, final String name) {
+    final Thread thread = new Thread(runnable, name);
+    thread.setDaemon(true);
+    return thread;
+  }
+
+}
@@ -0,0 +1,232 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.codeheadsystems.keystore.manager;
+package com.codeheadsystems.keystore.manager;
+
+import com.codeheadsystems.keystore.config.KeyStoreConfiguration;
+import com.codeheadsystems.keystore.config.RetentionConfiguration;
+import com.codeheadsystems.keystore.server.dao.BatchSpliterator;
+import com.codeheadsystems.keystore.server.dao.KeyDao;
+import com.codeheadsystems.keystore.server.dao.model.Key;
+import com.codeheadsystems.keystore.server.dao.model.KeyIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.KeyVersionIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.RetentionPolicies;
+import com.codeheadsystems.keystore.server.dao.model.RetentionPolicy;
+import com.codeheadsystems.metrics.Metrics;
+import com.google.common.util.concurrent.RateLimiter;
+import io.dropwizard.lifecycle.Managed;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Prunes key versions the retention policies no longer keep. Runs in the background on its own thread, walking
+ * every owner and key, and every datastore operation goes through a rate limiter so a run doesn't raise
+ * datastore latency for everyone else. Active versions are never pruned. This is how the sql, memory and
+ * embedded datastores expire versions, and how every datastore limits the versions kept per key.
+ */
+@Singleton
+public class RetentionManager implements Managed {
+
+  /**
+   * The constant PREFIX.
+   */
+  public static final String PREFIX = "retention.";
+  private static final Logger LOGGER = LoggerFactory.getLogger(RetentionManager.class);
+
+  private final KeyDao keyDao;
+  private final RetentionPolicies policies;
+  private final long intervalSeconds;
+  private final RateLimiter rateLimiter;
+  private final Clock clock;
+  private final Counter counterRuns;
+  private final Counter counterKeys;
+  private final Counter counterExpired;
+  private final Counter counterTrimmed;
+  private final Counter counterFailed;
+  private ScheduledExecutorService scheduler;
+
+  /**
+   * Default constructor.
+   *
+   * @param keyDao        to prune.
+   * @param configuration for the policies, interval and rate.
+   * @param metrics       for reporting.
+   */
+  @Inject
+  public RetentionManager(final KeyDao keyDao,
+                          final KeyStoreConfiguration configuration,
+                          final Metrics metrics) {
+    this(keyDao, configuration.getRetention(), Clock.systemUTC(), metrics);
+  }
+
+  /**
+   * Constructor with the clock.
+   *
+   * @param keyDao    to prune.
+   * @param retention the policies, interval and rate.
+   * @param clock     for expiry.
+   * @param metrics   for reporting.
+   */
+  public RetentionManager(final KeyDao keyDao,
+                          final RetentionConfiguration retention,
+                          final Clock clock,
+                          final Metrics metrics) {
+    LOGGER.info("RetentionManager({},{})", retention.pruneIntervalSeconds(), retention.opsPerSecond());
+    this.keyDao = keyDao;
+    this.policies = retention.policies();
+    this.intervalSeconds = retention.pruneIntervalSeconds();
+    this.rateLimiter = RateLimiter.create(retention.opsPerSecond());
+    this.clock = clock;
+    final MeterRegistry registry = metrics.registry();
+    counterRuns = registry.counter(PREFIX + "runs");
+    counterKeys = registry.counter(PREFIX + "keys");
+    counterExpired = registry.counter(PREFIX + "versions.expired");
+    counterTrimmed = registry.counter(PREFIX + "versions.trimmed");
+    counterFailed = registry.counter(PREFIX + "failed");
+  }
+
+  /**
+   * Schedules the runs, unless the pruner is disabled or no policy removes anything.
+   */
+  @Override
+  public void start() {
+    if (intervalSeconds <= 0 || !policies.removes()) {
+      LOGGER.info("start(): nothing to prune");
+      return;
+    }
+    LOGGER.info("start()");
+    scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      final Thread thread = new Thread(runnable, "retention-pruner");
+      thread.setDaemon(true);
+      return thread;
+    });
+    scheduler.scheduleWithFixedDelay(this::run, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Stops the runs. A run cut short just picks up again next time.
+   *
+   * @throws InterruptedException if interrupted waiting for shutdown.
+   */
+  @Override
+  public void stop() throws InterruptedException {
+    LOGGER.info("stop()");
+    if (scheduler == null) {
+      return; // never started
+    }
+    scheduler.shutdownNow();
+    scheduler.awaitTermination(30, TimeUnit.SECONDS);
+  }
+
+  private void run() {
+    try {
+      prune();
+    } catch (RuntimeException e) {
+      LOGGER.error("Prune run failed", e);
+      counterFailed.increment();
+    }
+  }
+
+  /**
+   * Prunes every key of every owner once.
+   *
+   * @return the versions pruned.
+   */
+  long prune() {
+    LOGGER.info("prune()");
+    counterRuns.increment();
+    final long pruned = BatchSpliterator.stream(token -> {
+          rateLimiter.acquire();
+          return keyDao.listOwners(token);
+        })
+        .takeWhile(owner -> !Thread.currentThread().isInterrupted())
+        .flatMap(owner -> BatchSpliterator.stream(token -> {
+          rateLimiter.acquire();
+          return keyDao.listKeys(owner, token);
+        }))
+        .mapToLong(this::pruneKey)
+        .sum();
+    LOGGER.info("prune(): pruned {} versions", pruned);
+    return pruned;
+  }
+
+  /**
+   * Prunes the versions of the key its policy no longer keeps.
+   *
+   * @param identifier of the key.
+   * @return the versions pruned.
+   */
+  long pruneKey(final KeyIdentifier identifier) {
+    final RetentionPolicy policy = policies.policy(identifier);
+    if (!policy.removes()) {
+      return 0;
+    }
+    counterKeys.increment();
+    final List<KeyVersionIdentifier> versions = BatchSpliterator.stream(token -> {
+          rateLimiter.acquire();
+          return keyDao.listVersions(identifier, token);
+        })
+        .sorted(Comparator.comparing(KeyVersionIdentifier::version).reversed())
+        .toList();
+    final int kept = policy.keepVersions() > 0 ? Math.min(policy.keepVersions(), versions.size()) : 0;
+    // Only versions past the ones kept can be trimmed, but any inactive version can expire.
+    final List<KeyVersionIdentifier> candidates = policy.expireInactiveSeconds() > 0
+        ? versions
+        : versions.subList(kept, versions.size());
+    if (candidates.isEmpty()) {
+      return 0;
+    }
+    rateLimiter.acquire(candidates.size());
+    final Map<KeyVersionIdentifier, Key> loaded = keyDao.loadAll(candidates).stream()
+        .collect(Collectors.toMap(Key::keyVersionIdentifier, Function.identity()));
+    final Instant now = clock.instant();
+    long pruned = 0;
+    for (int i = 0; i < versions.size(); i++) {
+      final Key key = loaded.get(versions.get(i));
+      if (key == null || key.active()) {
+        continue;
+      }
+      final boolean trimmed = kept > 0 && i >= kept;
+      if (trimmed || policy.expired(key, now)) {
+        rateLimiter.acquire();
+        if (keyDao.delete(key.keyVersionIdentifier())) {
+          if (trimmed) {
+            counterTrimmed.increment();
+          } else {
+            counterExpired.increment();
+          }
+          pruned++;
+        }
+      }
+    }
+    return pruned;
+  }
+
+}
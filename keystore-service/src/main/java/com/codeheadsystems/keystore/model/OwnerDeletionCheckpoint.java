@@ -0,0 +1,133 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.codeheadsystems.keystore.model;
+
+import com.codeheadsystems.keystore.server.dao.model.Token;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import java.util.Optional;
+import org.immutables.value.Value;
+
+/**
+ * The persisted state of an owner deletion job. Written after every page of keys so the job can resume.
+ * WARNING: The token may contain data results, treat the checkpoint as you would table data.
+ */
+@Value.Immutable
+@JsonSerialize(as = ImmutableOwnerDeletionCheckpoint.class)
+@JsonDeserialize(builder = ImmutableOwnerDeletionCheckpoint.Builder.class)
+@JsonIgnoreProperties(ignoreUnknown = true)
+public interface OwnerDeletionCheckpoint {
+
+  /**
+   * Owner string.
+   *
+   * @return the string
+   */
+  @JsonProperty("owner")
+  String owner();
+
+  /**
+   * State of the job.
+   *
+   * @return the state
+   */
+  @JsonProperty("state")
+  State state();
+
+  /**
+   * The token for the next page of keys to delete. Empty means start from the beginning.
+   *
+   * @return the optional token.
+   */
+  @JsonProperty("nextToken")
+  Optional<Token> nextToken();
+
+  /**
+   * Keys deleted long.
+   *
+   * @return the long
+   */
+  @JsonProperty("keysDeleted")
+  long keysDeleted();
+
+  /**
+   * Versions deleted long.
+   *
+   * @return the long
+   */
+  @JsonProperty("versionsDeleted")
+  long versionsDeleted();
+
+  /**
+   * Created, epoch millis.
+   *
+   * @return the long
+   */
+  @JsonProperty("created")
+  long created();
+
+  /**
+   * Updated, epoch millis.
+   *
+   * @return the long
+   */
+  @JsonProperty("updated")
+  long updated();
+
+  /**
+   * Error message if failed.
+   *
+   * @return the optional
+   */
+  @JsonProperty("error")
+  Optional<String> error();
+
+  /**
+   * Is the job still to be worked on.
+   *
+   * @return the boolean
+   */
+  @JsonIgnore
+  default boolean inProgress() {
+    return state() == State.QUEUED || state() == State.RUNNING;
+  }
+
+  /**
+   * The states of the job.
+   */
+  enum State {
+    /**
+     * Queued state.
+     */
+    QUEUED,
+    /**
+     * Running state.
+     */
+    RUNNING,
+    /**
+     * Complete state.
+     */
+    COMPLETE,
+    /**
+     * Failed state.
+     */
+    FAILED
+  }
+
+}
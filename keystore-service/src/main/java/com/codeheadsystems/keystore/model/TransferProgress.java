@@ -0,0 +1,70 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.codeheadsystems.keystore.model;
+package com.codeheadsystems.keystore.model;
+
+import com.codeheadsystems.keystore.server.dao.model.Token;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import java.util.Optional;
+import org.immutables.value.Value;
+
+/**
+ * Where an export or import stands at its last verified checkpoint. Everything before it is durable, in the
+ * file for an export and in the datastore for an import, so a transfer resumes from here.
+ * WARNING: The token may contain data results, treat the progress as you would table data.
+ */
+@Value.Immutable
+@JsonSerialize(as = ImmutableTransferProgress.class)
+@JsonDeserialize(builder = ImmutableTransferProgress.Builder.class)
+@JsonIgnoreProperties(ignoreUnknown = true)
+public interface TransferProgress {
+
+  /**
+   * The owner and key records up to the checkpoint.
+   *
+   * @return the records.
+   */
+  @JsonProperty("records")
+  long records();
+
+  /**
+   * The offset in the file just after the checkpoint.
+   *
+   * @return the bytes.
+   */
+  @JsonProperty("bytes")
+  long bytes();
+
+  /**
+   * The token for the next page of owners to export. Empty with the first page or when complete.
+   *
+   * @return the optional token.
+   */
+  @JsonProperty("nextToken")
+  Optional<Token> nextToken();
+
+  /**
+   * If the whole transfer is done.
+   *
+   * @return the boolean.
+   */
+  @JsonProperty("complete")
+  boolean complete();
+
+}
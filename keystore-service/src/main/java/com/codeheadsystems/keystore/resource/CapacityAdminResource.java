@@ -0,0 +1,68 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.codeheadsystems.keystore.resource;
+package com.codeheadsystems.keystore.resource;
+
+import com.codeheadsystems.keystore.api.CapacityAdminService;
+import com.codeheadsystems.keystore.api.OwnerCapacity;
+import com.codeheadsystems.keystore.converter.ApiConverter;
+import com.codeheadsystems.keystore.server.dao.ddb.manager.CapacityManager;
+import java.util.List;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.ws.rs.BadRequestException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Top owners by consumed capacity. Only the dynamodb backend reports capacity, so this is only bound there.
+ */
+@Singleton
+public class CapacityAdminResource implements CapacityAdminService, JettyResource {
+
+  /**
+   * The constant MAX_LIMIT.
+   */
+  public static final int MAX_LIMIT = 1000;
+  private static final Logger LOGGER = LoggerFactory.getLogger(CapacityAdminResource.class);
+  private final ApiConverter apiConverter;
+  private final CapacityManager capacityManager;
+
+  /**
+   * Default constructor.
+   *
+   * @param apiConverter    to convert from backend to front-end.
+   * @param capacityManager has the capacity per owner.
+   */
+  @Inject
+  public CapacityAdminResource(final ApiConverter apiConverter,
+                               final CapacityManager capacityManager) {
+    LOGGER.info("CapacityAdminResource({},{})", apiConverter, capacityManager);
+    this.apiConverter = apiConverter;
+    this.capacityManager = capacityManager;
+  }
+
+  @Override
+  public List<OwnerCapacity> topOwners(final int limit) {
+    LOGGER.debug("topOwners({})", limit);
+    if (limit < 1 || limit > MAX_LIMIT) {
+      throw new BadRequestException("limit must be between 1 and " + MAX_LIMIT);
+    }
+    return capacityManager.topOwners(limit).stream()
+        .map(apiConverter::toApiOwnerCapacity)
+        .toList();
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.codeheadsystems.keystore.resource;
+
+import com.codeheadsystems.keystore.api.OwnerAdminService;
+import com.codeheadsystems.keystore.api.OwnerDeletionStatus;
+import com.codeheadsystems.keystore.converter.ApiConverter;
+import com.codeheadsystems.keystore.manager.OwnerDeletionManager;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.ws.rs.NotFoundException;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Admin access to owners. Deletion is queued to a background job, this resource never waits on it.
+ */
+@Singleton
+public class OwnerAdminResource implements OwnerAdminService, JettyResource {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(OwnerAdminResource.class);
+  private final ApiConverter apiConverter;
+  private final OwnerDeletionManager ownerDeletionManager;
+
+  /**
+   * Default constructor.
+   *
+   * @param apiConverter         to convert from backend to front-end.
+   * @param ownerDeletionManager runs the deletion jobs.
+   */
+  @Inject
+  public OwnerAdminResource(final ApiConverter apiConverter,
+                            final OwnerDeletionManager ownerDeletionManager) {
+    LOGGER.info("OwnerAdminResource({},{})", apiConverter, ownerDeletionManager);
+    this.apiConverter = apiConverter;
+    this.ownerDeletionManager = ownerDeletionManager;
+  }
+
+  /**
+   * Queues the owner deletion.
+   *
+   * @param owner to delete.
+   * @return accepted, with the status of the job.
+   */
+  @Override
+  public Response delete(final String owner) {
+    LOGGER.debug("delete({})", owner);
+    if (!ownerDeletionManager.enabled()) {
+      throw new WebApplicationException("Owner deletion is not configured", Response.Status.SERVICE_UNAVAILABLE);
+    }
+    final OwnerDeletionStatus status = apiConverter.toApiOwnerDeletionStatus(ownerDeletionManager.enqueue(owner));
+    return Response.accepted(status).build();
+  }
+
+  /**
+   * Status of the owner deletion.
+   *
+   * @param owner being deleted.
+   * @return the status.
+   */
+  @Override
+  public OwnerDeletionStatus deletionStatus(final String owner) {
+    LOGGER.debug("deletionStatus({})", owner);
+    return ownerDeletionManager.status(owner)
+        .map(apiConverter::toApiOwnerDeletionStatus)
+        .orElseThrow(() -> new NotFoundException("No deletion for owner"));
+  }
+}
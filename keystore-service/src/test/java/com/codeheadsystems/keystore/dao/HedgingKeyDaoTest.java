@@ -0,0 +1,165 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.dao;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import com.codeheadsystems.keystore.config.ImmutableHedgingConfiguration;
+import com.codeheadsystems.keystore.server.dao.KeyDao;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableKey;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableKeyVersionIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.Key;
+import com.codeheadsystems.keystore.server.dao.model.KeyVersionIdentifier;
+import com.codeheadsystems.metrics.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.Date;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class HedgingKeyDaoTest {
+
+  private static final KeyVersionIdentifier IDENTIFIER = ImmutableKeyVersionIdentifier.builder()
+      .owner("fred").key("key").version(1).build();
+  private static final Key KEY = ImmutableKey.builder()
+      .keyVersionIdentifier(IDENTIFIER)
+      .value(new byte[]{1})
+      .aux(new byte[]{3})
+      .type("AES")
+      .active(true)
+      .createDate(new Date(1000L))
+      .build();
+
+  @Mock private KeyDao delegate;
+  @Mock private Metrics metrics;
+  @Mock private ExecutorService mockExecutorService;
+
+  private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+  private ExecutorService executorService;
+
+  @BeforeEach
+  void setup() {
+    when(metrics.registry()).thenReturn(registry);
+    executorService = Executors.newCachedThreadPool();
+  }
+
+  @AfterEach
+  void shutdown() {
+    executorService.shutdownNow();
+  }
+
+  @Test
+  void load_slowReadIsHedged() throws InterruptedException {
+    final CountDownLatch cancelled = new CountDownLatch(1);
+    final AtomicInteger calls = new AtomicInteger();
+    when(delegate.load(IDENTIFIER)).thenAnswer(invocation -> {
+      if (calls.incrementAndGet() == 2) { // the first read of the second load is the slow one.
+        try {
+          Thread.sleep(10_000);
+        } catch (InterruptedException e) {
+          cancelled.countDown();
+        }
+        return Optional.empty();
+      }
+      return Optional.of(KEY);
+    });
+    final HedgingKeyDao dao = dao(100.0, executorService);
+
+    assertThat(dao.load(IDENTIFIER)).contains(KEY); // sets the delay.
+    assertThat(dao.load(IDENTIFIER)).contains(KEY);
+
+    assertThat(cancelled.await(5, TimeUnit.SECONDS)).isTrue();
+    assertThat(counter(HedgingKeyDao.HEDGE_SENT_METRIC)).isEqualTo(1.0);
+    assertThat(counter(HedgingKeyDao.HEDGE_WON_METRIC)).isEqualTo(1.0);
+  }
+
+  @Test
+  void load_outOfBudget() {
+    final AtomicInteger calls = new AtomicInteger();
+    when(delegate.load(IDENTIFIER)).thenAnswer(invocation -> {
+      if (calls.incrementAndGet() == 2) {
+        Thread.sleep(50);
+      }
+      return Optional.of(KEY);
+    });
+    final HedgingKeyDao dao = dao(0.0, executorService);
+
+    assertThat(dao.load(IDENTIFIER)).contains(KEY);
+    assertThat(dao.load(IDENTIFIER)).contains(KEY);
+
+    verify(delegate, times(2)).load(IDENTIFIER);
+    assertThat(registry.counter(HedgingKeyDao.HEDGE_SKIPPED_METRIC, HedgingKeyDao.METHOD, "loadKeyVersion",
+        HedgingKeyDao.REASON, "budget").count()).isEqualTo(1.0);
+  }
+
+  @Test
+  void load_failurePropagates() {
+    when(delegate.load(IDENTIFIER)).thenThrow(new IllegalStateException("down"));
+
+    assertThatExceptionOfType(IllegalStateException.class)
+        .isThrownBy(() -> dao(100.0, executorService).load(IDENTIFIER));
+  }
+
+  @Test
+  void load_busyRunsOnCaller() {
+    when(mockExecutorService.submit(any(Runnable.class))).thenThrow(new RejectedExecutionException("full"));
+    when(delegate.load(IDENTIFIER)).thenReturn(Optional.of(KEY));
+
+    assertThat(dao(100.0, mockExecutorService).load(IDENTIFIER)).contains(KEY);
+
+    assertThat(registry.counter(HedgingKeyDao.HEDGE_SKIPPED_METRIC, HedgingKeyDao.METHOD, "loadKeyVersion",
+        HedgingKeyDao.REASON, "busy").count()).isEqualTo(1.0);
+  }
+
+  @Test
+  void store_isNotHedged() {
+    dao(100.0, mockExecutorService).store(KEY);
+
+    verify(delegate).store(KEY);
+    verifyNoInteractions(mockExecutorService);
+  }
+
+  private HedgingKeyDao dao(final double budgetPercent, final ExecutorService executor) {
+    return new HedgingKeyDao(delegate, ImmutableHedgingConfiguration.builder()
+        .delegateFactory("test")
+        .budgetPercent(budgetPercent)
+        .windowSize(10)
+        .build(), executor, metrics);
+  }
+
+  private double counter(final String name) {
+    return registry.counter(name, HedgingKeyDao.METHOD, "loadKeyVersion").count();
+  }
+
+}
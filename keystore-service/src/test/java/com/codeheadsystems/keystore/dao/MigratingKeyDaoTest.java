@@ -0,0 +1,194 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.dao;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import com.codeheadsystems.keystore.server.dao.KeyDao;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableBatch;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableKey;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableKeyVersionIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableOwnerIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableToken;
+import com.codeheadsystems.keystore.server.dao.model.Key;
+import com.codeheadsystems.keystore.server.dao.model.KeyVersionIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.OwnerIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.Token;
+import com.codeheadsystems.metrics.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class MigratingKeyDaoTest {
+
+  private static final KeyVersionIdentifier IDENTIFIER = ImmutableKeyVersionIdentifier.builder()
+      .owner("fred").key("key").version(1).build();
+  private static final Key KEY = key((byte) 1);
+  private static final OwnerIdentifier FRED = ImmutableOwnerIdentifier.builder().owner("fred").build();
+  private static final Token TOKEN = ImmutableToken.builder().value("next").build();
+
+  @Mock private KeyDao primary;
+  @Mock private KeyDao secondary;
+  @Mock private Metrics metrics;
+
+  private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+  @BeforeEach
+  void setup() {
+    when(metrics.registry()).thenReturn(registry);
+  }
+
+  @Test
+  void store_writesBoth() {
+    dao(0, Runnable::run).store(KEY);
+
+    verify(primary).store(KEY);
+    verify(secondary).store(KEY);
+    assertThat(registry.get(MigratingKeyDao.PREFIX + "store").tag(MigratingKeyDao.BACKEND, MigratingKeyDao.SECONDARY)
+        .timer().count()).isEqualTo(1);
+  }
+
+  @Test
+  void store_secondaryFailureIsCounted() {
+    doThrow(new IllegalStateException("down")).when(secondary).store(KEY);
+
+    dao(0, Runnable::run).store(KEY);
+
+    verify(primary).store(KEY);
+    assertThat(registry.counter(MigratingKeyDao.SECONDARY_WRITE_FAILED_METRIC, MigratingKeyDao.METHOD, "store")
+        .count()).isEqualTo(1.0);
+  }
+
+  @Test
+  void store_primaryFailurePropagates() {
+    doThrow(new IllegalStateException("down")).when(primary).store(KEY);
+
+    assertThatExceptionOfType(IllegalStateException.class)
+        .isThrownBy(() -> dao(0, Runnable::run).store(KEY));
+
+    verifyNoInteractions(secondary);
+  }
+
+  @Test
+  void load_shadowMatch() {
+    when(primary.load(IDENTIFIER)).thenReturn(Optional.of(KEY));
+    when(secondary.load(IDENTIFIER)).thenReturn(Optional.of(key((byte) 1)));
+
+    assertThat(dao(1, Runnable::run).load(IDENTIFIER)).contains(KEY);
+
+    assertThat(shadow("loadKeyVersion", "match")).isEqualTo(1.0);
+  }
+
+  @Test
+  void load_shadowMismatch() {
+    when(primary.load(IDENTIFIER)).thenReturn(Optional.of(KEY));
+    when(secondary.load(IDENTIFIER)).thenReturn(Optional.of(key((byte) 2)));
+
+    assertThat(dao(1, Runnable::run).load(IDENTIFIER)).contains(KEY);
+
+    assertThat(shadow("loadKeyVersion", "mismatch")).isEqualTo(1.0);
+  }
+
+  @Test
+  void load_shadowFailureIsNotThrown() {
+    when(primary.load(IDENTIFIER)).thenReturn(Optional.of(KEY));
+    when(secondary.load(IDENTIFIER)).thenThrow(new IllegalStateException("down"));
+
+    assertThat(dao(1, Runnable::run).load(IDENTIFIER)).contains(KEY);
+
+    assertThat(shadow("loadKeyVersion", "error")).isEqualTo(1.0);
+  }
+
+  @Test
+  void load_shadowDroppedWhenBusy() {
+    when(primary.load(IDENTIFIER)).thenReturn(Optional.of(KEY));
+
+    assertThat(dao(1, runnable -> {
+      throw new RejectedExecutionException("full");
+    }).load(IDENTIFIER)).contains(KEY);
+
+    verifyNoInteractions(secondary);
+    assertThat(shadow("loadKeyVersion", "dropped")).isEqualTo(1.0);
+  }
+
+  @Test
+  void load_notSampled() {
+    when(primary.load(IDENTIFIER)).thenReturn(Optional.of(KEY));
+
+    assertThat(dao(0, Runnable::run).load(IDENTIFIER)).contains(KEY);
+
+    verifyNoInteractions(secondary);
+  }
+
+  @Test
+  void listOwners_comparesOnlyTheList() {
+    when(primary.listOwners(null)).thenReturn(ImmutableBatch.<OwnerIdentifier>builder()
+        .list(List.of(FRED)).nextToken(TOKEN).build());
+    when(secondary.listOwners(null)).thenReturn(ImmutableBatch.<OwnerIdentifier>builder()
+        .list(List.of(FRED)).build());
+
+    assertThat(dao(1, Runnable::run).listOwners(null).nextToken()).contains(TOKEN);
+
+    assertThat(shadow("listOwners", "match")).isEqualTo(1.0);
+  }
+
+  @Test
+  void listOwners_laterPagesAreNotShadowed() {
+    when(primary.listOwners(TOKEN)).thenReturn(ImmutableBatch.<OwnerIdentifier>builder()
+        .list(List.of(FRED)).build());
+
+    dao(1, Runnable::run).listOwners(TOKEN);
+
+    verify(secondary, never()).listOwners(TOKEN);
+  }
+
+  private MigratingKeyDao dao(final double rate, final Executor executor) {
+    return new MigratingKeyDao(primary, secondary, rate, executor, metrics);
+  }
+
+  private double shadow(final String method, final String result) {
+    return registry.counter(MigratingKeyDao.SHADOW_METRIC, MigratingKeyDao.METHOD, method,
+        MigratingKeyDao.RESULT, result).count();
+  }
+
+  private static Key key(final byte value) {
+    return ImmutableKey.builder()
+        .keyVersionIdentifier(IDENTIFIER)
+        .value(new byte[]{value})
+        .aux(new byte[]{3})
+        .type("AES")
+        .active(true)
+        .createDate(new Date(1000L))
+        .build();
+  }
+
+}
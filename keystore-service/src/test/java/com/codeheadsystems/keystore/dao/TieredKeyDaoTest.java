@@ -0,0 +1,285 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.codeheadsystems.keystore.dao;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import com.codeheadsystems.keystore.server.dao.KeyDao;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableKey;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableKeyIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableKeyVersionIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableRetentionPolicies;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableRetentionPolicy;
+import com.codeheadsystems.keystore.server.dao.model.Key;
+import com.codeheadsystems.keystore.server.dao.model.KeyIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.KeyVersionIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.RetentionPolicies;
+import com.codeheadsystems.metrics.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class TieredKeyDaoTest {
+
+  private static final KeyVersionIdentifier IDENTIFIER = ImmutableKeyVersionIdentifier.builder()
+      .owner("fred").key("key").version(1).build();
+  private static final KeyVersionIdentifier OTHER = ImmutableKeyVersionIdentifier.builder()
+      .owner("fred").key("key").version(2).build();
+  private static final KeyIdentifier KEY_IDENTIFIER = ImmutableKeyIdentifier.builder()
+      .owner("fred").key("key").build();
+  private static final Key KEY = key(IDENTIFIER);
+  private static final Key OTHER_KEY = key(OTHER);
+  private static final Instant NOW = Instant.ofEpochSecond(1000);
+  private static final Duration ACTIVE_TTL = Duration.ofSeconds(5);
+  private static final Duration VERSION_TTL = Duration.ofSeconds(60);
+
+  @Mock private KeyDao remote;
+  @Mock private KeyDao local;
+  @Mock private Metrics metrics;
+  @Mock private Clock clock;
+
+  private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+  private TieredKeyDao dao;
+
+  @BeforeEach
+  void setup() {
+    when(metrics.registry()).thenReturn(registry);
+    dao = new TieredKeyDao(remote, local, ACTIVE_TTL, VERSION_TTL, ImmutableRetentionPolicies.builder().build(),
+        clock, metrics);
+  }
+
+  @Test
+  void load_localHit() {
+    when(clock.instant()).thenReturn(NOW);
+    when(local.load(IDENTIFIER)).thenReturn(Optional.of(KEY));
+
+    assertThat(dao.load(IDENTIFIER)).contains(KEY);
+
+    verifyNoInteractions(remote);
+    assertThat(lookup(TieredKeyDao.LOCAL, "hit")).isEqualTo(1.0);
+  }
+
+  @Test
+  void load_missReadsThroughAndFills() {
+    when(clock.instant()).thenReturn(NOW);
+    when(local.load(IDENTIFIER)).thenReturn(Optional.empty());
+    when(remote.load(IDENTIFIER)).thenReturn(Optional.of(KEY));
+
+    assertThat(dao.load(IDENTIFIER)).contains(KEY);
+
+    verify(local).store(KEY);
+    assertThat(lookup(TieredKeyDao.LOCAL, "miss")).isEqualTo(1.0);
+    assertThat(lookup(TieredKeyDao.REMOTE, "hit")).isEqualTo(1.0);
+  }
+
+  @Test
+  void load_localFailureFallsBackToRemote() {
+    when(clock.instant()).thenReturn(NOW);
+    when(local.load(IDENTIFIER)).thenThrow(new IllegalStateException("disk"));
+    when(remote.load(IDENTIFIER)).thenReturn(Optional.of(KEY));
+
+    assertThat(dao.load(IDENTIFIER)).contains(KEY);
+
+    assertThat(registry.counter(TieredKeyDao.LOCAL_ERROR_METRIC, TieredKeyDao.METHOD, "loadKeyVersion").count())
+        .isEqualTo(1.0);
+  }
+
+  @Test
+  void loadAll_batchesOnlyTheMisses() {
+    when(clock.instant()).thenReturn(NOW);
+    when(local.load(IDENTIFIER)).thenReturn(Optional.of(KEY));
+    when(local.load(OTHER)).thenReturn(Optional.empty());
+    when(remote.loadAll(List.of(OTHER))).thenReturn(List.of(OTHER_KEY));
+
+    assertThat(dao.loadAll(List.of(IDENTIFIER, OTHER))).containsExactly(KEY, OTHER_KEY);
+
+    verify(local).store(OTHER_KEY);
+  }
+
+  @Test
+  void loadActive_servedWithinTtl() {
+    when(clock.instant()).thenReturn(NOW);
+    when(remote.load(KEY_IDENTIFIER)).thenReturn(Optional.of(KEY));
+    when(local.load(IDENTIFIER)).thenReturn(Optional.of(KEY));
+
+    assertThat(dao.load(KEY_IDENTIFIER)).contains(KEY); // remote, remembered until NOW + 5s.
+    when(clock.instant()).thenReturn(NOW.plusSeconds(1));
+    assertThat(dao.load(KEY_IDENTIFIER)).contains(KEY); // within the ttl, local.
+    when(clock.instant()).thenReturn(NOW.plusSeconds(10));
+    assertThat(dao.load(KEY_IDENTIFIER)).contains(KEY); // expired, remote again.
+
+    verify(remote, times(2)).load(KEY_IDENTIFIER);
+    assertThat(lookup(TieredKeyDao.ACTIVE, "hit")).isEqualTo(1.0);
+    assertThat(lookup(TieredKeyDao.ACTIVE, "miss")).isEqualTo(2.0);
+  }
+
+  @Test
+  void load_localCopyPastVersionTtlIsRevalidated() {
+    when(clock.instant()).thenReturn(NOW);
+    when(local.load(IDENTIFIER)).thenReturn(Optional.of(KEY));
+    when(remote.load(IDENTIFIER)).thenReturn(Optional.of(KEY));
+
+    assertThat(dao.load(IDENTIFIER)).contains(KEY); // first seen, trusted until NOW + 60s.
+    when(clock.instant()).thenReturn(NOW.plusSeconds(61));
+    assertThat(dao.load(IDENTIFIER)).contains(KEY); // past the ttl, the remote still has it.
+    assertThat(dao.load(IDENTIFIER)).contains(KEY); // trusted again.
+
+    verify(remote).load(IDENTIFIER);
+    verify(local).store(KEY);
+    assertThat(registry.counter(TieredKeyDao.REVALIDATE_METRIC).count()).isEqualTo(1.0);
+    assertThat(lookup(TieredKeyDao.LOCAL, "hit")).isEqualTo(2.0);
+  }
+
+  @Test
+  void load_localCopyDeletedOnTheRemoteIsDropped() {
+    when(clock.instant()).thenReturn(NOW);
+    when(local.load(IDENTIFIER)).thenReturn(Optional.of(KEY));
+    when(remote.load(IDENTIFIER)).thenReturn(Optional.empty());
+
+    assertThat(dao.load(IDENTIFIER)).contains(KEY);
+    when(clock.instant()).thenReturn(NOW.plusSeconds(61));
+    assertThat(dao.load(IDENTIFIER)).isEmpty();
+
+    verify(local).delete(IDENTIFIER);
+    assertThat(registry.counter(TieredKeyDao.DELETED_METRIC).count()).isEqualTo(1.0);
+  }
+
+  @Test
+  void loadAll_localCopyDeletedOnTheRemoteIsDropped() {
+    when(clock.instant()).thenReturn(NOW);
+    when(local.load(IDENTIFIER)).thenReturn(Optional.of(KEY));
+    when(remote.loadAll(List.of(IDENTIFIER))).thenReturn(List.of());
+
+    assertThat(dao.loadAll(List.of(IDENTIFIER))).containsExactly(KEY);
+    when(clock.instant()).thenReturn(NOW.plusSeconds(61));
+    assertThat(dao.loadAll(List.of(IDENTIFIER))).isEmpty();
+
+    verify(local).delete(IDENTIFIER);
+  }
+
+  @Test
+  void load_missNotInTheLocalTierIsNotDropped() {
+    when(local.load(IDENTIFIER)).thenReturn(Optional.empty());
+    when(remote.load(IDENTIFIER)).thenReturn(Optional.empty());
+
+    assertThat(dao.load(IDENTIFIER)).isEmpty();
+
+    verify(local, never()).delete(IDENTIFIER);
+  }
+
+  @Test
+  void store_invalidatesActive() {
+    when(clock.instant()).thenReturn(NOW);
+    when(remote.load(KEY_IDENTIFIER)).thenReturn(Optional.of(KEY), Optional.of(OTHER_KEY));
+
+    assertThat(dao.load(KEY_IDENTIFIER)).contains(KEY);
+    dao.store(OTHER_KEY);
+    assertThat(dao.load(KEY_IDENTIFIER)).contains(OTHER_KEY);
+
+    verify(remote).store(OTHER_KEY);
+    verify(local, times(2)).store(OTHER_KEY); // the store, then the fill of the lookup.
+    assertThat(lookup(TieredKeyDao.ACTIVE, "miss")).isEqualTo(2.0);
+  }
+
+  @Test
+  void store_localFailureIsCounted() {
+    doThrow(new IllegalStateException("disk")).when(local).store(KEY);
+
+    dao.store(KEY);
+
+    verify(remote).store(KEY);
+    assertThat(registry.counter(TieredKeyDao.LOCAL_ERROR_METRIC, TieredKeyDao.METHOD, "store").count())
+        .isEqualTo(1.0);
+  }
+
+  @Test
+  void load_expiredLocalCopyIsAMiss() {
+    final Key inactive = ImmutableKey.copyOf(KEY).withActive(false); // created at 1s, expired at 61s.
+    when(clock.instant()).thenReturn(NOW);
+    when(local.load(IDENTIFIER)).thenReturn(Optional.of(inactive));
+    when(remote.load(IDENTIFIER)).thenReturn(Optional.empty());
+
+    assertThat(retentionDao().load(IDENTIFIER)).isEmpty();
+
+    verify(local).delete(IDENTIFIER);
+    assertThat(registry.counter(TieredKeyDao.EXPIRED_METRIC).count()).isEqualTo(1.0);
+    assertThat(lookup(TieredKeyDao.LOCAL, "miss")).isEqualTo(1.0);
+  }
+
+  @Test
+  void load_unexpiredLocalCopyIsServed() {
+    final Key inactive = ImmutableKey.copyOf(KEY).withActive(false);
+    when(clock.instant()).thenReturn(Instant.ofEpochSecond(30));
+    when(local.load(IDENTIFIER)).thenReturn(Optional.of(inactive));
+
+    assertThat(retentionDao().load(IDENTIFIER)).contains(inactive);
+
+    verifyNoInteractions(remote);
+  }
+
+  @Test
+  void loadAll_expiredRemoteCopyIsNotFilled() {
+    final Key inactive = ImmutableKey.copyOf(KEY).withActive(false);
+    when(clock.instant()).thenReturn(NOW);
+    when(local.load(IDENTIFIER)).thenReturn(Optional.empty());
+    when(remote.loadAll(List.of(IDENTIFIER))).thenReturn(List.of(inactive));
+
+    assertThat(retentionDao().loadAll(List.of(IDENTIFIER))).containsExactly(inactive);
+
+    verify(local, never()).store(inactive);
+  }
+
+  private TieredKeyDao retentionDao() {
+    final RetentionPolicies retention = ImmutableRetentionPolicies.builder()
+        .defaultPolicy(ImmutableRetentionPolicy.builder().expireInactiveSeconds(60).build())
+        .build();
+    return new TieredKeyDao(remote, local, ACTIVE_TTL, VERSION_TTL, retention, clock, metrics);
+  }
+
+  private double lookup(final String tier, final String result) {
+    return registry.counter(TieredKeyDao.LOOKUP_METRIC, TieredKeyDao.TIER, tier, TieredKeyDao.RESULT, result)
+        .count();
+  }
+
+  private static Key key(final KeyVersionIdentifier identifier) {
+    return ImmutableKey.builder()
+        .keyVersionIdentifier(identifier)
+        .value(new byte[]{1})
+        .aux(new byte[]{3})
+        .type("AES")
+        .active(true)
+        .createDate(new Date(1000L))
+        .build();
+  }
+
+}
@@ -18,6 +18,8 @@ package com.codeheadsystems.keystore.manager;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -26,10 +28,12 @@ import com.codeheadsystems.keystore.common.helper.DataHelper;
 import com.codeheadsystems.keystore.common.model.Rng;
 import com.codeheadsystems.keystore.exception.AlreadyExistsException;
 import com.codeheadsystems.keystore.server.dao.KeyDao;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableKeyVersionIdentifier;
 import com.codeheadsystems.keystore.server.dao.model.Key;
 import com.codeheadsystems.keystore.server.dao.model.KeyIdentifier;
 import com.codeheadsystems.keystore.server.dao.model.KeyVersionIdentifier;
 import java.util.Optional;
+import java.util.function.Function;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -71,8 +75,10 @@ class KeyStoreAdminManagerTest {
   @Test
   void create_newKey() throws AlreadyExistsException {
     when(keyDAO.load(keyIdentifier)).thenReturn(Optional.empty());
-    when(keyIdentifier.owner()).thenReturn(OWNER);
-    when(keyIdentifier.key()).thenReturn(KEY_ID);
+    when(keyDAO.storeNextVersion(eq(keyIdentifier), any())).thenAnswer(invocation -> {
+      final Function<KeyVersionIdentifier, Key> factory = invocation.getArgument(1);
+      return factory.apply(ImmutableKeyVersionIdentifier.builder().owner(OWNER).key(KEY_ID).version(1L).build());
+    });
 
     final Key result = manager.create(keyIdentifier);
 
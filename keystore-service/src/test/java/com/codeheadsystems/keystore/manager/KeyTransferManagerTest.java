@@ -0,0 +1,179 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.codeheadsystems.keystore.manager;
+package com.codeheadsystems.keystore.manager;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.codeheadsystems.keystore.model.TransferProgress;
+import com.codeheadsystems.keystore.server.dao.KeyDao;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableBatch;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableKey;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableKeyIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableKeyVersionIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableOwnerIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableToken;
+import com.codeheadsystems.keystore.server.dao.model.Key;
+import com.codeheadsystems.keystore.server.dao.model.KeyIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.KeyVersionIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.OwnerIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.Token;
+import com.codeheadsystems.metrics.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class KeyTransferManagerTest {
+
+  private static final OwnerIdentifier FRED = ImmutableOwnerIdentifier.builder().owner("fred").build();
+  private static final OwnerIdentifier WILMA = ImmutableOwnerIdentifier.builder().owner("wilma").build();
+  private static final KeyIdentifier KEY = ImmutableKeyIdentifier.builder().owner("fred").key("key").build();
+  private static final Token TOKEN = ImmutableToken.builder().value("next").build();
+
+  @Mock private KeyDao source;
+  @Mock private KeyDao target;
+  @Mock private Metrics metrics;
+
+  private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+  private final List<TransferProgress> checkpoints = new ArrayList<>();
+  private KeyTransferManager manager;
+
+  @BeforeEach
+  void setup() {
+    when(metrics.registry()).thenReturn(registry);
+    manager = new KeyTransferManager(source, metrics);
+  }
+
+  @Test
+  void exportThenImport() throws IOException {
+    final List<Key> keys = stubSource();
+    final byte[] file = export();
+
+    final TransferProgress progress = manager.importFrom(target, new ByteArrayInputStream(file), 0, 1, 2,
+        checkpoints::add);
+
+    assertThat(progress.complete()).isTrue();
+    assertThat(progress.records()).isEqualTo(4); // two owners and two versions.
+    assertThat(checkpoints).hasSize(2);
+    verify(target).storeOwner("fred");
+    verify(target).storeOwner("wilma");
+    verify(target).storeAll(List.of(keys.get(0)));
+    verify(target).storeAll(List.of(keys.get(1)));
+  }
+
+  @Test
+  void import_skipsCommittedRecords() throws IOException {
+    stubSource();
+    final byte[] file = export();
+
+    manager.importFrom(target, new ByteArrayInputStream(file), 3, 10, 2, checkpoints::add);
+
+    verify(target).storeOwner("wilma");
+    verify(target, never()).storeOwner("fred");
+    verify(target, never()).storeAll(any());
+  }
+
+  @Test
+  void import_corruptFile() throws IOException {
+    stubSource();
+    final byte[] file = export();
+    file[12] ^= 1; // inside the first owner frame.
+
+    assertThatExceptionOfType(IOException.class)
+        .isThrownBy(() -> manager.importFrom(target, new ByteArrayInputStream(file), 0, 10, 2, checkpoints::add))
+        .withMessageContaining("Checksum mismatch");
+    verify(target, never()).storeOwner(any()); // nothing is written before its checksum matches.
+    verify(target, never()).storeAll(any());
+  }
+
+  @Test
+  void export_resumeFromLastCheckpoint() throws IOException {
+    stubSource();
+    final byte[] file = export();
+    final byte[] partial = Arrays.copyOf(file, file.length - 5); // the end frame was cut off.
+
+    final TransferProgress last = manager.lastCheckpoint(new ByteArrayInputStream(partial));
+    assertThat(last.records()).isEqualTo(3);
+    assertThat(last.nextToken()).contains(TOKEN);
+    final ByteArrayOutputStream resumed = new ByteArrayOutputStream();
+    resumed.write(partial, 0, (int) last.bytes());
+    final TransferProgress progress = manager.export(resumed, last, 2, checkpoints::add);
+
+    assertThat(progress.complete()).isTrue();
+    assertThat(resumed.toByteArray()).isEqualTo(file);
+    assertThat(manager.lastCheckpoint(new ByteArrayInputStream(file)).complete()).isTrue();
+  }
+
+  @Test
+  void lastCheckpoint_notAnExport() {
+    assertThatExceptionOfType(IOException.class)
+        .isThrownBy(() -> manager.lastCheckpoint(new ByteArrayInputStream(new byte[]{1, 2, 3, 4, 5})));
+  }
+
+  private byte[] export() throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    manager.export(out, null, 2, checkpoints::add);
+    checkpoints.clear();
+    return out.toByteArray();
+  }
+
+  private List<Key> stubSource() {
+    final List<Key> keys = List.of(key(1), key(2));
+    when(source.listOwners(isNull())).thenReturn(ImmutableBatch.<OwnerIdentifier>builder()
+        .addList(FRED).nextToken(TOKEN).build());
+    when(source.listOwners(eq(TOKEN))).thenReturn(ImmutableBatch.<OwnerIdentifier>builder()
+        .addList(WILMA).build());
+    when(source.listKeys(eq(FRED), isNull())).thenReturn(ImmutableBatch.<KeyIdentifier>builder()
+        .addList(KEY).build());
+    when(source.listKeys(eq(WILMA), isNull())).thenReturn(ImmutableBatch.<KeyIdentifier>builder().build());
+    final List<KeyVersionIdentifier> versions = keys.stream().map(Key::keyVersionIdentifier).toList();
+    when(source.listVersions(eq(KEY), isNull())).thenReturn(ImmutableBatch.<KeyVersionIdentifier>builder()
+        .addAllList(versions).build());
+    when(source.loadAll(versions)).thenReturn(List.of(keys.get(1), keys.get(0))); // any order.
+    return keys;
+  }
+
+  private Key key(final long version) {
+    return ImmutableKey.builder()
+        .keyVersionIdentifier(ImmutableKeyVersionIdentifier.builder()
+            .owner(KEY.owner()).key(KEY.key()).version(version).build())
+        .value(new byte[]{1, 2, (byte) version})
+        .aux(new byte[]{3})
+        .active(version == 2)
+        .type("AES")
+        .createDate(new Date(1000L * version))
+        .build();
+  }
+
+}
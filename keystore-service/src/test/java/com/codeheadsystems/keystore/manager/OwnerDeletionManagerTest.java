@@ -0,0 +1,270 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.codeheadsystems.keystore.manager;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.codeheadsystems.keystore.common.factory.ObjectMapperFactory;
+import com.codeheadsystems.keystore.config.ImmutableOwnerDeletionConfiguration;
+import com.codeheadsystems.keystore.config.KeyStoreConfiguration;
+import com.codeheadsystems.keystore.model.ImmutableOwnerDeletionCheckpoint;
+import com.codeheadsystems.keystore.model.OwnerDeletionCheckpoint;
+import com.codeheadsystems.keystore.server.dao.KeyDao;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableBatch;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableKeyIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableKeyVersionIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableOwnerIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableToken;
+import com.codeheadsystems.keystore.server.dao.model.KeyIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.KeyVersionIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.OwnerIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.Token;
+import com.codeheadsystems.metrics.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class OwnerDeletionManagerTest {
+
+  private static final String OWNER = "fred";
+  private static final OwnerIdentifier OWNER_IDENTIFIER = ImmutableOwnerIdentifier.builder().owner(OWNER).build();
+  private static final Token TOKEN = ImmutableToken.builder().value("next").build();
+  private static final Clock CLOCK = Clock.fixed(Instant.ofEpochMilli(1000), ZoneOffset.UTC);
+
+  @Mock private KeyDao keyDao;
+  @Mock private Metrics metrics;
+  @TempDir Path tempDir;
+
+  private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+  private OwnerDeletionCheckpointManager checkpointManager;
+  private OwnerDeletionManager manager;
+
+  @BeforeEach
+  void setup() {
+    when(metrics.registry()).thenReturn(registry);
+    final KeyStoreConfiguration configuration = new KeyStoreConfiguration();
+    configuration.setOwnerDeletion(ImmutableOwnerDeletionConfiguration.builder()
+        .checkpointDirectory(tempDir.toString())
+        .opsPerSecond(1000)
+        .concurrency(2)
+        .maxPasses(2)
+        .build());
+    checkpointManager = new OwnerDeletionCheckpointManager(configuration, new ObjectMapperFactory());
+    manager = new OwnerDeletionManager(keyDao, checkpointManager, configuration.getOwnerDeletion(), CLOCK, metrics);
+  }
+
+  @AfterEach
+  void shutdown() throws InterruptedException {
+    manager.stop();
+  }
+
+  @Test
+  void enqueue_deletesAllPages() throws InterruptedException {
+    final KeyIdentifier key1 = key("one");
+    final KeyIdentifier key2 = key("two");
+    final KeyIdentifier key3 = key("three");
+    when(keyDao.listKeys(eq(OWNER_IDENTIFIER), isNull()))
+        .thenReturn(ImmutableBatch.<KeyIdentifier>builder().addList(key1, key2).nextToken(TOKEN).build())
+        .thenReturn(ImmutableBatch.<KeyIdentifier>builder().build());
+    when(keyDao.listKeys(OWNER_IDENTIFIER, TOKEN))
+        .thenReturn(ImmutableBatch.<KeyIdentifier>builder().addList(key3).build());
+    when(keyDao.listVersions(any(), isNull())).thenAnswer(invocation -> versions(invocation.getArgument(0)));
+    manager.start();
+
+    final OwnerDeletionCheckpoint queued = manager.enqueue(OWNER);
+    assertThat(queued.state()).isEqualTo(OwnerDeletionCheckpoint.State.QUEUED);
+
+    final OwnerDeletionCheckpoint result = awaitDone();
+    assertThat(result)
+        .hasFieldOrPropertyWithValue("state", OwnerDeletionCheckpoint.State.COMPLETE)
+        .hasFieldOrPropertyWithValue("keysDeleted", 3L)
+        .hasFieldOrPropertyWithValue("versionsDeleted", 6L);
+    verify(keyDao, times(6)).delete(any(KeyVersionIdentifier.class));
+    verify(keyDao).delete(key1);
+    verify(keyDao).delete(key2);
+    verify(keyDao).delete(key3);
+    verify(keyDao).delete(OWNER_IDENTIFIER);
+    assertThat(checkpointManager.load(OWNER)).contains(result);
+    assertThat(registry.counter(OwnerDeletionManager.PREFIX + "versions").count()).isEqualTo(6.0);
+  }
+
+  @Test
+  void start_resumesFromCheckpoint() throws InterruptedException {
+    checkpointManager.save(ImmutableOwnerDeletionCheckpoint.builder()
+        .owner(OWNER)
+        .state(OwnerDeletionCheckpoint.State.RUNNING)
+        .nextToken(TOKEN)
+        .keysDeleted(2)
+        .versionsDeleted(4)
+        .created(1)
+        .updated(2)
+        .build());
+    final KeyIdentifier key3 = key("three");
+    when(keyDao.listKeys(OWNER_IDENTIFIER, TOKEN))
+        .thenReturn(ImmutableBatch.<KeyIdentifier>builder().addList(key3).build());
+    when(keyDao.listKeys(eq(OWNER_IDENTIFIER), isNull())).thenReturn(ImmutableBatch.<KeyIdentifier>builder().build());
+    when(keyDao.listVersions(any(), isNull())).thenAnswer(invocation -> versions(invocation.getArgument(0)));
+
+    manager.start();
+
+    assertThat(awaitDone())
+        .hasFieldOrPropertyWithValue("state", OwnerDeletionCheckpoint.State.COMPLETE)
+        .hasFieldOrPropertyWithValue("keysDeleted", 3L)
+        .hasFieldOrPropertyWithValue("versionsDeleted", 6L);
+  }
+
+  @Test
+  void enqueue_deletesKeysStoredDuringTheJob() throws InterruptedException {
+    final KeyIdentifier key1 = key("one");
+    final KeyIdentifier key2 = key("two");
+    when(keyDao.listKeys(eq(OWNER_IDENTIFIER), isNull()))
+        .thenReturn(ImmutableBatch.<KeyIdentifier>builder().addList(key1).build())
+        .thenReturn(ImmutableBatch.<KeyIdentifier>builder().addList(key2).build())
+        .thenReturn(ImmutableBatch.<KeyIdentifier>builder().addList(key2).build())
+        .thenReturn(ImmutableBatch.<KeyIdentifier>builder().build());
+    when(keyDao.listVersions(any(), isNull())).thenAnswer(invocation -> versions(invocation.getArgument(0)));
+    manager.start();
+
+    manager.enqueue(OWNER);
+
+    assertThat(awaitDone())
+        .hasFieldOrPropertyWithValue("state", OwnerDeletionCheckpoint.State.COMPLETE)
+        .hasFieldOrPropertyWithValue("keysDeleted", 2L)
+        .hasFieldOrPropertyWithValue("versionsDeleted", 4L);
+    verify(keyDao).delete(key1);
+    verify(keyDao).delete(key2);
+    verify(keyDao).delete(OWNER_IDENTIFIER);
+  }
+
+  @Test
+  void enqueue_failsAfterMaxPasses() throws InterruptedException {
+    final AtomicInteger count = new AtomicInteger();
+    when(keyDao.listKeys(eq(OWNER_IDENTIFIER), isNull())).thenAnswer(invocation ->
+        ImmutableBatch.<KeyIdentifier>builder().addList(key("key" + count.incrementAndGet())).build());
+    when(keyDao.listVersions(any(), isNull())).thenAnswer(invocation -> versions(invocation.getArgument(0)));
+    manager.start();
+
+    manager.enqueue(OWNER);
+
+    assertThat(awaitDone())
+        .hasFieldOrPropertyWithValue("state", OwnerDeletionCheckpoint.State.FAILED)
+        .hasFieldOrPropertyWithValue("updated", 1000L)
+        .extracting(OwnerDeletionCheckpoint::error)
+        .isEqualTo(java.util.Optional.of("Keys are still being stored after 2 passes"));
+    verify(keyDao, never()).delete(OWNER_IDENTIFIER);
+  }
+
+  @Test
+  void enqueue_staleListingIsNotCounted() throws InterruptedException {
+    final KeyIdentifier key1 = key("one");
+    when(keyDao.listKeys(eq(OWNER_IDENTIFIER), isNull()))
+        .thenReturn(ImmutableBatch.<KeyIdentifier>builder().addList(key1).build());
+    when(keyDao.listVersions(eq(key1), isNull()))
+        .thenReturn(versions(key1))
+        .thenReturn(ImmutableBatch.<KeyVersionIdentifier>builder().build());
+    manager.start();
+
+    manager.enqueue(OWNER);
+
+    assertThat(awaitDone())
+        .hasFieldOrPropertyWithValue("state", OwnerDeletionCheckpoint.State.COMPLETE)
+        .hasFieldOrPropertyWithValue("keysDeleted", 1L)
+        .hasFieldOrPropertyWithValue("versionsDeleted", 2L);
+    verify(keyDao).delete(OWNER_IDENTIFIER);
+  }
+
+  @Test
+  void enqueue_disabledWithoutCheckpointDirectory() {
+    final KeyStoreConfiguration configuration = new KeyStoreConfiguration();
+    final OwnerDeletionCheckpointManager disabled =
+        new OwnerDeletionCheckpointManager(configuration, new ObjectMapperFactory());
+    final OwnerDeletionManager disabledManager =
+        new OwnerDeletionManager(keyDao, disabled, configuration.getOwnerDeletion(), CLOCK, metrics);
+    disabledManager.start();
+
+    try {
+      assertThat(disabledManager.enabled()).isFalse();
+      assertThat(disabledManager.status(OWNER)).isEmpty();
+      assertThatExceptionOfType(IllegalStateException.class)
+          .isThrownBy(() -> disabledManager.enqueue(OWNER));
+    } finally {
+      disabledManager.stop();
+    }
+  }
+
+  @Test
+  void enqueue_failure() throws InterruptedException {
+    when(keyDao.listKeys(eq(OWNER_IDENTIFIER), isNull())).thenThrow(new IllegalStateException("boom"));
+    manager.start();
+    manager.enqueue(OWNER);
+
+    assertThat(awaitDone())
+        .hasFieldOrPropertyWithValue("state", OwnerDeletionCheckpoint.State.FAILED)
+        .extracting(OwnerDeletionCheckpoint::error)
+        .isEqualTo(java.util.Optional.of("boom"));
+  }
+
+  @Test
+  void status_none() {
+    assertThat(manager.status(OWNER)).isEmpty();
+  }
+
+  private OwnerDeletionCheckpoint awaitDone() throws InterruptedException {
+    final long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (System.nanoTime() < end) {
+      final var status = manager.status(OWNER);
+      if (status.isPresent() && !status.get().inProgress()) {
+        return status.get();
+      }
+      Thread.sleep(10);
+    }
+    throw new AssertionError("Deletion did not finish");
+  }
+
+  private KeyIdentifier key(final String name) {
+    return ImmutableKeyIdentifier.builder().owner(OWNER).key(name).build();
+  }
+
+  private ImmutableBatch<KeyVersionIdentifier> versions(final KeyIdentifier key) {
+    final List<KeyVersionIdentifier> list = List.of(1L, 2L).stream()
+        .map(v -> (KeyVersionIdentifier) ImmutableKeyVersionIdentifier.builder()
+            .owner(key.owner()).key(key.key()).version(v).build())
+        .toList();
+    return ImmutableBatch.<KeyVersionIdentifier>builder().list(list).build();
+  }
+
+}
@@ -0,0 +1,167 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.codeheadsystems.keystore.manager;
+package com.codeheadsystems.keystore.manager;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import com.codeheadsystems.keystore.config.ImmutableRetentionConfiguration;
+import com.codeheadsystems.keystore.config.RetentionConfiguration;
+import com.codeheadsystems.keystore.server.dao.KeyDao;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableBatch;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableKey;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableKeyIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableKeyVersionIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableOwnerIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableRetentionPolicies;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableRetentionPolicy;
+import com.codeheadsystems.keystore.server.dao.model.ImmutableToken;
+import com.codeheadsystems.keystore.server.dao.model.Key;
+import com.codeheadsystems.keystore.server.dao.model.KeyIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.KeyVersionIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.OwnerIdentifier;
+import com.codeheadsystems.keystore.server.dao.model.RetentionPolicy;
+import com.codeheadsystems.keystore.server.dao.model.Token;
+import com.codeheadsystems.metrics.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class RetentionManagerTest {
+
+  private static final String OWNER = "fred";
+  private static final Instant NOW = Instant.parse("2022-07-01T00:00:00Z");
+  private static final OwnerIdentifier OWNER_IDENTIFIER = ImmutableOwnerIdentifier.builder().owner(OWNER).build();
+  private static final KeyIdentifier KEY = ImmutableKeyIdentifier.builder().owner(OWNER).key("key").build();
+  private static final Token TOKEN = ImmutableToken.builder().value("next").build();
+
+  @Mock private KeyDao keyDao;
+  @Mock private Metrics metrics;
+
+  private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+  @BeforeEach
+  void setup() {
+    when(metrics.registry()).thenReturn(registry);
+  }
+
+  @Test
+  void pruneKey_trimsInactiveVersionsPastTheOnesKept() {
+    final RetentionManager manager = manager(ImmutableRetentionPolicy.builder().keepVersions(2).build());
+    final List<Key> keys = List.of(key(1, true, NOW), key(2, false, NOW), key(3, false, NOW), key(4, true, NOW));
+    versions(keys);
+    when(keyDao.loadAll(anyCollection())).thenAnswer(invocation -> load(keys, invocation.getArgument(0)));
+    when(keyDao.delete(any(KeyVersionIdentifier.class))).thenReturn(true);
+
+    assertThat(manager.pruneKey(KEY)).isEqualTo(1);
+
+    verify(keyDao).delete(keys.get(1).keyVersionIdentifier());
+    assertThat(registry.counter(RetentionManager.PREFIX + "versions.trimmed").count()).isEqualTo(1.0);
+  }
+
+  @Test
+  void pruneKey_expiresInactiveVersions() {
+    final RetentionManager manager = manager(ImmutableRetentionPolicy.builder().expireInactiveSeconds(60).build());
+    final List<Key> keys = List.of(key(1, false, NOW.minusSeconds(61)), key(2, true, NOW.minusSeconds(600)),
+        key(3, false, NOW.minusSeconds(59)));
+    versions(keys);
+    when(keyDao.loadAll(anyCollection())).thenAnswer(invocation -> load(keys, invocation.getArgument(0)));
+    when(keyDao.delete(any(KeyVersionIdentifier.class))).thenReturn(true);
+
+    assertThat(manager.pruneKey(KEY)).isEqualTo(1);
+
+    verify(keyDao).delete(keys.get(0).keyVersionIdentifier());
+    assertThat(registry.counter(RetentionManager.PREFIX + "versions.expired").count()).isEqualTo(1.0);
+  }
+
+  @Test
+  void prune_walksEveryPage() {
+    final RetentionManager manager = manager(ImmutableRetentionPolicy.builder().keepVersions(5).build());
+    final KeyIdentifier other = ImmutableKeyIdentifier.builder().owner(OWNER).key("other").build();
+    when(keyDao.listOwners(isNull()))
+        .thenReturn(ImmutableBatch.<OwnerIdentifier>builder().addList(OWNER_IDENTIFIER).nextToken(TOKEN).build());
+    when(keyDao.listOwners(TOKEN)).thenReturn(ImmutableBatch.<OwnerIdentifier>builder().build());
+    when(keyDao.listKeys(eq(OWNER_IDENTIFIER), isNull()))
+        .thenReturn(ImmutableBatch.<KeyIdentifier>builder().addList(KEY).nextToken(TOKEN).build());
+    when(keyDao.listKeys(OWNER_IDENTIFIER, TOKEN))
+        .thenReturn(ImmutableBatch.<KeyIdentifier>builder().addList(other).build());
+    when(keyDao.listVersions(any(), isNull())).thenReturn(ImmutableBatch.<KeyVersionIdentifier>builder().build());
+
+    assertThat(manager.prune()).isZero();
+
+    verify(keyDao).listVersions(KEY, null);
+    verify(keyDao).listVersions(other, null);
+    verify(keyDao, never()).loadAll(anyCollection());
+    assertThat(registry.counter(RetentionManager.PREFIX + "keys").count()).isEqualTo(2.0);
+  }
+
+  @Test
+  void start_nothingToPrune() throws InterruptedException {
+    final RetentionManager manager = manager(ImmutableRetentionPolicy.builder().build());
+    manager.start();
+    manager.stop();
+    verifyNoInteractions(keyDao);
+  }
+
+  private RetentionManager manager(final RetentionPolicy policy) {
+    final RetentionConfiguration configuration = ImmutableRetentionConfiguration.builder()
+        .policies(ImmutableRetentionPolicies.builder().putOwners(OWNER, policy).build())
+        .opsPerSecond(1000)
+        .build();
+    return new RetentionManager(keyDao, configuration, Clock.fixed(NOW, ZoneOffset.UTC), metrics);
+  }
+
+  private void versions(final List<Key> keys) {
+    when(keyDao.listVersions(KEY, null)).thenReturn(ImmutableBatch.<KeyVersionIdentifier>builder()
+        .list(keys.stream().map(Key::keyVersionIdentifier).toList())
+        .build());
+  }
+
+  private List<Key> load(final List<Key> keys, final Collection<KeyVersionIdentifier> identifiers) {
+    return keys.stream().filter(k -> identifiers.contains(k.keyVersionIdentifier())).toList();
+  }
+
+  private Key key(final long version, final boolean active, final Instant updated) {
+    return ImmutableKey.builder()
+        .keyVersionIdentifier(ImmutableKeyVersionIdentifier.builder().owner(OWNER).key("key").version(version).build())
+        .value(new byte[]{1})
+        .aux(new byte[]{2})
+        .active(active)
+        .type("type")
+        .createDate(Date.from(updated.minusSeconds(60)))
+        .updateDate(Date.from(updated))
+        .build();
+  }
+
+}
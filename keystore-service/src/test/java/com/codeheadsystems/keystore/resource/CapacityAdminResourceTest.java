@@ -0,0 +1,63 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.codeheadsystems.keystore.resource;
+package com.codeheadsystems.keystore.resource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.mockito.Mockito.when;
+
+import com.codeheadsystems.keystore.api.OwnerCapacity;
+import com.codeheadsystems.keystore.converter.ApiConverter;
+import com.codeheadsystems.keystore.server.dao.ddb.manager.CapacityManager;
+import java.util.List;
+import javax.ws.rs.BadRequestException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class CapacityAdminResourceTest {
+
+  @Mock private ApiConverter apiConverter;
+  @Mock private CapacityManager capacityManager;
+  @Mock private com.codeheadsystems.keystore.server.dao.ddb.model.OwnerCapacity daoOwnerCapacity;
+  @Mock private OwnerCapacity ownerCapacity;
+
+  private CapacityAdminResource resource;
+
+  @BeforeEach
+  public void setup() {
+    resource = new CapacityAdminResource(apiConverter, capacityManager);
+  }
+
+  @Test
+  public void topOwners() {
+    when(capacityManager.topOwners(5)).thenReturn(List.of(daoOwnerCapacity));
+    when(apiConverter.toApiOwnerCapacity(daoOwnerCapacity)).thenReturn(ownerCapacity);
+
+    assertThat(resource.topOwners(5)).containsExactly(ownerCapacity);
+  }
+
+  @Test
+  public void topOwners_badLimit() {
+    assertThatExceptionOfType(BadRequestException.class)
+        .isThrownBy(() -> resource.topOwners(0));
+  }
+
+}
@@ -0,0 +1,89 @@
+/*
+ *    Copyright (c) 2022 Ned Wolpert <ned.wolpert@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.codeheadsystems.keystore.resource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.mockito.Mockito.when;
+
+import com.codeheadsystems.keystore.api.OwnerDeletionStatus;
+import com.codeheadsystems.keystore.converter.ApiConverter;
+import com.codeheadsystems.keystore.manager.OwnerDeletionManager;
+import com.codeheadsystems.keystore.model.OwnerDeletionCheckpoint;
+import java.util.Optional;
+import javax.ws.rs.NotFoundException;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class OwnerAdminResourceTest {
+
+  public static final String OWNER = "owner";
+  @Mock private ApiConverter apiConverter;
+  @Mock private OwnerDeletionManager ownerDeletionManager;
+  @Mock private OwnerDeletionCheckpoint checkpoint;
+  @Mock private OwnerDeletionStatus status;
+
+  private OwnerAdminResource resource;
+
+  @BeforeEach
+  public void setup() {
+    resource = new OwnerAdminResource(apiConverter, ownerDeletionManager);
+  }
+
+  @Test
+  public void delete() {
+    when(ownerDeletionManager.enabled()).thenReturn(true);
+    when(ownerDeletionManager.enqueue(OWNER)).thenReturn(checkpoint);
+    when(apiConverter.toApiOwnerDeletionStatus(checkpoint)).thenReturn(status);
+
+    final Response response = resource.delete(OWNER);
+
+    assertThat(response.getStatus()).isEqualTo(202);
+    assertThat(response.getEntity()).isEqualTo(status);
+  }
+
+  @Test
+  public void delete_disabled() {
+    when(ownerDeletionManager.enabled()).thenReturn(false);
+
+    assertThatExceptionOfType(WebApplicationException.class)
+        .isThrownBy(() -> resource.delete(OWNER))
+        .withMessage("Owner deletion is not configured");
+  }
+
+  @Test
+  public void deletionStatus_found() {
+    when(ownerDeletionManager.status(OWNER)).thenReturn(Optional.of(checkpoint));
+    when(apiConverter.toApiOwnerDeletionStatus(checkpoint)).thenReturn(status);
+
+    assertThat(resource.deletionStatus(OWNER)).isEqualTo(status);
+  }
+
+  @Test
+  public void deletionStatus_notFound() {
+    when(ownerDeletionManager.status(OWNER)).thenReturn(Optional.empty());
+
+    assertThatExceptionOfType(NotFoundException.class)
+        .isThrownBy(() -> resource.deletionStatus(OWNER));
+  }
+
+}